@@ -1,9 +1,17 @@
 package enigma;
 
-import java.util.Objects;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.WeakHashMap;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters are Unicode code
+ *  points, so an alphabet may hold symbols outside the Basic Multilingual
+ *  Plane; the char-based methods serve alphabets that do not.  Lookups
+ *  by character take constant time: through a flat table covering the
+ *  range of code points when the alphabet fills enough of that range,
+ *  and through a hash map otherwise.
  *  @author Ryan Shih
  */
 class Alphabet {
@@ -14,11 +22,68 @@ class Alphabet {
     char[] _charList;
 
     Alphabet(String chars) {
-        if (Objects.equals(chars, "")) {
+        this(chars.codePoints().toArray());
+    }
+
+    /** A new alphabet whose K-th character is CODEPOINTS[K]. */
+    Alphabet(int[] codePoints) {
+        if (codePoints.length == 0) {
             throw new EnigmaException("Empty alphabet");
         }
-        _chars = chars;
-        _charList = _chars.toCharArray();
+        _codePoints = codePoints.clone();
+        _chars = new String(_codePoints, 0, _codePoints.length);
+        _charList = new char[_codePoints.length];
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (int i = 0; i < _codePoints.length; i += 1) {
+            if (_codePoints[i] > Character.MAX_VALUE) {
+                _charList = null;
+            } else if (_charList != null) {
+                _charList[i] = (char) _codePoints[i];
+            }
+            lo = Math.min(lo, _codePoints[i]);
+            hi = Math.max(hi, _codePoints[i]);
+        }
+        long range = (long) hi - lo + 1;
+        if (range <= DENSE_FACTOR * _codePoints.length + DENSE_SLACK) {
+            _base = lo;
+            _dense = new int[(int) range];
+            Arrays.fill(_dense, -1);
+            for (int i = _codePoints.length - 1; i >= 0; i -= 1) {
+                _dense[_codePoints[i] - lo] = i;
+            }
+            _sparse = null;
+        } else {
+            _base = 0;
+            _dense = null;
+            _sparse = new HashMap<Integer, Integer>();
+            for (int i = 0; i < _codePoints.length; i += 1) {
+                _sparse.putIfAbsent(_codePoints[i], i);
+            }
+        }
+        _members = new long[(Character.MAX_VALUE + 1) / Long.SIZE];
+        for (int cp : _codePoints) {
+            if (cp <= Character.MAX_VALUE) {
+                _members[cp >>> 6] |= 1L << cp;
+            }
+        }
+    }
+
+    /** Return an alphabet containing CHARS, as by new Alphabet(CHARS),
+     *  but the same object as any other made this way from the same
+     *  characters and still in use.  Configurations read more than once,
+     *  and the files written from them, thus share one alphabet and its
+     *  lookup tables. */
+    static Alphabet of(String chars) {
+        synchronized (INTERNED) {
+            WeakReference<Alphabet> ref = INTERNED.get(chars);
+            Alphabet result = ref == null ? null : ref.get();
+            if (result == null) {
+                result = new Alphabet(chars);
+                INTERNED.put(result._chars,
+                             new WeakReference<Alphabet>(result));
+            }
+            return result;
+        }
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -28,36 +93,118 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _chars.length();
+        return _codePoints.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        for (char c : _charList) {
-            if (c == ch) {
-                return true;
-            }
-        }
-        return false;
+        return indexOf(ch) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
-     *  0 <= INDEX < size(). */
+     *  0 <= INDEX < size().  Throws an EnigmaException if this alphabet
+     *  has symbols outside the Basic Multilingual Plane, which no char
+     *  can hold; use toCodePoint for those. */
     char toChar(int index) {
+        if (_charList == null) {
+            throw new EnigmaException(
+                "alphabet has symbols that are not single chars");
+        }
         return (char) (_charList[index]);
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        int ind = 0;
-        for (int i = 0; i < size(); i += 1) {
-            if (toChar(i) == ch) {
-                ind = i;
-                break;
+        return Math.max(indexOf(ch), 0);
+    }
+
+    /** Returns code point number INDEX in the alphabet, where
+     *  0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return _codePoints[index];
+    }
+
+    /** Returns the index of code point CP, or -1 if CP is not in the
+     *  alphabet. */
+    int indexOf(int cp) {
+        if (_dense != null) {
+            int k = cp - _base;
+            return k >= 0 && k < _dense.length ? _dense[k] : -1;
+        }
+        Integer k = _sparse.get(cp);
+        return k == null ? -1 : k;
+    }
+
+    /** Check that all LEN characters of BUF starting at OFF are in this
+     *  alphabet, reporting every one that is not in a single exception.
+     *  The check is one branch-free pass over a bitmap of my characters,
+     *  so it costs far less than a lookup per character. */
+    void checkAll(char[] buf, int off, int len) {
+        long[] members = _members;
+        long missing = 0;
+        for (int i = off; i < off + len; i += 1) {
+            char c = buf[i];
+            missing |= ~(members[c >>> 6] >>> c) & 1;
+        }
+        if (missing == 0) {
+            return;
+        }
+        StringBuilder where = new StringBuilder();
+        int count = 0;
+        for (int i = off; i < off + len; i += 1) {
+            char c = buf[i];
+            if (((members[c >>> 6] >>> c) & 1) == 0) {
+                if (count < MAX_REPORTED) {
+                    where.append(count == 0 ? "" : ", ")
+                        .append(String.format("'%c' at %d", c, i));
+                } else if (count == MAX_REPORTED) {
+                    where.append(", ...");
+                }
+                count += 1;
             }
         }
-        return ind;
+        throw EnigmaException.error("%d character%s not in alphabet: %s",
+                                    count, count == 1 ? "" : "s", where);
+    }
+
+    /** Returns true iff lookups use a flat table rather than a map. */
+    boolean dense() {
+        return _dense != null;
     }
 
+    /** Returns my characters, in order, as a String. */
+    @Override
+    public String toString() {
+        return _chars;
+    }
+
+    /** A flat lookup table is used when the span of code points is at
+     *  most DENSE_FACTOR times the size plus DENSE_SLACK. */
+    private static final int DENSE_FACTOR = 4, DENSE_SLACK = 1024;
+
+    /** Alphabets made by of, by their characters.  Each key is the
+     *  _chars of its alphabet, so an entry lasts as long as the alphabet
+     *  is in use. */
+    private static final WeakHashMap<String, WeakReference<Alphabet>>
+        INTERNED = new WeakHashMap<String, WeakReference<Alphabet>>();
+
+    /** Most bad characters listed by checkAll. */
+    private static final int MAX_REPORTED = 10;
+
+    /** My code points, by index. */
+    private final int[] _codePoints;
+
+    /** Smallest code point, when _dense is used. */
+    private final int _base;
+
+    /** Index of each code point CP at _dense[CP - _base], or -1, or null
+     *  if _sparse is used instead. */
+    private final int[] _dense;
+
+    /** Index of each code point, when _dense is null. */
+    private final HashMap<Integer, Integer> _sparse;
+
+    /** Bit C of this set is on iff char C is in the alphabet. */
+    private final long[] _members;
 }
@@ -0,0 +1,740 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import static enigma.EnigmaException.*;
+
+/** Timing runs for the faster conversion paths.  Each benchmark is
+ *  named by the first command-line argument and prints its results to
+ *  the standard output.  These are plain wall-clock measurements with a
+ *  warm-up pass, and are meant for comparing paths on one machine, not
+ *  as absolute figures.
+ *  @author Ryan Shih
+ */
+public final class Benchmark {
+
+    /** Run the benchmark named ARGS[0] (default "trial"). */
+    public static void main(String... args) {
+        String name = args.length > 0 ? args[0] : "trial";
+        switch (name) {
+            case "trial":
+                trial();
+                break;
+            case "alphabets":
+                alphabets();
+                break;
+            case "flow":
+                flow();
+                break;
+            case "checked":
+                checked();
+                break;
+            case "variants":
+                variants();
+                break;
+            case "stats":
+                stats();
+                break;
+            case "ngrams":
+                ngrams();
+                break;
+            case "memory":
+                memory();
+                break;
+            case "normalize":
+                normalize();
+                break;
+            case "engine":
+                engine();
+                break;
+            case "mapped":
+                mapped();
+                break;
+            default:
+                System.err.printf("Error: no benchmark %s%n", name);
+                System.exit(1);
+        }
+    }
+
+    /** Results stored here are kept from being optimized away. */
+    static volatile int sink;
+
+    /** Return the number of seconds since START (from System.nanoTime). */
+    static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /** Compare keys per second of TrialDecryptor against resetting and
+     *  running a Machine for each key. */
+    static void trial() {
+        final int keys = 200_000, length = 40;
+        MachineSpec spec = Samples.navySpec();
+        Machine m = spec.newMachine();
+        m.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        Random rand = new Random(42);
+        int[] cipher = new int[length];
+        for (int j = 0; j < length; j += 1) {
+            cipher[j] = rand.nextInt(26);
+        }
+        int[][] positions = new int[keys][4];
+        Permutation[] plugs = new Permutation[keys];
+        Permutation plug = new Permutation("(AQ)(BZ)(CK)", spec.alphabet());
+        for (int k = 0; k < keys; k += 1) {
+            for (int s = 0; s < 4; s += 1) {
+                positions[k][s] = rand.nextInt(26);
+            }
+            plugs[k] = plug;
+        }
+        int[][] out = new int[keys][length];
+        TrialDecryptor trial = new TrialDecryptor(m);
+
+        for (int pass = 0; pass < 2; pass += 1) {
+            long start = System.nanoTime();
+            trial.decrypt(cipher, positions, plugs, out);
+            double decrypted = seconds(start);
+
+            start = System.nanoTime();
+            for (int k = 0; k < keys; k += 1) {
+                for (int s = 1; s < 5; s += 1) {
+                    m.setRotor(s, positions[k][s - 1]);
+                }
+                m.setPlugboard(plugs[k]);
+                for (int j = 0; j < length; j += 1) {
+                    if (m.convert(cipher[j]) != out[k][j]) {
+                        throw error("decryptor and machine results differ");
+                    }
+                }
+            }
+            double machine = seconds(start);
+            if (pass == 1) {
+                System.out.printf("trial (%d-char message)%n", length);
+                System.out.printf("  decryptor: %,.0f keys/s%n", keys / decrypted);
+                System.out.printf("  machine:   %,.0f keys/s%n", keys / machine);
+            }
+        }
+    }
+
+    /** Compare convertChecked, which validates a buffer once, against
+     *  the in-place convert, which checks each character. */
+    static void checked() {
+        final int size = 1 << 20;
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        Random rand = new Random(42);
+        char[] text = new char[size];
+        for (int i = 0; i < size; i += 1) {
+            text[i] = (char) ('A' + rand.nextInt(26));
+        }
+        for (int pass = 0; pass < 10; pass += 1) {
+            Machine m = spec.newMachine();
+            Main.setUp(m, setting);
+            char[] buf = text.clone();
+            long start = System.nanoTime();
+            m.convert(buf, 0, size);
+            double each = seconds(start);
+
+            m = spec.newMachine();
+            Main.setUp(m, setting);
+            char[] buf2 = text.clone();
+            start = System.nanoTime();
+            m.convertChecked(buf2, 0, size);
+            double once = seconds(start);
+            if (!Arrays.equals(buf, buf2)) {
+                throw error("checked and per-character results differ");
+            }
+            if (pass == 9) {
+                System.out.printf("checked (%,d chars)%n", size);
+                System.out.printf("  per character: %,.0f chars/s%n",
+                                  size / each);
+                System.out.printf("  validate once: %,.0f chars/s%n",
+                                  size / once);
+            }
+        }
+    }
+
+    /** Compare bulk conversion alone against conversion followed by
+     *  gathering TextStats over the result while it is still in the
+     *  cache, as Main -s does.  Reports the best of ten passes. */
+    static void stats() {
+        final int size = 1 << 20;
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        Random rand = new Random(42);
+        char[] text = new char[size];
+        for (int i = 0; i < size; i += 1) {
+            text[i] = (char) ('A' + rand.nextInt(26));
+        }
+        final int line = 80;
+        double plain = Double.MAX_VALUE, counted = Double.MAX_VALUE;
+        TextStats stats = new TextStats(spec.alphabet());
+        for (int pass = 0; pass < 10; pass += 1) {
+            Machine m = spec.newMachine();
+            Main.setUp(m, setting);
+            char[] buf = text.clone();
+            long start = System.nanoTime();
+            for (int i = 0; i < size; i += line) {
+                m.convert(buf, i, Math.min(line, size - i));
+            }
+            plain = Math.min(plain, seconds(start));
+
+            m = spec.newMachine();
+            Main.setUp(m, setting);
+            buf = text.clone();
+            stats = new TextStats(spec.alphabet());
+            start = System.nanoTime();
+            for (int i = 0; i < size; i += line) {
+                int n = Math.min(line, size - i);
+                m.convert(buf, i, n);
+                stats.add(buf, i, n);
+            }
+            counted = Math.min(counted, seconds(start));
+        }
+        System.out.printf("stats (%,d chars in lines of %d)%n", size, line);
+        System.out.printf("  convert:         %,.0f chars/s%n", size / plain);
+        System.out.printf("  convert + stats: %,.0f chars/s%n",
+                          size / counted);
+        System.out.printf("  ioc %.5f%n", stats.ioc());
+    }
+
+    /** Compare GroupFormatter.convertLine on lines of capitals and
+     *  blanks, first removing blanks only and then through a strict
+     *  Normalizer, and on the same lines in mixed case with punctuation
+     *  through an upper,drop Normalizer.  Reports the best of ten passes
+     *  in input characters per second. */
+    static void normalize() {
+        final int lines = 1 << 14, width = 80;
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        Random rand = new Random(42);
+        String[] clean = new String[lines], mixed = new String[lines];
+        for (int i = 0; i < lines; i += 1) {
+            StringBuilder c = new StringBuilder(), x = new StringBuilder();
+            for (int j = 0; j < width; j += 1) {
+                int r = rand.nextInt(32);
+                char ch = r < 26 ? (char) ('A' + r) : ' ';
+                c.append(ch);
+                x.append(r >= 26 ? " ,.;'-".charAt(r - 26)
+                         : rand.nextBoolean() ? Character.toLowerCase(ch)
+                         : ch);
+            }
+            clean[i] = c.toString();
+            mixed[i] = x.toString();
+        }
+        Normalizer strict = new Normalizer(spec.alphabet());
+        Normalizer folding =
+            new Normalizer(spec.alphabet(), "upper,drop", null);
+        String[][] inputs = { clean, clean, mixed };
+        Normalizer[] norms = { null, strict, folding };
+        String[] labels = { "blanks only", "strict", "upper,drop" };
+        double[] best = new double[norms.length];
+        Arrays.fill(best, Double.MAX_VALUE);
+        for (int pass = 0; pass < 10; pass += 1) {
+            for (int k = 0; k < norms.length; k += 1) {
+                Machine m = spec.newMachine();
+                Main.setUp(m, setting);
+                GroupFormatter f = new GroupFormatter(Writer.nullWriter());
+                f.setNormalizer(norms[k]);
+                long start = System.nanoTime();
+                for (String line : inputs[k]) {
+                    f.convertLine(m, line);
+                }
+                best[k] = Math.min(best[k], seconds(start));
+            }
+        }
+        System.out.printf("normalize (%,d lines of %d chars)%n", lines,
+                          width);
+        for (int k = 0; k < norms.length; k += 1) {
+            System.out.printf("  %-12s %,.0f chars/s%n", labels[k],
+                              (double) lines * width / best[k]);
+        }
+    }
+
+    /** Report the heap taken by each of many M4 machines, as a server
+     *  holding one machine per session would: first with every machine
+     *  set up from a key of its own, then with the machines sharing a
+     *  few keys, as sessions on the same day's key sheet do.  Each
+     *  machine has converted a short message, so that its engine is
+     *  built.  The figure is the growth of the heap after collection,
+     *  divided by the number of machines. */
+    static void memory() {
+        final int machines = 100000;
+        MachineSpec spec = Samples.navySpec();
+        List<String> keys;
+        try {
+            Path file = Files.createTempFile("keys", ".idx");
+            Files.delete(file);
+            try (KeyIndex index = new KeyIndex(file)) {
+                keys = new KeySheet(spec, 10, 42).draw(machines, index);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException excp) {
+            throw error("could not make a key index");
+        }
+        System.out.printf("memory (%,d M4 machines)%n", machines);
+        for (int shared : new int[] {machines, 100}) {
+            long before = heapUsed();
+            Machine[] held = new Machine[machines];
+            for (int i = 0; i < machines; i += 1) {
+                Machine m = spec.newMachine();
+                Main.setUp(m, keys.get(i % shared));
+                sink += m.convert("HELLOWORLD").charAt(0);
+                held[i] = m;
+            }
+            long used = heapUsed() - before;
+            sink += held.length;
+            System.out.printf("  %,7d distinct keys: %,d bytes per "
+                              + "machine%n", shared, used / machines);
+        }
+    }
+
+    /** Return the bytes of heap in use after collecting garbage. */
+    private static long heapUsed() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i += 1) {
+            System.gc();
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+
+    /** Time quadgram scoring of symbols from a heap table and from a
+     *  mapped one, and of a conversion loop feeding a scoring stream
+     *  against the loop alone.  Reports the best of ten passes. */
+    static void ngrams() {
+        final int size = 1 << 20;
+        Random rand = new Random(42);
+        NgramScorer heap = Samples.randomQuadgrams(rand);
+        NgramScorer mapped;
+        try {
+            java.nio.file.Path file =
+                java.nio.file.Files.createTempFile("quadgrams", ".bin");
+            file.toFile().deleteOnExit();
+            heap.write(file);
+            mapped = NgramScorer.map(file);
+        } catch (java.io.IOException excp) {
+            throw error("could not create table file");
+        }
+        int[] symbols = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            symbols[i] = rand.nextInt(26);
+        }
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        double[] best = {Double.MAX_VALUE, Double.MAX_VALUE,
+                         Double.MAX_VALUE, Double.MAX_VALUE};
+        double check = 0;
+        for (int pass = 0; pass < 10; pass += 1) {
+            long start = System.nanoTime();
+            double a = heap.score(symbols, 0, size);
+            best[0] = Math.min(best[0], seconds(start));
+            start = System.nanoTime();
+            double b = mapped.score(symbols, 0, size);
+            best[1] = Math.min(best[1], seconds(start));
+            if (a != b) {
+                throw error("heap and mapped scores differ");
+            }
+
+            Machine m = spec.newMachine();
+            Main.setUp(m, setting);
+            int last = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < size; i += 1) {
+                last += m.convert(symbols[i]);
+            }
+            best[2] = Math.min(best[2], seconds(start));
+            sink += last;
+
+            m = spec.newMachine();
+            Main.setUp(m, setting);
+            NgramScorer.Stream stream = heap.stream();
+            start = System.nanoTime();
+            for (int i = 0; i < size; i += 1) {
+                stream.accept(m.convert(symbols[i]));
+            }
+            best[3] = Math.min(best[3], seconds(start));
+            check = stream.score();
+        }
+        System.out.printf("ngrams (quadgrams, %,d symbols)%n", size);
+        System.out.printf("  score, heap table:   %,.0f symbols/s%n",
+                          size / best[0]);
+        System.out.printf("  score, mapped table: %,.0f symbols/s%n",
+                          size / best[1]);
+        System.out.printf("  convert:             %,.0f symbols/s%n",
+                          size / best[2]);
+        System.out.printf("  convert + stream:    %,.0f symbols/s%n",
+                          size / best[3]);
+        System.out.printf("  score per symbol %.3f%n", check / size);
+    }
+
+    /** Compare the speed of a 3-rotor machine with an M4 (thin rotor
+     *  beside the reflector) and with an M4 using two-notch rotors and a
+     *  rewired reflector. */
+    static void variants() {
+        final int size = 1 << 20;
+        String config = Samples.NAVY_CONFIG + Samples.VARIANT_ROTORS;
+        MachineSpec m3 = Main.readSpec(new Scanner(
+            config.replace(" 5 3\n", " 4 3\n")));
+        MachineSpec m4 = Main.readSpec(new Scanner(config));
+        String[] names = {"3-rotor", "M4", "M4, 2 notches, rewired"};
+        MachineSpec[] specs = {m3, m4, m4};
+        String[] settings = {
+            "* B III IV I XLE (HQ) (EX)",
+            "* B Beta III IV I AXLE (HQ) (EX)",
+            "* D Beta VI VII VIII AXLE [(AZ)(BY)(CX)(DW)(EV)(FU)(GT)(HS)"
+            + "(IR)(JQ)(KP)(LO)(MN)] (HQ) (EX)"
+        };
+        Random rand = new Random(42);
+        char[] text = new char[size];
+        for (int i = 0; i < size; i += 1) {
+            text[i] = (char) ('A' + rand.nextInt(26));
+        }
+        double[] rates = new double[names.length];
+        for (int pass = 0; pass < 10; pass += 1) {
+            for (int v = 0; v < names.length; v += 1) {
+                Machine m = specs[v].newMachine();
+                Main.setUp(m, settings[v]);
+                char[] buf = text.clone();
+                long start = System.nanoTime();
+                m.convert(buf, 0, size);
+                rates[v] = size / seconds(start);
+                sink += buf[size - 1];
+            }
+        }
+        System.out.printf("variants (%,d chars)%n", size);
+        for (int v = 0; v < names.length; v += 1) {
+            System.out.printf("  %-24s %,.0f chars/s%n", names[v] + ":",
+                              rates[v]);
+        }
+    }
+
+    /** Compare bulk conversion by machines whose rotor tables are on the
+     *  heap against machines whose tables are mapped from a
+     *  RotorTableFile, each through the compiled Engine and through the
+     *  per-rotor path.  Text is converted in lines of 80 characters, as
+     *  Main does, and the best of ten passes is reported. */
+    static void mapped() {
+        final int size = 1 << 20, line = 80;
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        MachineSpec heap = Samples.navySpec();
+        MachineSpec mapped;
+        Path file;
+        try {
+            file = Files.createTempFile("enigma", ".tables");
+        } catch (IOException excp) {
+            throw error("could not create a table file");
+        }
+        try {
+            RotorTableFile.write(heap, file);
+            mapped = RotorTableFile.map(file);
+        } finally {
+            try {
+                Files.delete(file);
+            } catch (IOException excp) {
+                /* Ignore: the mapping stays valid. */
+            }
+        }
+        MachineSpec[] specs = {heap, mapped};
+        Random rand = new Random(42);
+        char[] text = new char[size];
+        for (int i = 0; i < size; i += 1) {
+            text[i] = (char) ('A' + rand.nextInt(26));
+        }
+        double[][] best = new double[2][2];
+        for (double[] b : best) {
+            Arrays.fill(b, Double.MAX_VALUE);
+        }
+        char[] expected = null;
+        for (int pass = 0; pass < 10; pass += 1) {
+            for (int v = 0; v < 2; v += 1) {
+                for (int e = 0; e < 2; e += 1) {
+                    Machine m = specs[v].newMachine();
+                    Main.setUp(m, setting);
+                    m.useEngine(e == 0);
+                    char[] buf = text.clone();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < size; i += line) {
+                        m.convert(buf, i, Math.min(line, size - i));
+                    }
+                    best[v][e] = Math.min(best[v][e], seconds(start));
+                    if (expected == null) {
+                        expected = buf;
+                    } else if (!Arrays.equals(expected, buf)) {
+                        throw error("heap and mapped results differ");
+                    }
+                }
+            }
+        }
+        System.out.printf("mapped (%,d chars in lines of %d)%n", size, line);
+        String[] names = {"heap", "mapped"};
+        for (int v = 0; v < 2; v += 1) {
+            System.out.printf("  %-7s engine %,.0f chars/s, per-rotor "
+                              + "%,.0f chars/s%n", names[v] + ":",
+                              size / best[v][0], size / best[v][1]);
+        }
+    }
+
+    /** Compare bulk conversion through the compiled Engine against the
+     *  per-rotor path it replaced (Machine.useEngine(false)), for
+     *  machines with three, four and five moving rotors.  Each path
+     *  converts text in lines of 80 characters, as Main does, and the
+     *  best of ten passes is reported. */
+    static void engine() {
+        final int size = 1 << 20, line = 80;
+        String[] names = {"M4 (3 moving)", "4 moving", "5 moving"};
+        MachineSpec[] specs = {
+            Samples.navySpec(),
+            Main.readSpec(new Scanner(
+                Samples.NAVY_CONFIG.replace(" 5 3\n", " 5 4\n"))),
+            Main.readSpec(new Scanner(
+                Samples.NAVY_CONFIG.replace(" 5 3\n", " 6 5\n"))),
+        };
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX)",
+            "* B IV III II I AXLE (HQ) (EX)",
+            "* B V IV III II I AXLEQ (HQ) (EX)",
+        };
+        Random rand = new Random(42);
+        char[] text = new char[size];
+        for (int i = 0; i < size; i += 1) {
+            text[i] = (char) ('A' + rand.nextInt(26));
+        }
+        double[][] best = new double[names.length][2];
+        for (double[] b : best) {
+            Arrays.fill(b, Double.MAX_VALUE);
+        }
+        for (int pass = 0; pass < 10; pass += 1) {
+            for (int v = 0; v < names.length; v += 1) {
+                char[][] out = new char[2][];
+                for (int e = 0; e < 2; e += 1) {
+                    Machine m = specs[v].newMachine();
+                    Main.setUp(m, settings[v]);
+                    m.useEngine(e == 0);
+                    char[] buf = text.clone();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < size; i += line) {
+                        m.convert(buf, i, Math.min(line, size - i));
+                    }
+                    best[v][e] = Math.min(best[v][e], seconds(start));
+                    out[e] = buf;
+                }
+                if (!Arrays.equals(out[0], out[1])) {
+                    throw error("engine and per-rotor results differ");
+                }
+            }
+        }
+        System.out.printf("engine (%,d chars in lines of %d)%n", size, line);
+        for (int v = 0; v < names.length; v += 1) {
+            System.out.printf("  %-14s engine %,.0f chars/s, per-rotor "
+                              + "%,.0f chars/s%n", names[v] + ":",
+                              size / best[v][0], size / best[v][1]);
+        }
+    }
+
+    /** Time alphabet lookups, rotor compilation and conversion for
+     *  alphabets of 26, 256, 4,096 and 65,536 symbols.  The 4,096-symbol
+     *  alphabet is scattered over all of Unicode, and the 65,536-symbol
+     *  one lies outside the Basic Multilingual Plane. */
+    static void alphabets() {
+        Random rand = new Random(42);
+        for (int n : new int[] {26, 256, 4096, 65536}) {
+            int[] cps = new int[n];
+            Set<Integer> used = new HashSet<Integer>();
+            for (int i = 0; i < n; i += 1) {
+                if (n == 26) {
+                    cps[i] = 'A' + i;
+                } else if (n == 256) {
+                    cps[i] = 0x100 + i;
+                } else if (n == 4096) {
+                    int cp;
+                    do {
+                        cp = 0x100 + rand.nextInt(0x10ff00);
+                    } while ((cp >= 0xd800 && cp < 0xe000) || !used.add(cp));
+                    cps[i] = cp;
+                } else {
+                    cps[i] = 0x10000 + i;
+                }
+            }
+            for (int pass = 0; pass < 2; pass += 1) {
+                long start = System.nanoTime();
+                Alphabet alpha = new Alphabet(cps);
+                double build = seconds(start);
+
+                final int lookups = 2_000_000;
+                int sum = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < lookups; i += 1) {
+                    sum += alpha.indexOf(cps[(int) ((long) i * 7919 % n)]);
+                }
+                double lookup = seconds(start);
+
+                start = System.nanoTime();
+                RotorCatalog catalog = new RotorCatalog(alpha);
+                catalog.add("R", 'R', "", randomPairs(cps, rand));
+                catalog.add("X", 'M', new String(cps, 1, 1),
+                            randomCycle(cps, rand));
+                catalog.add("Y", 'M', new String(cps, 2, 1),
+                            randomCycle(cps, rand));
+                catalog.add("Z", 'M', new String(cps, 3, 1),
+                            randomCycle(cps, rand));
+                Machine m = new Machine(alpha, 4, 3, catalog);
+                m.insertRotors(new String[] {"R", "X", "Y", "Z"});
+                m.setPlugboard(new Permutation("", alpha));
+                double compile = seconds(start);
+
+                final int symbols = 2_000_000;
+                start = System.nanoTime();
+                for (int i = 0; i < symbols; i += 1) {
+                    sum += m.convert(i % n);
+                }
+                double convert = seconds(start);
+                sink = sum;
+                if (pass == 1) {
+                    boolean full = m.rotor(1).permutation()
+                        .settingTable(false) != null;
+                    System.out.printf("%,d symbols (%s index, %s tables)%n",
+                        n, alpha.dense() ? "flat" : "hashed",
+                        full ? "per-setting" : "rotating");
+                    System.out.printf("  alphabet build: %.3f ms%n",
+                                      build * 1e3);
+                    System.out.printf("  lookups:        %,.0f /s%n",
+                                      lookups / lookup);
+                    System.out.printf("  rotor compile:  %.3f ms%n",
+                                      compile * 1e3);
+                    System.out.printf("  conversion:     %,.0f symbols/s%n",
+                                      symbols / convert);
+                }
+            }
+        }
+    }
+
+    /** Return a single cycle through all of CPS in random order. */
+    private static String randomCycle(int[] cps, Random rand) {
+        int[] order = shuffle(cps, rand);
+        return "(" + new String(order, 0, order.length) + ")";
+    }
+
+    /** Return 2-cycles pairing up all of CPS at random. */
+    private static String randomPairs(int[] cps, Random rand) {
+        int[] order = shuffle(cps, rand);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < order.length; i += 2) {
+            result.append('(').appendCodePoint(order[i])
+                .appendCodePoint(order[i + 1]).append(')');
+        }
+        return result.toString();
+    }
+
+    /** Return a copy of CPS in random order. */
+    private static int[] shuffle(int[] cps, Random rand) {
+        int[] result = cps.clone();
+        for (int i = result.length - 1; i > 0; i -= 1) {
+            int j = rand.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Measure the latency a MachineProcessor adds to each chunk: the
+     *  time from submitting a chunk to a publisher until the subscriber
+     *  receives it converted, against converting it directly. */
+    static void flow() {
+        final int chunks = 200_000, size = 64;
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        char[] text = new char[size];
+        Random rand = new Random(1);
+        for (int pass = 0; pass < 2; pass += 1) {
+            long[] sent = new long[chunks], latency = new long[chunks];
+            CountDownLatch finished = new CountDownLatch(1);
+            MachineProcessor<char[]> proc = MachineProcessor.forChars(() -> {
+                Machine m = spec.newMachine();
+                Main.setUp(m, setting);
+                return m;
+            }, 0);
+            proc.subscribe(new Flow.Subscriber<char[]>() {
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(char[] chunk) {
+                    latency[_received] = System.nanoTime() - sent[_received];
+                    _received += 1;
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    finished.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    finished.countDown();
+                }
+
+                private int _received;
+            });
+            long start = System.nanoTime();
+            try (SubmissionPublisher<char[]> pub =
+                     new SubmissionPublisher<char[]>()) {
+                pub.subscribe(proc);
+                for (int i = 0; i < chunks; i += 1) {
+                    char[] chunk = new char[size];
+                    for (int j = 0; j < size; j += 1) {
+                        chunk[j] = (char) ('A' + rand.nextInt(26));
+                    }
+                    sent[i] = System.nanoTime();
+                    pub.submit(chunk);
+                }
+            }
+            try {
+                finished.await();
+            } catch (InterruptedException excp) {
+                return;
+            }
+            double total = seconds(start);
+
+            Machine direct = spec.newMachine();
+            Main.setUp(direct, setting);
+            long[] plain = new long[chunks];
+            for (int i = 0; i < chunks; i += 1) {
+                for (int j = 0; j < size; j += 1) {
+                    text[j] = (char) ('A' + rand.nextInt(26));
+                }
+                long t = System.nanoTime();
+                direct.convert(text, 0, size);
+                plain[i] = System.nanoTime() - t;
+            }
+            if (pass == 1) {
+                Arrays.sort(latency);
+                Arrays.sort(plain);
+                System.out.printf("flow (%,d chunks of %d chars)%n",
+                                  chunks, size);
+                System.out.printf("  processor: %,.0f chunks/s, latency "
+                                  + "p50 %.1f us, p99 %.1f us%n",
+                                  chunks / total, latency[chunks / 2] / 1e3,
+                                  latency[chunks * 99 / 100] / 1e3);
+                System.out.printf("  direct:    convert p50 %.1f us, "
+                                  + "p99 %.1f us%n", plain[chunks / 2] / 1e3,
+                                  plain[chunks * 99 / 100] / 1e3);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package enigma;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Enigma simulator for binary data.  The configuration must have a
+ *  256-character alphabet; byte value K is treated as character K of
+ *  that alphabet.  The input is converted as a single message, with no
+ *  decoding into characters and no division into lines.
+ *  @author Ryan Shih
+ */
+public final class BinaryMain {
+
+    /** Convert bytes as specified by ARGS, where 2 <= ARGS.length <= 4.
+     *  ARGS[0] is the name of a configuration file.  ARGS[1] is a
+     *  setting line, in the form used by Main.  ARGS[2] is optional;
+     *  when present, it names the input file.  Otherwise, input comes
+     *  from the standard input.  ARGS[3] is optional; when present, it
+     *  names the output file.  Otherwise, output goes to the standard
+     *  output.  Exits normally if there are no errors; otherwise with
+     *  code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2 || args.length > 4) {
+                throw error("Only 2, 3, or 4 command-line arguments allowed");
+            }
+            Machine m;
+            try (Scanner config = new Scanner(Paths.get(args[0]))) {
+                m = Main.readSpec(config).newMachine();
+            } catch (IOException excp) {
+                throw error("could not open %s", args[0]);
+            }
+            Main.setUp(m, args[1]);
+            try (ReadableByteChannel in = args.length > 2
+                     ? new FileInputStream(args[2]).getChannel()
+                     : Channels.newChannel(System.in);
+                 WritableByteChannel out = args.length > 3
+                     ? new FileOutputStream(args[3]).getChannel()
+                     : Channels.newChannel(System.out)) {
+                transfer(m, in, out);
+            } catch (IOException excp) {
+                throw error("I/O error: %s", excp.getMessage());
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Size of the transfer buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Convert everything readable from IN with M and write it to OUT,
+     *  through a single direct buffer converted in place.  Returns the
+     *  number of bytes converted. */
+    static long transfer(Machine m, ReadableByteChannel in,
+                         WritableByteChannel out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long total = 0;
+        while (in.read(buf) >= 0 || buf.position() > 0) {
+            buf.flip();
+            int start = buf.position();
+            m.convert(buf, buf);
+            total += buf.position() - start;
+            buf.position(start);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            buf.clear();
+        }
+        return total;
+    }
+
+    /** Not instantiable. */
+    private BinaryMain() {
+    }
+}
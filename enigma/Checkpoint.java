@@ -0,0 +1,227 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static enigma.EnigmaException.*;
+
+/** The exact state of a machine at some point in a stream, together with
+ *  how far the stream had got: the rotor in each slot and its setting,
+ *  the machine's settings[] counters, the wiring of a rewireable
+ *  reflector, the plugboard, the number of
+ *  characters converted, and the input and output positions.  Restoring
+ *  a checkpoint into a machine built from the same configuration lets
+ *  conversion continue exactly where it left off.
+ *  @author Ryan Shih
+ */
+class Checkpoint {
+
+    /** A snapshot of M, taken when INPUTLINES lines of input, ending at
+     *  byte INPUTOFFSET, had been consumed and OUTPUTBYTES bytes of
+     *  output written. */
+    Checkpoint(Machine m, long inputLines, long inputOffset,
+               long outputBytes) {
+        int slots = m.numRotors();
+        _alphabet = m.alphabet().toString();
+        _rotorNames = new String[slots];
+        _positions = new int[slots];
+        boolean inserted = true;
+        for (int i = 0; i < slots; i += 1) {
+            Rotor r = m.rotor(i);
+            if (r == null) {
+                inserted = false;
+                break;
+            }
+            _rotorNames[i] = r.name();
+            _positions[i] = r.setting();
+        }
+        _inserted = inserted;
+        Rotor reflector = inserted ? m.rotor(0) : null;
+        _wiring = reflector instanceof Reflector
+            && ((Reflector) reflector).rewireable()
+            ? reflector.permutation().cycles() : "";
+        _counters = m.settings.clone();
+        _plugboard = m.plugboard() == null ? "" : m.plugboard().cycles();
+        _processed = m.processed();
+        _inputLines = inputLines;
+        _inputOffset = inputOffset;
+        _outputBytes = outputBytes;
+    }
+
+    /** Identifies a checkpoint file. */
+    static final int MAGIC = 0x454e4350;
+
+    /** Format version written and read by this class. */
+    static final int VERSION = 4;
+
+    /** Set M, a machine built from the configuration I was taken from,
+     *  to my state. */
+    void restore(Machine m) {
+        if (!_alphabet.equals(m.alphabet().toString())
+            || _rotorNames.length != m.numRotors()) {
+            throw error("checkpoint does not match configuration");
+        }
+        if (!_inserted) {
+            return;
+        }
+        m.insertRotors(_rotorNames);
+        if (!_wiring.isEmpty()) {
+            m.rewireReflector(new Permutation(_wiring, m.alphabet()));
+        }
+        for (int i = 1; i < _rotorNames.length; i += 1) {
+            if (m.rotor(i) == null) {
+                throw error("checkpoint names unknown rotor %s",
+                            _rotorNames[i]);
+            }
+            m.rotor(i).set(_positions[i]);
+        }
+        System.arraycopy(_counters, 0, m.settings, 0, _counters.length);
+        m.setPlugboard(new Permutation(_plugboard, m.alphabet()));
+        m.setProcessed(_processed);
+    }
+
+    /** Return true iff rotors had been inserted when I was taken. */
+    boolean inserted() {
+        return _inserted;
+    }
+
+    /** Return the number of characters converted when I was taken. */
+    long processed() {
+        return _processed;
+    }
+
+    /** Return the number of input lines consumed when I was taken. */
+    long inputLines() {
+        return _inputLines;
+    }
+
+    /** Return the offset in the input of the first byte not consumed
+     *  when I was taken. */
+    long inputOffset() {
+        return _inputOffset;
+    }
+
+    /** Return the number of output bytes written when I was taken. */
+    long outputBytes() {
+        return _outputBytes;
+    }
+
+    /** Return my binary form. */
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, _alphabet);
+            out.writeBoolean(_inserted);
+            out.writeShort(_rotorNames.length);
+            for (int i = 0; i < _rotorNames.length; i += 1) {
+                writeString(out, _inserted ? _rotorNames[i] : "");
+                out.writeInt(_positions[i]);
+            }
+            out.writeShort(_counters.length);
+            for (int c : _counters) {
+                out.writeInt(c);
+            }
+            writeString(out, _plugboard);
+            writeString(out, _wiring);
+            out.writeLong(_processed);
+            out.writeLong(_inputLines);
+            out.writeLong(_inputOffset);
+            out.writeLong(_outputBytes);
+        } catch (IOException excp) {
+            throw error("could not encode checkpoint");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Write me to FILE, replacing it in a single step so that a crash
+     *  never leaves a partial checkpoint behind. */
+    void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, toBytes());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Return the checkpoint stored in FILE. */
+    static Checkpoint read(Path file) {
+        try (DataInputStream in =
+                 new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("%s is not a checkpoint file", file);
+            }
+            return new Checkpoint(in);
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+    }
+
+    /** A checkpoint read from IN, just after its header. */
+    private Checkpoint(DataInputStream in) throws IOException {
+        _alphabet = readString(in);
+        _inserted = in.readBoolean();
+        int slots = in.readShort();
+        _rotorNames = new String[slots];
+        _positions = new int[slots];
+        for (int i = 0; i < slots; i += 1) {
+            _rotorNames[i] = readString(in);
+            _positions[i] = in.readInt();
+        }
+        _counters = new int[in.readShort()];
+        for (int i = 0; i < _counters.length; i += 1) {
+            _counters[i] = in.readInt();
+        }
+        _plugboard = readString(in);
+        _wiring = readString(in);
+        _processed = in.readLong();
+        _inputLines = in.readLong();
+        _inputOffset = in.readLong();
+        _outputBytes = in.readLong();
+    }
+
+    /** Write S to OUT as an int length and that many bytes of UTF-8.
+     *  Unlike writeUTF, this has no limit of 65535 bytes, which a large
+     *  alphabet or its plugboard can exceed. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return the next string of IN, as written by writeString. */
+    private static String readString(DataInputStream in)
+        throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            throw new IOException("bad string length");
+        }
+        return new String(in.readNBytes(len), StandardCharsets.UTF_8);
+    }
+
+    /** Characters of the machine's alphabet, to detect a mismatched
+     *  configuration. */
+    private final String _alphabet;
+    /** Whether rotors were inserted. */
+    private final boolean _inserted;
+    /** Rotor names and settings by slot. */
+    private final String[] _rotorNames;
+    private final int[] _positions;
+    /** Copy of the machine's settings[] array. */
+    private final int[] _counters;
+    /** Plugboard cycles. */
+    private final String _plugboard;
+    /** Cycles of a rewireable reflector's wiring, or "". */
+    private final String _wiring;
+    /** Characters converted. */
+    private final long _processed;
+    /** Input lines and bytes consumed, and output bytes written. */
+    private final long _inputLines, _inputOffset, _outputBytes;
+}
@@ -0,0 +1,82 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the Checkpoint class.
+ *  @author Ryan Shih
+ */
+public class CheckpointTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private static final String MSG =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+
+    @Test
+    public void testRestoreContinuesExactly() throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        Machine m = spec.newMachine();
+        Main.setUp(m, "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)");
+        m.convert(MSG);
+        Path file = Files.createTempFile("enigma", ".ckpt");
+        try (CheckpointWriter writer = new CheckpointWriter(file)) {
+            writer.offer(new Checkpoint(m, 12, 678, 345));
+        }
+        int[] counters = m.settings.clone();
+        String expected = m.convert(MSG);
+
+        Checkpoint c = Checkpoint.read(file);
+        Files.delete(file);
+        assertEquals(12, c.inputLines());
+        assertEquals(678, c.inputOffset());
+        assertEquals(345, c.outputBytes());
+        assertEquals(MSG.length(), c.processed());
+        Machine resumed = spec.newMachine();
+        c.restore(resumed);
+        assertArrayEquals(counters, resumed.settings);
+        assertEquals(expected, resumed.convert(MSG));
+        assertEquals(2 * MSG.length(), resumed.processed());
+    }
+
+    @Test
+    public void testLargeAlphabet() throws IOException {
+        StringBuilder chars = new StringBuilder(), pairs = new StringBuilder();
+        for (int i = 0; i < 30000; i += 2) {
+            char a = (char) (0x4e00 + i), b = (char) (a + 1);
+            chars.append(a).append(b);
+            pairs.append('(').append(a).append(b).append(')');
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        Machine m = new MachineSpec(alpha, 2, 1, new RotorCatalog(alpha))
+            .newMachine();
+        m.setPlugboard(new Permutation(pairs.toString(), alpha));
+        Checkpoint c = new Checkpoint(m, 1, 2, 3);
+        Path file = Files.createTempFile("enigma", ".ckpt");
+        try {
+            c.write(file);
+            Checkpoint d = Checkpoint.read(file);
+            assertArrayEquals(c.toBytes(), d.toBytes());
+            d.restore(m);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testMismatchedConfiguration() {
+        Machine m = Samples.navySpec().newMachine();
+        Checkpoint c = new Checkpoint(m, 0, 0, 0);
+        MachineSpec other = new MachineSpec(new Alphabet("ABC"), 5, 3,
+                                            new RotorCatalog(new Alphabet()));
+        c.restore(other.newMachine());
+    }
+}
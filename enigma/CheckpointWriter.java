@@ -0,0 +1,83 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Writes checkpoints to a file on a background thread, so that taking
+ *  one costs the conversion loop only the snapshot itself.  If
+ *  checkpoints are offered faster than they can be written, only the
+ *  latest waiting one is written.
+ *  @author Ryan Shih
+ */
+class CheckpointWriter implements Closeable {
+
+    /** A writer of checkpoints to FILE. */
+    CheckpointWriter(Path file) {
+        _file = file;
+        _pending = new AtomicReference<Checkpoint>();
+        _executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "enigma-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Arrange for CHECKPOINT to be written, replacing any checkpoint
+     *  offered earlier that has not yet been written. */
+    void offer(Checkpoint checkpoint) {
+        if (_pending.getAndSet(checkpoint) == null) {
+            _executor.execute(this::drain);
+        }
+    }
+
+    /** Write the pending checkpoint, if any. */
+    private void drain() {
+        Checkpoint c = _pending.getAndSet(null);
+        if (c != null) {
+            try {
+                c.write(_file);
+            } catch (IOException excp) {
+                _failure = excp;
+            }
+        }
+    }
+
+    /** Write any pending checkpoint and stop the background thread.
+     *  Reports a failure of any write, or a write still running after a
+     *  minute (or an interrupt), as an EnigmaException; the pending
+     *  checkpoint is then left to the background thread rather than
+     *  written over it. */
+    @Override
+    public void close() {
+        _executor.shutdown();
+        boolean done = false;
+        try {
+            done = _executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        if (!done) {
+            throw EnigmaException.error("checkpoint %s is still being "
+                                        + "written", _file);
+        }
+        drain();
+        if (_failure != null) {
+            throw EnigmaException.error("could not write checkpoint %s",
+                                        _file);
+        }
+    }
+
+    /** Destination of my checkpoints. */
+    private final Path _file;
+    /** The latest checkpoint not yet written, or null. */
+    private final AtomicReference<Checkpoint> _pending;
+    /** Runs the writes. */
+    private final ExecutorService _executor;
+    /** The last failed write's exception, or null. */
+    private volatile IOException _failure;
+}
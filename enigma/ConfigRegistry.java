@@ -0,0 +1,295 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static enigma.EnigmaException.*;
+
+/** A set of machine configurations, each loaded from its own file and
+ *  known by an ID.  Once watching is started, a configuration whose file
+ *  changes is re-read and its spec replaced in a single step.  A file is
+ *  re-read only once it has settled: no change has been seen to it for
+ *  SETTLE_MILLIS and its size and modification time have stayed the
+ *  same, so that an editor's truncate-then-write is not read half done.
+ *  Replacing the file by an atomic rename is safest all the same, since
+ *  a writer that pauses for longer than that can still be caught.  Machines
+ *  already made from the old spec keep running on it undisturbed; only
+ *  later calls to spec() or newMachine() see the new one.  If a changed
+ *  file cannot be parsed, the old spec stays in place and the error is
+ *  kept for lastError().
+ *  @author Ryan Shih
+ */
+class ConfigRegistry implements Closeable {
+
+    /** An empty registry. */
+    ConfigRegistry() {
+        _files = new ConcurrentHashMap<String, Path>();
+        _specs = new ConcurrentHashMap<String, MachineSpec>();
+        _errors = new ConcurrentHashMap<String, String>();
+        _watched = new HashSet<Path>();
+    }
+
+    /** Load the configuration file FILE under ID, replacing any
+     *  configuration already known by that ID, and return its spec. */
+    MachineSpec load(String id, Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        MachineSpec spec = read(path);
+        _files.put(id, path);
+        _specs.put(id, spec);
+        _errors.remove(id);
+        synchronized (this) {
+            if (_watcher != null) {
+                watchDirectory(path.getParent());
+            }
+        }
+        return spec;
+    }
+
+    /** Return the current spec for ID. */
+    MachineSpec spec(String id) {
+        MachineSpec spec = _specs.get(id);
+        if (spec == null) {
+            throw error("no configuration %s", id);
+        }
+        return spec;
+    }
+
+    /** Return a new machine built from the current spec for ID. */
+    Machine newMachine(String id) {
+        return spec(id).newMachine();
+    }
+
+    /** Return the message of the last failed reload of ID, or null if
+     *  its current file was read successfully. */
+    String lastError(String id) {
+        return _errors.get(id);
+    }
+
+    /** Re-read the file for ID now, and swap in its spec.  Returns true
+     *  iff the file was read successfully. */
+    boolean reload(String id) {
+        Path path = _files.get(id);
+        if (path == null) {
+            throw error("no configuration %s", id);
+        }
+        try {
+            _specs.put(id, read(path));
+            _errors.remove(id);
+            return true;
+        } catch (EnigmaException excp) {
+            _errors.put(id, excp.getMessage());
+            return false;
+        }
+    }
+
+    /** Start a daemon thread that reloads configurations when their
+     *  files change.  Does nothing if already watching. */
+    synchronized void startWatching() {
+        if (_watcher != null) {
+            return;
+        }
+        try {
+            _watcher = FileSystems.getDefault().newWatchService();
+        } catch (IOException excp) {
+            throw error("could not watch configuration files");
+        }
+        for (Path path : _files.values()) {
+            watchDirectory(path.getParent());
+        }
+        Thread t = new Thread(this::watchLoop, "enigma-config-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Stop watching for changes. */
+    @Override
+    public synchronized void close() {
+        if (_watcher != null) {
+            try {
+                _watcher.close();
+            } catch (IOException excp) {
+                /* Ignore: nothing more can be done. */
+            }
+            _watcher = null;
+            _watched.clear();
+        }
+    }
+
+    /** Register DIR with _watcher, if not already done. */
+    private void watchDirectory(Path dir) {
+        if (_watched.add(dir)) {
+            try {
+                dir.register(_watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            } catch (IOException excp) {
+                _watched.remove(dir);
+                throw error("could not watch %s", dir);
+            }
+        }
+    }
+
+    /** Body of the watching thread: note every configuration whose
+     *  file is named in an event, and reload each once it has settled,
+     *  until the watch service is closed.  Any other failure is reported
+     *  on the standard error and watching goes on. */
+    private void watchLoop() {
+        WatchService watcher;
+        synchronized (this) {
+            watcher = _watcher;
+        }
+        HashMap<String, Pending> pending = new HashMap<String, Pending>();
+        try {
+            while (true) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watcher.take();
+                } else {
+                    long wait = Long.MAX_VALUE;
+                    for (Pending p : pending.values()) {
+                        wait = Math.min(wait, p.due - System.nanoTime());
+                    }
+                    key = watcher.poll(Math.max(wait, 0),
+                                       TimeUnit.NANOSECONDS);
+                }
+                try {
+                    if (key != null) {
+                        noteEvents(key, pending);
+                        key.reset();
+                    }
+                    settle(pending);
+                } catch (ClosedWatchServiceException excp) {
+                    throw excp;
+                } catch (RuntimeException excp) {
+                    System.err.printf("Error: configuration watcher: %s%n",
+                                      excp);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            return;
+        }
+    }
+
+    /** Add to PENDING, or restart the wait of, every configuration
+     *  whose file is named in an event of KEY. */
+    private void noteEvents(WatchKey key, Map<String, Pending> pending) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                for (Map.Entry<String, Path> e : _files.entrySet()) {
+                    pending.put(e.getKey(), new Pending(e.getValue()));
+                }
+                continue;
+            }
+            Path changed = dir.resolve((Path) event.context());
+            for (Map.Entry<String, Path> e : _files.entrySet()) {
+                if (e.getValue().equals(changed)) {
+                    pending.put(e.getKey(), new Pending(changed));
+                }
+            }
+        }
+    }
+
+    /** Reload every configuration in PENDING whose wait is over and
+     *  whose file has not changed during it, and remove it.  One whose
+     *  file has changed waits again. */
+    private void settle(Map<String, Pending> pending) {
+        Iterator<Map.Entry<String, Pending>> entries =
+            pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Pending> e = entries.next();
+            Pending p = e.getValue();
+            if (p.due - System.nanoTime() > 0) {
+                continue;
+            }
+            Pending now = new Pending(p.path);
+            if (!now.stamp.equals(p.stamp)) {
+                e.setValue(now);
+            } else {
+                entries.remove();
+                reload(e.getKey());
+            }
+        }
+    }
+
+    /** A configuration file waiting to settle. */
+    private static final class Pending {
+
+        /** A wait of SETTLE_MILLIS from now for the file at PATH, as it
+         *  is now. */
+        Pending(Path path) {
+            this.path = path;
+            this.due = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+            this.stamp = stamp(path);
+        }
+
+        /** Return the size and modification time of the file at PATH,
+         *  or an empty list if it cannot be read. */
+        private static List<Object> stamp(Path path) {
+            try {
+                return List.of(Files.size(path),
+                               Files.getLastModifiedTime(path));
+            } catch (IOException excp) {
+                return List.of();
+            }
+        }
+
+        /** The file. */
+        private final Path path;
+        /** The value of System.nanoTime() at which the wait is over. */
+        private final long due;
+        /** The file's size and modification time when the wait began. */
+        private final List<Object> stamp;
+    }
+
+    /** Milliseconds that a changed file must go unchanged before it is
+     *  re-read.  May be set with the enigma.configSettle system
+     *  property. */
+    static final long SETTLE_MILLIS = Long.getLong("enigma.configSettle", 200);
+
+    /** Return the spec read from the configuration file at PATH, with
+     *  every rotor of its catalog compiled, so that bad cycles or
+     *  notches are found here rather than when a machine is set up. */
+    private static MachineSpec read(Path path) {
+        try (Scanner config = new Scanner(path)) {
+            MachineSpec spec = Main.readSpec(config);
+            RotorCatalog catalog = spec.catalog();
+            for (String name : catalog.names()) {
+                catalog.rotor(name);
+            }
+            return spec;
+        } catch (IOException excp) {
+            throw error("could not open %s", path);
+        }
+    }
+
+    /** Configuration file of each ID. */
+    private final ConcurrentHashMap<String, Path> _files;
+
+    /** Current spec of each ID. */
+    private final ConcurrentHashMap<String, MachineSpec> _specs;
+
+    /** Message of the last failed reload of each ID. */
+    private final ConcurrentHashMap<String, String> _errors;
+
+    /** Directories registered with _watcher. */
+    private final HashSet<Path> _watched;
+
+    /** Watch service for configuration files, or null if not watching. */
+    private WatchService _watcher;
+}
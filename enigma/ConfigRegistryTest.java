@@ -0,0 +1,88 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the ConfigRegistry class.
+ *  @author Ryan Shih
+ */
+public class ConfigRegistryTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)"
+        + " (RX) (SZ) (TV)\n";
+
+    @Test
+    public void testLoadAndReload() throws IOException {
+        Path file = Files.createTempFile("enigma", ".conf");
+        try (ConfigRegistry registry = new ConfigRegistry()) {
+            Files.writeString(file, CONFIG);
+            MachineSpec first = registry.load("navy", file);
+            assertEquals(5, first.numRotors());
+            assertEquals(5, first.catalog().size());
+
+            Machine m = registry.newMachine("navy");
+            m.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+
+            Files.writeString(file, CONFIG.replace(" 5 3", " 4 3")
+                              .replace(" Beta N (ALBEVFCYODJWUGNMQTZSKPR)"
+                                       + " (HIX)\n", ""));
+            assertTrue(registry.reload("navy"));
+            assertNotSame(first, registry.spec("navy"));
+            assertEquals(4, registry.spec("navy").numRotors());
+            assertEquals(5, m.numRotors());
+
+            Files.writeString(file, "ABC\n");
+            assertFalse(registry.reload("navy"));
+            assertNotNull(registry.lastError("navy"));
+            assertEquals(4, registry.spec("navy").numRotors());
+
+            Files.writeString(file, CONFIG.replace("(DFG)", "(DF1)"));
+            assertFalse(registry.reload("navy"));
+            assertNotNull(registry.lastError("navy"));
+            assertEquals(4, registry.spec("navy").numRotors());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testWatch() throws IOException, InterruptedException {
+        Path file = Files.createTempFile("enigma", ".conf");
+        try (ConfigRegistry registry = new ConfigRegistry()) {
+            Files.writeString(file, CONFIG);
+            MachineSpec first = registry.load("navy", file);
+            registry.startWatching();
+            Files.writeString(file, CONFIG.replace(" 5 3", " 4 3"));
+            long deadline = System.nanoTime() + 4_000_000_000L;
+            while (registry.spec("navy") == first
+                   && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(4, registry.spec("navy").numRotors());
+            assertNull(registry.lastError("navy"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testUnknownId() {
+        new ConfigRegistry().spec("missing");
+    }
+}
@@ -0,0 +1,416 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** Encrypted archives of binary data from which any range of bytes can
+ *  be decrypted without converting what precedes it.  The data are
+ *  encrypted as one message, as by BinaryMain, and stored in fixed-size
+ *  chunks.  An index records the machine's state at the start of each
+ *  chunk, so a reader sets a machine to that state, moves its rotors
+ *  straight to their positions at the first byte wanted, and reads and
+ *  converts only the chunks that the range covers.  The configuration
+ *  must have a 256-character alphabet.
+ *
+ *  An archive holds, in big-endian order: the int MAGIC and VERSION; a
+ *  long fingerprint of the machine (see fingerprint); the setting line
+ *  (as by DataOutput.writeUTF); the chunk size; the encrypted data; the
+ *  index, giving for each chunk the positions of the rotors in slots 1
+ *  and up, the machine's settings[] counters, and a CRC-32 of the
+ *  chunk's encrypted bytes, all as ints; and a trailer of the number of
+ *  chunks (int), the data length (long), the offset of the index
+ *  (long), and MAGIC again.
+ *  @author Ryan Shih
+ */
+public final class Container {
+
+    /** Pack or unpack an archive as specified by ARGS, which is one of
+     *      pack CONFIG SETTING IN ARCHIVE [CHUNKSIZE]
+     *      unpack CONFIG ARCHIVE OUT [START [LENGTH]]
+     *  where CONFIG is a configuration file and SETTING a setting line in
+     *  the form used by Main.  Unpacking decrypts LENGTH bytes (default:
+     *  through the end) starting at byte START (default 0).  Exits
+     *  normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length >= 5 && args.length <= 6
+                && args[0].equals("pack")) {
+                int chunk = args.length > 5
+                    ? Integer.parseInt(args[5]) : CHUNK_SIZE;
+                try (ReadableByteChannel in =
+                         new FileInputStream(args[3]).getChannel()) {
+                    write(readSpec(args[1]), args[2], in,
+                          Paths.get(args[4]), chunk);
+                }
+            } else if (args.length >= 4 && args.length <= 6
+                       && args[0].equals("unpack")) {
+                try (Reader archive = new Reader(readSpec(args[1]),
+                                                 Paths.get(args[2]));
+                     FileChannel out = FileChannel.open(
+                         Paths.get(args[3]), StandardOpenOption.WRITE,
+                         StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long start =
+                        args.length > 4 ? Long.parseLong(args[4]) : 0;
+                    long end = args.length > 5
+                        ? start + Long.parseLong(args[5])
+                        : archive.length();
+                    ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                    while (start < end) {
+                        buf.clear();
+                        buf.limit((int) Math.min(buf.capacity(),
+                                                 end - start));
+                        archive.read(start, buf);
+                        start += buf.position();
+                        buf.flip();
+                        while (buf.hasRemaining()) {
+                            out.write(buf);
+                        }
+                    }
+                }
+            } else {
+                throw error("usage: pack CONFIG SETTING IN ARCHIVE"
+                            + " [CHUNKSIZE] | unpack CONFIG ARCHIVE OUT"
+                            + " [START [LENGTH]]");
+            }
+            return;
+        } catch (IOException excp) {
+            System.err.printf("Error: I/O error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Identifies an archive. */
+    static final int MAGIC = 0x454e4341;
+
+    /** Format version written by this class. */
+    static final int VERSION = 1;
+
+    /** Default chunk size in bytes. */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    /** Length of the trailer in bytes. */
+    private static final int TRAILER = 4 + 8 + 8 + 4;
+
+    /** Encrypt everything readable from IN with a machine made from SPEC
+     *  and set by SETTING, and write it as an archive of CHUNKSIZE-byte
+     *  chunks to FILE.  Returns the number of bytes encrypted. */
+    static long write(MachineSpec spec, String setting,
+                      ReadableByteChannel in, Path file, int chunkSize)
+        throws IOException {
+        if (chunkSize <= 0) {
+            throw error("chunk size must be positive");
+        }
+        Machine m = spec.newMachine();
+        Main.setUp(m, setting);
+        if (m.alphabet().size() != Machine.BYTE_SYMBOLS) {
+            throw error("archives need a %d-character alphabet",
+                        Machine.BYTE_SYMBOLS);
+        }
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        ByteBuffer buf = ByteBuffer.allocateDirect(chunkSize);
+        CRC32 crc = new CRC32();
+        long length = 0;
+        int chunks = 0;
+        try (FileChannel out = FileChannel.open(file,
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(fingerprint(m));
+            header.writeUTF(setting);
+            header.writeInt(chunkSize);
+            writeFully(out, ByteBuffer.wrap(headerBytes.toByteArray()));
+            long dataStart = out.position();
+            boolean eof = false;
+            while (!eof) {
+                buf.clear();
+                while (buf.hasRemaining() && !eof) {
+                    eof = in.read(buf) < 0;
+                }
+                if (buf.position() == 0) {
+                    break;
+                }
+                buf.flip();
+                for (int s = 1; s < m.numRotors(); s += 1) {
+                    index.writeInt(m.rotor(s).setting());
+                }
+                for (int c : m.settings) {
+                    index.writeInt(c);
+                }
+                m.convert(buf, buf);
+                buf.flip();
+                crc.reset();
+                crc.update(buf.duplicate());
+                index.writeInt((int) crc.getValue());
+                length += buf.remaining();
+                chunks += 1;
+                writeFully(out, buf);
+            }
+            long indexOffset = dataStart + length;
+            index.writeInt(chunks);
+            index.writeLong(length);
+            index.writeLong(indexOffset);
+            index.writeInt(MAGIC);
+            writeFully(out, ByteBuffer.wrap(indexBytes.toByteArray()));
+        }
+        return length;
+    }
+
+    /** Reads ranges of an archive.  Any number of threads may read
+     *  through one Reader at once; each uses its own machine and reads
+     *  the file at explicit positions. */
+    static class Reader implements Closeable {
+
+        /** A reader of the archive FILE, written by a machine made from
+         *  SPEC. */
+        Reader(MachineSpec spec, Path file) throws IOException {
+            _spec = spec;
+            _channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                open(file);
+            } catch (IOException | EnigmaException excp) {
+                _channel.close();
+                throw excp;
+            }
+            _machines = ThreadLocal.withInitial(() -> {
+                Machine machine = _spec.newMachine();
+                Main.setUp(machine, _setting);
+                return machine;
+            });
+            _chunks = ThreadLocal.withInitial(
+                () -> ByteBuffer.allocateDirect(_chunkSize));
+        }
+
+        /** Read the header, trailer and index of FILE. */
+        private void open(Path file) throws IOException {
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(_channel));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("%s is not an archive", file);
+            }
+            long fingerprint = in.readLong();
+            _setting = in.readUTF();
+            _chunkSize = in.readInt();
+            _dataStart = _channel.position();
+            Machine m = _spec.newMachine();
+            Main.setUp(m, _setting);
+            if (fingerprint != fingerprint(m)) {
+                throw error("archive %s was made with another machine",
+                            file);
+            }
+            _slots = m.numRotors();
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            readFully(_channel, trailer, _channel.size() - TRAILER);
+            trailer.flip();
+            int chunks = trailer.getInt();
+            _length = trailer.getLong();
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || chunks < 0 || _chunkSize <= 0
+                || (_length + _chunkSize - 1) / _chunkSize != chunks) {
+                throw error("archive %s is damaged", file);
+            }
+            int entry = 2 * (_slots - 1) + 1;
+            ByteBuffer index = ByteBuffer.allocate(chunks * entry * 4);
+            readFully(_channel, index, indexOffset);
+            index.flip();
+            _index = new int[chunks * entry];
+            index.asIntBuffer().get(_index);
+        }
+
+        /** Return the number of bytes of data in the archive. */
+        long length() {
+            return _length;
+        }
+
+        /** Return the chunk size. */
+        int chunkSize() {
+            return _chunkSize;
+        }
+
+        /** Return the setting line the data were encrypted with. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Decrypt the DST.remaining() bytes of data starting at byte
+         *  START into DST, advancing its position. */
+        void read(long start, ByteBuffer dst) throws IOException {
+            long end = start + dst.remaining();
+            if (start < 0 || end > _length) {
+                throw error("range %d..%d is outside the archive", start,
+                            end);
+            }
+            Machine m = _machines.get();
+            ByteBuffer chunk = _chunks.get();
+            CRC32 crc = new CRC32();
+            int entry = 2 * (_slots - 1) + 1;
+            while (start < end) {
+                int c = (int) (start / _chunkSize);
+                int within = (int) (start - (long) c * _chunkSize);
+                int len = (int) Math.min(_chunkSize,
+                                         _length - (long) c * _chunkSize);
+                chunk.clear().limit(len);
+                readFully(_channel, chunk,
+                          _dataStart + (long) c * _chunkSize);
+                chunk.flip();
+                crc.reset();
+                crc.update(chunk.duplicate());
+                if ((int) crc.getValue() != _index[(c + 1) * entry - 1]) {
+                    throw error("chunk %d of the archive is damaged", c);
+                }
+                seek(m, c * entry, within);
+                int n = (int) Math.min(len - within, end - start);
+                chunk.position(within).limit(within + n);
+                m.convert(chunk, dst);
+                start += n;
+            }
+        }
+
+        /** Set M to the state recorded at index entry ENTRY, then move
+         *  its rotors to where WITHIN more steps would leave them.  The
+         *  positions are found by SteppingAnalysis.positionsAt without
+         *  stepping WITHIN times; the settings[] counters are then only
+         *  the rotor positions, which is all that conversion needs. */
+        private void seek(Machine m, int entry, int within) {
+            int k = entry;
+            for (int s = 1; s < _slots; s += 1) {
+                m.setRotor(s, _index[k]);
+                k += 1;
+            }
+            for (int s = 0; s < _slots - 1; s += 1) {
+                m.settings[s] = _index[k];
+                k += 1;
+            }
+            if (within > 0) {
+                int[] positions =
+                    new SteppingAnalysis(m).positionsAt(within);
+                for (int s = 1; s < _slots; s += 1) {
+                    m.setRotor(s, positions[s - 1]);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+
+        /** Description of the archive's machine. */
+        private final MachineSpec _spec;
+        /** The archive. */
+        private final FileChannel _channel;
+        /** Setting line the data were encrypted with. */
+        private String _setting;
+        /** Chunk size, number of rotor slots. */
+        private int _chunkSize, _slots;
+        /** Offset of the data in the file, and their length. */
+        private long _dataStart, _length;
+        /** The index, one entry of 2 * (_slots - 1) + 1 ints per chunk. */
+        private int[] _index;
+        /** Each thread's machine and chunk buffer. */
+        private final ThreadLocal<Machine> _machines;
+        private final ThreadLocal<ByteBuffer> _chunks;
+    }
+
+    /** Return a 64-bit hash of what decides how M, which has been set up,
+     *  converts: its alphabet, slots and pawls, and for each inserted
+     *  rotor its name, kind, permutation and notches.  Rotor positions
+     *  and the plugboard come from the setting line, which an archive
+     *  stores as it is. */
+    static long fingerprint(Machine m) {
+        Alphabet alpha = m.alphabet();
+        long h = FNV_BASIS;
+        h = mix(h, alpha.size());
+        for (int i = 0; i < alpha.size(); i += 1) {
+            h = mix(h, alpha.toCodePoint(i));
+        }
+        h = mix(h, m.numRotors());
+        h = mix(h, m.numPawls());
+        for (int s = 0; s < m.numRotors(); s += 1) {
+            Rotor r = m.rotor(s);
+            String name = r.name();
+            for (int i = 0; i < name.length(); i += 1) {
+                h = mix(h, name.charAt(i));
+            }
+            h = mix(h, r instanceof MovingRotor ? 'M'
+                    : r instanceof Reflector ? 'R' : 'N');
+            int[] table = r.permutation().forwardTable();
+            for (int i = 0; i < table.length; i += 1) {
+                h = mix(h, table[i]);
+                h = mix(h, r.notchAt(i) ? 1 : 0);
+            }
+        }
+        return h;
+    }
+
+    /** FNV-1a offset basis and prime. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L,
+        FNV_PRIME = 0x100000001b3L;
+
+    /** Return hash H with the four bytes of X mixed in. */
+    private static long mix(long h, int x) {
+        for (int i = 0; i < 4; i += 1) {
+            h ^= (x >>> (8 * i)) & 0xff;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    /** Return the spec in the configuration file NAME. */
+    private static MachineSpec readSpec(String name) {
+        try (Scanner config = new Scanner(Paths.get(name))) {
+            return Main.readSpec(config);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Write all of BUF to OUT. */
+    private static void writeFully(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Fill BUF from IN starting at file offset POSITION. */
+    private static void readFully(FileChannel in, ByteBuffer buf,
+                                  long position) throws IOException {
+        long p = position;
+        while (buf.hasRemaining()) {
+            int n = in.read(buf, p);
+            if (n < 0) {
+                throw error("archive is truncated");
+            }
+            p += n;
+        }
+    }
+
+    /** Not instantiable. */
+    private Container() {
+    }
+}
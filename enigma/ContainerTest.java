@@ -0,0 +1,156 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/** The suite of all JUnit tests for the Container class.
+ *  @author Ryan Shih
+ */
+public class ContainerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a spec for 3-slot machines over a 256-character alphabet,
+     *  with rotors drawn using RAND. */
+    private MachineSpec byteSpec(Random rand) {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < 256; i += 1) {
+            chars.append((char) (0x100 + i));
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        RotorCatalog catalog = new RotorCatalog(alpha);
+        catalog.add("R", 'R', "", cycles(chars, rand, 2));
+        catalog.add("A", 'M', chars.substring(3, 4),
+                    cycles(chars, rand, 256));
+        catalog.add("B", 'M', chars.substring(250, 251),
+                    cycles(chars, rand, 256));
+        return new MachineSpec(alpha, 3, 2, catalog);
+    }
+
+    /** Return CHARS shuffled with RAND and cut into cycles of length
+     *  LEN. */
+    private String cycles(StringBuilder chars, Random rand, int len) {
+        char[] c = chars.toString().toCharArray();
+        for (int i = c.length - 1; i > 0; i -= 1) {
+            int j = rand.nextInt(i + 1);
+            char t = c[i];
+            c[i] = c[j];
+            c[j] = t;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < c.length; i += len) {
+            result.append('(').append(c, i, len).append(')');
+        }
+        return result.toString();
+    }
+
+    /** Setting line for byteSpec machines. */
+    private static final String SETTING = "* R A B \u0105\u01f0";
+
+    /** Write DATA to a new archive of SPEC with chunks of CHUNKSIZE
+     *  bytes, returning its path. */
+    private Path archive(MachineSpec spec, byte[] data, int chunkSize)
+        throws IOException {
+        Path file = Files.createTempFile("archive", ".enc");
+        Container.write(spec, SETTING,
+                        Channels.newChannel(new ByteArrayInputStream(data)),
+                        file, chunkSize);
+        return file;
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        Random rand = new Random(9);
+        MachineSpec spec = byteSpec(rand);
+        byte[] data = new byte[20000];
+        rand.nextBytes(data);
+        Path file = archive(spec, data, 1000);
+        try (Container.Reader r = new Container.Reader(spec, file)) {
+            assertEquals(data.length, r.length());
+            assertEquals(SETTING, r.setting());
+            int[][] ranges = {{0, 20000}, {0, 1}, {999, 2}, {1000, 1000},
+                              {19999, 1}, {4321, 8765}, {20000, 0}};
+            for (int[] range : ranges) {
+                ByteBuffer buf = ByteBuffer.allocate(range[1]);
+                r.read(range[0], buf);
+                assertEquals(range[1], buf.position());
+                assertArrayEquals(Arrays.copyOfRange(data, range[0],
+                                                     range[0] + range[1]),
+                                  buf.array());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testParallelReads() throws IOException {
+        Random rand = new Random(10);
+        MachineSpec spec = byteSpec(rand);
+        byte[] data = new byte[64 * 1024 + 17];
+        rand.nextBytes(data);
+        Path file = archive(spec, data, 4096);
+        try (Container.Reader r = new Container.Reader(spec, file)) {
+            byte[] result = new byte[data.length];
+            IntStream.range(0, 33).parallel().forEach(k -> {
+                int start = k * 2000;
+                int len = Math.min(2000, data.length - start);
+                ByteBuffer buf = ByteBuffer.wrap(result, start, len);
+                try {
+                    r.read(start, buf.slice());
+                } catch (IOException excp) {
+                    throw new RuntimeException(excp);
+                }
+            });
+            assertArrayEquals(data, result);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDamageDetected() throws IOException {
+        Random rand = new Random(11);
+        MachineSpec spec = byteSpec(rand);
+        byte[] data = new byte[5000];
+        rand.nextBytes(data);
+        Path file = archive(spec, data, 1000);
+        try {
+            try {
+                new Container.Reader(byteSpec(new Random(12)), file).close();
+                fail("archive opened with another machine");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            int dataEnd = bytes.length - 24 - 5 * (2 * 2 + 1) * 4;
+            bytes[dataEnd - data.length + 2500] ^= 1;
+            Files.write(file, bytes);
+            try (Container.Reader r = new Container.Reader(spec, file)) {
+                r.read(0, ByteBuffer.allocate(1000));
+                try {
+                    r.read(2100, ByteBuffer.allocate(10));
+                    fail("damaged chunk read");
+                } catch (EnigmaException excp) {
+                    assertTrue(excp.getMessage().contains("chunk 2"));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Finds where cribs (guessed plaintexts) may lie in a body of
+ *  ciphertext.  Since an Enigma's reflector is a derangement, no
+ *  character is ever encrypted to itself, so a crib cannot lie at any
+ *  offset where one of its characters meets the same ciphertext
+ *  character.  Every other offset is reported.
+ *
+ *  The cribs are matched all at once, bit-parallel.  Each crib takes a
+ *  run of bits in a 64-bit state word; for each character of the
+ *  alphabet, a mask has the bits of the crib positions holding it.  On
+ *  each ciphertext character, the state is shifted one place, its bits
+ *  at the starts of cribs are cleared, and the character's mask is or'ed
+ *  in.  A bit is then set iff its crib position, or one before it in the
+ *  same alignment, has met a character equal to its own, so a crib may
+ *  end at the current character iff its last bit is clear.  Cribs that
+ *  do not fit in one word go in further words.
+ *
+ *  Ciphertext is read from memory-mapped files, as written by Main:
+ *  alphabet characters in groups separated by blanks, one byte per
+ *  character (so the alphabet must lie within the first 256
+ *  characters).  Main's output does not show where its input was
+ *  re-keyed, and its machine keeps stepping across blank lines, so
+ *  message boundaries must be marked explicitly: a line whose first
+ *  non-blank is '*' starts a new message.  It may be the setting line
+ *  the message was keyed with, as in Main's input, and is then checked
+ *  against the configuration, or a bare '*'.  Characters before the
+ *  first such line are message 0, and a '*' line before any characters
+ *  starts no new message.  Offsets are counted in characters from the
+ *  start of each message, which is the number of steps of the machine
+ *  from its setting, so each message must have been keyed by its own
+ *  setting line.  Blank lines are ignored, and any other byte ends the
+ *  current run, so no crib spans it.
+ *  @author Ryan Shih
+ */
+public final class CribScanner {
+
+    /** Scan files as specified by ARGS, which are
+     *      CONFIG CRIBS FILE...
+     *  where CONFIG is a configuration file, whose reflectors must all
+     *  be derangements, CRIBS a file of cribs, one per line, and the
+     *  FILEs hold ciphertext with its messages marked as described
+     *  above.  The files are scanned in parallel, and
+     *  for each possible crib position the standard output gets a line
+     *      FILE MESSAGE OFFSET CRIB CIPHER
+     *  where MESSAGE is the number of the message in FILE (from 0), and
+     *  CIPHER the ciphertext the crib would lie under.  Lines for
+     *  different files may be interleaved.  Exits normally if there are
+     *  no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        if (args.length < 3) {
+            System.err.println(
+                "Usage: java enigma.CribScanner CONFIG CRIBS FILE...");
+            System.exit(1);
+        }
+        try {
+            MachineSpec spec;
+            try (Scanner config = new Scanner(Paths.get(args[0]))) {
+                spec = Main.readSpec(config);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[0]);
+            }
+            checkReflectors(spec);
+            List<String> cribs = new ArrayList<String>();
+            try {
+                for (String line : Files.readAllLines(Paths.get(args[1]))) {
+                    if (!line.trim().isEmpty()) {
+                        cribs.add(line.trim());
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("could not read %s", args[1]);
+            }
+            List<Path> files = new ArrayList<Path>();
+            for (int i = 2; i < args.length; i += 1) {
+                files.add(Paths.get(args[i]));
+            }
+            new CribScanner(spec, cribs)
+                .scanAll(files, THREADS, System.out);
+            System.out.flush();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Receives the positions found by a scan. */
+    interface Hits {
+        /** Record that crib number CRIB may lie at character OFFSET of
+         *  message number MESSAGE, under the ciphertext CIPHER[START ..
+         *  START+LEN-1].  CIPHER is reused after this returns. */
+        void found(int crib, long message, long offset, char[] cipher,
+                   int start, int len);
+    }
+
+    /** Number of files scanned at once by main.  May be set with the
+     *  enigma.scanThreads system property. */
+    static final int THREADS = Integer.getInteger(
+        "enigma.scanThreads", Runtime.getRuntime().availableProcessors());
+
+    /** Longest crib. */
+    static final int MAX_CRIB = Long.SIZE;
+
+    /** A scanner for CRIBS, which are strings of characters in ALPHA.
+     *  Setting lines in the ciphertext are not checked. */
+    CribScanner(Alphabet alpha, List<String> cribs) {
+        this(alpha, null, cribs);
+    }
+
+    /** A scanner for CRIBS, which are strings of characters in SPEC's
+     *  alphabet, that checks setting lines in the ciphertext against
+     *  SPEC. */
+    CribScanner(MachineSpec spec, List<String> cribs) {
+        this(spec.alphabet(), spec, cribs);
+    }
+
+    /** A scanner for CRIBS in ALPHA checking setting lines against SPEC,
+     *  or not at all if SPEC is null. */
+    private CribScanner(Alphabet alpha, MachineSpec spec,
+                        List<String> cribs) {
+        _spec = spec;
+        if (cribs.isEmpty()) {
+            throw error("no cribs");
+        }
+        _cribs = cribs.toArray(new String[0]);
+        List<List<Integer>> words = new ArrayList<List<Integer>>();
+        int used = Long.SIZE;
+        for (int c = 0; c < _cribs.length; c += 1) {
+            String crib = _cribs[c];
+            if (crib.isEmpty() || crib.length() > MAX_CRIB) {
+                throw error("crib \"%s\" must have 1 to %d characters",
+                            crib, MAX_CRIB);
+            }
+            if (used + crib.length() > Long.SIZE) {
+                words.add(new ArrayList<Integer>());
+                used = 0;
+            }
+            words.get(words.size() - 1).add(c);
+            used += crib.length();
+        }
+        int n = words.size();
+        _masks = new long[n][256];
+        _starts = new long[n];
+        _ends = new long[n];
+        _cribAt = new int[n][Long.SIZE];
+        _kind = new byte[256];
+        for (int ch = 0; ch < 256; ch += 1) {
+            _kind[ch] = GroupFormatter.isBlank((char) ch)
+                ? (ch == '\n' ? NEWLINE : BLANK)
+                : alpha.contains((char) ch) ? SYMBOL
+                : ch == '*' ? MARK : OTHER;
+        }
+        for (int w = 0; w < n; w += 1) {
+            int bit = 0;
+            for (int c : words.get(w)) {
+                String crib = _cribs[c];
+                _starts[w] |= 1L << bit;
+                for (int i = 0; i < crib.length(); i += 1) {
+                    char ch = crib.charAt(i);
+                    if (ch > 0xff || _kind[ch] != SYMBOL) {
+                        throw error("crib \"%s\" has a character not in "
+                                    + "the alphabet", crib);
+                    }
+                    _masks[w][ch] |= 1L << (bit + i);
+                }
+                bit += crib.length();
+                _ends[w] |= 1L << (bit - 1);
+                _cribAt[w][bit - 1] = c;
+            }
+        }
+    }
+
+    /** Return crib number K. */
+    String crib(int k) {
+        return _cribs[k];
+    }
+
+    /** Report to HITS every position in FILE where a crib may lie. */
+    void scan(Path file, Hits hits) {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            State state = new State(hits);
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += MAP_SIZE) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                    pos, Math.min(MAP_SIZE, size - pos));
+                state.scan(buf);
+            }
+            state.finish();
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Scan FILES with up to THREADS at a time, writing a line to OUT
+     *  for each possible crib position, in the form described at main.
+     *  Each file's lines are gathered into blocks that are written
+     *  whole, so lines are never broken, but blocks of different files
+     *  may be interleaved. */
+    void scanAll(List<Path> files, int threads, PrintStream out) {
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+                Thread t = new Thread(r, "enigma-crib-scan");
+                t.setDaemon(true);
+                return t;
+            });
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (Path file : files) {
+                tasks.add(executor.submit(() -> {
+                    LineWriter writer = new LineWriter(file, out);
+                    scan(file, writer);
+                    writer.flush();
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new EnigmaException(String.valueOf(excp.getCause()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** The progress of a scan through one file. */
+    private final class State {
+
+        /** A scan reporting to HITS. */
+        State(Hits hits) {
+            _hits = hits;
+            _state = new long[_masks.length];
+            Arrays.fill(_state, -1L);
+            _blankLine = true;
+        }
+
+        /** Scan the bytes of BUF, continuing from any before them. */
+        void scan(MappedByteBuffer buf) {
+            byte[] kind = _kind;
+            long[][] masks = _masks;
+            long[] starts = _starts, ends = _ends, state = _state;
+            char[] recent = _recent;
+            int n = state.length;
+            int limit = buf.limit();
+            int i = _setting == null ? 0 : readSetting(buf, 0);
+            for (; i < limit; i += 1) {
+                int ch = buf.get(i) & 0xff;
+                switch (kind[ch]) {
+                    case SYMBOL:
+                        break;
+                    case BLANK:
+                        continue;
+                    case NEWLINE:
+                        _blankLine = true;
+                        continue;
+                    case MARK:
+                        if (_blankLine) {
+                            startMessage();
+                            _setting = new StringBuilder();
+                            i = readSetting(buf, i);
+                            continue;
+                        }
+                        Arrays.fill(state, -1L);
+                        continue;
+                    default:
+                        Arrays.fill(state, -1L);
+                        _blankLine = false;
+                        continue;
+                }
+                _blankLine = false;
+                int r = (int) _offset & (MAX_CRIB - 1);
+                recent[r] = recent[r + MAX_CRIB] = (char) ch;
+                for (int w = 0; w < n; w += 1) {
+                    long s = (state[w] << 1 & ~starts[w]) | masks[w][ch];
+                    state[w] = s;
+                    long found = ~s & ends[w];
+                    while (found != 0) {
+                        report(w, Long.numberOfTrailingZeros(found));
+                        found &= found - 1;
+                    }
+                }
+                _offset += 1;
+            }
+        }
+
+        /** Finish the scan, at the end of the file. */
+        void finish() {
+            if (_setting != null) {
+                checkSetting(_setting.toString());
+                _setting = null;
+            }
+        }
+
+        /** Start the next message, for a '*' line, unless it is the
+         *  first and no characters have come before it. */
+        private void startMessage() {
+            if (_offset > 0 || _marked) {
+                _message += 1;
+            }
+            _marked = true;
+            _offset = 0;
+            Arrays.fill(_state, -1L);
+        }
+
+        /** Add the bytes of BUF from FROM to the end of the line to the
+         *  setting line being read, and return the index of the newline
+         *  that ends it, or BUF's limit if it does not end in BUF.  A
+         *  whole setting line is checked. */
+        private int readSetting(MappedByteBuffer buf, int from) {
+            int limit = buf.limit();
+            for (int i = from; i < limit; i += 1) {
+                char c = (char) (buf.get(i) & 0xff);
+                if (c == '\n') {
+                    finish();
+                    _blankLine = true;
+                    return i;
+                }
+                _setting.append(c);
+            }
+            return limit;
+        }
+
+        /** Throw an exception unless LINE is a bare '*' or a setting
+         *  line that sets up a machine of my spec, if any, whose
+         *  reflector, as rewired by LINE, is a derangement. */
+        private void checkSetting(String line) {
+            if (_spec == null || line.trim().equals("*")) {
+                return;
+            }
+            Machine m = _spec.newMachine();
+            Main.setUp(m, line.trim());
+            if (!m.rotor(0).permutation().derangement()) {
+                throw error("setting %s leaves a reflector mapping a "
+                            + "character to itself", line.trim());
+            }
+        }
+
+        /** Report the crib ending at bit BIT of word W, which ends at
+         *  the current character. */
+        private void report(int w, int bit) {
+            int c = _cribAt[w][bit];
+            int len = _cribs[c].length();
+            if (len > _offset + 1) {
+                return;
+            }
+            long start = _offset + 1 - len;
+            _hits.found(c, _message, start, _recent,
+                        (int) start & (MAX_CRIB - 1), len);
+        }
+
+        /** Receives my results. */
+        private final Hits _hits;
+        /** Current state word for each group of cribs; a set bit means
+         *  its crib position is ruled out at the current alignment. */
+        private final long[] _state;
+        /** The last MAX_CRIB characters, each at its offset modulo
+         *  MAX_CRIB and again MAX_CRIB places later, so that any of
+         *  them and those following it are contiguous. */
+        private final char[] _recent = new char[2 * MAX_CRIB];
+        /** Number of the current message. */
+        private long _message;
+        /** Offset of the next character in the current message. */
+        private long _offset;
+        /** True iff the current line has had no characters so far. */
+        private boolean _blankLine;
+        /** True iff a '*' line has been seen. */
+        private boolean _marked;
+        /** The '*' line being read, when it runs past the end of a
+         *  buffer, or null. */
+        private StringBuilder _setting;
+    }
+
+    /** Writes hits as lines of text for one file, in blocks. */
+    private final class LineWriter implements Hits {
+
+        /** A writer of FILE's hits to OUT. */
+        LineWriter(Path file, PrintStream out) {
+            _file = file.toString();
+            _out = out;
+        }
+
+        @Override
+        public void found(int crib, long message, long offset,
+                          char[] cipher, int start, int len) {
+            _text.append(_file).append(' ').append(message).append(' ')
+                .append(offset).append(' ').append(_cribs[crib])
+                .append(' ').append(cipher, start, len).append('\n');
+            if (_text.length() >= BLOCK) {
+                flush();
+            }
+        }
+
+        /** Write out the lines gathered so far. */
+        void flush() {
+            synchronized (_out) {
+                _out.append(_text);
+            }
+            _text.setLength(0);
+        }
+
+        /** Name of the file. */
+        private final String _file;
+        /** Destination of the lines. */
+        private final PrintStream _out;
+        /** Lines not yet written. */
+        private final StringBuilder _text = new StringBuilder();
+    }
+
+    /** Kinds of byte in the ciphertext. */
+    private static final byte SYMBOL = 0, BLANK = 1, NEWLINE = 2, OTHER = 3,
+        MARK = 4;
+
+    /** Largest part of a file mapped at once. */
+    private static final long MAP_SIZE = 1L << 30;
+
+    /** Characters of output gathered before writing. */
+    private static final int BLOCK = 1 << 16;
+
+    /** Return nothing, but throw an exception if any reflector of SPEC
+     *  maps a character to itself, since then cribs could lie anywhere.
+     *  This covers the wirings of the configuration; a setting line that
+     *  rewires a W reflector is checked where it marks a message, and
+     *  Reflector.rewire accepts only derangements in any case. */
+    static void checkReflectors(MachineSpec spec) {
+        RotorCatalog catalog = spec.catalog();
+        for (String name : catalog.names()) {
+            char type = catalog.type(name);
+            if ((type == 'R' || type == 'W')
+                && !catalog.rotor(name).permutation().derangement()) {
+                throw error("reflector %s maps a character to itself",
+                            name);
+            }
+        }
+    }
+
+    /** The cribs. */
+    private final String[] _cribs;
+    /** Spec against which setting lines are checked, or null. */
+    private final MachineSpec _spec;
+    /** _masks[W][C] has the bits of the crib positions in word W that
+     *  hold character C. */
+    private final long[][] _masks;
+    /** The first and last bit of each crib in each word. */
+    private final long[] _starts, _ends;
+    /** _cribAt[W][B] is the crib whose last bit is bit B of word W. */
+    private final int[][] _cribAt;
+    /** The kind of each byte. */
+    private final byte[] _kind;
+}
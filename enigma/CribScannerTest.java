@@ -0,0 +1,212 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+/** Tests of CribScanner.
+ *  @author Ryan Shih
+ */
+public class CribScannerTest {
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the hits of SCANNER on a file holding TEXT, one
+     *  "MESSAGE OFFSET CRIB CIPHER" string per hit. */
+    private List<String> scan(CribScanner scanner, String text)
+        throws IOException {
+        Path file = Files.createTempFile("cribs", ".txt");
+        List<String> result = new ArrayList<String>();
+        try {
+            Files.write(file, text.getBytes("ISO-8859-1"));
+            scanner.scan(file, (crib, message, offset, cipher, start, len) ->
+                result.add(message + " " + offset + " "
+                           + scanner.crib(crib) + " "
+                           + new String(cipher, start, len)));
+        } finally {
+            Files.delete(file);
+        }
+        return result;
+    }
+
+    /** Return the hits a character-by-character search of the messages
+     *  MESSAGES finds for CRIBS, in the order scan reports them. */
+    private List<String> naive(String[] messages, List<String> cribs) {
+        List<String> result = new ArrayList<String>();
+        for (int m = 0; m < messages.length; m += 1) {
+            String msg = messages[m];
+            for (int end = 0; end < msg.length(); end += 1) {
+                for (String crib : cribs) {
+                    int start = end + 1 - crib.length();
+                    if (start < 0) {
+                        continue;
+                    }
+                    boolean ok = true;
+                    for (int i = 0; i < crib.length(); i += 1) {
+                        ok &= crib.charAt(i) != msg.charAt(start + i);
+                    }
+                    if (ok) {
+                        result.add(m + " " + start + " " + crib + " "
+                                   + msg.substring(start, end + 1));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testFindsCrib() throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        Machine m = spec.newMachine();
+        Main.setUp(m, "* B Beta III IV I AXLE (HQ) (EX)");
+        String plain = "XXXXXXXXXXXXXXXXXWETTERVORHERSAGEXXXXXXXXXX";
+        String cipher = m.convert(plain);
+        CribScanner scanner = new CribScanner(spec.alphabet(),
+            Arrays.asList("WETTERVORHERSAGE"));
+        StringBuilder grouped = new StringBuilder();
+        for (int i = 0; i < cipher.length(); i += 1) {
+            grouped.append(i > 0 && i % 5 == 0 ? " " : "")
+                .append(cipher.charAt(i));
+        }
+        List<String> hits = scan(scanner, grouped + "\n");
+        assertTrue(hits.contains("0 17 WETTERVORHERSAGE "
+                                 + cipher.substring(17, 33)));
+        for (String hit : hits) {
+            int offset = Integer.parseInt(hit.split(" ")[1]);
+            for (int i = 0; i < 16; i += 1) {
+                assertNotEquals(cipher.charAt(offset + i),
+                                "WETTERVORHERSAGE".charAt(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesNaive() throws IOException {
+        Random rand = new Random(5);
+        String[] messages = new String[4];
+        StringBuilder text = new StringBuilder();
+        for (int k = 0; k < messages.length; k += 1) {
+            StringBuilder msg = new StringBuilder();
+            for (int i = 0; i < 300; i += 1) {
+                char c = (char) ('A' + rand.nextInt(4));
+                msg.append(c);
+                text.append(c);
+                if (rand.nextInt(7) == 0) {
+                    text.append(rand.nextBoolean() ? " " : "\n");
+                }
+            }
+            messages[k] = msg.toString();
+            text.append(k % 2 == 0 ? "\n \n*\n\n" : "\n  * \n");
+        }
+        List<String> cribs = new ArrayList<String>();
+        for (int c = 0; c < 12; c += 1) {
+            StringBuilder crib = new StringBuilder();
+            for (int i = 1 + rand.nextInt(20); i > 0; i -= 1) {
+                crib.append((char) ('A' + rand.nextInt(4)));
+            }
+            cribs.add(crib.toString());
+        }
+        CribScanner scanner = new CribScanner(new Alphabet(), cribs);
+        List<String> expected = naive(messages, cribs);
+        List<String> hits = scan(scanner, text.toString());
+        java.util.Collections.sort(expected);
+        java.util.Collections.sort(hits);
+        assertEquals(expected, hits);
+    }
+
+    @Test
+    public void testMessageMarks() throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        String crib = "WETTERVORHERSAGE";
+        String s1 = "* B Beta III IV I AXLE (HQ) (EX)";
+        String s2 = "* B Gamma II V IV AADU (AZ)";
+        Machine m = spec.newMachine();
+        Main.setUp(m, s1);
+        String c1 = m.convert("XXXXXXXXXXWETTERVORHERSAGEXXXX");
+        Main.setUp(m, s2);
+        String c2 = m.convert("XXXXXWETTERVORHERSAGE");
+        CribScanner scanner = new CribScanner(spec, Arrays.asList(crib));
+        List<String> hits = scan(scanner, s1 + "\n" + c1.substring(0, 15)
+                                 + "\n\n" + c1.substring(15) + "\n" + s2
+                                 + "\n" + c2 + "\n");
+        assertTrue(hits.contains("0 10 " + crib + " "
+                                 + c1.substring(10, 26)));
+        assertTrue(hits.contains("1 5 " + crib + " "
+                                 + c2.substring(5, 21)));
+        for (String hit : hits) {
+            assertFalse(hit.startsWith("2 "));
+        }
+        try {
+            scan(scanner, "* B Beta III IV I AXLE (H1)\n" + c2 + "\n");
+            fail("accepted a bad setting line");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testScanAll() throws IOException {
+        CribScanner scanner = new CribScanner(new Alphabet(),
+                                              Arrays.asList("AB", "B"));
+        List<Path> files = new ArrayList<Path>();
+        try {
+            for (int k = 0; k < 3; k += 1) {
+                Path file = Files.createTempFile("cribs", ".txt");
+                files.add(file);
+                Files.write(file, "BAB\n".getBytes("ISO-8859-1"));
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            scanner.scanAll(files, 2, new PrintStream(bytes, true));
+            String out = bytes.toString();
+            for (Path file : files) {
+                assertTrue(out.contains(file + " 0 0 AB BA\n"));
+                assertTrue(out.contains(file + " 0 1 B A\n"));
+                assertFalse(out.contains(file + " 0 1 AB AB\n"));
+            }
+            assertEquals(6, out.split("\n").length);
+        } finally {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testBadCribs() {
+        try {
+            new CribScanner(new Alphabet(), Arrays.asList("AB1"));
+            fail("accepted a character outside the alphabet");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        char[] longCrib = new char[CribScanner.MAX_CRIB + 1];
+        Arrays.fill(longCrib, 'A');
+        try {
+            new CribScanner(new Alphabet(),
+                            Arrays.asList(new String(longCrib)));
+            fail("accepted a crib that is too long");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            CribScanner.checkReflectors(Main.readSpec(new Scanner(
+                "ABCD\n 2 1\n I MA (ABCD)\n R R (AB)\n")));
+            fail("accepted a reflector with fixed points");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package enigma;
+
+import java.nio.CharBuffer;
+
+/** A compiled form of a machine's moving rotors, used by Machine for
+ *  bulk conversion.  Everything the inner loop needs is copied into flat
+ *  arrays when the engine is built: each moving rotor's permutation as a
+ *  table by setting (see Permutation.settingTable) and its notches as a
+ *  boolean array.  The loop then keeps the rotor positions in local
+ *  variables and makes no calls on Rotor objects, so it is one
+ *  monomorphic loop that the JIT compiles whole, with no virtual
+ *  dispatch and no instanceof tests.  Machines with three, four or five
+ *  moving rotors, which is every historical model once the fixed rotors
+ *  are folded, each get a loop of their own, unrolled over the rotors;
+ *  others share a general loop.  Mapped permutations (see
+ *  MappedPermutation) read their tables by setting straight from the
+ *  mapped file, in a loop for three moving rotors and a general one.
+ *  Permutations with no tables by setting at all, because their
+ *  alphabets are too large, go through a general loop that looks each
+ *  character up by Permutation.imageAt.
+ *
+ *  An engine holds nothing of any one machine, and is shared through
+ *  RotorCatalog by every machine with the same moving rotors in the same
+ *  order.  Each call is given the machine's rotors, whose positions it
+ *  reads at the start and writes back at the end, with the machine's
+ *  step counters, plugboard table and fold table, so that the machine
+ *  is left exactly as its per-rotor path would leave it.
+ *  @author Ryan Shih
+ */
+final class Engine {
+
+    /** Return an engine for the moving rotors in slots FIRST and up of
+     *  ROTORS. */
+    static Engine compile(Rotor[] rotors, int first) {
+        int k = rotors.length - first;
+        int[][] forward = new int[k][], inverse = new int[k][];
+        for (int j = 0; j < k; j += 1) {
+            Permutation p = rotors[first + j].permutation();
+            forward[j] = p.settingTable(false);
+            inverse[j] = p.settingTable(true);
+            if (forward[j] == null || inverse[j] == null) {
+                return new Engine(rotors, first, null, null);
+            }
+        }
+        return new Engine(rotors, first, forward, inverse);
+    }
+
+    /** Return the mapped tables by setting of the permutations of
+     *  ROTORS in slots FIRST and up, forward or if INVERSE inverse, or
+     *  null if some permutation has none. */
+    private static CharBuffer[] mapped(Rotor[] rotors, int first,
+                                       boolean inverse) {
+        CharBuffer[] result = new CharBuffer[rotors.length - first];
+        for (int j = 0; j < result.length; j += 1) {
+            Permutation p = rotors[first + j].permutation();
+            if (!(p instanceof MappedPermutation)) {
+                return null;
+            }
+            result[j] = ((MappedPermutation) p).settingBuffer(inverse);
+            if (result[j] == null) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /** An engine for the moving rotors in slots FIRST and up of ROTORS,
+     *  which have the tables by setting FORWARD and INVERSE, or null if
+     *  they are to be looked up by Permutation.imageAt. */
+    private Engine(Rotor[] rotors, int first, int[][] forward,
+                   int[][] inverse) {
+        int k = rotors.length - first;
+        _n = rotors[0].size();
+        _forward = forward;
+        _inverse = inverse;
+        if (forward == null) {
+            _forwardMapped = mapped(rotors, first, false);
+            _inverseMapped = mapped(rotors, first, true);
+        } else {
+            _forwardMapped = _inverseMapped = null;
+        }
+        _wirings = new Permutation[k];
+        _names = new String[k];
+        _notch = new boolean[k][_n];
+        for (int j = 0; j < k; j += 1) {
+            Rotor r = rotors[first + j];
+            _wirings[j] = r.permutation();
+            _names[j] = r.name();
+            for (int p = 0; p < _n; p += 1) {
+                _notch[j][p] = r.notchAt(p);
+            }
+        }
+    }
+
+    /** Return true iff I was compiled from moving rotors with the same
+     *  names and permutations as those in slots FIRST and up of
+     *  ROTORS.  Within a catalog, a rotor's name stands for its
+     *  notches. */
+    boolean matches(Rotor[] rotors, int first) {
+        if (rotors.length - first != _wirings.length) {
+            return false;
+        }
+        for (int j = 0; j < _wirings.length; j += 1) {
+            Rotor r = rotors[first + j];
+            if (r.permutation() != _wirings[j]
+                || !r.name().equals(_names[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Convert the LEN characters of BUF starting at OFF in place, as
+     *  Machine.convert(char[], int, int) does for a machine with my
+     *  moving rotors at the end of ROTORS, step counters COUNTERS
+     *  (Machine.settings), plugboard table PLUG, fold table FOLD and
+     *  alphabet ALPHA. */
+    void convert(Rotor[] rotors, int[] counters, int[] plug, int[] fold,
+                 char[] buf, int off, int len, Alphabet alpha) {
+        if (_forwardMapped != null && _forwardMapped.length == 3) {
+            convertMapped3(rotors, counters, plug, fold, buf, off, len,
+                           alpha);
+            return;
+        } else if (_forwardMapped != null) {
+            convertMapped(rotors, counters, plug, fold, buf, off, len,
+                          alpha);
+            return;
+        } else if (_forward == null) {
+            convertWired(rotors, counters, plug, fold, buf, off, len, alpha);
+            return;
+        }
+        switch (_forward.length) {
+            case 3:
+                convert3(rotors, counters, plug, fold, buf, off, len, alpha);
+                break;
+            case 4:
+                convert4(rotors, counters, plug, fold, buf, off, len, alpha);
+                break;
+            case 5:
+                convert5(rotors, counters, plug, fold, buf, off, len, alpha);
+                break;
+            default:
+                convertAny(rotors, counters, plug, fold, buf, off, len,
+                           alpha);
+                break;
+        }
+    }
+
+    /** Return P advanced by one position. */
+    private int next(int p) {
+        return p + 1 == _n ? 0 : p + 1;
+    }
+
+    /** As for convert, with three moving rotors, A to C from left to
+     *  right. */
+    private void convert3(Rotor[] rotors, int[] counters, int[] plug,
+                          int[] fold, char[] buf, int off, int len,
+                          Alphabet alpha) {
+        final int n = _n, first = rotors.length - 3;
+        final int[] fa = _forward[0], fb = _forward[1], fc = _forward[2];
+        final int[] ia = _inverse[0], ib = _inverse[1], ic = _inverse[2];
+        final boolean[] nb = _notch[1], nc = _notch[2];
+        int pa = rotors[first + 0]._setting, pb = rotors[first + 1]._setting,
+            pc = rotors[first + 2]._setting;
+        int sa = 0, sb = 0;
+        for (int i = off; i < off + len; i += 1) {
+            if (nb[pb]) {
+                pa = next(pa);
+                pb = next(pb);
+                sa += 1;
+                sb += 1;
+            } else if (nc[pc]) {
+                pb = next(pb);
+                sb += 1;
+            }
+            pc = next(pc);
+            int oa = pa * n, ob = pb * n, oc = pc * n;
+            int x = plug[alpha.toInt(buf[i])];
+            x = fold[fa[oa + fb[ob + fc[oc + x]]]];
+            buf[i] = alpha.toChar(plug[ic[oc + ib[ob + ia[oa + x]]]]);
+        }
+        rotors[first + 0]._setting = pa;
+        rotors[first + 1]._setting = pb;
+        rotors[first + 2]._setting = pc;
+        count(counters, first + 0, sa);
+        count(counters, first + 1, sb);
+        count(counters, first + 2, len);
+    }
+
+    /** As for convert, with four moving rotors, A to D from left to
+     *  right. */
+    private void convert4(Rotor[] rotors, int[] counters, int[] plug,
+                          int[] fold, char[] buf, int off, int len,
+                          Alphabet alpha) {
+        final int n = _n, first = rotors.length - 4;
+        final int[] fa = _forward[0], fb = _forward[1], fc = _forward[2],
+            fd = _forward[3];
+        final int[] ia = _inverse[0], ib = _inverse[1], ic = _inverse[2],
+            id = _inverse[3];
+        final boolean[] nb = _notch[1], nc = _notch[2], nd = _notch[3];
+        int pa = rotors[first + 0]._setting, pb = rotors[first + 1]._setting,
+            pc = rotors[first + 2]._setting, pd = rotors[first + 3]._setting;
+        int sa = 0, sb = 0, sc = 0;
+        for (int i = off; i < off + len; i += 1) {
+            if (nb[pb]) {
+                pa = next(pa);
+                pb = next(pb);
+                pc = next(pc);
+                sa += 1;
+                sb += 1;
+                sc += 1;
+            } else if (nc[pc]) {
+                pb = next(pb);
+                pc = next(pc);
+                sb += 1;
+                sc += 1;
+            } else if (nd[pd]) {
+                pc = next(pc);
+                sc += 1;
+            }
+            pd = next(pd);
+            int oa = pa * n, ob = pb * n, oc = pc * n, od = pd * n;
+            int x = plug[alpha.toInt(buf[i])];
+            x = fold[fa[oa + fb[ob + fc[oc + fd[od + x]]]]];
+            x = id[od + ic[oc + ib[ob + ia[oa + x]]]];
+            buf[i] = alpha.toChar(plug[x]);
+        }
+        rotors[first + 0]._setting = pa;
+        rotors[first + 1]._setting = pb;
+        rotors[first + 2]._setting = pc;
+        rotors[first + 3]._setting = pd;
+        count(counters, first + 0, sa);
+        count(counters, first + 1, sb);
+        count(counters, first + 2, sc);
+        count(counters, first + 3, len);
+    }
+
+    /** As for convert, with five moving rotors, A to E from left to
+     *  right. */
+    private void convert5(Rotor[] rotors, int[] counters, int[] plug,
+                          int[] fold, char[] buf, int off, int len,
+                          Alphabet alpha) {
+        final int n = _n, first = rotors.length - 5;
+        final int[] fa = _forward[0], fb = _forward[1], fc = _forward[2],
+            fd = _forward[3], fe = _forward[4];
+        final int[] ia = _inverse[0], ib = _inverse[1], ic = _inverse[2],
+            id = _inverse[3], ie = _inverse[4];
+        final boolean[] nb = _notch[1], nc = _notch[2], nd = _notch[3],
+            ne = _notch[4];
+        int pa = rotors[first + 0]._setting, pb = rotors[first + 1]._setting,
+            pc = rotors[first + 2]._setting, pd = rotors[first + 3]._setting,
+            pe = rotors[first + 4]._setting;
+        int sa = 0, sb = 0, sc = 0, sd = 0;
+        for (int i = off; i < off + len; i += 1) {
+            if (nb[pb]) {
+                pa = next(pa);
+                pb = next(pb);
+                pc = next(pc);
+                pd = next(pd);
+                sa += 1;
+                sb += 1;
+                sc += 1;
+                sd += 1;
+            } else if (nc[pc]) {
+                pb = next(pb);
+                pc = next(pc);
+                pd = next(pd);
+                sb += 1;
+                sc += 1;
+                sd += 1;
+            } else if (nd[pd]) {
+                pc = next(pc);
+                pd = next(pd);
+                sc += 1;
+                sd += 1;
+            } else if (ne[pe]) {
+                pd = next(pd);
+                sd += 1;
+            }
+            pe = next(pe);
+            int oa = pa * n, ob = pb * n, oc = pc * n, od = pd * n,
+                oe = pe * n;
+            int x = plug[alpha.toInt(buf[i])];
+            x = fold[fa[oa + fb[ob + fc[oc + fd[od + fe[oe + x]]]]]];
+            x = ie[oe + id[od + ic[oc + ib[ob + ia[oa + x]]]]];
+            buf[i] = alpha.toChar(plug[x]);
+        }
+        rotors[first + 0]._setting = pa;
+        rotors[first + 1]._setting = pb;
+        rotors[first + 2]._setting = pc;
+        rotors[first + 3]._setting = pd;
+        rotors[first + 4]._setting = pe;
+        count(counters, first + 0, sa);
+        count(counters, first + 1, sb);
+        count(counters, first + 2, sc);
+        count(counters, first + 3, sd);
+        count(counters, first + 4, len);
+    }
+
+    /** As for convert, with any number of moving rotors. */
+    private void convertAny(Rotor[] rotors, int[] counters, int[] plug,
+                            int[] fold, char[] buf, int off, int len,
+                            Alphabet alpha) {
+        final int n = _n, k = _forward.length, first = rotors.length - k;
+        final int[][] forward = _forward, inverse = _inverse;
+        int[] pos = new int[k], steps = new int[k];
+        for (int j = 0; j < k; j += 1) {
+            pos[j] = rotors[first + j]._setting;
+        }
+        for (int i = off; i < off + len; i += 1) {
+            step(pos, steps);
+            int x = plug[alpha.toInt(buf[i])];
+            for (int j = k - 1; j >= 0; j -= 1) {
+                x = forward[j][pos[j] * n + x];
+            }
+            x = fold[x];
+            for (int j = 0; j < k; j += 1) {
+                x = inverse[j][pos[j] * n + x];
+            }
+            buf[i] = alpha.toChar(plug[x]);
+        }
+        for (int j = 0; j < k; j += 1) {
+            rotors[first + j]._setting = pos[j];
+            count(counters, first + j, steps[j]);
+        }
+    }
+
+    /** As convert3 does, for three rotors with mapped tables by
+     *  setting. */
+    private void convertMapped3(Rotor[] rotors, int[] counters, int[] plug,
+                                int[] fold, char[] buf, int off, int len,
+                                Alphabet alpha) {
+        final int n = _n, first = rotors.length - 3;
+        final CharBuffer fa = _forwardMapped[0], fb = _forwardMapped[1],
+            fc = _forwardMapped[2];
+        final CharBuffer ia = _inverseMapped[0], ib = _inverseMapped[1],
+            ic = _inverseMapped[2];
+        final boolean[] nb = _notch[1], nc = _notch[2];
+        int pa = rotors[first + 0]._setting, pb = rotors[first + 1]._setting,
+            pc = rotors[first + 2]._setting;
+        int sa = 0, sb = 0;
+        for (int i = off; i < off + len; i += 1) {
+            if (nb[pb]) {
+                pa = next(pa);
+                pb = next(pb);
+                sa += 1;
+                sb += 1;
+            } else if (nc[pc]) {
+                pb = next(pb);
+                sb += 1;
+            }
+            pc = next(pc);
+            int oa = pa * n, ob = pb * n, oc = pc * n;
+            int x = plug[alpha.toInt(buf[i])];
+            x = fold[fa.get(oa + fb.get(ob + fc.get(oc + x)))];
+            x = ic.get(oc + ib.get(ob + ia.get(oa + x)));
+            buf[i] = alpha.toChar(plug[x]);
+        }
+        rotors[first + 0]._setting = pa;
+        rotors[first + 1]._setting = pb;
+        rotors[first + 2]._setting = pc;
+        count(counters, first + 0, sa);
+        count(counters, first + 1, sb);
+        count(counters, first + 2, len);
+    }
+
+    /** As for convert, for rotors with mapped tables by setting. */
+    private void convertMapped(Rotor[] rotors, int[] counters, int[] plug,
+                               int[] fold, char[] buf, int off, int len,
+                               Alphabet alpha) {
+        final int n = _n, k = _wirings.length, first = rotors.length - k;
+        final CharBuffer[] forward = _forwardMapped, inverse = _inverseMapped;
+        int[] pos = new int[k], steps = new int[k];
+        for (int j = 0; j < k; j += 1) {
+            pos[j] = rotors[first + j]._setting;
+        }
+        for (int i = off; i < off + len; i += 1) {
+            step(pos, steps);
+            int x = plug[alpha.toInt(buf[i])];
+            for (int j = k - 1; j >= 0; j -= 1) {
+                x = forward[j].get(pos[j] * n + x);
+            }
+            x = fold[x];
+            for (int j = 0; j < k; j += 1) {
+                x = inverse[j].get(pos[j] * n + x);
+            }
+            buf[i] = alpha.toChar(plug[x]);
+        }
+        for (int j = 0; j < k; j += 1) {
+            rotors[first + j]._setting = pos[j];
+            count(counters, first + j, steps[j]);
+        }
+    }
+
+    /** As for convert, for rotors without tables by setting. */
+    private void convertWired(Rotor[] rotors, int[] counters, int[] plug,
+                              int[] fold, char[] buf, int off, int len,
+                              Alphabet alpha) {
+        final int k = _wirings.length, first = rotors.length - k;
+        int[] pos = new int[k], steps = new int[k];
+        for (int j = 0; j < k; j += 1) {
+            pos[j] = rotors[first + j]._setting;
+        }
+        for (int i = off; i < off + len; i += 1) {
+            step(pos, steps);
+            int c = image(pos, plug, fold, alpha.toInt(buf[i]));
+            buf[i] = alpha.toChar(c);
+        }
+        for (int j = 0; j < k; j += 1) {
+            rotors[first + j]._setting = pos[j];
+            count(counters, first + j, steps[j]);
+        }
+    }
+
+    /** Return the image of C under a machine whose moving rotors, which
+     *  have no tables by setting, are at positions POS, with plugboard
+     *  table PLUG and fold table FOLD. */
+    private int image(int[] pos, int[] plug, int[] fold, int c) {
+        final Permutation[] wirings = _wirings;
+        final int k = wirings.length;
+        int x = plug[c];
+        for (int j = k - 1; j >= 0; j -= 1) {
+            x = wirings[j].imageAt(x, pos[j], false);
+        }
+        x = fold[x];
+        for (int j = 0; j < k; j += 1) {
+            x = wirings[j].imageAt(x, pos[j], true);
+        }
+        return plug[x];
+    }
+
+    /** Advance my rotors at the end of ROTORS LEN times, as converting LEN
+     *  characters would, with COUNTERS, PLUG and FOLD as for convert, and
+     *  after advance I (from 0) write the image of each symbol C under
+     *  the machine's permutation at that point into OUT[C * LEN + I].
+     *  OUT thus holds one column of LEN images for each symbol. */
+    void keystream(Rotor[] rotors, int[] counters, int[] plug, int[] fold,
+                   int len, int[] out) {
+        final int n = _n, k = _wirings.length, first = rotors.length - k;
+        final int[][] forward = _forward, inverse = _inverse;
+        int[] pos = new int[k], steps = new int[k], offsets = new int[k];
+        for (int j = 0; j < k; j += 1) {
+            pos[j] = rotors[first + j]._setting;
+        }
+        for (int i = 0; i < len; i += 1) {
+            step(pos, steps);
+            if (forward == null) {
+                for (int c = 0; c < n; c += 1) {
+                    out[c * len + i] = image(pos, plug, fold, c);
+                }
+                continue;
+            }
+            for (int j = 0; j < k; j += 1) {
+                offsets[j] = pos[j] * n;
+            }
+            for (int c = 0; c < n; c += 1) {
+                int x = plug[c];
+                for (int j = k - 1; j >= 0; j -= 1) {
+                    x = forward[j][offsets[j] + x];
+                }
+                x = fold[x];
+                for (int j = 0; j < k; j += 1) {
+                    x = inverse[j][offsets[j] + x];
+                }
+                out[c * len + i] = plug[x];
+            }
+        }
+        for (int j = 0; j < k; j += 1) {
+            rotors[first + j]._setting = pos[j];
+            count(counters, first + j, steps[j]);
+        }
+    }
+
+    /** Advance the positions POS of my moving rotors by the stepping
+     *  rule, adding one to STEPS[J] for each rotor J advanced. */
+    private void step(int[] pos, int[] steps) {
+        int k = pos.length;
+        int j = 0;
+        while (j < k - 1 && !_notch[j + 1][pos[j + 1]]) {
+            j += 1;
+        }
+        for (; j < k; j += 1) {
+            pos[j] = next(pos[j]);
+            steps[j] += 1;
+        }
+    }
+
+    /** Add STEPS to the step counter in COUNTERS of the rotor in
+     *  SLOT. */
+    private static void count(int[] counters, int slot, int steps) {
+        counters[slot - 1] += steps;
+    }
+
+    /** Size of the alphabet. */
+    private final int _n;
+    /** The permutations and names of my moving rotors, from left to
+     *  right. */
+    private final Permutation[] _wirings;
+    private final String[] _names;
+    /** Mapped tables by setting of each moving rotor, forward and
+     *  inverse, if _forward is null and they have them, else null. */
+    private final CharBuffer[] _forwardMapped, _inverseMapped;
+    /** Tables by setting of each moving rotor, forward and inverse, or
+     *  null if they go through imageAt. */
+    private final int[][] _forward, _inverse;
+    /** Whether each moving rotor has a notch at each position. */
+    private final boolean[][] _notch;
+}
@@ -0,0 +1,175 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Engine class.
+ *  @author Ryan Shih
+ */
+public class EngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Check that M1, using the engine, and M2, not using it, convert
+     *  TEXT alike in pieces of random length drawn from RAND, and are
+     *  left in the same state. */
+    private static void checkSame(Machine m1, Machine m2, char[] text,
+                                  Random rand) {
+        m2.useEngine(false);
+        char[] b1 = text.clone(), b2 = text.clone();
+        for (int i = 0; i < text.length; ) {
+            int len = Math.min(text.length - i, rand.nextInt(200));
+            m1.convert(b1, i, len);
+            m2.convert(b2, i, len);
+            i += len;
+        }
+        assertArrayEquals(b2, b1);
+        assertArrayEquals(m2.settings, m1.settings);
+        assertEquals(m2.processed(), m1.processed());
+        for (int s = 0; s < m1.numRotors(); s += 1) {
+            assertEquals(m2.rotor(s).setting(), m1.rotor(s).setting());
+        }
+    }
+
+    @Test
+    public void testNavy() {
+        MachineSpec spec = Samples.navySpec();
+        Random rand = new Random(5);
+        char[] text = new char[5000];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = (char) ('A' + rand.nextInt(26));
+        }
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "* B Gamma II V IV AADU (AZ)",
+            "* B Gamma I V II ZZDU (QW)",
+        };
+        for (String setting : settings) {
+            Machine m1 = spec.newMachine(), m2 = spec.newMachine();
+            Main.setUp(m1, setting);
+            Main.setUp(m2, setting);
+            checkSame(m1, m2, text, rand);
+        }
+    }
+
+    @Test
+    public void testGeneratedConfigs() {
+        Random rand = new Random(7);
+        for (int k = 0; k < 60; k += 1) {
+            char[] alpha = Fuzz.randomAlphabet(2 + 2 * rand.nextInt(20),
+                                               rand);
+            int slots = 2 + rand.nextInt(6);
+            int pawls = rand.nextInt(slots);
+            MachineSpec spec = Main.readSpec(new Scanner(
+                Fuzz.randomConfig(alpha, slots, pawls, rand)));
+            String setting = Fuzz.randomSetting(alpha, slots, pawls, rand);
+            Machine m1 = spec.newMachine(), m2 = spec.newMachine();
+            Main.setUp(m1, setting);
+            Main.setUp(m2, setting);
+            char[] text = new char[1000];
+            for (int i = 0; i < text.length; i += 1) {
+                text[i] = alpha[rand.nextInt(alpha.length)];
+            }
+            checkSame(m1, m2, text, rand);
+        }
+    }
+
+    @Test
+    public void testLargeAlphabet() {
+        int n = 600;
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            chars.append((char) (0x100 + i));
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        Random rand = new Random(11);
+        RotorCatalog catalog = new RotorCatalog(alpha);
+        for (String name : new String[] {"I", "II", "III"}) {
+            StringBuilder cycle = new StringBuilder("(");
+            for (int i : shuffled(n, rand)) {
+                cycle.append(chars.charAt(i));
+            }
+            catalog.add(name, 'M', chars.substring(0, 7), cycle + ")");
+        }
+        StringBuilder pairs = new StringBuilder();
+        int[] order = shuffled(n, rand);
+        for (int i = 0; i < n; i += 2) {
+            pairs.append('(').append(chars.charAt(order[i]))
+                .append(chars.charAt(order[i + 1])).append(')');
+        }
+        catalog.add("R", 'R', "", pairs.toString());
+        MachineSpec spec = new MachineSpec(alpha, 4, 3, catalog);
+        assertNull(catalog.rotor("I").permutation().settingTable(false));
+        Machine m1 = spec.newMachine(), m2 = spec.newMachine();
+        for (Machine m : new Machine[] {m1, m2}) {
+            m.insertRotors(new String[] {"R", "I", "II", "III"});
+            m.setRotor(1, 3);
+            m.setRotor(2, 5);
+            m.setRotor(3, 590);
+            m.setPlugboard(new Permutation("", alpha));
+        }
+        char[] text = new char[3000];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = chars.charAt(rand.nextInt(n));
+        }
+        checkSame(m1, m2, text, rand);
+    }
+
+    /** Return the numbers 0 .. N-1 in an order drawn from RAND. */
+    private static int[] shuffled(int n, Random rand) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            int j = rand.nextInt(i + 1);
+            result[i] = result[j];
+            result[j] = i;
+        }
+        return result;
+    }
+
+    @Test
+    public void testShared() {
+        MachineSpec spec = Samples.navySpec();
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX)",
+            "* B Gamma III IV I QQDU (AZ)",
+        };
+        Machine[] shared = new Machine[2], plain = new Machine[2];
+        for (int k = 0; k < 2; k += 1) {
+            shared[k] = spec.newMachine();
+            plain[k] = spec.newMachine();
+            Main.setUp(shared[k], settings[k]);
+            Main.setUp(plain[k], settings[k]);
+            plain[k].useEngine(false);
+        }
+        for (int i = 0; i < 50; i += 1) {
+            for (int k = 0; k < 2; k += 1) {
+                assertEquals(plain[k].convert("HELLOWORLD"),
+                             shared[k].convert("HELLOWORLD"));
+                assertArrayEquals(plain[k].settings, shared[k].settings);
+            }
+        }
+    }
+
+    @Test
+    public void testRecompile() {
+        MachineSpec spec = Samples.navySpec();
+        Machine m1 = spec.newMachine(), m2 = spec.newMachine();
+        Main.setUp(m1, "* B Beta III IV I AXLE (HQ)");
+        Main.setUp(m2, "* B Beta III IV I AXLE (HQ)");
+        m2.useEngine(false);
+        assertEquals(m2.convert("HELLOWORLD"), m1.convert("HELLOWORLD"));
+        Main.setUp(m1, "* B Gamma I II III QQQQ (AB) (CD)");
+        Main.setUp(m2, "* B Gamma I II III QQQQ (AB) (CD)");
+        assertEquals(m2.convert("HELLOWORLD"), m1.convert("HELLOWORLD"));
+        m1.setRotor(3, 21);
+        m2.setRotor(3, 21);
+        assertEquals(m2.convert("HELLOWORLD"), m1.convert("HELLOWORLD"));
+    }
+}
@@ -0,0 +1,285 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/** Streams over files that overlap their I/O with the work of the caller.
+ *  An Input keeps reads of the next several blocks of its file in flight
+ *  while the caller consumes the current one, and an Output hands each
+ *  filled block to the operating system to write while the caller fills
+ *  the next.  Each uses a ring of reusable direct buffers, so that in
+ *  the steady state reading, converting and writing all proceed at once
+ *  and no buffer is allocated.  Blocks are read and written at explicit
+ *  file positions, so completions may arrive in any order.
+ *
+ *  The streams carry bytes only: lines, and the setting lines among
+ *  them, are found by whatever reads the Input, so a line split across
+ *  two blocks needs no special handling here.
+ *  @author Ryan Shih
+ */
+class FilePipeline {
+
+    /** Size in bytes of each buffer.  May be set with the
+     *  enigma.pipelineBufferSize system property. */
+    static final int BUFFER_SIZE =
+        Integer.getInteger("enigma.pipelineBufferSize", 1 << 20);
+
+    /** An input stream reading a file ahead of its caller. */
+    static class Input extends InputStream {
+
+        /** A stream reading FILE with BUFFERS blocks of SIZE bytes. */
+        Input(Path file, int buffers, int size) throws IOException {
+            this(file, 0, buffers, size);
+        }
+
+        /** A stream reading FILE, starting at byte START, with BUFFERS
+         *  blocks of SIZE bytes. */
+        Input(Path file, long start, int buffers, int size)
+            throws IOException {
+            if (buffers < 2 || size <= 0) {
+                throw new IllegalArgumentException("bad pipeline size");
+            }
+            _channel = AsynchronousFileChannel.open(file,
+                                                    StandardOpenOption.READ);
+            _size = size;
+            _position = start;
+            _buffers = new ByteBuffer[buffers];
+            _offsets = new long[buffers];
+            _reads = newFutures(buffers);
+            for (int i = 0; i < buffers; i += 1) {
+                _buffers[i] = ByteBuffer.allocateDirect(size);
+                issue(i);
+            }
+            _current = ByteBuffer.allocate(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return _current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, _current.remaining());
+            _current.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return _current.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+
+        /** Make sure the current buffer has bytes left, moving on to the
+         *  next block if not.  Return false at the end of the file. */
+        private boolean fill() throws IOException {
+            while (!_current.hasRemaining()) {
+                if (_eof) {
+                    return false;
+                }
+                if (_started) {
+                    issue(_next);
+                    _next = (_next + 1) % _buffers.length;
+                }
+                _started = true;
+                ByteBuffer buf = _buffers[_next];
+                long offset = _offsets[_next];
+                int n = await(_reads[_next]);
+                while (n >= 0 && buf.hasRemaining()) {
+                    n = await(_channel.read(buf, offset + buf.position()));
+                }
+                _eof = buf.hasRemaining();
+                buf.flip();
+                _current = buf;
+            }
+            return true;
+        }
+
+        /** Start reading the next unread block of the file into buffer
+         *  number I. */
+        private void issue(int i) {
+            ByteBuffer buf = _buffers[i];
+            buf.clear();
+            _offsets[i] = _position;
+            _reads[i] = _channel.read(buf, _position);
+            _position += _size;
+        }
+
+        /** The file being read. */
+        private final AsynchronousFileChannel _channel;
+        /** Size of each block. */
+        private final int _size;
+        /** The ring of buffers, and the file offset of each one's block. */
+        private final ByteBuffer[] _buffers;
+        private final long[] _offsets;
+        /** The read in flight into each buffer. */
+        private final Future<Integer>[] _reads;
+        /** The buffer being consumed. */
+        private ByteBuffer _current;
+        /** Index of the buffer being consumed. */
+        private int _next;
+        /** Offset of the first block not yet requested. */
+        private long _position;
+        /** True once the first block has been taken. */
+        private boolean _started;
+        /** True once a block has been found to end the file. */
+        private boolean _eof;
+    }
+
+    /** An output stream writing a file behind its caller. */
+    static class Output extends OutputStream {
+
+        /** A stream writing FILE, starting at byte START, with BUFFERS
+         *  blocks of SIZE bytes.  FILE is first cut to START bytes, so
+         *  START is 0 to replace it. */
+        Output(Path file, long start, int buffers, int size)
+            throws IOException {
+            if (buffers < 2 || size <= 0) {
+                throw new IllegalArgumentException("bad pipeline size");
+            }
+            _channel = AsynchronousFileChannel.open(file,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            _channel.truncate(start);
+            _position = start;
+            _buffers = new ByteBuffer[buffers];
+            _offsets = new long[buffers];
+            _writes = newFutures(buffers);
+            for (int i = 0; i < buffers; i += 1) {
+                _buffers[i] = ByteBuffer.allocateDirect(size);
+            }
+            _current = _buffers[0];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!_current.hasRemaining()) {
+                submit();
+            }
+            _current.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!_current.hasRemaining()) {
+                    submit();
+                }
+                int n = Math.min(len, _current.remaining());
+                _current.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /** Write out everything given to me so far, and wait until it
+         *  has been written. */
+        @Override
+        public void flush() throws IOException {
+            if (_current.position() > 0) {
+                submit();
+            }
+            for (int i = 0; i < _buffers.length; i += 1) {
+                finish(i);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                _channel.close();
+            }
+        }
+
+        /** Start writing the current buffer and move on to the next one,
+         *  waiting for that one's previous write to finish. */
+        private void submit() throws IOException {
+            ByteBuffer buf = _current;
+            buf.flip();
+            int length = buf.remaining();
+            _offsets[_next] = _position;
+            _writes[_next] = _channel.write(buf, _position);
+            _position += length;
+            _next = (_next + 1) % _buffers.length;
+            finish(_next);
+            _current = _buffers[_next];
+            _current.clear();
+        }
+
+        /** Wait until the write from buffer I, if any, is complete,
+         *  writing whatever part of it the first attempt did not. */
+        private void finish(int i) throws IOException {
+            if (_writes[i] == null) {
+                return;
+            }
+            ByteBuffer buf = _buffers[i];
+            await(_writes[i]);
+            _writes[i] = null;
+            while (buf.hasRemaining()) {
+                await(_channel.write(buf, _offsets[i] + buf.position()));
+            }
+        }
+
+        /** The file being written. */
+        private final AsynchronousFileChannel _channel;
+        /** The ring of buffers, and the file offset of each one's block. */
+        private final ByteBuffer[] _buffers;
+        private final long[] _offsets;
+        /** The write in flight from each buffer, or null. */
+        private final Future<Integer>[] _writes;
+        /** The buffer being filled. */
+        private ByteBuffer _current;
+        /** Index of the buffer being filled. */
+        private int _next;
+        /** File offset of the start of the current buffer. */
+        private long _position;
+    }
+
+    /** Return an array of N futures, all null. */
+    @SuppressWarnings("unchecked")
+    private static Future<Integer>[] newFutures(int n) {
+        return (Future<Integer>[]) new Future<?>[n];
+    }
+
+    /** Return the result of the I/O operation OP, once it is done. */
+    private static int await(Future<Integer> op) throws IOException {
+        try {
+            return op.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof IOException) {
+                throw (IOException) excp.getCause();
+            }
+            throw new IOException(excp.getCause());
+        }
+    }
+
+    /** Not instantiable. */
+    private FilePipeline() {
+    }
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the FilePipeline class.
+ *  @author Ryan Shih
+ */
+public class FilePipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the whole of IN, read in pieces of random sizes. */
+    private byte[] readAll(InputStream in, Random rand) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buf = new byte[100];
+        int n;
+        while ((n = in.read(buf, 0, 1 + rand.nextInt(buf.length))) >= 0) {
+            result.write(buf, 0, n);
+            if (rand.nextInt(10) == 0) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                result.write(b);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random rand = new Random(5);
+        Path file = Files.createTempFile("pipeline", ".bin");
+        try {
+            for (int size : new int[] {1, 7, 64, 1000}) {
+                byte[] data = new byte[rand.nextInt(5000)];
+                rand.nextBytes(data);
+                try (OutputStream out =
+                         new FilePipeline.Output(file, 0, 3, size)) {
+                    int k = 0;
+                    while (k < data.length) {
+                        int n = Math.min(data.length - k, rand.nextInt(90));
+                        out.write(data, k, n);
+                        k += n;
+                    }
+                }
+                assertArrayEquals(data, Files.readAllBytes(file));
+                try (InputStream in = new FilePipeline.Input(file, 2, size)) {
+                    assertArrayEquals(data, readAll(in, rand));
+                    assertEquals(-1, in.read());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testAppendAfterStart() throws IOException {
+        Path file = Files.createTempFile("pipeline", ".txt");
+        try {
+            Files.writeString(file, "first line\nsecond");
+            try (OutputStream out =
+                     new FilePipeline.Output(file, 11, 2, 4)) {
+                out.write("next line\n".getBytes());
+            }
+            assertEquals("first line\nnext line\n", Files.readString(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLinesAcrossBlocks() throws IOException {
+        Path file = Files.createTempFile("pipeline", ".txt");
+        try {
+            Files.writeString(file, "* B Beta III IV I AXLE\r\nHELLO\n\nWORLD");
+            Scanner sc = new Scanner(new FilePipeline.Input(file, 2, 3));
+            assertEquals("* B Beta III IV I AXLE", sc.nextLine());
+            assertEquals("HELLO", sc.nextLine());
+            assertEquals("", sc.nextLine());
+            assertEquals("WORLD", sc.nextLine());
+            assertFalse(sc.hasNextLine());
+            sc.close();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -9,17 +9,22 @@ class FixedRotor extends Rotor {
 
     /** A non-moving rotor named NAME whose permutation at the 0 setting
      * is given by PERM. */
-    private final String _name;
-    private Permutation _permutation;
-
     FixedRotor(String name, Permutation perm) {
         super(name, perm);
-        _name = name;
-        _permutation = perm;
+    }
+
+    /** A rotor in its 0 setting sharing the wiring of PROTOTYPE. */
+    FixedRotor(FixedRotor prototype) {
+        super(prototype);
+    }
+
+    @Override
+    FixedRotor copy() {
+        return new FixedRotor(this);
     }
 
     @Override
     public String toString() {
-        return "Fixed Rotor " + _name;
+        return "Fixed Rotor " + name();
     }
 }
@@ -0,0 +1,507 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Differential testing of the conversion paths against Reference, the
+ *  frozen copy of the original classes.  Random but valid configurations,
+ *  setting lines, and messages are generated from a seed, and every
+ *  message is converted by each path; the first disagreement in output
+ *  or in rotor state is reported with the seed and inputs that produce
+ *  it.  Throughput and per-message latency percentiles of each path may
+ *  be printed at the end, so that long runs double as a load test.
+ *
+ *  Options (all optional):
+ *      -seed S      seed of the random inputs (default: the time).
+ *      -configs N   number of configurations (default 200).
+ *      -messages N  messages per configuration (default 50).
+ *      -length N    longest message (default 500).
+ *      -corpus DIR  also write each configuration, its input, and the
+ *                   expected output of Main as DIR/fuzzK.conf,
+ *                   DIR/fuzzK.in, and DIR/fuzzK.out, for checking other
+ *                   builds offline.  Messages are written as they are
+ *                   generated, so the files may be of any length.
+ *      -timings     print each path's throughput and latencies.
+ *  Exits with code 1 on the first mismatch.
+ *  @author Ryan Shih
+ */
+public final class Fuzz {
+
+    /** Run the fuzzer as described by the options in ARGS. */
+    public static void main(String... args) {
+        try {
+            new Fuzz(args).run();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Names of the paths compared with Reference. */
+    static final String[] ENGINES = {
+        "reference", "machine", "buffer", "formatter", "trial", "checked"
+    };
+
+    /** Characters that may appear in generated alphabets.  Leaves out
+     *  parentheses, which delimit cycles, '*', which starts setting
+     *  lines, and whitespace. */
+    static final String POOL =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+        + "0123456789!#$%&+,-./:;<=>?@[]^_{|}~";
+
+    /** A fuzzer with options ARGS. */
+    Fuzz(String[] args) {
+        long seed = System.nanoTime();
+        for (int k = 0; k < args.length; k += 1) {
+            String option = args[k];
+            if (option.equals("-timings")) {
+                _timings = true;
+                continue;
+            }
+            k += 1;
+            if (k >= args.length) {
+                throw error("option %s needs an argument", option);
+            }
+            String value = args[k];
+            switch (option) {
+                case "-seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "-configs":
+                    _configs = Integer.parseInt(value);
+                    break;
+                case "-messages":
+                    _messages = Integer.parseInt(value);
+                    break;
+                case "-length":
+                    _length = Integer.parseInt(value);
+                    break;
+                case "-corpus":
+                    _corpus = Paths.get(value);
+                    break;
+                default:
+                    throw error("unknown option %s", option);
+            }
+        }
+        _seed = seed;
+        _latency = new long[ENGINES.length][];
+        _nanos = new long[ENGINES.length];
+        for (int e = 0; e < ENGINES.length; e += 1) {
+            _latency[e] = new long[1024];
+        }
+    }
+
+    /** Generate and check all configurations, then print the timings
+     *  if asked for. */
+    void run() {
+        Random rand = new Random(_seed);
+        for (int k = 0; k < _configs; k += 1) {
+            checkConfig(k, rand);
+        }
+        System.out.printf("seed %d: %d configurations, %d messages,"
+                          + " %d characters, no mismatches%n",
+                          _seed, _configs, _count, _chars);
+        if (!_timings) {
+            return;
+        }
+        System.out.printf("%-10s %14s %10s %10s %10s%n", "path",
+                          "chars/s", "p50 us", "p99 us", "p99.9 us");
+        for (int e = 0; e < ENGINES.length; e += 1) {
+            long[] lat = Arrays.copyOf(_latency[e], _count);
+            Arrays.sort(lat);
+            System.out.printf("%-10s %14.0f %10.2f %10.2f %10.2f%n",
+                              ENGINES[e], _chars / (_nanos[e] / 1e9),
+                              percentile(lat, 0.5) / 1e3,
+                              percentile(lat, 0.99) / 1e3,
+                              percentile(lat, 0.999) / 1e3);
+        }
+    }
+
+    /** Generate configuration number K from RAND and check its messages
+     *  on every path, writing them to the corpus if there is one. */
+    private void checkConfig(int k, Random rand) {
+        int size = 2 * (1 + rand.nextInt(24));
+        char[] alpha = randomAlphabet(size, rand);
+        int slots = 2 + rand.nextInt(5);
+        int pawls = rand.nextInt(slots);
+        String config = randomConfig(alpha, slots, pawls, rand);
+        try (Writer input = corpusWriter(k, ".in", config);
+             Writer expected = corpusWriter(k, ".out", null)) {
+            checkMessages(k, rand, config, alpha, slots, pawls, input,
+                          expected);
+        } catch (IOException excp) {
+            throw error("could not write corpus in %s", _corpus);
+        }
+    }
+
+    /** Check the messages of configuration number K, CONFIG, which has
+     *  alphabet ALPHA, SLOTS slots and PAWLS pawls, drawing them from
+     *  RAND, and write the input and EXPECTED output of Main to INPUT
+     *  and EXPECTED. */
+    private void checkMessages(int k, Random rand, String config,
+                               char[] alpha, int slots, int pawls,
+                               Writer input, Writer expected)
+        throws IOException {
+        MachineSpec spec = Main.readSpec(new Scanner(config));
+        Reference.Machine ref = Reference.readConfig(config);
+        Machine machine = spec.newMachine();
+        Machine buffer = spec.newMachine();
+        Machine formatted = spec.newMachine();
+        Machine checked = spec.newMachine();
+        StringWriter formatOut = new StringWriter();
+        GroupFormatter formatter = new GroupFormatter(formatOut);
+
+        String setting = null;
+        for (int j = 0; j < _messages; j += 1) {
+            if (setting == null || rand.nextInt(8) == 0) {
+                setting = randomSetting(alpha, slots, pawls, rand);
+                Reference.setUp(ref, setting);
+                Main.setUp(machine, setting);
+                Main.setUp(buffer, setting);
+                Main.setUp(formatted, setting);
+                Main.setUp(checked, setting);
+                input.write(setting + "\n");
+            }
+            String msg = randomMessage(alpha, rand);
+            String spaced = spaceOut(msg, rand);
+            input.write(spaced + "\n");
+            Machine trialKey = spec.newMachine();
+            Main.setUp(trialKey, setting);
+            for (int s = 1; s < slots; s += 1) {
+                trialKey.rotor(s).set(machine.rotor(s).setting());
+            }
+
+            long start = System.nanoTime();
+            String want = ref.convert(msg);
+            record(0, start);
+            String line = Reference.messageLine(want);
+            expected.write(line + System.lineSeparator());
+
+            start = System.nanoTime();
+            String got = machine.convert(msg);
+            record(1, start);
+            compare(k, config, setting, msg, "machine", want, got);
+
+            char[] buf = msg.toCharArray();
+            start = System.nanoTime();
+            buffer.convert(buf, 0, buf.length);
+            record(2, start);
+            compare(k, config, setting, msg, "buffer", want,
+                    new String(buf));
+
+            formatOut.getBuffer().setLength(0);
+            start = System.nanoTime();
+            formatter.convertLine(formatted, spaced);
+            record(3, start);
+            compare(k, config, setting, msg, "formatter",
+                    line + System.lineSeparator(), formatOut.toString());
+
+            start = System.nanoTime();
+            got = trial(trialKey, msg);
+            record(4, start);
+            compare(k, config, setting, msg, "trial", want, got);
+
+            compareState(k, config, setting, msg, ref, machine);
+            compareState(k, config, setting, msg, ref, buffer);
+            buf = msg.toCharArray();
+            String valid = allIn(alpha, msg) ? "accepted" : "rejected";
+            start = System.nanoTime();
+            try {
+                checked.convertChecked(buf, 0, buf.length);
+                record(5, start);
+                compare(k, config, setting, msg, "checked", valid,
+                        "accepted");
+                compare(k, config, setting, msg, "checked", want,
+                        new String(buf));
+            } catch (EnigmaException excp) {
+                record(5, start);
+                compare(k, config, setting, msg, "checked", valid,
+                        "rejected");
+                checked.convert(buf, 0, buf.length);
+            }
+
+            compareState(k, config, setting, msg, ref, formatted);
+            compareState(k, config, setting, msg, ref, checked);
+            _count += 1;
+            _chars += msg.length();
+        }
+    }
+
+    /** Return MSG converted by a TrialDecryptor holding the single key
+     *  to which M is set. */
+    private static String trial(Machine m, String msg) {
+        Alphabet alpha = m.alphabet();
+        int[] cipher = new int[msg.length()];
+        for (int i = 0; i < cipher.length; i += 1) {
+            cipher[i] = alpha.toInt(msg.charAt(i));
+        }
+        int[][] positions = new int[1][m.numRotors() - 1];
+        for (int s = 1; s < m.numRotors(); s += 1) {
+            positions[0][s - 1] = m.rotor(s).setting();
+        }
+        int[][] out = new int[1][cipher.length];
+        new TrialDecryptor(m).decrypt(cipher, positions,
+                                      new Permutation[]{m.plugboard()}, out);
+        char[] result = new char[cipher.length];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = alpha.toChar(out[0][i]);
+        }
+        return new String(result);
+    }
+
+    /** Return true iff every character of MSG is in ALPHA. */
+    private static boolean allIn(char[] alpha, String msg) {
+        return msg.chars().allMatch(c -> new String(alpha).indexOf(c) >= 0);
+    }
+
+    /** Add the time since START to the record of path E, if timings
+     *  are kept. */
+    private void record(int e, long start) {
+        if (!_timings) {
+            return;
+        }
+        long t = System.nanoTime() - start;
+        _nanos[e] += t;
+        if (_count == _latency[e].length) {
+            _latency[e] = Arrays.copyOf(_latency[e], 2 * _count);
+        }
+        _latency[e][_count] = t;
+    }
+
+    /** Report a mismatch if path ENGINE gave GOT rather than WANT for MSG
+     *  under SETTING in configuration K, CONFIG. */
+    private void compare(int k, String config, String setting, String msg,
+                         String engine, String want, String got) {
+        if (!want.equals(got)) {
+            throw error("seed %d, configuration %d: %s path disagrees%n"
+                        + "%s%s%nmessage:  %s%nexpected: %s%ngot:      %s",
+                        _seed, k, engine, config, setting, msg, want, got);
+        }
+    }
+
+    /** Report a mismatch if the rotor positions or settings[] counters of
+     *  M differ from those of REF after MSG. */
+    private void compareState(int k, String config, String setting,
+                              String msg, Reference.Machine ref, Machine m) {
+        int[] want = new int[m.numRotors()], got = new int[m.numRotors()];
+        for (int s = 0; s < want.length; s += 1) {
+            want[s] = ref._rotors[s].setting();
+            got[s] = m.rotor(s).setting();
+        }
+        compare(k, config, setting, msg, "rotor state",
+                Arrays.toString(want) + Arrays.toString(ref.settings),
+                Arrays.toString(got) + Arrays.toString(m.settings));
+    }
+
+    /** Return a writer of the corpus file for configuration K with
+     *  suffix SUFFIX, first writing CONFIG, if not null, to its
+     *  configuration file.  Returns a writer that discards its output
+     *  if there is no corpus. */
+    private Writer corpusWriter(int k, String suffix, String config)
+        throws IOException {
+        if (_corpus == null) {
+            return Writer.nullWriter();
+        }
+        Files.createDirectories(_corpus);
+        if (config != null) {
+            Files.writeString(_corpus.resolve("fuzz" + k + ".conf"), config);
+        }
+        return Files.newBufferedWriter(_corpus.resolve("fuzz" + k + suffix));
+    }
+
+    /** Return SIZE distinct characters of POOL in random order. */
+    static char[] randomAlphabet(int size, Random rand) {
+        char[] pool = POOL.toCharArray();
+        for (int i = 0; i < size; i += 1) {
+            int j = i + rand.nextInt(pool.length - i);
+            char t = pool[i];
+            pool[i] = pool[j];
+            pool[j] = t;
+        }
+        return Arrays.copyOf(pool, size);
+    }
+
+    /** Return the text of a configuration file for a machine over ALPHA
+     *  with SLOTS rotor slots and PAWLS pawls.  It describes two
+     *  reflectors and, for each kind of rotor the machine needs, twice as
+     *  many as needed, so that setting lines have a choice. */
+    static String randomConfig(char[] alpha, int slots, int pawls,
+                               Random rand) {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println(new String(alpha));
+        out.printf(" %d %d%n", slots, pawls);
+        List<String> rotors = new ArrayList<>();
+        for (int i = 0; i < 2; i += 1) {
+            rotors.add(String.format(" R%d R %s", i, pairs(alpha, rand)));
+        }
+        for (int i = 0; i < 2 * (slots - 1 - pawls); i += 1) {
+            rotors.add(String.format(" N%d N %s", i, cycles(alpha, rand)));
+        }
+        for (int i = 0; i < 2 * pawls; i += 1) {
+            StringBuilder notches = new StringBuilder();
+            for (char c : alpha) {
+                if (rand.nextInt(alpha.length) < 2) {
+                    notches.append(c);
+                }
+            }
+            rotors.add(String.format(" M%d M%s %s", i, notches,
+                                     cycles(alpha, rand)));
+        }
+        for (int i = rotors.size() - 1; i > 0; i -= 1) {
+            int j = rand.nextInt(i + 1);
+            String t = rotors.get(i);
+            rotors.set(i, rotors.get(j));
+            rotors.set(j, t);
+        }
+        for (String r : rotors) {
+            out.println(r);
+        }
+        out.flush();
+        return text.toString();
+    }
+
+    /** Return a setting line for the rotors of randomConfig(ALPHA, SLOTS,
+     *  PAWLS, ...), with a random plugboard. */
+    static String randomSetting(char[] alpha, int slots, int pawls,
+                                Random rand) {
+        StringBuilder line = new StringBuilder("* R").append(rand.nextInt(2));
+        int fixed = slots - 1 - pawls;
+        for (int i : pick(2 * fixed, fixed, rand)) {
+            line.append(" N").append(i);
+        }
+        for (int i : pick(2 * pawls, pawls, rand)) {
+            line.append(" M").append(i);
+        }
+        line.append(' ');
+        for (int s = 1; s < slots; s += 1) {
+            line.append(alpha[rand.nextInt(alpha.length)]);
+        }
+        String plugs = pairs(alpha, rand);
+        int keep = rand.nextInt(alpha.length / 2 + 1);
+        for (int i = 0; i < keep; i += 1) {
+            line.append(' ').append(plugs, 5 * i, 5 * i + 4);
+        }
+        return line.toString();
+    }
+
+    /** Return a message of up to _length characters of ALPHA, with an
+     *  occasional character outside it. */
+    private String randomMessage(char[] alpha, Random rand) {
+        char[] msg = new char[1 + rand.nextInt(_length)];
+        for (int i = 0; i < msg.length; i += 1) {
+            if (rand.nextInt(64) == 0) {
+                msg[i] = POOL.charAt(rand.nextInt(POOL.length()));
+            } else {
+                msg[i] = alpha[rand.nextInt(alpha.length)];
+            }
+        }
+        return new String(msg);
+    }
+
+    /** Return MSG with blanks inserted at random, never at its start. */
+    private static String spaceOut(String msg, Random rand) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 1) {
+            if (i > 0 && rand.nextInt(6) == 0) {
+                result.append(" \t ".charAt(rand.nextInt(3)));
+            }
+            result.append(msg.charAt(i));
+        }
+        return result.toString();
+    }
+
+    /** Return K distinct numbers in [0 .. N) in random order. */
+    private static int[] pick(int n, int k, Random rand) {
+        int[] all = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            all[i] = i;
+        }
+        for (int i = 0; i < k; i += 1) {
+            int j = i + rand.nextInt(n - i);
+            int t = all[i];
+            all[i] = all[j];
+            all[j] = t;
+        }
+        return Arrays.copyOf(all, k);
+    }
+
+    /** Return ALPHA split at random into 2-cycles, each followed by a
+     *  blank. */
+    private static String pairs(char[] alpha, Random rand) {
+        char[] shuffled = alpha.clone();
+        for (int i = shuffled.length - 1; i > 0; i -= 1) {
+            int j = rand.nextInt(i + 1);
+            char t = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = t;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < shuffled.length; i += 2) {
+            result.append('(').append(shuffled[i]).append(shuffled[i + 1])
+                .append(") ");
+        }
+        return result.toString();
+    }
+
+    /** Return a random permutation of ALPHA as cycles separated by
+     *  blanks, leaving some characters fixed. */
+    private static String cycles(char[] alpha, Random rand) {
+        char[] shuffled = alpha.clone();
+        for (int i = shuffled.length - 1; i > 0; i -= 1) {
+            int j = rand.nextInt(i + 1);
+            char t = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = t;
+        }
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < shuffled.length) {
+            int len = 1 + rand.nextInt(shuffled.length - i);
+            if (len > 1 || rand.nextBoolean()) {
+                result.append('(').append(shuffled, i, len).append(") ");
+            }
+            i += len;
+        }
+        return result.toString();
+    }
+
+    /** Return the P-quantile of the sorted array SORTED, or 0 if it is
+     *  empty. */
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1,
+                               (int) (p * sorted.length))];
+    }
+
+    /** Seed of the random inputs. */
+    private final long _seed;
+    /** Configurations, messages per configuration, longest message. */
+    private int _configs = 200, _messages = 50, _length = 500;
+    /** Directory for the corpus, or null. */
+    private Path _corpus;
+    /** True iff the timings are to be kept and printed. */
+    private boolean _timings;
+    /** Per-message latencies of each path, in nanoseconds. */
+    private long[][] _latency;
+    /** Total time of each path, in nanoseconds. */
+    private final long[] _nanos;
+    /** Messages and characters checked so far. */
+    private int _count;
+    private long _chars;
+}
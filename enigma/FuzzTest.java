@@ -0,0 +1,58 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Fuzz and Reference classes.
+ *  @author Ryan Shih
+ */
+public class FuzzTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testReferenceNavy() {
+        Reference.Machine m = Reference.readConfig(Samples.NAVY_CONFIG);
+        Reference.setUp(m, "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)");
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     m.convert("FROMHISSHOULDERHIAWATHA"));
+    }
+
+    @Test
+    public void testGeneratedConfigs() {
+        Random rand = new Random(3);
+        for (int k = 0; k < 20; k += 1) {
+            char[] alpha = Fuzz.randomAlphabet(2 + 2 * rand.nextInt(20),
+                                               rand);
+            int slots = 2 + rand.nextInt(5);
+            int pawls = rand.nextInt(slots);
+            String config = Fuzz.randomConfig(alpha, slots, pawls, rand);
+            MachineSpec spec = Main.readSpec(new Scanner(config));
+            assertEquals(slots, spec.numRotors());
+            assertEquals(pawls, spec.numPawls());
+            Machine m = spec.newMachine();
+            Main.setUp(m, Fuzz.randomSetting(alpha, slots, pawls, rand));
+            int moving = 0;
+            for (int s = 0; s < slots; s += 1) {
+                assertNotNull(m.rotor(s));
+                if (m.rotor(s) instanceof MovingRotor) {
+                    moving += 1;
+                }
+            }
+            assertEquals(pawls, moving);
+        }
+    }
+
+    @Test
+    public void testNoMismatches() {
+        new Fuzz(new String[]{"-seed", "11", "-configs", "20",
+                              "-messages", "20", "-length", "100"}).run();
+    }
+}
@@ -0,0 +1,188 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static enigma.EnigmaException.*;
+
+/** Writes messages in groups of characters separated by blanks, as Main
+ *  prints them.  Each line is assembled in a buffer that is kept from
+ *  line to line and then written with a single call, and a line to be
+ *  converted is gathered into another kept buffer and converted there as
+ *  a block, so formatting allocates nothing per line.
+ *  @author Ryan Shih
+ */
+class GroupFormatter {
+
+    /** A formatter writing to OUT in groups of GROUPSIZE characters,
+     *  starting a new line before a group that would make a line longer
+     *  than LINEWIDTH characters (0 for no limit). */
+    GroupFormatter(Writer out, int groupSize, int lineWidth) {
+        if (groupSize <= 0 || lineWidth < 0) {
+            throw error("bad group size or line width");
+        }
+        _out = out;
+        _group = groupSize;
+        _width = lineWidth;
+        _buf = new char[256];
+        _chars = new char[256];
+    }
+
+    /** A formatter writing to OUT in groups of five, with no line
+     *  limit. */
+    GroupFormatter(Writer out) {
+        this(out, 5, 0);
+    }
+
+    /** Returns true iff C is one of the whitespace characters that Main
+     *  removes from messages. */
+    static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000b'
+            || c == '\f' || c == '\r';
+    }
+
+    /** Convert the non-blank characters of LINE with M, as
+     *  M.convert(String) would, and write the result as one line. */
+    void convertLine(Machine m, CharSequence line) {
+        convertLine(m, line, null);
+    }
+
+    /** Have convertLine prepare lines with NORM, or remove only blanks
+     *  if NORM is null. */
+    void setNormalizer(Normalizer norm) {
+        _norm = norm;
+    }
+
+    /** Convert LINE with M and write it, as for convertLine(M, LINE),
+     *  also adding the converted characters to STATS unless it is
+     *  null.  If I have a normalizer, LINE is normalized with it instead
+     *  of having its blanks removed, and characters it passes through
+     *  are written unconverted. */
+    void convertLine(Machine m, CharSequence line, TextStats stats) {
+        if (_chars.length < line.length()) {
+            _chars = new char[Math.max(line.length(), 2 * _chars.length)];
+        }
+        int k = 0;
+        if (_norm != null) {
+            k = _norm.normalize(line, _chars);
+        } else {
+            for (int i = 0; i < line.length(); i += 1) {
+                char c = line.charAt(i);
+                if (!isBlank(c)) {
+                    _chars[k] = c;
+                    k += 1;
+                }
+            }
+        }
+        if (_norm != null && _norm.passes()) {
+            int start = 0;
+            for (int i = 0; i <= k; i += 1) {
+                if (i == k || _norm.passed(_chars[i])) {
+                    m.convert(_chars, start, i - start);
+                    start = i + 1;
+                }
+            }
+        } else {
+            m.convert(_chars, 0, k);
+        }
+        if (stats != null) {
+            stats.add(_chars, 0, k);
+        }
+        start();
+        for (int i = 0; i < k; i += 1) {
+            put(_chars[i]);
+        }
+        finish();
+    }
+
+    /** Write the non-blank characters of MSG as one line. */
+    void formatLine(CharSequence msg) {
+        start();
+        for (int i = 0; i < msg.length(); i += 1) {
+            char c = msg.charAt(i);
+            if (!isBlank(c)) {
+                put(c);
+            }
+        }
+        finish();
+    }
+
+    /** Write an empty line. */
+    void newline() {
+        start();
+        finish();
+    }
+
+    /** Flush my output. */
+    void flush() {
+        try {
+            _out.flush();
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+    }
+
+    /** Begin a line. */
+    private void start() {
+        _len = 0;
+        _inGroup = 0;
+        _lineLen = 0;
+    }
+
+    /** Add C to the current line, preceded by a group or line break if
+     *  it starts a new group. */
+    private void put(char c) {
+        if (_len + 1 + NEWLINE.length() + 1 > _buf.length) {
+            char[] bigger = new char[_buf.length * 2];
+            System.arraycopy(_buf, 0, bigger, 0, _len);
+            _buf = bigger;
+        }
+        if (_inGroup == _group) {
+            _inGroup = 0;
+            if (_width > 0 && _lineLen + 1 + _group > _width) {
+                NEWLINE.getChars(0, NEWLINE.length(), _buf, _len);
+                _len += NEWLINE.length();
+                _lineLen = 0;
+            } else {
+                _buf[_len++] = ' ';
+                _lineLen += 1;
+            }
+        }
+        _buf[_len++] = c;
+        _inGroup += 1;
+        _lineLen += 1;
+    }
+
+    /** End the current line and write it out. */
+    private void finish() {
+        if (_len + NEWLINE.length() > _buf.length) {
+            char[] bigger = new char[_len + NEWLINE.length()];
+            System.arraycopy(_buf, 0, bigger, 0, _len);
+            _buf = bigger;
+        }
+        NEWLINE.getChars(0, NEWLINE.length(), _buf, _len);
+        _len += NEWLINE.length();
+        try {
+            _out.write(_buf, 0, _len);
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+    }
+
+    /** Line separator, as used by println. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Destination of formatted lines. */
+    private final Writer _out;
+    /** Characters per group, and most characters per line (or 0). */
+    private final int _group, _width;
+    /** The line being assembled, and its length. */
+    private char[] _buf;
+    private int _len;
+    /** The characters of the line being converted. */
+    private char[] _chars;
+    /** Prepares lines for conversion, or null to remove blanks only. */
+    private Normalizer _norm;
+    /** Characters in the current group and in the current output line. */
+    private int _inGroup, _lineLen;
+}
@@ -0,0 +1,55 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+/** The suite of all JUnit tests for the GroupFormatter class.
+ *  @author Ryan Shih
+ */
+public class GroupFormatterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    public void testGroupsOfFive() {
+        StringWriter out = new StringWriter();
+        GroupFormatter f = new GroupFormatter(out);
+        f.formatLine("HELLO MY NAME IS RYAN");
+        f.newline();
+        f.formatLine("ABCDE");
+        assertEquals("HELLO MYNAM EISRY AN" + NL + NL + "ABCDE" + NL,
+                     out.toString());
+    }
+
+    @Test
+    public void testLineWidth() {
+        StringWriter out = new StringWriter();
+        GroupFormatter f = new GroupFormatter(out, 3, 8);
+        f.formatLine("ABCDEFGHIJ");
+        assertEquals("ABC DEF" + NL + "GHI J" + NL, out.toString());
+    }
+
+    @Test
+    public void testConvertLine() {
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Machine m1 = spec.newMachine(), m2 = spec.newMachine();
+        Main.setUp(m1, setting);
+        Main.setUp(m2, setting);
+        StringWriter out1 = new StringWriter(), out2 = new StringWriter();
+        String line = "FROM HIS SHOULDER\tHIAWATHA";
+        new GroupFormatter(out1).convertLine(m1, line);
+        new GroupFormatter(out2).formatLine(
+            m2.convert(line.replaceAll("\\s+", "")));
+        assertEquals(out2.toString(), out1.toString());
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW" + NL, out1.toString());
+    }
+}
@@ -0,0 +1,223 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A persistent set of the keys ever issued, held as 64-bit
+ *  fingerprints in an open-addressing hash table in a memory-mapped
+ *  file.  A lookup or insertion touches one or two cache lines of the
+ *  mapping, whatever the number of keys, and the file costs 8 bytes per
+ *  slot, with at most MAX_LOAD of the slots full.
+ *
+ *  Two different keys may, very rarely, share a fingerprint; the second
+ *  is then taken for a repeat.  That errs on the safe side: no key is
+ *  ever accepted twice, and with a 64-bit fingerprint the chance of
+ *  wrongly refusing any key among a hundred million is about one in
+ *  three thousand.
+ *
+ *  The file holds, in little-endian order: the longs MAGIC, VERSION, the
+ *  number of slots (a power of two) and the number of keys, then the
+ *  slots, each 0 if empty or a fingerprint.  When it gets too full, the
+ *  table is rebuilt at twice the size in a new file, which then replaces
+ *  the old one.
+ *  @author Ryan Shih
+ */
+class KeyIndex implements Closeable {
+
+    /** Identifies an index file. */
+    static final long MAGIC = 0x454e4b49L;
+
+    /** Format version written by this class. */
+    static final long VERSION = 1;
+
+    /** Most slots in a table. */
+    static final int MAX_SLOTS = 1 << 27;
+
+    /** Largest fraction of slots in use. */
+    static final double MAX_LOAD = 0.6;
+
+    /** Open the index in FILE, creating an empty one if there is no
+     *  such file. */
+    KeyIndex(Path file) {
+        _file = file;
+        try {
+            if (!Files.exists(file)) {
+                create(file, INITIAL_SLOTS).close();
+            }
+            _channel = FileChannel.open(file, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+            mapTable();
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+    }
+
+    /** Return the number of keys recorded. */
+    long size() {
+        return _count;
+    }
+
+    /** Return true iff a key with fingerprint FP has been recorded. */
+    boolean contains(long fp) {
+        return _slots.get(find(_slots, _mask, nonZero(fp))) != 0;
+    }
+
+    /** Record a key with fingerprint FP, returning false if one was
+     *  already recorded. */
+    boolean add(long fp) {
+        fp = nonZero(fp);
+        int i = find(_slots, _mask, fp);
+        if (_slots.get(i) != 0) {
+            return false;
+        }
+        if (_count + 1 > MAX_LOAD * (_mask + 1)) {
+            grow();
+            i = find(_slots, _mask, fp);
+        }
+        _slots.put(i, fp);
+        _count += 1;
+        _header.put(COUNT, _count);
+        return true;
+    }
+
+    /** Write all changes to the file. */
+    void force() {
+        _map.force();
+    }
+
+    @Override
+    public void close() {
+        force();
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            throw error("could not close %s", _file);
+        }
+    }
+
+    /** Return the fingerprint of the key whose text is KEY. */
+    static long fingerprint(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i += 1) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Return the slot of SLOTS, whose size is MASK + 1, holding FP, or
+     *  else the empty slot where it belongs. */
+    private static int find(LongBuffer slots, int mask, long fp) {
+        int i = (int) fp & mask;
+        while (true) {
+            long v = slots.get(i);
+            if (v == 0 || v == fp) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /** Return FP, or 1 if FP is 0, which marks empty slots. */
+    private static long nonZero(long fp) {
+        return fp == 0 ? 1 : fp;
+    }
+
+    /** Map the table in _channel, and read its header. */
+    private void mapTable() throws IOException {
+        _map = _channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                            _channel.size());
+        _map.order(ByteOrder.LITTLE_ENDIAN);
+        _header = _map.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+            .asLongBuffer();
+        long n = _header.get(SLOTS);
+        if (_header.get(0) != MAGIC || _header.get(1) != VERSION
+            || n <= 0 || n > MAX_SLOTS || Long.bitCount(n) != 1
+            || _channel.size() != HEADER + 8 * n) {
+            throw error("%s is not a key index", _file);
+        }
+        _mask = (int) n - 1;
+        _count = _header.get(COUNT);
+        _slots = _map.duplicate().position(HEADER).slice()
+            .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    /** Rebuild the table at twice its size, replacing the file. */
+    private void grow() {
+        int n = 2 * (_mask + 1);
+        if (n > MAX_SLOTS) {
+            throw error("key index %s is full", _file);
+        }
+        Path tmp = _file.resolveSibling(_file.getFileName() + ".tmp");
+        try (FileChannel ch = create(tmp, n)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE,
+                                          0, ch.size());
+            LongBuffer header = map.duplicate()
+                .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            LongBuffer slots = map.duplicate().position(HEADER).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            for (int i = 0; i <= _mask; i += 1) {
+                long fp = _slots.get(i);
+                if (fp != 0) {
+                    slots.put(find(slots, n - 1, fp), fp);
+                }
+            }
+            header.put(COUNT, _count);
+            map.force();
+            _channel.close();
+            Files.move(tmp, _file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            _channel = FileChannel.open(_file, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+            mapTable();
+        } catch (IOException excp) {
+            throw error("could not enlarge %s", _file);
+        }
+    }
+
+    /** Create FILE holding an empty table of N slots, and return a
+     *  channel open on it. */
+    private static FileChannel create(Path file, int n) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0,
+                                      HEADER + 8L * n);
+        LongBuffer header = map.order(ByteOrder.LITTLE_ENDIAN)
+            .asLongBuffer();
+        header.put(0, MAGIC).put(1, VERSION).put(SLOTS, n).put(COUNT, 0);
+        map.force();
+        return ch;
+    }
+
+    /** Slots in a new index. */
+    private static final int INITIAL_SLOTS = 1 << 16;
+
+    /** Size in bytes of the header, and the positions of the slot and
+     *  key counts in it, in longs. */
+    private static final int HEADER = 32, SLOTS = 2, COUNT = 3;
+
+    /** The index file. */
+    private final Path _file;
+    /** Channel open on it. */
+    private FileChannel _channel;
+    /** The whole file, mapped, and views of its header and slots. */
+    private MappedByteBuffer _map;
+    private LongBuffer _header, _slots;
+    /** Number of slots less one. */
+    private int _mask;
+    /** Number of keys recorded. */
+    private long _count;
+}
@@ -0,0 +1,837 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import static enigma.EnigmaException.*;
+
+/** A search of every rotor order and starting position of a machine
+ *  for the key that best decrypts a ciphertext, as scored by an
+ *  NgramScorer, spread over several worker processes on one host.
+ *
+ *  The coordinator cuts the keyspace (that of Keyspace, with an empty
+ *  plugboard) into units of consecutive settings, none spanning two
+ *  rotor orders, and hands them out through a spool directory beside
+ *  its journal.  A unit waiting to be done is an empty file todo/LO-HI;
+ *  a worker claims it by renaming it to claimed/LO-HI.ID, which only one
+ *  worker can do, runs a TrialDecryptor over its settings, and reports
+ *  the best of them by writing done/LO-HI.  The coordinator appends each
+ *  report to the journal, forcing it to disk, and only then removes the
+ *  report and the claim.  The spool is thus always a consistent record
+ *  of which units are waiting, being worked on, or finished.
+ *
+ *  Every claim's ID begins with the process id of the worker that made
+ *  it.  The coordinator puts back in todo any claim whose process is no
+ *  longer running, whether or not it started that worker, and replaces
+ *  workers it started that die, unless they die faster than it can
+ *  sensibly restart them.  If the coordinator dies, its workers notice and stop, and
+ *  a coordinator started again on the same journal skips every unit the
+ *  journal records, collects any reports left in the spool, and puts
+ *  any claims back in todo.  The journal begins with a line identifying
+ *  the search (keyspace, unit size, and a fingerprint of the rotors,
+ *  ciphertext and scorer), so that it cannot be resumed with different
+ *  inputs.  Workers other than those the coordinator starts may join by
+ *  running "work" on the same spool.
+ *  @author Ryan Shih
+ */
+public final class KeySearch {
+
+    /** Run the search or worker given by ARGS, which are either
+     *      search [-w WORKERS] [-u UNIT] [-k TOP] CONFIG CIPHER NGRAMS
+     *             JOURNAL
+     *  or
+     *      work CONFIG CIPHER NGRAMS SPOOL
+     *  where CONFIG is a configuration file, CIPHER a file whose
+     *  characters in the alphabet are the ciphertext, NGRAMS an n-gram
+     *  table written by NgramScorer, and JOURNAL the journal file,
+     *  resumed if it exists.  WORKERS (default the number of processors)
+     *  is the number of worker processes to start, UNIT (default UNIT)
+     *  the settings in a unit, and TOP (default 10) the number of best
+     *  keys printed, each as its score and setting line.  Progress goes
+     *  to the standard error.  Exits normally if there are no errors;
+     *  otherwise with code 1. */
+    public static void main(String... args) {
+        int workers = Runtime.getRuntime().availableProcessors();
+        long unit = UNIT;
+        int top = 10;
+        try {
+            if (args.length == 5 && args[0].equals("work")) {
+                read(args[1], args[2], args[3])
+                    .work(Paths.get(args[4]),
+                          Long.toString(ProcessHandle.current().pid()));
+                return;
+            }
+            int k = 1;
+            while (k + 1 < args.length && args[k].startsWith("-")) {
+                switch (args[k]) {
+                    case "-w":
+                        workers = Integer.parseInt(args[k + 1]);
+                        break;
+                    case "-u":
+                        unit = Long.parseLong(args[k + 1]);
+                        break;
+                    case "-k":
+                        top = Integer.parseInt(args[k + 1]);
+                        break;
+                    default:
+                        throw error("unknown option %s", args[k]);
+                }
+                k += 2;
+            }
+            if (args.length == 0 || !args[0].equals("search")
+                || args.length - k != 4 || workers < 0 || unit <= 0) {
+                System.err.println(
+                    "Usage: java enigma.KeySearch search [-w WORKERS] "
+                    + "[-u UNIT] [-k TOP] CONFIG CIPHER NGRAMS JOURNAL\n"
+                    + "       java enigma.KeySearch work CONFIG CIPHER "
+                    + "NGRAMS SPOOL");
+                System.exit(1);
+            }
+            List<Result> results =
+                read(args[k], args[k + 1], args[k + 2])
+                .search(Paths.get(args[k + 3]), unit, workers,
+                        Arrays.asList(args).subList(k, k + 3), System.err);
+            for (Result r : results.subList(0,
+                                            Math.min(top, results.size()))) {
+                System.out.printf("%.4f %s%n", r.score(), r.setting());
+            }
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad number");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Default number of settings in a unit. */
+    static final long UNIT = 1 << 16;
+
+    /** Number of settings decrypted together. */
+    static final int BATCH = 256;
+
+    /** Milliseconds between looks at the spool. */
+    static final long POLL_MILLIS = 20;
+
+    /** Nanoseconds between progress reports. */
+    static final long REPORT_NANOS = 2_000_000_000L;
+
+    /** Nanoseconds over which worker restarts are counted: a search
+     *  fails if more of its workers than it started die within any such
+     *  span. */
+    static final long RESTART_NANOS = 60_000_000_000L;
+
+    /** Return the search for the configuration file CONFIG, ciphertext
+     *  file CIPHER and n-gram table file NGRAMS. */
+    static KeySearch read(String config, String cipher, String ngrams) {
+        MachineSpec spec;
+        try (Scanner in = new Scanner(Paths.get(config))) {
+            spec = Main.readSpec(in);
+        } catch (IOException excp) {
+            throw error("could not open %s", config);
+        }
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(cipher)),
+                              StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not open %s", cipher);
+        }
+        Alphabet alpha = spec.alphabet();
+        int[] symbols = text.codePoints().map(alpha::indexOf)
+            .filter(k -> k >= 0).toArray();
+        return new KeySearch(spec, symbols,
+                             NgramScorer.map(Paths.get(ngrams)));
+    }
+
+    /** A search of the keyspace of SPEC for the key that gives the
+     *  decryption of CIPHER (alphabet positions) with the highest score
+     *  from SCORER. */
+    KeySearch(MachineSpec spec, int[] cipher, NgramScorer scorer) {
+        Alphabet alpha = spec.alphabet(), other = scorer.alphabet();
+        boolean same = alpha.size() == other.size();
+        for (int i = 0; same && i < alpha.size(); i += 1) {
+            same = alpha.toCodePoint(i) == other.toCodePoint(i);
+        }
+        if (!same) {
+            throw error("n-gram table is for a different alphabet");
+        }
+        if (cipher.length == 0) {
+            throw error("empty ciphertext");
+        }
+        _spec = spec;
+        _cipher = cipher;
+        _scorer = scorer;
+        _keyspace = new Keyspace(spec);
+        if (_keyspace.orders() == 0) {
+            throw error("configuration has no valid rotor order");
+        }
+        _perOrder = _keyspace.size() / _keyspace.orders();
+        _identity = new Permutation("", alpha);
+    }
+
+    /** Return the number of settings searched. */
+    long size() {
+        return _keyspace.size();
+    }
+
+    /** Return the best decryption among settings LO .. HI-1, which must
+     *  all have the same rotor order. */
+    Result evaluate(long lo, long hi) {
+        if (lo < 0 || hi > size() || lo >= hi
+            || lo / _perOrder != (hi - 1) / _perOrder) {
+            throw error("bad unit %d-%d", lo, hi);
+        }
+        long start = System.nanoTime();
+        Keyspace.Setting setting = _keyspace.new Setting();
+        setting.seek(lo);
+        TrialDecryptor decryptor = new TrialDecryptor(setting.machine());
+        int slots = _spec.numRotors(), len = _cipher.length;
+        int[][] positions = new int[BATCH][slots - 1];
+        int[][] out = new int[BATCH][len];
+        Permutation[] plugboards = new Permutation[BATCH];
+        Arrays.fill(plugboards, _identity);
+        double best = Double.NEGATIVE_INFINITY;
+        long bestIndex = lo;
+        for (long i = lo; i < hi; i += BATCH) {
+            int keys = (int) Math.min(BATCH, hi - i);
+            for (int k = 0; k < keys; k += 1) {
+                for (int s = 1; s < slots; s += 1) {
+                    positions[k][s - 1] = setting.position(s);
+                }
+                if (i + k + 1 < hi) {
+                    setting.next();
+                }
+            }
+            if (keys < BATCH) {
+                positions = Arrays.copyOf(positions, keys);
+                plugboards = Arrays.copyOf(plugboards, keys);
+            }
+            decryptor.decrypt(_cipher, positions, plugboards, out);
+            for (int k = 0; k < keys; k += 1) {
+                double score = _scorer.score(out[k], 0, len);
+                if (score > best) {
+                    best = score;
+                    bestIndex = i + k;
+                }
+            }
+        }
+        setting.seek(bestIndex);
+        return new Result(lo, hi, System.nanoTime() - start, best,
+                          setting.settingLine());
+    }
+
+    /** Return the line identifying this search when cut into units of
+     *  UNIT settings. */
+    String header(long unit) {
+        StringBuilder id = new StringBuilder();
+        id.append(_spec.numRotors()).append(' ').append(_spec.numPawls());
+        RotorCatalog catalog = _spec.catalog();
+        for (String name : catalog.names()) {
+            id.append(' ').append(name).append(catalog.type(name));
+            Rotor r = catalog.rotor(name);
+            for (int k : r.permutation().forwardTable()) {
+                id.append(',').append(k);
+            }
+            for (int p = 0; p < r.size(); p += 1) {
+                id.append(r.notchAt(p) ? '+' : '-');
+            }
+        }
+        id.append(' ').append(_scorer.order()).append(' ')
+            .append(_scorer.floor()).append(' ')
+            .append(_scorer.score(_cipher, 0, _cipher.length));
+        for (int k : _cipher) {
+            id.append(',').append(k);
+        }
+        return String.format("keysearch 1 %d %d %016x", size(), unit,
+                             KeyIndex.fingerprint(id));
+    }
+
+    /** Return the units of UNIT settings, as {LO, HI} pairs. */
+    List<long[]> units(long unit) {
+        List<long[]> result = new ArrayList<long[]>();
+        for (long lo = 0; lo < size(); lo += _perOrder) {
+            for (long u = lo; u < lo + _perOrder; u += unit) {
+                long hi = Math.min(u + unit, lo + _perOrder);
+                result.add(new long[] {u, hi});
+            }
+        }
+        return result;
+    }
+
+    /** Search the whole keyspace in units of UNIT settings, keeping the
+     *  journal JOURNAL, and return the best result of each unit, best
+     *  first.  The work is done by WORKERS new processes running "work"
+     *  on the inputs INPUTS (CONFIG CIPHER NGRAMS), together with any
+     *  started separately; or, if INPUTS is null, by WORKERS threads of
+     *  this process.  Progress goes to LOG. */
+    List<Result> search(Path journal, long unit, int workers,
+                        List<String> inputs, PrintStream log) {
+        String header = header(unit);
+        Path spool = journal.resolveSibling(journal.getFileName() + ".spool");
+        Map<Long, Result> done = new HashMap<Long, Result>();
+        List<long[]> units = units(unit);
+        Coordinator c = new Coordinator(journal, spool, header, done, log);
+        try {
+            c.start(units);
+            c.run(units.size(), workers, inputs);
+        } finally {
+            c.close();
+        }
+        List<Result> results = new ArrayList<Result>(done.values());
+        results.sort((a, b) -> Double.compare(b.score(), a.score()));
+        return results;
+    }
+
+    /** Do units from the spool SPOOL, identifying my claims by ID, which
+     *  must begin with the id of my process, until told to stop or the
+     *  coordinator goes away. */
+    void work(Path spool, String id) {
+        String[] search = readLines(spool.resolve(SEARCH));
+        String[] fields = search.length == 2 ? search[0].split(" ")
+            : new String[0];
+        if (fields.length != 5 || !fields[0].equals("keysearch")) {
+            throw error("%s is not a key search spool", spool);
+        }
+        if (!search[0].equals(header(Long.parseLong(fields[3])))) {
+            throw error("spool %s is for a different search", spool);
+        }
+        long owner = Long.parseLong(search[1]);
+        Path todo = spool.resolve(TODO), claimed = spool.resolve(CLAIMED);
+        Path reports = spool.resolve(DONE), stop = spool.resolve(STOP);
+        while (!Files.exists(stop) && alive(owner)) {
+            String name = claim(todo, claimed, id);
+            if (name == null) {
+                pause();
+                continue;
+            }
+            long[] range = parseUnit(name);
+            Result r = evaluate(range[0], range[1]);
+            writeAtomically(reports.resolve(name), r.line() + "\n");
+            try {
+                Files.deleteIfExists(claimed.resolve(name + "." + id));
+            } catch (IOException excp) {
+                throw error("could not release %s", name);
+            }
+        }
+    }
+
+    /** The best decryption found in one unit. */
+    static final class Result {
+
+        /** The result for settings LO .. HI-1, which took NANOS ns, whose
+         *  best was SETTING with score SCORE. */
+        Result(long lo, long hi, long nanos, double score, String setting) {
+            _lo = lo;
+            _hi = hi;
+            _nanos = nanos;
+            _score = score;
+            _setting = setting;
+        }
+
+        /** Return the result written as LINE by line(). */
+        static Result parse(String line) {
+            String[] f = line.split(" ", 5);
+            if (f.length != 5 || !f[4].startsWith("*")) {
+                throw error("bad result line");
+            }
+            try {
+                return new Result(Long.parseLong(f[0]), Long.parseLong(f[1]),
+                                  Long.parseLong(f[2]),
+                                  Double.parseDouble(f[3]), f[4]);
+            } catch (NumberFormatException excp) {
+                throw error("bad result line");
+            }
+        }
+
+        /** Return me as one line of text. */
+        String line() {
+            return _lo + " " + _hi + " " + _nanos + " " + _score + " "
+                + _setting;
+        }
+
+        /** Return the first setting of the unit. */
+        long lo() {
+            return _lo;
+        }
+
+        /** Return the number of settings in the unit. */
+        long keys() {
+            return _hi - _lo;
+        }
+
+        /** Return the nanoseconds spent on the unit. */
+        long nanos() {
+            return _nanos;
+        }
+
+        /** Return the best score. */
+        double score() {
+            return _score;
+        }
+
+        /** Return the setting line of the best setting. */
+        String setting() {
+            return _setting;
+        }
+
+        /** First setting and one past the last. */
+        private final long _lo, _hi;
+        /** Time taken. */
+        private final long _nanos;
+        /** Best score and its setting. */
+        private final double _score;
+        private final String _setting;
+    }
+
+    /** The coordinator's side of a search. */
+    private final class Coordinator {
+
+        /** A coordinator keeping JOURNAL, headed HEADER, with its spool at
+         *  SPOOL, recording finished units in DONE and reporting to
+         *  LOG. */
+        Coordinator(Path journal, Path spool, String header,
+                    Map<Long, Result> done, PrintStream log) {
+            _journal = journal;
+            _spool = spool;
+            _header = header;
+            _done = done;
+            _log = log;
+        }
+
+        /** Read the journal, bring the spool up to date with it, and
+         *  queue those of UNITS not yet done. */
+        void start(List<long[]> units) {
+            openJournal();
+            try {
+                for (String dir : new String[] {TODO, CLAIMED, DONE}) {
+                    Files.createDirectories(_spool.resolve(dir));
+                }
+                Files.deleteIfExists(_spool.resolve(STOP));
+            } catch (IOException excp) {
+                throw error("could not create spool %s", _spool);
+            }
+            writeAtomically(_spool.resolve(SEARCH), _header + "\n"
+                            + ProcessHandle.current().pid() + "\n");
+            collect();
+            requeue(id -> true);
+            for (long[] u : units) {
+                Path todo = _spool.resolve(TODO).resolve(u[0] + "-" + u[1]);
+                if (!_done.containsKey(u[0]) && !Files.exists(todo)) {
+                    try {
+                        Files.createFile(todo);
+                    } catch (IOException excp) {
+                        throw error("could not queue %s", todo);
+                    }
+                }
+            }
+            if (!_done.isEmpty()) {
+                _log.printf("resuming: %d of %d units done%n", _done.size(),
+                            units.size());
+            }
+        }
+
+        /** Wait until all UNITS units are done, with WORKERS workers
+         *  running "work" on INPUTS, or threads if INPUTS is null. */
+        void run(int units, int workers, List<String> inputs) {
+            _start = System.nanoTime();
+            long lastReport = _start;
+            ArrayDeque<Long> restarts = new ArrayDeque<Long>();
+            int started = workers;
+            for (int i = 0; i < workers && _done.size() < units; i += 1) {
+                launch(inputs, i);
+            }
+            if (workers == 0) {
+                _log.printf("waiting for workers on %s%n", _spool);
+            }
+            while (_done.size() < units) {
+                pause();
+                collect();
+                Throwable failure = _failure.get();
+                if (failure != null) {
+                    throw error("worker failed: %s", failure.getMessage());
+                }
+                requeue(id -> !alive(ownerPid(id)));
+                for (int i = 0; i < _processes.size(); i += 1) {
+                    Process p = _processes.get(i);
+                    if (p.isAlive()) {
+                        continue;
+                    }
+                    collect();
+                    String pid = Long.toString(p.pid());
+                    requeue(id -> id.equals(pid));
+                    if (_done.size() == units) {
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    while (!restarts.isEmpty()
+                           && now - restarts.peek() >= RESTART_NANOS) {
+                        restarts.poll();
+                    }
+                    if (restarts.size() == workers) {
+                        throw error("workers keep failing");
+                    }
+                    restarts.add(now);
+                    _log.printf("worker %d exited with code %d; "
+                                + "restarting%n", p.pid(), p.exitValue());
+                    _processes.remove(i);
+                    i -= 1;
+                    launch(inputs, started);
+                    started += 1;
+                }
+                if (System.nanoTime() - lastReport >= REPORT_NANOS) {
+                    lastReport = System.nanoTime();
+                    report(units);
+                }
+            }
+            report(units);
+        }
+
+        /** Print the progress of the search, of UNITS units. */
+        void report(int units) {
+            double elapsed = (System.nanoTime() - _start) / 1e9;
+            Result best = null;
+            for (Result r : _done.values()) {
+                if (best == null || r.score() > best.score()) {
+                    best = r;
+                }
+            }
+            _log.printf("%d/%d units; %d keys in %.1f s: %.0f keys/s, "
+                        + "%.0f keys/s per worker; best %.4f %s%n",
+                        _done.size(), units, _keys, elapsed,
+                        _keys / Math.max(elapsed, 1e-9),
+                        _keys * 1e9 / Math.max(_nanos, 1),
+                        best == null ? Double.NaN : best.score(),
+                        best == null ? "" : best.setting());
+        }
+
+        /** Tell the workers to stop, wait for them, and close the
+         *  journal. */
+        void close() {
+            if (Files.isDirectory(_spool)) {
+                writeAtomically(_spool.resolve(STOP), "");
+            }
+            for (Process p : _processes) {
+                try {
+                    if (!p.waitFor(5, TimeUnit.SECONDS)) {
+                        p.destroy();
+                    }
+                } catch (InterruptedException excp) {
+                    p.destroy();
+                }
+            }
+            for (Thread t : _threads) {
+                try {
+                    t.join();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (_channel != null) {
+                try {
+                    _channel.close();
+                } catch (IOException excp) {
+                    throw error("could not close %s", _journal);
+                }
+            }
+        }
+
+        /** Start worker number I, a process running "work" on INPUTS, or a
+         *  thread if INPUTS is null. */
+        private void launch(List<String> inputs, int i) {
+            if (inputs == null) {
+                String id = ProcessHandle.current().pid() + "t" + i;
+                Thread t = new Thread(() -> {
+                    try {
+                        work(_spool, id);
+                    } catch (RuntimeException | Error excp) {
+                        _failure.compareAndSet(null, excp);
+                    }
+                }, "enigma-search-" + i);
+                t.setDaemon(true);
+                _threads.add(t);
+                t.start();
+                return;
+            }
+            List<String> command = new ArrayList<String>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin",
+                                  "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(KeySearch.class.getName());
+            command.add("work");
+            command.addAll(inputs);
+            command.add(_spool.toString());
+            try {
+                _processes.add(new ProcessBuilder(command).inheritIO()
+                               .start());
+            } catch (IOException excp) {
+                throw error("could not start worker: %s",
+                            excp.getMessage());
+            }
+        }
+
+        /** Journal the reports in the spool, and remove them and their
+         *  claims. */
+        private void collect() {
+            Path reports = _spool.resolve(DONE);
+            for (Path report : list(reports)) {
+                String name = report.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    continue;
+                }
+                String[] lines = readLines(report);
+                Result r = Result.parse(lines[0]);
+                if (!_done.containsKey(r.lo())) {
+                    append(r);
+                    _keys += r.keys();
+                    _nanos += r.nanos();
+                }
+                try {
+                    Files.delete(report);
+                } catch (IOException excp) {
+                    throw error("could not remove %s", report);
+                }
+                for (Path claim : list(_spool.resolve(CLAIMED))) {
+                    if (claim.getFileName().toString()
+                        .startsWith(name + ".")) {
+                        try {
+                            Files.deleteIfExists(claim);
+                        } catch (IOException excp) {
+                            throw error("could not remove %s", claim);
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Put back in the queue the unfinished claims whose IDs satisfy
+         *  OWNERS. */
+        private void requeue(Predicate<String> owners) {
+            for (Path claim : list(_spool.resolve(CLAIMED))) {
+                String name = claim.getFileName().toString();
+                int dot = name.indexOf('.');
+                if (dot < 0 || !owners.test(name.substring(dot + 1))) {
+                    continue;
+                }
+                String unit = name.substring(0, dot);
+                try {
+                    if (_done.containsKey(parseUnit(unit)[0])) {
+                        Files.deleteIfExists(claim);
+                    } else {
+                        Files.move(claim, _spool.resolve(TODO).resolve(unit),
+                                   StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (NoSuchFileException excp) {
+                    continue;
+                } catch (IOException excp) {
+                    throw error("could not requeue %s", unit);
+                }
+            }
+        }
+
+        /** Open the journal, creating it if need be, and read the units it
+         *  records into _done.  A partly written last line, left by a
+         *  crash, is removed. */
+        private void openJournal() {
+            try {
+                if (!Files.exists(_journal)) {
+                    writeAtomically(_journal, _header + "\n");
+                }
+                byte[] bytes = Files.readAllBytes(_journal);
+                int end = bytes.length;
+                while (end > 0 && bytes[end - 1] != '\n') {
+                    end -= 1;
+                }
+                String[] lines = new String(bytes, 0, end,
+                                            StandardCharsets.UTF_8)
+                    .split("\n");
+                if (!lines[0].equals(_header)) {
+                    throw error("journal %s is for a different search",
+                                _journal);
+                }
+                for (int i = 1; i < lines.length; i += 1) {
+                    Result r = Result.parse(lines[i]);
+                    _done.put(r.lo(), r);
+                }
+                _channel = FileChannel.open(_journal,
+                                            StandardOpenOption.WRITE);
+                _channel.truncate(end);
+                _channel.position(end);
+            } catch (IOException excp) {
+                throw error("could not open journal %s", _journal);
+            }
+        }
+
+        /** Append R to the journal and record it as done. */
+        private void append(Result r) {
+            byte[] text = (r.line() + "\n").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer line = ByteBuffer.wrap(text);
+            try {
+                while (line.hasRemaining()) {
+                    _channel.write(line);
+                }
+                _channel.force(false);
+            } catch (IOException excp) {
+                throw error("could not write journal %s", _journal);
+            }
+            _done.put(r.lo(), r);
+        }
+
+        /** The journal, its spool, and its first line. */
+        private final Path _journal, _spool;
+        private final String _header;
+        /** Units done, by first setting. */
+        private final Map<Long, Result> _done;
+        /** Where progress goes. */
+        private final PrintStream _log;
+        /** Channel appending to the journal. */
+        private FileChannel _channel;
+        /** Worker processes and threads started. */
+        private final List<Process> _processes = new ArrayList<Process>();
+        private final List<Thread> _threads = new ArrayList<Thread>();
+        /** First exception thrown by a worker thread. */
+        private final AtomicReference<Throwable> _failure =
+            new AtomicReference<Throwable>();
+        /** Time the workers were started. */
+        private long _start;
+        /** Settings tried, and time spent by workers, since then. */
+        private long _keys, _nanos;
+    }
+
+    /** Claim a unit from the queue TODO by moving it into CLAIMED tagged
+     *  with ID, and return its name, or null if there is none. */
+    private static String claim(Path todo, Path claimed, String id) {
+        List<Path> waiting = list(todo);
+        waiting.sort((a, b) -> Long.compare(
+            parseUnit(a.getFileName().toString())[0],
+            parseUnit(b.getFileName().toString())[0]));
+        for (Path unit : waiting) {
+            String name = unit.getFileName().toString();
+            try {
+                Files.move(unit, claimed.resolve(name + "." + id),
+                           StandardCopyOption.ATOMIC_MOVE);
+                return name;
+            } catch (NoSuchFileException | FileAlreadyExistsException excp) {
+                continue;
+            } catch (IOException excp) {
+                throw error("could not claim %s", unit);
+            }
+        }
+        return null;
+    }
+
+    /** Return {LO, HI} from the unit name LO-HI. */
+    private static long[] parseUnit(String name) {
+        int dash = name.indexOf('-');
+        try {
+            return new long[] {Long.parseLong(name.substring(0, dash)),
+                               Long.parseLong(name.substring(dash + 1))};
+        } catch (NumberFormatException | IndexOutOfBoundsException excp) {
+            throw error("bad unit name %s", name);
+        }
+    }
+
+    /** Return the process id with which the claim ID begins, or -1 if
+     *  it does not begin with one. */
+    private static long ownerPid(String id) {
+        int end = 0;
+        while (end < id.length() && Character.isDigit(id.charAt(end))) {
+            end += 1;
+        }
+        try {
+            return Long.parseLong(id.substring(0, end));
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+
+    /** Return true iff the process with id PID is running. */
+    private static boolean alive(long pid) {
+        return pid >= 0 && ProcessHandle.of(pid).map(ProcessHandle::isAlive)
+            .orElse(false);
+    }
+
+    /** Wait POLL_MILLIS. */
+    private static void pause() {
+        try {
+            Thread.sleep(POLL_MILLIS);
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+    }
+
+    /** Return the files in DIR. */
+    private static List<Path> list(Path dir) {
+        List<Path> result = new ArrayList<Path>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path p : entries) {
+                result.add(p);
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", dir);
+        }
+        return result;
+    }
+
+    /** Return the lines of FILE. */
+    private static String[] readLines(Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8)
+                .toArray(new String[0]);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Make TEXT the contents of FILE, so that no reader sees it partly
+     *  written. */
+    private static void writeAtomically(Path file, String text) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Names of the files and directories in a spool. */
+    private static final String SEARCH = "search", TODO = "todo",
+        CLAIMED = "claimed", DONE = "done", STOP = "stop";
+
+    /** The machine searched. */
+    private final MachineSpec _spec;
+    /** The ciphertext, as alphabet positions. */
+    private final int[] _cipher;
+    /** Scores decryptions. */
+    private final NgramScorer _scorer;
+    /** The settings searched. */
+    private final Keyspace _keyspace;
+    /** Settings per rotor order. */
+    private final long _perOrder;
+    /** The empty plugboard. */
+    private final Permutation _identity;
+}
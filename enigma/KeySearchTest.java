@@ -0,0 +1,157 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/** Tests of KeySearch.
+ *  @author Ryan Shih
+ */
+public class KeySearchTest {
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Plaintext of the test message. */
+    private static final String PLAIN =
+        "THEWEATHERFORECASTFORTHENORTHSEAISSTORMSTOMORROWMORNING"
+        + "ANDALLSHIPSARETORETURNTOTHEIRHOMEPORTSBEFOREDARK";
+
+    /** The key the message is enciphered with. */
+    private static final String KEY = "* B III I KX";
+
+    /** Return a search for PLAIN enciphered with KEY on a three-rotor
+     *  Navy machine, scored on PLAIN's own trigrams. */
+    private static KeySearch search() {
+        MachineSpec spec = Main.readSpec(new Scanner(
+            Samples.NAVY_CONFIG.replace(" 5 3\n", " 3 2\n")));
+        Machine m = spec.newMachine();
+        Main.setUp(m, KEY);
+        String cipher = m.convert(PLAIN);
+        int[] symbols = new int[cipher.length()];
+        for (int i = 0; i < symbols.length; i += 1) {
+            symbols[i] = cipher.charAt(i) - 'A';
+        }
+        TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+        for (int i = 0; i + 3 <= PLAIN.length(); i += 1) {
+            counts.merge(PLAIN.substring(i, i + 3), 1, Integer::sum);
+        }
+        StringBuilder text = new StringBuilder();
+        counts.forEach((g, n) -> text.append(g).append(' ').append(n)
+                       .append('\n'));
+        return new KeySearch(spec, symbols, NgramScorer.fromCounts(
+            spec.alphabet(), new Scanner(text.toString())));
+    }
+
+    /** Where progress reports go. */
+    private static final PrintStream QUIET =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    @Test
+    public void testEvaluate() {
+        KeySearch s = search();
+        assertEquals(20 * 676, s.size());
+        List<long[]> units = s.units(300);
+        assertEquals(20 * 3, units.size());
+        assertArrayEquals(new long[] {600, 676}, units.get(2));
+        KeySearch.Result r = null;
+        for (long[] u : s.units(676)) {
+            KeySearch.Result t = s.evaluate(u[0], u[1]);
+            if (r == null || t.score() > r.score()) {
+                r = t;
+            }
+        }
+        assertEquals(KEY, r.setting());
+        assertEquals(676, r.keys());
+        KeySearch.Result copy = KeySearch.Result.parse(r.line());
+        assertEquals(r.line(), copy.line());
+        assertEquals(r.score(), copy.score(), 0.0);
+    }
+
+    @Test
+    public void testDeadWorkerClaimRequeued()
+        throws IOException, InterruptedException {
+        KeySearch s = search();
+        Path dir = Files.createTempDirectory("search");
+        Path journal = dir.resolve("journal");
+        Path spool = dir.resolve("journal.spool");
+        try {
+            Process gone = new ProcessBuilder("true").start();
+            gone.waitFor();
+            List<List<KeySearch.Result>> results =
+                new ArrayList<List<KeySearch.Result>>();
+            Thread coordinator = new Thread(() ->
+                results.add(s.search(journal, 2000, 0, null, QUIET)));
+            coordinator.start();
+            Path todo = spool.resolve("todo").resolve("0-676");
+            while (!Files.exists(todo)) {
+                Thread.sleep(5);
+            }
+            Files.move(todo, spool.resolve("claimed")
+                       .resolve("0-676." + gone.pid()));
+            s.work(spool, ProcessHandle.current().pid() + "w");
+            coordinator.join();
+            assertEquals(20, results.get(0).size());
+            assertEquals(KEY, results.get(0).get(0).setting());
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted((a, b) -> b.compareTo(a))
+                    .forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testSearchAndResume() throws IOException {
+        KeySearch s = search();
+        Path dir = Files.createTempDirectory("search");
+        Path journal = dir.resolve("journal");
+        try {
+            List<KeySearch.Result> results =
+                s.search(journal, 2000, 2, null, QUIET);
+            assertEquals(20, results.size());
+            assertEquals(KEY, results.get(0).setting());
+
+            List<String> lines = Files.readAllLines(journal);
+            assertEquals(21, lines.size());
+            String partial = lines.get(20).substring(0, 10);
+            Files.write(journal, (String.join("\n", lines.subList(0, 8))
+                                  + "\n" + partial)
+                        .getBytes(StandardCharsets.UTF_8));
+            results = s.search(journal, 2000, 1, null, QUIET);
+            assertEquals(20, results.size());
+            assertEquals(KEY, results.get(0).setting());
+            lines = Files.readAllLines(journal);
+            assertEquals(21, lines.size());
+            Set<String> units = new HashSet<String>();
+            for (String line : lines.subList(1, 21)) {
+                assertTrue(units.add(line.split(" ")[0]));
+            }
+            try {
+                s.search(journal, 1000, 1, null, QUIET);
+                fail("resumed with a different unit size");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted((a, b) -> b.compareTo(a))
+                    .forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}
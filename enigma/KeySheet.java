@@ -0,0 +1,225 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** Draws random keys for key sheets, none of which has been issued
+ *  before.  A key is a rotor order, starting positions and a plugboard
+ *  of a given number of pairs, written as a setting line for Main.
+ *  Rotor orders are drawn from those of Keyspace and checked against
+ *  the rules of Machine.insertRotors.  Every key issued is recorded in
+ *  a KeyIndex, and a key already there is drawn again.
+ *
+ *  Keys are drawn in blocks of BLOCK, block K from a random stream
+ *  seeded with the sheet's seed and K.  The blocks are drawn in
+ *  parallel, then checked against the index and recorded in order, a
+ *  block drawing further keys from its own stream to replace any
+ *  repeats.  So the same seed and index always give the same sheet,
+ *  whatever the number of threads.
+ *  @author Ryan Shih
+ */
+public final class KeySheet {
+
+    /** Print new keys as specified by ARGS, which are
+     *      [-s SEED] [-p PAIRS] CONFIG INDEX COUNT
+     *  where CONFIG is a configuration file, INDEX the file of keys
+     *  issued so far (created if absent), COUNT the number of keys, SEED
+     *  the random seed (default 0) and PAIRS the number of plugboard
+     *  pairs (default 10).  Keys go to the standard output, one setting
+     *  line each.  Exits normally if there are no errors; otherwise with
+     *  code 1. */
+    public static void main(String... args) {
+        long seed = 0;
+        int pairs = 10;
+        int k = 0;
+        try {
+            while (k + 1 < args.length && args[k].startsWith("-")) {
+                switch (args[k]) {
+                    case "-s":
+                        seed = Long.parseLong(args[k + 1]);
+                        break;
+                    case "-p":
+                        pairs = Integer.parseInt(args[k + 1]);
+                        break;
+                    default:
+                        throw error("unknown option %s", args[k]);
+                }
+                k += 2;
+            }
+            if (args.length - k != 3) {
+                System.err.println("Usage: java enigma.KeySheet [-s SEED] "
+                                   + "[-p PAIRS] CONFIG INDEX COUNT");
+                System.exit(1);
+            }
+            MachineSpec spec;
+            try (Scanner config = new Scanner(Paths.get(args[k]))) {
+                spec = Main.readSpec(config);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[k]);
+            }
+            int count = Integer.parseInt(args[k + 2]);
+            PrintWriter out = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out)));
+            try (KeyIndex index = new KeyIndex(Paths.get(args[k + 1]))) {
+                for (String key : new KeySheet(spec, pairs, seed)
+                         .draw(count, index)) {
+                    out.println(key);
+                }
+            }
+            out.flush();
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad number");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Number of keys drawn from each random stream. */
+    static final int BLOCK = 4096;
+
+    /** Most draws in a row that may all be repeats before the keyspace
+     *  is taken to be used up. */
+    static final int MAX_TRIES = 100000;
+
+    /** A source of keys for SPEC with PAIRS plugboard pairs, drawn
+     *  from random streams derived from SEED. */
+    KeySheet(MachineSpec spec, int pairs, long seed) {
+        _spec = spec;
+        _keyspace = new Keyspace(spec);
+        _alphabet = spec.alphabet();
+        if (pairs < 0 || 2 * pairs > _alphabet.size()) {
+            throw error("cannot make %d plugboard pairs", pairs);
+        }
+        if (_keyspace.orders() == 0) {
+            throw error("configuration has no valid rotor order");
+        }
+        _pairs = pairs;
+        _seed = seed;
+    }
+
+    /** Return COUNT keys not recorded in INDEX, which are then recorded
+     *  there.  The first key drawn by this call is the first of block
+     *  INDEX.size() / BLOCK, so that successive calls on one index
+     *  continue where the last left off. */
+    List<String> draw(int count, KeyIndex index) {
+        long firstBlock = (index.size() + BLOCK - 1) / BLOCK;
+        int blocks = (count + BLOCK - 1) / BLOCK;
+        Block[] drawn = new Block[blocks];
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            drawn[b] = new Block(firstBlock + b,
+                                 Math.min(BLOCK, count - b * BLOCK));
+        });
+        List<String> result = new ArrayList<String>(count);
+        for (Block block : drawn) {
+            block.record(index, result);
+        }
+        index.force();
+        return result;
+    }
+
+    /** The keys of one block, drawn ahead of recording. */
+    private final class Block {
+
+        /** Block number NUMBER, of which COUNT keys are wanted. */
+        Block(long number, int count) {
+            _random = new SplittableRandom(_seed * 0x9e3779b97f4a7c15L
+                                           + number);
+            _machine = _spec.newMachine();
+            _keys = new String[count];
+            for (int i = 0; i < count; i += 1) {
+                _keys[i] = next();
+            }
+        }
+
+        /** Add my keys to RESULT and to INDEX, replacing any already in
+         *  INDEX with new ones. */
+        void record(KeyIndex index, List<String> result) {
+            for (String key : _keys) {
+                for (int tries = 1; !index.add(KeyIndex.fingerprint(key));
+                     tries += 1) {
+                    if (tries == MAX_TRIES) {
+                        throw error("no unused keys left");
+                    }
+                    key = next();
+                }
+                result.add(key);
+            }
+        }
+
+        /** Return a new random key, whose rotors are checked by inserting
+         *  them into a machine. */
+        private String next() {
+            String[] names = new String[_spec.numRotors()];
+            _keyspace.order(_random.nextLong(_keyspace.orders()), names);
+            _machine.insertRotors(names);
+            StringBuilder key = new StringBuilder("*");
+            for (String name : names) {
+                key.append(' ').append(name);
+            }
+            key.append(' ');
+            for (int s = 1; s < names.length; s += 1) {
+                int posn = _random.nextInt(_alphabet.size());
+                _machine.setRotor(s, posn);
+                key.appendCodePoint(_alphabet.toCodePoint(posn));
+            }
+            int n = _alphabet.size();
+            int[] letters = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                letters[i] = i;
+            }
+            for (int i = 0; i < 2 * _pairs; i += 1) {
+                int j = i + _random.nextInt(n - i);
+                int t = letters[i];
+                letters[i] = letters[j];
+                letters[j] = t;
+            }
+            boolean[] first = new boolean[n];
+            int[] partner = new int[n];
+            for (int i = 0; i < 2 * _pairs; i += 2) {
+                int a = Math.min(letters[i], letters[i + 1]);
+                int b = Math.max(letters[i], letters[i + 1]);
+                first[a] = true;
+                partner[a] = b;
+            }
+            for (int a = 0; a < n; a += 1) {
+                if (first[a]) {
+                    key.append(" (")
+                        .appendCodePoint(_alphabet.toCodePoint(a))
+                        .appendCodePoint(_alphabet.toCodePoint(partner[a]))
+                        .append(')');
+                }
+            }
+            return key.toString();
+        }
+
+        /** Source of my keys. */
+        private final SplittableRandom _random;
+        /** Machine on which keys are checked. */
+        private final Machine _machine;
+        /** Keys drawn for the block. */
+        private final String[] _keys;
+    }
+
+    /** The machine spec. */
+    private final MachineSpec _spec;
+    /** Its rotor orders. */
+    private final Keyspace _keyspace;
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+    /** Number of plugboard pairs. */
+    private final int _pairs;
+    /** Seed of the random streams. */
+    private final long _seed;
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Tests of KeySheet and KeyIndex.
+ *  @author Ryan Shih
+ */
+public class KeySheetTest {
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the path of a new temporary file, deleted. */
+    private static Path tempPath() throws IOException {
+        Path file = Files.createTempFile("keys", ".idx");
+        Files.delete(file);
+        return file;
+    }
+
+    @Test
+    public void testIndex() throws IOException {
+        Path file = tempPath();
+        try {
+            try (KeyIndex index = new KeyIndex(file)) {
+                for (long i = 0; i < 100000; i += 1) {
+                    assertTrue(index.add(i * 0x9e3779b97f4a7c15L));
+                }
+                assertFalse(index.add(0));
+                assertFalse(index.add(5 * 0x9e3779b97f4a7c15L));
+                assertEquals(100000, index.size());
+            }
+            try (KeyIndex index = new KeyIndex(file)) {
+                assertEquals(100000, index.size());
+                assertTrue(index.contains(99999 * 0x9e3779b97f4a7c15L));
+                assertFalse(index.contains(100000 * 0x9e3779b97f4a7c15L));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testDraw() throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        Path file1 = tempPath(), file2 = tempPath();
+        try (KeyIndex index1 = new KeyIndex(file1);
+             KeyIndex index2 = new KeyIndex(file2)) {
+            List<String> keys = new KeySheet(spec, 10, 42).draw(5000,
+                                                                index1);
+            assertEquals(keys,
+                         new KeySheet(spec, 10, 42).draw(5000, index2));
+            Set<String> seen = new HashSet<String>(keys);
+            assertEquals(5000, seen.size());
+            Machine m = spec.newMachine();
+            for (String key : keys.subList(0, 100)) {
+                Main.setUp(m, key);
+                assertEquals(10, key.split("\\(").length - 1);
+            }
+            List<String> more = new KeySheet(spec, 10, 42).draw(3000,
+                                                                index1);
+            for (String key : more) {
+                assertTrue(seen.add(key));
+            }
+            assertEquals(8000, index1.size());
+        } finally {
+            Files.deleteIfExists(file1);
+            Files.deleteIfExists(file2);
+        }
+    }
+
+    @Test
+    public void testSmallKeyspace() throws IOException {
+        MachineSpec spec = Main.readSpec(new java.util.Scanner(
+            "ABC\n 2 1\n I MA (ABC)\n R R (AB) (C)\n"));
+        Path file = tempPath();
+        try (KeyIndex index = new KeyIndex(file)) {
+            List<String> keys = new KeySheet(spec, 0, 1).draw(3, index);
+            assertEquals(3, new HashSet<String>(keys).size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** All the settings of a machine spec: every valid rotor order, every
+ *  choice of starting positions and every plugboard from a given list.
+ *  A rotor order is valid when a reflector is in slot 0, followed by
+ *  fixed rotors, followed by exactly as many moving rotors as there are
+ *  pawls, with no rotor used twice.
+ *
+ *  Settings are numbered from 0 to size() - 1 with the starting
+ *  positions varying fastest (rightmost rotor first), then the
+ *  plugboard, then the rotor order, so that consecutive settings
+ *  nearly always differ only in the position of one rotor.  Walking the
+ *  keyspace therefore changes just that rotor's setting, and only
+ *  re-inserts rotors or swaps plugboards when those actually change.
+ *  @author Ryan Shih
+ */
+class Keyspace {
+
+    /** The keyspace of SPEC, with plugboards drawn from PLUGBOARDS (each
+     *  in cycle notation, "" for none). */
+    Keyspace(MachineSpec spec, List<String> plugboards) {
+        _spec = spec;
+        _size = spec.alphabet().size();
+        _slots = spec.numRotors();
+        _pawls = spec.numPawls();
+        _reflectors = new ArrayList<String>();
+        _fixed = new ArrayList<String>();
+        _moving = new ArrayList<String>();
+        RotorCatalog catalog = spec.catalog();
+        for (String name : catalog.names()) {
+            switch (catalog.type(name)) {
+                case 'R':
+                case 'W':
+                    _reflectors.add(name);
+                    break;
+                case 'M':
+                    _moving.add(name);
+                    break;
+                default:
+                    _fixed.add(name);
+                    break;
+            }
+        }
+        _plugboardText = new ArrayList<String>(plugboards);
+        _plugboards = new Permutation[plugboards.size()];
+        for (int i = 0; i < _plugboards.length; i += 1) {
+            _plugboards[i] = new Permutation(plugboards.get(i),
+                                             spec.alphabet());
+        }
+
+        try {
+            long positions = 1;
+            for (int i = 1; i < _slots; i += 1) {
+                positions = Math.multiplyExact(positions, (long) _size);
+            }
+            _positions = positions;
+            _fixedCount = arrangements(_fixed.size(), _slots - 1 - _pawls);
+            _movingCount = arrangements(_moving.size(), _pawls);
+            _orders = Math.multiplyExact(_reflectors.size(),
+                          Math.multiplyExact(_fixedCount, _movingCount));
+            _total = Math.multiplyExact(_orders,
+                         Math.multiplyExact(_positions, _plugboards.length));
+        } catch (ArithmeticException excp) {
+            throw error("keyspace too large to enumerate");
+        }
+    }
+
+    /** The keyspace of SPEC with an empty plugboard. */
+    Keyspace(MachineSpec spec) {
+        this(spec, List.of(""));
+    }
+
+    /** Return the number of settings. */
+    long size() {
+        return _total;
+    }
+
+    /** Return a spliterator over all my settings.  Each spliterator made
+     *  from it (by trySplit) drives a machine of its own. */
+    Spliterator<Setting> spliterator() {
+        return new Walker(0, _total);
+    }
+
+    /** Return a stream of all my settings, in parallel if PARALLEL.  The
+     *  Setting passed to each action is reused for the next setting, so
+     *  it must not be kept after the action returns. */
+    Stream<Setting> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+
+    /** Return the number of valid rotor orders. */
+    long orders() {
+        return _orders;
+    }
+
+    /** Fill NAMES, which has a slot for each rotor, with the names of
+     *  the rotors of rotor order number K (0 <= K < orders()), slot 0
+     *  first. */
+    void order(long k, String[] names) {
+        long movingIndex = k % _movingCount;
+        k /= _movingCount;
+        long fixedIndex = k % _fixedCount;
+        names[0] = _reflectors.get((int) (k / _fixedCount));
+        int numFixed = _slots - 1 - _pawls;
+        arrangement(_fixed, numFixed, fixedIndex, names, 1);
+        arrangement(_moving, _pawls, movingIndex, names, 1 + numFixed);
+    }
+
+    /** Return the number of ways of arranging K of N distinct items. */
+    private static long arrangements(int n, int k) {
+        if (k < 0 || k > n) {
+            return 0;
+        }
+        long result = 1;
+        for (int i = 0; i < k; i += 1) {
+            result = Math.multiplyExact(result, n - i);
+        }
+        return result;
+    }
+
+    /** Fill ORDER[FIRST .. FIRST+K-1] with arrangement number INDEX of K
+     *  items from NAMES. */
+    private static void arrangement(List<String> names, int k, long index,
+                                    String[] order, int first) {
+        List<String> left = new ArrayList<String>(names);
+        long[] radix = new long[k];
+        for (int i = k - 1; i >= 0; i -= 1) {
+            radix[i] = index % (left.size() - i);
+            index /= left.size() - i;
+        }
+        for (int i = 0; i < k; i += 1) {
+            order[first + i] = left.remove((int) radix[i]);
+        }
+    }
+
+    /** One setting of the keyspace, together with a machine that can be
+     *  set to it.  A Setting object is reused as its spliterator
+     *  advances. */
+    class Setting {
+
+        /** A setting using a fresh machine. */
+        Setting() {
+            _machine = _spec.newMachine();
+            _rotorNames = new String[_slots];
+            _posn = new int[_slots];
+            _orderIndex = -1;
+            _plugIndex = -1;
+        }
+
+        /** Return my number within the keyspace. */
+        long index() {
+            return _index;
+        }
+
+        /** Return the name of the rotor in slot SLOT. */
+        String rotor(int slot) {
+            return _rotorNames[slot];
+        }
+
+        /** Return the starting position of the rotor in slot SLOT
+         *  (1 <= SLOT < number of slots). */
+        int position(int slot) {
+            return _posn[slot];
+        }
+
+        /** Return my plugboard, in cycle notation. */
+        String plugboard() {
+            return _plugboardText.get(_plugIndex);
+        }
+
+        /** Return my machine, with its rotors inserted and set and its
+         *  plugboard in place for this setting.  Only the parts of the
+         *  machine that differ from this setting are changed. */
+        Machine machine() {
+            if (_machineOrder != _orderIndex) {
+                _machine.insertRotors(_rotorNames);
+                _machineOrder = _orderIndex;
+                for (int i = 1; i < _slots; i += 1) {
+                    _machine.setRotor(i, _posn[i]);
+                }
+            } else {
+                for (int i = 1; i < _slots; i += 1) {
+                    if (_machine.rotor(i).setting() != _posn[i]) {
+                        _machine.setRotor(i, _posn[i]);
+                    }
+                }
+            }
+            if (_machinePlug != _plugIndex) {
+                _machine.setPlugboard(_plugboards[_plugIndex]);
+                _machinePlug = _plugIndex;
+            }
+            return _machine;
+        }
+
+        /** Return this setting as a setting line for Main. */
+        String settingLine() {
+            StringBuilder line = new StringBuilder("*");
+            for (String name : _rotorNames) {
+                line.append(' ').append(name);
+            }
+            line.append(' ');
+            Alphabet alpha = _spec.alphabet();
+            for (int i = 1; i < _slots; i += 1) {
+                line.appendCodePoint(alpha.toCodePoint(_posn[i]));
+            }
+            if (!plugboard().isEmpty()) {
+                line.append(' ').append(plugboard());
+            }
+            return line.toString();
+        }
+
+        /** Make me setting number INDEX. */
+        void seek(long index) {
+            _index = index;
+            long p = index % _positions;
+            index /= _positions;
+            setPlugboard((int) (index % _plugboards.length));
+            setOrder(index / _plugboards.length);
+            for (int i = _slots - 1; i >= 1; i -= 1) {
+                _posn[i] = (int) (p % _size);
+                p /= _size;
+            }
+        }
+
+        /** Make me the setting after the current one, which must not be
+         *  the last. */
+        void next() {
+            _index += 1;
+            for (int i = _slots - 1; i >= 1; i -= 1) {
+                _posn[i] += 1;
+                if (_posn[i] < _size) {
+                    return;
+                }
+                _posn[i] = 0;
+            }
+            if (_plugIndex + 1 < _plugboards.length) {
+                setPlugboard(_plugIndex + 1);
+            } else {
+                setPlugboard(0);
+                setOrder(_orderIndex + 1);
+            }
+        }
+
+        /** Use plugboard number K. */
+        private void setPlugboard(int k) {
+            _plugIndex = k;
+        }
+
+        /** Use rotor order number K. */
+        private void setOrder(long k) {
+            if (k == _orderIndex) {
+                return;
+            }
+            _orderIndex = k;
+            order(k, _rotorNames);
+        }
+
+        /** The machine I configure. */
+        private final Machine _machine;
+        /** Rotor names by slot. */
+        private final String[] _rotorNames;
+        /** Starting positions by slot (slot 0 unused). */
+        private final int[] _posn;
+        /** My number in the keyspace. */
+        private long _index;
+        /** Number of my rotor order. */
+        private long _orderIndex;
+        /** Number of my plugboard. */
+        private int _plugIndex;
+        /** Rotor order and plugboard last given to _machine. */
+        private long _machineOrder = -1;
+        private int _machinePlug = -1;
+    }
+
+    /** A spliterator over the settings numbered LO .. HI-1. */
+    private class Walker implements Spliterator<Setting> {
+
+        /** A walker over settings LO .. HI-1. */
+        Walker(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Setting> action) {
+            if (_lo >= _hi) {
+                return false;
+            }
+            step();
+            action.accept(_current);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Setting> action) {
+            while (_lo < _hi) {
+                step();
+                action.accept(_current);
+            }
+        }
+
+        @Override
+        public Spliterator<Setting> trySplit() {
+            long mid = _lo + (_hi - _lo) / 2;
+            if (mid == _lo || _current != null) {
+                return null;
+            }
+            Walker prefix = new Walker(_lo, mid);
+            _lo = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return _hi - _lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        /** Move _current to setting _lo, and advance _lo. */
+        private void step() {
+            if (_current == null) {
+                _current = new Setting();
+                _current.seek(_lo);
+            } else {
+                _current.next();
+            }
+            _lo += 1;
+        }
+
+        /** Next setting to visit, and one past the last. */
+        private long _lo, _hi;
+        /** The setting last visited, or null before the first. */
+        private Setting _current;
+    }
+
+    /** The spec whose settings I enumerate. */
+    private final MachineSpec _spec;
+    /** Alphabet size, number of rotor slots, and number of pawls. */
+    private final int _size, _slots, _pawls;
+    /** Names of the available reflectors, fixed and moving rotors. */
+    private final List<String> _reflectors, _fixed, _moving;
+    /** The plugboards to try, as given and compiled. */
+    private final List<String> _plugboardText;
+    private final Permutation[] _plugboards;
+    /** Number of choices of starting positions. */
+    private final long _positions;
+    /** Number of arrangements of fixed and of moving rotors. */
+    private final long _fixedCount, _movingCount;
+    /** Number of rotor orders. */
+    private final long _orders;
+    /** Total number of settings. */
+    private final long _total;
+}
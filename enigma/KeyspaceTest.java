@@ -0,0 +1,86 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The suite of all JUnit tests for the Keyspace class.
+ *  @author Ryan Shih
+ */
+public class KeyspaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A small spec: 3 slots, 2 pawls over a 6-letter alphabet. */
+    private MachineSpec smallSpec() {
+        Alphabet alpha = new Alphabet("ABCDEF");
+        RotorCatalog c = new RotorCatalog(alpha);
+        c.add("X", 'M', "C", "(ABCDEF)");
+        c.add("Y", 'M', "A", "(AC)(BEFD)");
+        c.add("Z", 'M', "E", "(AFB)(CE)");
+        c.add("R", 'R', "", "(AB)(CD)(EF)");
+        return new MachineSpec(alpha, 3, 2, c);
+    }
+
+    /** Return the conversion of MSG on a new machine from SPEC set up
+     *  as described by the setting line LINE. */
+    private String convertFresh(MachineSpec spec, String line, String msg) {
+        String[] words = line.split(" ");
+        Machine m = spec.newMachine();
+        m.insertRotors(new String[]{words[1], words[2], words[3]});
+        m.setRotors(words[4]);
+        m.setPlugboard(new Permutation(words.length > 5 ? words[5] : "",
+                                       spec.alphabet()));
+        return m.convert(msg);
+    }
+
+    @Test
+    public void testSize() {
+        Keyspace k = new Keyspace(smallSpec(), List.of("", "(AB)"));
+        assertEquals(1L * 6 * 6 * 6 * 2, k.size());
+    }
+
+    @Test
+    public void testTooLarge() {
+        MachineSpec small = smallSpec();
+        MachineSpec spec = new MachineSpec(small.alphabet(), 26, 25,
+                                           small.catalog());
+        try {
+            new Keyspace(spec);
+            fail("enumerated 6^25 positions");
+        } catch (EnigmaException excp) {
+            assertEquals("keyspace too large to enumerate", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testMatchesFreshMachines() {
+        MachineSpec spec = smallSpec();
+        Keyspace k = new Keyspace(spec, List.of("", "(AB)(CF)"));
+        Set<String> seen = new HashSet<String>();
+        k.stream(false).forEach(s -> {
+            String line = s.settingLine();
+            assertTrue(seen.add(line));
+            assertEquals(line, convertFresh(spec, line, "ABCDEFFEDCBA"),
+                         s.machine().convert("ABCDEFFEDCBA"));
+        });
+        assertEquals(k.size(), seen.size());
+    }
+
+    @Test
+    public void testParallel() {
+        Keyspace k = new Keyspace(smallSpec());
+        AtomicLong sum = new AtomicLong();
+        k.stream(true).forEach(s -> sum.addAndGet(s.index()));
+        long n = k.size();
+        assertEquals(n * (n - 1) / 2, sum.get());
+    }
+}
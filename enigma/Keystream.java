@@ -0,0 +1,484 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static enigma.EnigmaException.*;
+
+/** Keystream files: the permutation a machine applies at each of a run
+ *  of positions after a setting, for offline study.  Position 0 is the
+ *  first character converted after the setting, so the image of symbol
+ *  C at position P is what convert gives for C as character P of a
+ *  message.
+ *
+ *  The file is columnar.  Positions are stored in chunks of a fixed
+ *  number of positions, and a chunk of M positions holds one column
+ *  per symbol of the alphabet, in order: the M images of that symbol,
+ *  each of WIDTH bytes (1 for alphabets of up to 256 symbols, else 2,
+ *  big-endian).  A study of one symbol thus reads one contiguous column.
+ *  Chunks may each be compressed with Deflater; otherwise a reader maps
+ *  them straight from the file.
+ *
+ *  Chunks are generated in parallel batches by the compiled engine
+ *  (Machine.keystream), each on a machine of its own.  Each chunk's
+ *  machine seeks to its first position from the start of its batch,
+ *  through SteppingAnalysis.positionsAt, and the rotor positions at the
+ *  end of a batch are carried forward as the start of the next.  The
+ *  seeks thus cover each position about once, and no stepping cycle
+ *  is needed.  Chunks are written in order.
+ *
+ *  A file holds, in big-endian order: the int MAGIC and VERSION; the
+ *  machine's fingerprint (see Container.fingerprint); the setting line
+ *  (as by DataOutput.writeUTF); the alphabet size, symbol width,
+ *  positions per chunk and flags (COMPRESSED), all ints; the number of
+ *  positions (long); the chunks; the index, giving each chunk's offset
+ *  (long) and stored length (int); and a trailer of the number of chunks
+ *  (int), the offset of the index (long), and MAGIC again.
+ *  @author Ryan Shih
+ */
+public final class Keystream {
+
+    /** Write or show a keystream file as specified by ARGS, which is one
+     *  of
+     *      write [-c CHUNK] [-z] CONFIG SETTING COUNT FILE
+     *      show CONFIG FILE [START [COUNT]]
+     *  where CONFIG is a configuration file and SETTING a setting line in
+     *  the form used by Main.  Writing stores COUNT positions in chunks
+     *  of CHUNK positions (default CHUNK_POSITIONS), compressed if -z is
+     *  given.  Showing prints, for COUNT positions (default 1) from START
+     *  (default 0), the position and the images of the alphabet in
+     *  order.  Exits normally if there are no errors; otherwise with
+     *  code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length > 0 && args[0].equals("write")) {
+                int chunk = CHUNK_POSITIONS;
+                boolean compress = false;
+                int k = 1;
+                while (k < args.length && args[k].startsWith("-")) {
+                    if (args[k].equals("-z")) {
+                        compress = true;
+                        k += 1;
+                    } else if (args[k].equals("-c") && k + 1 < args.length) {
+                        chunk = Integer.parseInt(args[k + 1]);
+                        k += 2;
+                    } else {
+                        throw error("unknown option %s", args[k]);
+                    }
+                }
+                if (args.length - k != 4) {
+                    throw usage();
+                }
+                write(readSpec(args[k]), args[k + 1],
+                      Long.parseLong(args[k + 2]), Paths.get(args[k + 3]),
+                      chunk, compress);
+            } else if (args.length >= 3 && args.length <= 5
+                       && args[0].equals("show")) {
+                MachineSpec spec = readSpec(args[1]);
+                long start = args.length > 3 ? Long.parseLong(args[3]) : 0;
+                long count = args.length > 4 ? Long.parseLong(args[4]) : 1;
+                try (Reader r = new Reader(spec, Paths.get(args[2]))) {
+                    Alphabet alpha = spec.alphabet();
+                    StringBuilder line = new StringBuilder();
+                    for (long p = start; p < start + count; p += 1) {
+                        line.setLength(0);
+                        line.append(p).append(' ');
+                        for (int c = 0; c < r.symbols(); c += 1) {
+                            line.appendCodePoint(
+                                alpha.toCodePoint(r.image(p, c)));
+                        }
+                        System.out.println(line);
+                    }
+                }
+            } else {
+                throw usage();
+            }
+            return;
+        } catch (IOException excp) {
+            System.err.printf("Error: I/O error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the exception reporting bad command-line arguments. */
+    private static EnigmaException usage() {
+        return error("usage: write [-c CHUNK] [-z] CONFIG SETTING COUNT"
+                     + " FILE | show CONFIG FILE [START [COUNT]]");
+    }
+
+    /** Identifies a keystream file. */
+    static final int MAGIC = 0x454e4b53;
+
+    /** Format version written by this class. */
+    static final int VERSION = 1;
+
+    /** Flag marking compressed chunks. */
+    static final int COMPRESSED = 1;
+
+    /** Default number of positions per chunk. */
+    static final int CHUNK_POSITIONS = 1 << 14;
+
+    /** Length of the trailer in bytes. */
+    private static final int TRAILER = 4 + 8 + 4;
+
+    /** Write the keystream of COUNT positions of a machine made from
+     *  SPEC and set by SETTING to FILE, in chunks of CHUNK positions,
+     *  compressed iff COMPRESS. */
+    static void write(MachineSpec spec, String setting, long count,
+                      Path file, int chunk, boolean compress)
+        throws IOException {
+        Machine m = spec.newMachine();
+        Main.setUp(m, setting);
+        int n = m.alphabet().size();
+        int width = n <= 256 ? 1 : 2;
+        if (count < 0 || chunk <= 0
+            || (long) chunk * n * width > Integer.MAX_VALUE) {
+            throw error("bad position count or chunk size");
+        }
+        if (n > 1 << 16) {
+            throw error("alphabet too large for a keystream file");
+        }
+        long chunks = (count + chunk - 1) / chunk;
+        if (chunks > Integer.MAX_VALUE) {
+            throw error("too many chunks");
+        }
+        int batch = 2 * Runtime.getRuntime().availableProcessors();
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        try (FileChannel out = FileChannel.open(file,
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(Container.fingerprint(m));
+            header.writeUTF(setting);
+            header.writeInt(n);
+            header.writeInt(width);
+            header.writeInt(chunk);
+            header.writeInt(compress ? COMPRESSED : 0);
+            header.writeLong(count);
+            writeFully(out, ByteBuffer.wrap(headerBytes.toByteArray()));
+            for (long b = 0; b < chunks; b += batch) {
+                long first = b;
+                byte[][] made = new byte[(int) Math.min(batch,
+                                                        chunks - b)][];
+                SteppingAnalysis stepping = new SteppingAnalysis(m);
+                IntStream.range(0, made.length).parallel().forEach(i -> {
+                    long start = (first + i) * chunk;
+                    int len = (int) Math.min(chunk, count - start);
+                    made[i] = chunk(spec, setting,
+                                    stepping.positionsAt((long) i * chunk),
+                                    len, width, compress);
+                });
+                long end = Math.min((first + made.length) * chunk, count);
+                int[] positions = stepping.positionsAt(end - first * chunk);
+                for (int s = 1; s < m.numRotors(); s += 1) {
+                    m.setRotor(s, positions[s - 1]);
+                }
+                for (byte[] data : made) {
+                    index.writeLong(out.position());
+                    index.writeInt(data.length);
+                    writeFully(out, ByteBuffer.wrap(data));
+                }
+            }
+            long indexOffset = out.position();
+            index.writeInt((int) chunks);
+            index.writeLong(indexOffset);
+            index.writeInt(MAGIC);
+            writeFully(out, ByteBuffer.wrap(indexBytes.toByteArray()));
+            out.force(false);
+        }
+    }
+
+    /** Return the stored bytes of the chunk of LEN positions of the
+     *  keystream of a machine made from SPEC and set by SETTING, starting
+     *  with its rotors in slots 1 and up at POSITIONS, with symbols of
+     *  WIDTH bytes, compressed iff COMPRESS. */
+    private static byte[] chunk(MachineSpec spec, String setting,
+                                int[] positions, int len, int width,
+                                boolean compress) {
+        Machine m = spec.newMachine();
+        Main.setUp(m, setting);
+        for (int s = 1; s < m.numRotors(); s += 1) {
+            m.setRotor(s, positions[s - 1]);
+        }
+        int n = m.alphabet().size();
+        int[] images = new int[n * len];
+        m.keystream(len, images);
+        byte[] data = new byte[images.length * width];
+        if (width == 1) {
+            for (int i = 0; i < images.length; i += 1) {
+                data[i] = (byte) images[i];
+            }
+        } else {
+            for (int i = 0; i < images.length; i += 1) {
+                data[2 * i] = (byte) (images[i] >>> 8);
+                data[2 * i + 1] = (byte) images[i];
+            }
+        }
+        if (!compress) {
+            return data;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        while (!deflater.finished()) {
+            packed.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return packed.toByteArray();
+    }
+
+    /** Reads keystream files.  Uncompressed chunks are mapped from the
+     *  file when it is opened, and compressed ones are inflated on first
+     *  use by each thread, which keeps the last one it inflated.  Any
+     *  number of threads may read through one Reader at once. */
+    static class Reader implements Closeable {
+
+        /** A reader of the keystream file FILE, written by a machine
+         *  made from SPEC. */
+        Reader(MachineSpec spec, Path file) throws IOException {
+            _channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                open(spec, file);
+            } catch (IOException | EnigmaException excp) {
+                _channel.close();
+                throw excp;
+            }
+            _inflated = ThreadLocal.withInitial(Inflated::new);
+        }
+
+        /** Read the header, trailer and index of FILE, and map its
+         *  chunks if they are not compressed. */
+        private void open(MachineSpec spec, Path file) throws IOException {
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(_channel));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("%s is not a keystream file", file);
+            }
+            long fingerprint = in.readLong();
+            _setting = in.readUTF();
+            _symbols = in.readInt();
+            _width = in.readInt();
+            _chunk = in.readInt();
+            _compressed = (in.readInt() & COMPRESSED) != 0;
+            _positions = in.readLong();
+            Machine m = spec.newMachine();
+            Main.setUp(m, _setting);
+            if (fingerprint != Container.fingerprint(m)) {
+                throw error("keystream %s was made with another machine",
+                            file);
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            readFully(_channel, trailer, _channel.size() - TRAILER);
+            trailer.flip();
+            int chunks = trailer.getInt();
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || _chunk <= 0
+                || (_width != 1 && _width != 2)
+                || (_positions + _chunk - 1) / _chunk != chunks) {
+                throw error("keystream %s is damaged", file);
+            }
+            ByteBuffer index = ByteBuffer.allocate(chunks * 12);
+            readFully(_channel, index, indexOffset);
+            index.flip();
+            _offsets = new long[chunks];
+            _lengths = new int[chunks];
+            _mapped = new MappedByteBuffer[_compressed ? 0 : chunks];
+            for (int k = 0; k < chunks; k += 1) {
+                _offsets[k] = index.getLong();
+                _lengths[k] = index.getInt();
+                if (!_compressed) {
+                    if (_lengths[k] != positions(k) * _symbols * _width) {
+                        throw error("keystream %s is damaged", file);
+                    }
+                    _mapped[k] = _channel.map(FileChannel.MapMode.READ_ONLY,
+                                              _offsets[k], _lengths[k]);
+                }
+            }
+        }
+
+        /** Return the number of positions in the file. */
+        long positions() {
+            return _positions;
+        }
+
+        /** Return the number of symbols in the alphabet. */
+        int symbols() {
+            return _symbols;
+        }
+
+        /** Return the number of positions per chunk. */
+        int chunkPositions() {
+            return _chunk;
+        }
+
+        /** Return the setting line the keystream starts from. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the number of positions in chunk K. */
+        int positions(int k) {
+            return (int) Math.min(_chunk, _positions - (long) k * _chunk);
+        }
+
+        /** Return a read-only buffer holding the column of symbol C in
+         *  chunk K: the images of C at the chunk's positions, each of
+         *  width() bytes. */
+        ByteBuffer column(int k, int c) {
+            int len = positions(k) * _width;
+            return chunk(k).position(c * len).limit((c + 1) * len).slice();
+        }
+
+        /** Return the number of bytes per image. */
+        int width() {
+            return _width;
+        }
+
+        /** Return the image of symbol C at POSITION. */
+        int image(long position, int c) {
+            if (position < 0 || position >= _positions || c < 0
+                || c >= _symbols) {
+                throw error("position %d, symbol %d is outside the "
+                            + "keystream", position, c);
+            }
+            int k = (int) (position / _chunk);
+            int i = (int) (position - (long) k * _chunk);
+            ByteBuffer data = chunk(k);
+            int at = c * positions(k) + i;
+            return _width == 1 ? data.get(at) & 0xff
+                : data.getShort(2 * at) & 0xffff;
+        }
+
+        /** Return a read-only buffer holding the images of chunk K. */
+        private ByteBuffer chunk(int k) {
+            if (!_compressed) {
+                return _mapped[k].asReadOnlyBuffer();
+            }
+            Inflated last = _inflated.get();
+            if (last.data == null || last.chunk != k) {
+                last.data = inflate(k);
+                last.chunk = k;
+            }
+            return last.data.asReadOnlyBuffer();
+        }
+
+        /** Return the images of compressed chunk K. */
+        private ByteBuffer inflate(int k) {
+            byte[] data = new byte[positions(k) * _symbols * _width];
+            Inflater inflater = new Inflater();
+            try {
+                ByteBuffer stored = ByteBuffer.allocate(_lengths[k]);
+                readFully(_channel, stored, _offsets[k]);
+                inflater.setInput(stored.array());
+                int n = 0;
+                while (n < data.length && !inflater.finished()) {
+                    int got = inflater.inflate(data, n, data.length - n);
+                    if (got == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    n += got;
+                }
+                if (n != data.length) {
+                    throw error("chunk %d of the keystream is damaged", k);
+                }
+            } catch (IOException | DataFormatException excp) {
+                throw error("could not read chunk %d of the keystream", k);
+            } finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(data);
+        }
+
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+
+        /** The keystream file. */
+        private final FileChannel _channel;
+        /** Setting line the keystream starts from. */
+        private String _setting;
+        /** Alphabet size, bytes per image, positions per chunk. */
+        private int _symbols, _width, _chunk;
+        /** True iff the chunks are compressed. */
+        private boolean _compressed;
+        /** Number of positions. */
+        private long _positions;
+        /** Offset and stored length of each chunk. */
+        private long[] _offsets;
+        private int[] _lengths;
+        /** The mapped chunks, if not compressed. */
+        private MappedByteBuffer[] _mapped;
+        /** Each thread's last inflated chunk. */
+        private final ThreadLocal<Inflated> _inflated;
+    }
+
+    /** A chunk inflated by a Reader: its number and its images, or null
+     *  if there is none yet. */
+    private static final class Inflated {
+        /** The chunk number. */
+        private int chunk;
+        /** Its images. */
+        private ByteBuffer data;
+    }
+
+    /** Return the spec in the configuration file NAME. */
+    private static MachineSpec readSpec(String name) {
+        try (Scanner config = new Scanner(Paths.get(name))) {
+            return Main.readSpec(config);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Write all of BUF to OUT. */
+    private static void writeFully(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Fill BUF from IN starting at file offset POSITION. */
+    private static void readFully(FileChannel in, ByteBuffer buf,
+                                  long position) throws IOException {
+        long p = position;
+        while (buf.hasRemaining()) {
+            int n = in.read(buf, p);
+            if (n < 0) {
+                throw error("keystream file is truncated");
+            }
+            p += n;
+        }
+    }
+
+    /** Not instantiable. */
+    private Keystream() {
+    }
+}
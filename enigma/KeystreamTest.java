@@ -0,0 +1,101 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Keystream class.
+ *  @author Ryan Shih
+ */
+public class KeystreamTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private static final String SETTING =
+        "* B Beta III IV I AXDU (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Number of positions written. */
+    private static final int COUNT = 3000;
+
+    /** Check the keystream file written with chunks of CHUNK positions,
+     *  compressed iff COMPRESS, against conversion by Machine. */
+    private static void check(int chunk, boolean compress)
+        throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        Path file = Files.createTempFile("enigma", ".ks");
+        try {
+            Keystream.write(spec, SETTING, COUNT, file, chunk, compress);
+            try (Keystream.Reader r = new Keystream.Reader(spec, file)) {
+                assertEquals(COUNT, r.positions());
+                assertEquals(26, r.symbols());
+                assertEquals(SETTING, r.setting());
+                for (int c = 0; c < 26; c += 1) {
+                    Machine m = spec.newMachine();
+                    Main.setUp(m, SETTING);
+                    char[] text = new char[COUNT];
+                    Arrays.fill(text, (char) ('A' + c));
+                    m.convert(text, 0, COUNT);
+                    for (int p = 0; p < COUNT; p += 1) {
+                        assertEquals(text[p] - 'A', r.image(p, c));
+                    }
+                    ByteBuffer col = r.column(1, c);
+                    assertEquals(r.positions(1), col.remaining());
+                    for (int i = 0; i < col.remaining(); i += 1) {
+                        assertEquals(text[chunk + i] - 'A', col.get(i));
+                    }
+                }
+                try {
+                    r.image(COUNT, 0);
+                    fail("read past the end");
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testPlain() throws IOException {
+        check(700, false);
+    }
+
+    @Test
+    public void testCompressed() throws IOException {
+        check(1024, true);
+    }
+
+    @Test
+    public void testManyBatches() throws IOException {
+        check(37, false);
+    }
+
+    @Test
+    public void testOtherMachine() throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        Path file = Files.createTempFile("enigma", ".ks");
+        try {
+            Keystream.write(spec, SETTING, 10, file, 4, false);
+            MachineSpec other = Main.readSpec(new Scanner(
+                Samples.NAVY_CONFIG.replace("(DFG)", "(DGF)")));
+            try (Keystream.Reader r = new Keystream.Reader(other, file)) {
+                fail("opened with another machine");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static enigma.EnigmaException.*;
+
+/** Reads the lines of a byte stream, keeping count of the bytes consumed,
+ *  so that a reader can later be started again at the line where an
+ *  earlier one stopped by positioning its stream at that count.  Lines
+ *  end with a newline, a carriage return, or both; the last line need
+ *  not end with either, as with Scanner.nextLine.
+ *  @author Ryan Shih
+ */
+class LineReader {
+
+    /** A reader of lines in CHARSET from IN, which is positioned at byte
+     *  START of its source. */
+    LineReader(InputStream in, Charset charset, long start) {
+        _in = in;
+        _charset = charset;
+        _offset = start;
+    }
+
+    /** A reader of lines in the platform's default charset from IN,
+     *  which is positioned at byte START of its source. */
+    LineReader(InputStream in, long start) {
+        this(in, Charset.defaultCharset(), start);
+    }
+
+    /** Return true iff there is another line to read. */
+    boolean hasNextLine() {
+        return peek() >= 0;
+    }
+
+    /** Return the next line, without its terminator, or null at the end
+     *  of the input. */
+    String nextLine() {
+        _line.reset();
+        int c = read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0 && c != '\n' && c != '\r') {
+            _line.write(c);
+            c = read();
+        }
+        if (c == '\r' && peek() == '\n') {
+            read();
+        }
+        return _line.toString(_charset);
+    }
+
+    /** Return the offset in the source of the first byte not yet
+     *  returned in a line. */
+    long offset() {
+        return _offset;
+    }
+
+    /** Return the next byte of the input, or -1 at its end. */
+    private int read() {
+        int c = peek();
+        if (c >= 0) {
+            _pos += 1;
+            _offset += 1;
+        }
+        return c;
+    }
+
+    /** Return the next byte of the input without consuming it, or -1 at
+     *  its end. */
+    private int peek() {
+        if (_pos == _limit) {
+            try {
+                int n = _in.read(_buffer);
+                if (n <= 0) {
+                    return -1;
+                }
+                _pos = 0;
+                _limit = n;
+            } catch (IOException excp) {
+                throw error("could not read input");
+            }
+        }
+        return _buffer[_pos] & 0xff;
+    }
+
+    /** Size of the read buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Source of bytes. */
+    private final InputStream _in;
+    /** Encoding of the lines. */
+    private final Charset _charset;
+    /** Bytes read from _in, and the extent of those not yet consumed. */
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+    private int _pos, _limit;
+    /** Offset in the source of _buffer[_pos]. */
+    private long _offset;
+    /** The bytes of the line being read. */
+    private final ByteArrayOutputStream _line = new ByteArrayOutputStream();
+}
@@ -0,0 +1,56 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The suite of all JUnit tests for the LineReader class.
+ *  @author Ryan Shih
+ */
+public class LineReaderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a reader of TEXT in UTF-8, starting at byte START. */
+    private static LineReader reader(String text, int start) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new LineReader(
+            new ByteArrayInputStream(bytes, start, bytes.length - start),
+            StandardCharsets.UTF_8, start);
+    }
+
+    @Test
+    public void testTerminators() {
+        LineReader in = reader("AB\nCD\r\n\r\nEF\rGH", 0);
+        List<String> lines = new ArrayList<>();
+        while (in.hasNextLine()) {
+            lines.add(in.nextLine());
+        }
+        assertEquals(List.of("AB", "CD", "", "EF", "GH"), lines);
+        assertNull(in.nextLine());
+        assertEquals(14, in.offset());
+    }
+
+    @Test
+    public void testRestartAtOffset() {
+        String text = "* B I II III AAA\n\u00c4BC\nDEF\n";
+        LineReader first = reader(text, 0);
+        first.nextLine();
+        first.nextLine();
+        long offset = first.offset();
+        assertEquals(22, offset);
+        LineReader second = reader(text, (int) offset);
+        assertEquals("DEF", second.nextLine());
+        assertFalse(second.hasNextLine());
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length,
+                     second.offset());
+    }
+}
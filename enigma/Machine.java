@@ -1,5 +1,6 @@
 package enigma;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Collection;
 import java.util.Objects;
@@ -14,30 +15,33 @@ class Machine {
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
      *  available rotors. */
-    private final int _numRotors;
     private final int _pawls;
     public Rotor[] _rotors;
-    private Rotor[] _allRotors;
+    private final RotorCatalog _catalog;
     private Permutation _plugboard;
     public int[] settings;
 
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, RotorCatalog.of(alpha, allRotors));
+    }
+
+    /** As above, but with the available rotors described by CATALOG,
+     *  which builds each one only when insertRotors first names it. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorCatalog catalog) {
         _alphabet = alpha;
         assert(numRotors > 1);
-        _numRotors = numRotors;
         assert(0 <= pawls && pawls < numRotors);
         _pawls = pawls;
         _rotors = new Rotor[numRotors];
-        _allRotors = new Rotor[allRotors.size()];
-        _allRotors = allRotors.toArray(_allRotors);
+        _catalog = catalog;
 
         settings = new int[numRotors - 1];
     }
 
     /** Return the number of rotor slots I have. */
     int numRotors() {
-        return _numRotors;
+        return _rotors.length;
     }
 
     /** Return the number pawls (and thus rotating rotors) I have. */
@@ -51,11 +55,10 @@ class Machine {
     void insertRotors(String[] rotors) {
         int i = 0;
         for (String rName : rotors) {
-            for (Rotor r : _allRotors) {
-                if (Objects.equals(r.name(), rName)) {
-                    _rotors[i] = r;
-                    i += 1;
-                }
+            Rotor r = _catalog.rotor(rName);
+            if (r != null) {
+                _rotors[i] = r;
+                i += 1;
             }
         }
         if (!(rotors.length == 0 || (_rotors[0] instanceof Reflector))) {
@@ -90,6 +93,47 @@ class Machine {
         }
     }
 
+    /** Set the rotor in slot SLOT (1 <= SLOT < numRotors()) to position
+     *  POSN, leaving the other rotors alone. */
+    void setRotor(int slot, int posn) {
+        _rotors[slot].set(posn);
+        settings[slot - 1] = posn;
+    }
+
+    /** Return the rotor currently in slot SLOT. */
+    Rotor rotor(int slot) {
+        return _rotors[slot];
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my plugboard, or null if none has been set. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the number of characters I have converted. */
+    long processed() {
+        return _processed;
+    }
+
+    /** Set the count of characters converted to PROCESSED, as when
+     *  resuming from a checkpoint. */
+    void setProcessed(long processed) {
+        _processed = processed;
+    }
+
+    /** Rewire my reflector, which must be rewireable, to WIRING. */
+    void rewireReflector(Permutation wiring) {
+        if (!(_rotors[0] instanceof Reflector)) {
+            throw error("no reflector inserted");
+        }
+        ((Reflector) _rotors[0]).rewire(wiring);
+    }
+
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
@@ -97,13 +141,13 @@ class Machine {
 
     void advSetting() {
         int i = 0;
-        while (i < _numRotors) {
+        while (i < _rotors.length) {
             if (_rotors[i] instanceof MovingRotor) {
-                if (i == _numRotors - 1) {
+                if (i == _rotors.length - 1) {
                     _rotors[i].advance();
                     settings[i - 1] += 1;
                 } else if (_rotors[i+1].atNotch()) {
-                    for (int iRest = i; iRest < _numRotors; iRest += 1) {
+                    for (int iRest = i; iRest < _rotors.length; iRest += 1) {
                         _rotors[iRest].advance();
                         settings[iRest - 1] += 1;
                     }
@@ -117,15 +161,22 @@ class Machine {
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        if (!_alphabet.contains(_alphabet.toChar(c))) {
+        if (c < 0 || c >= _alphabet.size()) {
             throw new EnigmaException("Character not in alphabet");
         }
+        return convertValid(c);
+    }
+
+    /** Returns the result of converting C, which must be a valid index
+     *  into my alphabet, after first advancing the machine. */
+    private int convertValid(int c) {
+        _processed += 1;
         advSetting();
         c = _plugboard.permute(c);
-        for (int iRotor = _numRotors - 1; iRotor >= 0; iRotor -= 1) {
+        for (int iRotor = _rotors.length - 1; iRotor >= 0; iRotor -= 1) {
             c = _rotors[iRotor].convertForward(c);
         }
-        for (int iRotor = 1; iRotor < _numRotors; iRotor += 1) {
+        for (int iRotor = 1; iRotor < _rotors.length; iRotor += 1) {
             c = _rotors[iRotor].convertBackward(c);
         }
         c = _plugboard.permute(c);
@@ -136,15 +187,311 @@ class Machine {
      *  the rotors accordingly. */
     String convert(String msg) {
         char[] msgArray = msg.toCharArray();
-        char[] convertedArray = new char[msgArray.length];
-        for (int i = 0; i < msgArray.length; i += 1) {
-            int charInt = _alphabet.toInt(msgArray[i]);
-            int convertInt = convert(charInt);
-            convertedArray[i] = _alphabet.toChar(convertInt);
+        convert(msgArray, 0, msgArray.length);
+        return new String(msgArray);
+    }
+
+    /** Convert the LEN characters of BUF starting at OFF in place,
+     *  exactly as convert(String) would. */
+    void convert(char[] buf, int off, int len) {
+        int first = prepare();
+        if (first < 0) {
+            for (int i = off; i < off + len; i += 1) {
+                buf[i] = _alphabet.toChar(convert(_alphabet.toInt(buf[i])));
+            }
+            return;
+        }
+        int[] plug = _plugboard.forwardTable();
+        int[] fold = _fold.table;
+        Engine engine = engine(first);
+        if (engine != null) {
+            engine.convert(_rotors, settings, plug, fold, buf, off, len,
+                           _alphabet);
+            _processed += len;
+            return;
+        }
+        for (int i = off; i < off + len; i += 1) {
+            int c = convertFast(_alphabet.toInt(buf[i]), first, plug, fold);
+            buf[i] = _alphabet.toChar(c);
+        }
+        _processed += len;
+    }
+
+    /** Convert the LEN characters of BUF starting at OFF in place.
+     *  Unlike convert(char[], int, int), every character must be in my
+     *  alphabet.  The whole range is checked in one pass before anything
+     *  is converted, and all characters that are not in my alphabet are
+     *  reported together in one EnigmaException, leaving BUF and my
+     *  rotors unchanged.  The conversion loop then does no checking of
+     *  its own. */
+    void convertChecked(char[] buf, int off, int len) {
+        _alphabet.checkAll(buf, off, len);
+        checkReady();
+        int first = prepare();
+        if (first < 0) {
+            for (int i = off; i < off + len; i += 1) {
+                int c = convertValid(_alphabet.indexOf(buf[i]));
+                buf[i] = _alphabet.toChar(c);
+            }
+            return;
+        }
+        int[] plug = _plugboard.forwardTable();
+        int[] fold = _fold.table;
+        Engine engine = engine(first);
+        if (engine != null) {
+            engine.convert(_rotors, settings, plug, fold, buf, off, len,
+                           _alphabet);
+            _processed += len;
+            return;
+        }
+        for (int i = off; i < off + len; i += 1) {
+            int c = convertFast(_alphabet.indexOf(buf[i]), first, plug, fold);
+            buf[i] = _alphabet.toChar(c);
+        }
+        _processed += len;
+    }
+
+    /** Advance me LEN times, as converting LEN characters would, and
+     *  after advance I (from 0) write the image of each symbol C (as an
+     *  index) under my permutation at that point into OUT[C * LEN + I].
+     *  This is the keystream of the next LEN characters, made by the
+     *  compiled engine, which must be turned on and able to run my
+     *  rotors (see prepare). */
+    void keystream(int len, int[] out) {
+        checkReady();
+        int first = prepare();
+        Engine engine = first < 0 ? null : engine(first);
+        if (engine == null) {
+            throw error("keystream needs a machine the engine can run");
+        }
+        engine.keystream(_rotors, settings, _plugboard.forwardTable(),
+                         _fold.table, len, out);
+        _processed += len;
+    }
+
+    /** Return the result of converting C, a valid index, after first
+     *  advancing the machine, by the compiled engine: the moving rotors
+     *  are those in slots FIRST and up, PLUG is the plugboard's table,
+     *  and FOLD is the table of the fixed rotors and reflector taken
+     *  together (see prepare). */
+    private int convertFast(int c, int first, int[] plug, int[] fold) {
+        Rotor[] rotors = _rotors;
+        int last = _rotors.length - 1;
+        step(first, last);
+        c = plug[c];
+        for (int k = last; k >= first; k -= 1) {
+            c = rotors[k].forwardValid(c);
+        }
+        c = fold[c];
+        for (int k = first; k <= last; k += 1) {
+            c = rotors[k].backwardValid(c);
+        }
+        return plug[c];
+    }
+
+    /** Advance the moving rotors, which are those in slots FIRST through
+     *  LAST, exactly as advSetting would. */
+    private void step(int first, int last) {
+        Rotor[] rotors = _rotors;
+        for (int i = first; i < last; i += 1) {
+            if (rotors[i + 1].atNotch()) {
+                for (int k = i; k <= last; k += 1) {
+                    rotors[k].advance();
+                    settings[k - 1] += 1;
+                }
+                return;
+            }
+        }
+        if (first <= last) {
+            rotors[last].advance();
+            settings[last - 1] += 1;
+        }
+    }
+
+    /** Prepare the compiled engine and return the first slot of the run
+     *  of moving rotors that ends in my last slot, or -1 if I must be
+     *  run through the general path instead: when I am not fully set up
+     *  or a moving rotor stands outside that run.  The rotors to the
+     *  left of the run never move, so they and the reflector are folded
+     *  into the single table _fold, mapping each character entering the
+     *  leftmost of them to the one that comes back out.  With it, an M4
+     *  (thin rotor beside the reflector) costs the same per character
+     *  as a 3-rotor machine.  _fold is fetched again from my catalog,
+     *  which shares it among machines, only when the setting or wiring
+     *  of one of those rotors has changed. */
+    private int prepare() {
+        if (!ready()) {
+            return -1;
+        }
+        int first = _rotors.length;
+        while (first > 1 && _rotors[first - 1] instanceof MovingRotor) {
+            first -= 1;
+        }
+        for (int k = 0; k < first; k += 1) {
+            if (_rotors[k] instanceof MovingRotor) {
+                return -1;
+            }
+        }
+        if (_fold == null || !_fold.matches(_rotors, first)) {
+            _fold = _catalog.fold(_rotors, first);
+        }
+        return first;
+    }
+
+    /** Return the compiled engine for my rotors as prepared by prepare,
+     *  whose moving rotors start at slot FIRST, fetching it again from
+     *  my catalog if they have changed since it was fetched, or null if
+     *  the engine is turned off and I must use convertFast. */
+    private Engine engine(int first) {
+        if (!_useEngine) {
+            return null;
+        }
+        if (_engine == null || !_engine.matches(_rotors, first)) {
+            _engine = _catalog.engine(_rotors, first);
+        }
+        return _engine;
+    }
+
+    /** Use the compiled engine for bulk conversion iff ON, as is the
+     *  default.  Without it, bulk conversion steps and passes through
+     *  each Rotor in turn, as convertFast does; this is for comparing
+     *  the two in tests and benchmarks. */
+    void useEngine(boolean on) {
+        _useEngine = on;
+    }
+
+    /** Return true iff I have a rotor in every slot, each at a valid
+     *  setting, and a plugboard whose alphabet is the size of mine. */
+    private boolean ready() {
+        if (_plugboard == null || _plugboard.size() != _alphabet.size()) {
+            return false;
+        }
+        for (int k = 0; k < _rotors.length; k += 1) {
+            Rotor r = _rotors[k];
+            if (r == null || r.size() != _alphabet.size()
+                || r.setting() < 0 || r.setting() >= _alphabet.size()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Check that I have a rotor in every slot, each at a valid setting,
+     *  and a plugboard, so that conversion cannot fail part way. */
+    private void checkReady() {
+        if (_plugboard == null) {
+            throw error("plugboard not set");
+        }
+        for (int k = 0; k < _rotors.length; k += 1) {
+            Rotor r = _rotors[k];
+            if (r == null) {
+                throw error("no rotor in slot %d", k);
+            }
+            if (r.setting() < 0 || r.setting() >= _alphabet.size()) {
+                throw error("rotor %s has bad setting %d", r.name(),
+                            r.setting());
+            }
+        }
+    }
+
+    /** Convert the bytes remaining in SRC into DST, as many as DST has
+     *  room for, advancing the positions of both.  Byte value K stands
+     *  for character K of my alphabet, which must therefore have exactly
+     *  256 characters; every byte is then valid and no per-byte check is
+     *  needed.  SRC and DST may be the same buffer, for conversion in
+     *  place. */
+    void convert(ByteBuffer src, ByteBuffer dst) {
+        if (_alphabet.size() != BYTE_SYMBOLS) {
+            throw error("byte conversion needs a %d-character alphabet",
+                        BYTE_SYMBOLS);
+        }
+        int n = Math.min(src.remaining(), dst.remaining());
+        int sp = src.position(), dp = dst.position();
+        int first = prepare();
+        if (first < 0) {
+            for (int i = 0; i < n; i += 1) {
+                dst.put(dp + i, (byte) convertValid(src.get(sp + i) & 0xff));
+            }
+        } else {
+            int[] plug = _plugboard.forwardTable();
+            int[] fold = _fold.table;
+            for (int i = 0; i < n; i += 1) {
+                int c = convertFast(src.get(sp + i) & 0xff, first, plug, fold);
+                dst.put(dp + i, (byte) c);
+            }
+            _processed += n;
         }
-        return new String(convertedArray);
+        src.position(sp + n);
+        dst.position(dp + n);
     }
 
+    /** The table of the non-moving rotors and reflector of a machine
+     *  taken together, mapping each character entering the leftmost of
+     *  them to the one that comes back out, and the permutations and
+     *  settings it was built from.  A Fold never changes, and is shared
+     *  by all the machines of a catalog that need the same one. */
+    static final class Fold {
+
+        /** The fold of the rotors in slots 0 .. FIRST-1 of ROTORS, which
+         *  must all be set to valid positions. */
+        Fold(Rotor[] rotors, int first) {
+            int n = rotors[0].size();
+            wirings = new Permutation[first];
+            settings = new int[first];
+            for (int k = 0; k < first; k += 1) {
+                wirings[k] = rotors[k].permutation();
+                settings[k] = rotors[k].setting();
+            }
+            table = new int[n];
+            for (int c = 0; c < n; c += 1) {
+                int x = c;
+                for (int k = first - 1; k >= 0; k -= 1) {
+                    x = rotors[k].forwardValid(x);
+                }
+                for (int k = 1; k < first; k += 1) {
+                    x = rotors[k].backwardValid(x);
+                }
+                table[c] = x;
+            }
+        }
+
+        /** Return true iff I am the fold of the rotors in slots 0 ..
+         *  FIRST-1 of ROTORS as they are now. */
+        boolean matches(Rotor[] rotors, int first) {
+            if (wirings.length != first) {
+                return false;
+            }
+            for (int k = 0; k < first; k += 1) {
+                if (wirings[k] != rotors[k].permutation()
+                    || settings[k] != rotors[k].setting()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** The permutations and settings of the folded rotors. */
+        private final Permutation[] wirings;
+        private final int[] settings;
+        /** The folded table. */
+        private final int[] table;
+    }
+
+    /** Size of the alphabet used for byte conversion. */
+    static final int BYTE_SYMBOLS = 256;
+
+    /** Number of characters converted so far. */
+    private long _processed;
+
+    /** The table of my non-moving rotors and reflector taken together
+     *  (see prepare), or null if not yet needed. */
+    private Fold _fold;
+
+    /** The compiled engine for my moving rotors, shared through my
+     *  catalog, or null if not yet fetched, and whether to use it. */
+    private Engine _engine;
+    private boolean _useEngine = true;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 }
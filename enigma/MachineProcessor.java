@@ -0,0 +1,317 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/** A reactive-streams stage that converts chunks of a message.  Each
+ *  processor takes a fresh machine when it is subscribed to upstream, so
+ *  every subscription carries its own rotor state.  Chunks are converted
+ *  in place as they arrive, and at most PREFETCH chunks are requested
+ *  from upstream beyond those passed on, so a slow subscriber slows the
+ *  publisher rather than filling memory.  Chunks that pile up while the
+ *  subscriber has no demand are joined into one, up to a batch size, to
+ *  cut the per-signal cost of many small chunks.
+ *
+ *  A chunk passed to onNext belongs to the processor from then on: it is
+ *  overwritten with its conversion and passed on as it is, so a
+ *  publisher must not reuse or share the arrays it sends.  If a chunk
+ *  cannot be converted (for instance, because it holds a character not
+ *  in the machine's alphabet), the processor cancels its upstream
+ *  subscription and passes the failure on to its subscriber with
+ *  onError, as the Reactive Streams rules require of a subscriber that
+ *  cannot accept a signal.
+ *  @param <T> the type of chunk: char[] or byte[].
+ *  @author Ryan Shih
+ */
+abstract class MachineProcessor<T> implements Flow.Processor<T, T> {
+
+    /** Number of chunks requested from upstream ahead of demand. */
+    static final int PREFETCH = 32;
+
+    /** A processor converting char[] chunks, whose characters must all
+     *  be in the machine's alphabet, with machines from MACHINES,
+     *  joining queued chunks into at most BATCH characters (0 for no
+     *  joining). */
+    static MachineProcessor<char[]> forChars(Supplier<Machine> machines,
+                                             int batch) {
+        return new MachineProcessor<char[]>(machines, batch) {
+            @Override
+            void convert(Machine m, char[] chunk) {
+                m.convertChecked(chunk, 0, chunk.length);
+            }
+
+            @Override
+            int length(char[] chunk) {
+                return chunk.length;
+            }
+
+            @Override
+            char[] join(ArrayDeque<char[]> queue, int total) {
+                char[] result = new char[total];
+                int k = 0;
+                while (k < total) {
+                    char[] c = queue.poll();
+                    System.arraycopy(c, 0, result, k, c.length);
+                    k += c.length;
+                }
+                return result;
+            }
+        };
+    }
+
+    /** A processor converting byte[] chunks with machines from MACHINES,
+     *  which must have 256-character alphabets, joining queued chunks
+     *  into at most BATCH bytes (0 for no joining). */
+    static MachineProcessor<byte[]> forBytes(Supplier<Machine> machines,
+                                             int batch) {
+        return new MachineProcessor<byte[]>(machines, batch) {
+            @Override
+            void convert(Machine m, byte[] chunk) {
+                ByteBuffer buf = ByteBuffer.wrap(chunk);
+                m.convert(buf, buf);
+            }
+
+            @Override
+            int length(byte[] chunk) {
+                return chunk.length;
+            }
+
+            @Override
+            byte[] join(ArrayDeque<byte[]> queue, int total) {
+                byte[] result = new byte[total];
+                int k = 0;
+                while (k < total) {
+                    byte[] c = queue.poll();
+                    System.arraycopy(c, 0, result, k, c.length);
+                    k += c.length;
+                }
+                return result;
+            }
+        };
+    }
+
+    /** A processor using machines from MACHINES and joining queued
+     *  chunks into at most BATCH symbols. */
+    MachineProcessor(Supplier<Machine> machines, int batch) {
+        _machines = machines;
+        _batch = batch;
+        _queue = new ArrayDeque<T>();
+        _demand = new AtomicLong();
+        _wip = new AtomicInteger();
+    }
+
+    /** Convert CHUNK in place with M. */
+    abstract void convert(Machine m, T chunk);
+
+    /** Return the number of symbols in CHUNK. */
+    abstract int length(T chunk);
+
+    /** Remove chunks from the front of QUEUE totalling TOTAL symbols and
+     *  return them joined into one. */
+    abstract T join(ArrayDeque<T> queue, int total);
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        synchronized (this) {
+            if (_downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException(
+                    "processor already has a subscriber"));
+                return;
+            }
+            _downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    _error = new IllegalArgumentException(
+                        "non-positive request");
+                    _done = true;
+                    cancelUpstream();
+                } else {
+                    _demand.getAndAccumulate(n, (a, b) -> {
+                        long r = a + b;
+                        return r < 0 ? Long.MAX_VALUE : r;
+                    });
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                _cancelled = true;
+                cancelUpstream();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (_upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            _upstream = subscription;
+            _machine = _machines.get();
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(T chunk) {
+        if (_done) {
+            return;
+        }
+        try {
+            convert(_machine, chunk);
+        } catch (RuntimeException excp) {
+            _error = excp;
+            _done = true;
+            cancelUpstream();
+            drain();
+            return;
+        }
+        synchronized (this) {
+            _outstanding -= 1;
+            _queue.add(chunk);
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        _error = throwable;
+        _done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        _done = true;
+        drain();
+    }
+
+    /** Cancel the upstream subscription, if any. */
+    private void cancelUpstream() {
+        Flow.Subscription up;
+        synchronized (this) {
+            up = _upstream;
+        }
+        if (up != null) {
+            up.cancel();
+        }
+    }
+
+    /** Pass on as many queued chunks as the subscriber wants, request
+     *  more from upstream, and signal termination when due.  Only one
+     *  thread runs the loop at a time; a call made while another thread
+     *  is in it makes that thread go round again. */
+    private void drain() {
+        if (_wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Flow.Subscriber<? super T> down;
+            Flow.Subscription up;
+            synchronized (this) {
+                down = _downstream;
+                up = _upstream;
+            }
+            if (down == null || _cancelled) {
+                continue;
+            }
+            while (_demand.get() > 0) {
+                T next;
+                synchronized (this) {
+                    if (_queue.isEmpty()) {
+                        break;
+                    }
+                    next = take();
+                }
+                _demand.decrementAndGet();
+                down.onNext(next);
+            }
+            boolean empty;
+            long ask = 0;
+            synchronized (this) {
+                empty = _queue.isEmpty();
+                if (up != null && !_done
+                    && _queue.size() + _outstanding <= PREFETCH / 2) {
+                    ask = PREFETCH - _queue.size() - _outstanding;
+                    _outstanding += ask;
+                }
+            }
+            if (ask > 0) {
+                up.request(ask);
+            }
+            if (_done && (empty || _error != null) && !_terminated) {
+                _terminated = true;
+                if (_error != null) {
+                    down.onError(_error);
+                } else {
+                    down.onComplete();
+                }
+            }
+        } while (_wip.decrementAndGet() != 0);
+    }
+
+    /** Remove and return the next chunk to pass on: the head of _queue,
+     *  joined with following chunks while they fit in the batch size. */
+    private T take() {
+        int total = 0, count = 0;
+        for (T c : _queue) {
+            int len = length(c);
+            if (count > 0 && total + len > _batch) {
+                break;
+            }
+            total += len;
+            count += 1;
+        }
+        if (count == 1) {
+            return _queue.poll();
+        }
+        return join(_queue, total);
+    }
+
+    /** Source of a machine for each subscription. */
+    private final Supplier<Machine> _machines;
+    /** Largest joined chunk. */
+    private final int _batch;
+    /** Converted chunks not yet passed on. */
+    private final ArrayDeque<T> _queue;
+    /** Chunks the subscriber has asked for and not yet received. */
+    private final AtomicLong _demand;
+    /** Count of pending calls to drain. */
+    private final AtomicInteger _wip;
+    /** The machine of the current subscription. */
+    private Machine _machine;
+    /** Upstream subscription and downstream subscriber, once known. */
+    private Flow.Subscription _upstream;
+    private Flow.Subscriber<? super T> _downstream;
+    /** Chunks requested from upstream and not yet received. */
+    private long _outstanding;
+    /** Set when upstream has finished, with _error if it failed. */
+    private volatile boolean _done;
+    private volatile Throwable _error;
+    /** Set when the subscriber cancels. */
+    private volatile boolean _cancelled;
+    /** Set once onComplete or onError has been passed on. */
+    private boolean _terminated;
+}
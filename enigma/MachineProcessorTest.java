@@ -0,0 +1,127 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/** The suite of all JUnit tests for the MachineProcessor class.
+ *  @author Ryan Shih
+ */
+public class MachineProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private static final String SETTING =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a source of machines set to SETTING. */
+    private Supplier<Machine> machines() {
+        MachineSpec spec = Samples.navySpec();
+        return () -> {
+            Machine m = spec.newMachine();
+            Main.setUp(m, SETTING);
+            return m;
+        };
+    }
+
+    /** A subscriber that asks for one chunk at a time and collects
+     *  them. */
+    private static class Collector implements Flow.Subscriber<char[]> {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            _sub = s;
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(char[] chunk) {
+            _text.append(chunk);
+            _chunks += 1;
+            _sub.request(1);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            _error = t;
+            _finished.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            _finished.countDown();
+        }
+
+        private Flow.Subscription _sub;
+        private final StringBuilder _text = new StringBuilder();
+        private int _chunks;
+        private Throwable _error;
+        private final CountDownLatch _finished = new CountDownLatch(1);
+    }
+
+    /** Send 500 chunks of "HELLOWORLD" through a processor joining up
+     *  to BATCH characters, and check the result. */
+    private void check(int batch) throws InterruptedException {
+        MachineProcessor<char[]> proc =
+            MachineProcessor.forChars(machines(), batch);
+        Collector out = new Collector();
+        proc.subscribe(out);
+        StringBuilder all = new StringBuilder();
+        try (SubmissionPublisher<char[]> pub =
+                 new SubmissionPublisher<char[]>()) {
+            pub.subscribe(proc);
+            for (int i = 0; i < 500; i += 1) {
+                pub.submit("HELLOWORLD".toCharArray());
+                all.append("HELLOWORLD");
+            }
+        }
+        assertTrue(out._finished.await(4, TimeUnit.SECONDS));
+        assertNull(out._error);
+        assertEquals(machines().get().convert(all.toString()),
+                     out._text.toString());
+        assertTrue(out._chunks <= 500);
+    }
+
+    @Test
+    public void testUnbatched() throws InterruptedException {
+        check(0);
+    }
+
+    @Test
+    public void testBatched() throws InterruptedException {
+        check(64);
+    }
+
+    @Test
+    public void testBadChunk() {
+        MachineProcessor<char[]> proc =
+            MachineProcessor.forChars(machines(), 0);
+        Collector out = new Collector();
+        proc.subscribe(out);
+        boolean[] cancelled = new boolean[1];
+        proc.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                cancelled[0] = true;
+            }
+        });
+        proc.onNext("HELLO".toCharArray());
+        proc.onNext("HEL?O".toCharArray());
+        proc.onNext("WORLD".toCharArray());
+        assertTrue(cancelled[0]);
+        assertTrue(out._error instanceof EnigmaException);
+        assertEquals(0, out._finished.getCount());
+    }
+}
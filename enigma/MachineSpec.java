@@ -0,0 +1,59 @@
+package enigma;
+
+/** An immutable description of an Enigma machine as read from a
+ *  configuration file: its alphabet, its number of rotor slots and
+ *  pawls, and the catalog of rotors it may use.  Any number of
+ *  independent Machines may be made from one spec, on any thread; they
+ *  share the spec's compiled rotor permutations but no rotor state.
+ *  @author Ryan Shih
+ */
+class MachineSpec {
+
+    /** A spec for machines over ALPHABET with NUMROTORS slots and PAWLS
+     *  pawls, whose available rotors are described by CATALOG. */
+    MachineSpec(Alphabet alphabet, int numRotors, int pawls,
+                RotorCatalog catalog) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _catalog = catalog;
+    }
+
+    /** Return a new machine built to this spec, with no rotors
+     *  inserted. */
+    Machine newMachine() {
+        return new Machine(_alphabet, _numRotors, _pawls, _catalog);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the rotors available to my machines. */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
+    /** Common alphabet of my machines. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Available rotors. */
+    private final RotorCatalog _catalog;
+}
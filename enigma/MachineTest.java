@@ -5,10 +5,15 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Random;
 
 import static enigma.EnigmaException.*;
 
@@ -118,4 +123,166 @@ public class MachineTest {
         m.setRotors("AXLE");
         assertEquals("Z", m.convert("Y"));
     }
+
+    @Test
+    public void testConvertBytes() {
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < 256; i += 1) {
+            chars.append((char) (0x100 + i));
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        Random rand = new Random(3);
+        RotorCatalog catalog = new RotorCatalog(alpha);
+        catalog.add("R", 'R', "", pairs(alpha, rand));
+        catalog.add("A", 'M', chars.substring(10, 11),
+                    "(" + shuffled(alpha, rand) + ")");
+        catalog.add("B", 'M', chars.substring(200, 201),
+                    "(" + shuffled(alpha, rand) + ")");
+        Machine m1 = new Machine(alpha, 3, 2, catalog);
+        Machine m2 = new Machine(alpha, 3, 2, catalog);
+        String setting = "* R A B " + chars.substring(5, 6)
+            + chars.substring(250, 251);
+        Main.setUp(m1, setting);
+        Main.setUp(m2, setting);
+
+        byte[] data = new byte[5000];
+        rand.nextBytes(data);
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
+        buf.put(data).flip();
+        m1.convert(buf, buf);
+        assertEquals(data.length, buf.position());
+        for (int i = 0; i < data.length; i += 1) {
+            assertEquals(m2.convert(data[i] & 0xff), buf.get(i) & 0xff);
+        }
+    }
+
+    @Test
+    public void testConvertChecked() {
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Machine m1 = spec.newMachine();
+        Machine m2 = spec.newMachine();
+        Main.setUp(m1, setting);
+        Main.setUp(m2, setting);
+        char[] buf = "FROMHISSHOULDERHIAWATHA".toCharArray();
+        m1.convertChecked(buf, 0, buf.length);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", new String(buf));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     m2.convert("FROMHISSHOULDERHIAWATHA"));
+        assertArrayEquals(m2.settings, m1.settings);
+        assertEquals(m2.processed(), m1.processed());
+
+        char[] bad = "AB?CD!E".toCharArray();
+        int[] before = m1.settings.clone();
+        try {
+            m1.convertChecked(bad, 0, bad.length);
+            fail("bad characters accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().startsWith("2 characters"));
+        }
+        assertEquals("AB?CD!E", new String(bad));
+        assertArrayEquals(before, m1.settings);
+        m1.convertChecked(bad, 3, 2);
+        assertEquals("AB?", new String(bad, 0, 3));
+    }
+
+    @Test
+    public void testVariants() {
+        MachineSpec spec = Main.readSpec(new java.util.Scanner(
+            Samples.NAVY_CONFIG + Samples.VARIANT_ROTORS));
+        String setting = "* D Beta VI VII VIII AZMZ (HQ) (EX)";
+        Machine m1 = spec.newMachine();
+        Machine m2 = spec.newMachine();
+        Main.setUp(m1, setting);
+        Main.setUp(m2, setting);
+        char[] buf = new char[2000];
+        Random rand = new Random(7);
+        for (int i = 0; i < buf.length; i += 1) {
+            buf[i] = (char) ('A' + rand.nextInt(26));
+        }
+        char[] expected = new char[buf.length];
+        for (int i = 0; i < buf.length; i += 1) {
+            expected[i] = m2.alphabet().toChar(
+                m2.convert(m2.alphabet().toInt(buf[i])));
+        }
+        m1.convert(buf, 0, buf.length);
+        assertArrayEquals(expected, buf);
+        assertArrayEquals(m2.settings, m1.settings);
+
+        Machine b = spec.newMachine();
+        Machine d = spec.newMachine();
+        Main.setUp(b, "* B Beta VI VII VIII AZMZ");
+        Main.setUp(d, "* D Beta VI VII VIII AZMZ");
+        assertEquals(b.convert("HELLOWORLD"), d.convert("HELLOWORLD"));
+        Main.setUp(d, "* D Beta VI VII VIII AZMZ [(AB)(CD)(EF)(GH)(IJ)"
+                   + "(KL)(MN)(OP)(QR)(ST)(UV)(WX)(YZ)]");
+        Main.setUp(b, "* B Beta VI VII VIII AZMZ");
+        assertFalse(b.convert("HELLOWORLD").equals(
+                        d.convert("HELLOWORLD")));
+
+        try {
+            Main.setUp(b, "* B Beta VI VII VIII AZMZ [(AB)]");
+            fail("rewired a fixed reflector");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            Main.setUp(d, "* D Beta VI VII VIII AZMZ [(ABC)]");
+            fail("accepted a reflector wiring that is not pairs");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            Main.setUp(d, "* D Beta VI VII VIII AZMZ [(AB)]");
+            fail("accepted a reflector wiring that leaves letters alone");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+
+        Machine e = spec.newMachine();
+        Main.setUp(d, "* D Beta VI VII VIII AZMZ [(AB)(CD)(EF)(GH)(IJ)"
+                   + "(KL)(MN)(OP)(QR)(ST)(UV)(WX)(YZ)] (HQ)(EX)");
+        Main.setUp(e, "* D Beta VI VII VIII AZMZ [(AB) (CD) (EF) (GH)"
+                   + " (IJ) (KL) (MN) (OP) (QR) (ST) (UV) (WX) (YZ)]"
+                   + " (HQ) (EX)");
+        assertEquals(d.convert("HELLOWORLD"), e.convert("HELLOWORLD"));
+        assertEquals(d.plugboard().cycles(), e.plugboard().cycles());
+        assertEquals("(EX)(HQ)", e.plugboard().cycles());
+        try {
+            Main.setUp(e, "* D Beta VI VII VIII AZMZ (HQ) junk");
+            fail("ignored a trailing token");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            Main.setUp(e, "* D Beta VI VII VIII AZMZ [(AB) (CD)");
+            fail("accepted an unterminated reflector wiring");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Return the characters of ALPHA in random order using RAND. */
+    private String shuffled(Alphabet alpha, Random rand) {
+        List<Character> list = new ArrayList<Character>();
+        for (int i = 0; i < alpha.size(); i += 1) {
+            list.add(alpha.toChar(i));
+        }
+        Collections.shuffle(list, rand);
+        StringBuilder result = new StringBuilder();
+        for (char c : list) {
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    /** Return random 2-cycles covering ALPHA using RAND. */
+    private String pairs(Alphabet alpha, Random rand) {
+        String s = shuffled(alpha, rand);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < s.length(); i += 2) {
+            result.append('(').append(s, i, i + 2).append(')');
+        }
+        return result.toString();
+    }
 }
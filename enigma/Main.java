@@ -1,8 +1,20 @@
 package enigma;
 
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.util.*;
 
@@ -14,7 +26,37 @@ import static enigma.EnigmaException.*;
 public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
+     *  specified by ARGS, where 1 <= ARGS.length <= 3 after any leading
+     *  options.  The options are
+     *      -c FILE   write a checkpoint of the machine state to FILE
+     *                periodically (every enigma.checkpointLines input
+     *                lines, default 10000) and at the end;
+     *      -r FILE   resume from the checkpoint in FILE, starting the
+     *                input file at the byte offset it had reached and
+     *                truncating the output file to the length it had
+     *                then; checkpoints continue to be written to FILE;
+     *      -g N      print messages in groups of N characters (default 5);
+     *      -w N      start a new output line before a group that would
+     *                make it longer than N characters (default 0, for
+     *                one output line per input line);
+     *      -p N      read the input file and write the output file
+     *                through rings of N buffers (N >= 2), so that disk
+     *                transfers overlap conversion;
+     *      -s FILE   write statistics of the converted text to FILE:
+     *                character counts, the commonest bigrams and
+     *                trigrams, and the index of coincidence, for the
+     *                messages following each setting line and in total.
+     *                They are gathered as lines are converted, so the
+     *                output is not read again.  When resuming, they
+     *                cover only the input processed in this run;
+     *      -n POLICY normalize message lines by POLICY, a comma-separated
+     *                list of upper (fold lower case to upper), drop
+     *                (remove other characters not in the alphabet), pass
+     *                (copy them to the output unconverted) and strict
+     *                (reject them, the default); see Normalizer;
+     *      -m FILE   before normalizing, replace characters as given by
+     *                the substitution table in FILE: pairs of single
+     *                characters, the second in the alphabet.
      *  ARGS[0] is the name of a configuration file.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
@@ -34,6 +76,46 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int k = 0;
+        while (k < args.length && args[k].startsWith("-")) {
+            if (k + 1 >= args.length) {
+                throw error("option %s needs an argument", args[k]);
+            }
+            switch (args[k]) {
+                case "-c":
+                    _checkpointFile = Paths.get(args[k + 1]);
+                    break;
+                case "-r":
+                    _checkpointFile = Paths.get(args[k + 1]);
+                    _resume = Checkpoint.read(_checkpointFile);
+                    break;
+                case "-g":
+                    _groupSize = intOption(args[k], args[k + 1]);
+                    break;
+                case "-w":
+                    _lineWidth = intOption(args[k], args[k + 1]);
+                    break;
+                case "-s":
+                    _statsFile = args[k + 1];
+                    break;
+                case "-n":
+                    _policy = args[k + 1];
+                    break;
+                case "-m":
+                    _substitutions = args[k + 1];
+                    break;
+                case "-p":
+                    _pipeline = intOption(args[k], args[k + 1]);
+                    if (_pipeline < 2) {
+                        throw error("option -p needs at least 2 buffers");
+                    }
+                    break;
+                default:
+                    throw error("unknown option %s", args[k]);
+            }
+            k += 2;
+        }
+        args = Arrays.copyOfRange(args, k, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
@@ -41,9 +123,17 @@ public final class Main {
         _config = getInput(args[0]);
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _input = getMessages(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = getStandardMessages();
+        }
+
+        if (_statsFile != null) {
+            try {
+                _statsOut = new PrintStream(_statsFile);
+            } catch (IOException excp) {
+                throw error("could not open %s", _statsFile);
+            }
         }
 
         if (args.length > 2) {
@@ -53,6 +143,25 @@ public final class Main {
         }
     }
 
+    /** Return the value VALUE of option OPTION as an integer. */
+    private static int intOption(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw error("option %s needs a number", option);
+        }
+    }
+
+    /** Returns true iff LINE contains only whitespace. */
+    private static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i += 1) {
+            if (!GroupFormatter.isBlank(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -62,10 +171,69 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
+    /** Return a LineReader of the messages in the file named NAME, read
+     *  ahead through a ring of _pipeline buffers if _pipeline is not 0.
+     *  When resuming, reading starts at the checkpointed input offset. */
+    private LineReader getMessages(String name) {
+        long start = _resume == null ? 0 : _resume.inputOffset();
+        InputStream in;
+        try {
+            if (Files.size(Paths.get(name)) < start) {
+                throw error("input is shorter than the checkpoint");
+            }
+            if (_pipeline > 0) {
+                in = new FilePipeline.Input(Paths.get(name), start,
+                                            _pipeline,
+                                            FilePipeline.BUFFER_SIZE);
+            } else {
+                FileInputStream file = new FileInputStream(name);
+                file.getChannel().position(start);
+                in = file;
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        return new LineReader(in, start);
+    }
+
+    /** Return a LineReader of the messages on the standard input.  When
+     *  resuming, the input already processed is first read and
+     *  discarded, since the standard input cannot be positioned. */
+    private LineReader getStandardMessages() {
+        long start = _resume == null ? 0 : _resume.inputOffset();
+        try {
+            System.in.skipNBytes(start);
+        } catch (EOFException excp) {
+            throw error("input is shorter than the checkpoint");
+        } catch (IOException excp) {
+            throw error("could not read input");
+        }
+        return new LineReader(System.in, start);
+    }
+
+    /** Return a PrintStream writing to the file named NAME.  When
+     *  resuming, the file is first cut back to its checkpointed length
+     *  and then appended to. */
     private PrintStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            if (_pipeline > 0) {
+                long start = _resume == null ? 0 : _resume.outputBytes();
+                _outputCount = new CountingStream(
+                    new FilePipeline.Output(Paths.get(name), start,
+                                            _pipeline,
+                                            FilePipeline.BUFFER_SIZE),
+                    start);
+            } else if (_resume != null) {
+                try (RandomAccessFile f = new RandomAccessFile(name, "rw")) {
+                    f.setLength(_resume.outputBytes());
+                }
+                _outputCount = new CountingStream(
+                    new FileOutputStream(name, true), _resume.outputBytes());
+            } else {
+                _outputCount = new CountingStream(
+                    new FileOutputStream(name), 0);
+            }
+            return new PrintStream(_outputCount);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -75,24 +243,67 @@ public final class Main {
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        Machine m = readConfig();
+        _formatter = new GroupFormatter(
+            new BufferedWriter(new OutputStreamWriter(_output)),
+            _groupSize, _lineWidth);
+        try {
+            process(readConfig());
+            if (_statsOut != null) {
+                reportStats();
+            }
+        } finally {
+            _formatter.flush();
+            if (_statsOut != null) {
+                _statsOut.close();
+            }
+            if (_outputCount != null) {
+                _output.close();
+            }
+        }
+    }
+
+    /** Apply M to the messages in _input, sending the results to
+     *  _formatter. */
+    private void process(Machine m) {
         boolean hasSetting = false;
+        long lines = 0;
+        CheckpointWriter checkpoints = null;
+        if (_resume != null) {
+            lines = _resume.inputLines();
+            _resume.restore(m);
+            hasSetting = _resume.inserted();
+        }
+        if (_checkpointFile != null) {
+            checkpoints = new CheckpointWriter(_checkpointFile);
+        }
 
         while (_input.hasNextLine()) {
+            if (checkpoints != null && lines % CHECKPOINT_LINES == 0) {
+                checkpoints.offer(checkpoint(m, lines));
+            }
+            lines += 1;
             String inputLn = _input.nextLine();
-            String inputLnCut = inputLn.replaceAll("\\s+", "");
-            if (inputLnCut.equals("")) {
-                _output.println();
+            if (isBlank(inputLn)) {
+                _formatter.newline();
+                if (_sectionStats != null) {
+                    _sectionStats.breakText();
+                }
             } else if (inputLn.charAt(0) == '*') {
                 setUp(m, inputLn);
                 hasSetting = true;
+                if (_statsOut != null) {
+                    startSection(lines, inputLn);
+                }
             } else if (hasSetting) {
-                String outputLn = m.convert(inputLnCut);
-                printMessageLine(outputLn);
+                _formatter.convertLine(m, inputLn, _sectionStats);
             } else {
                 throw new EnigmaException("Missing setting");
             }
         }
+        if (checkpoints != null) {
+            checkpoints.offer(checkpoint(m, lines));
+            checkpoints.close();
+        }
         int numMRotors = 0;
         for (Rotor r : m._rotors) {
             if (r instanceof MovingRotor) {
@@ -104,59 +315,119 @@ public final class Main {
         }
     }
 
+    /** Begin gathering statistics for a new section of the input,
+     *  starting with setting line SETTING at line number LINE, and
+     *  finish the previous section. */
+    private void startSection(long line, String setting) {
+        endSection();
+        _sectionStats = new TextStats(_alphabet);
+        _sectionLabel = String.format("line %d: %s", line, setting.trim());
+    }
+
+    /** Add the statistics of the current section, if any, to the
+     *  totals and write its report to _statsOut. */
+    private void endSection() {
+        if (_sectionStats == null) {
+            return;
+        }
+        if (_totalStats == null) {
+            _totalStats = new TextStats(_alphabet);
+        }
+        _totalStats.merge(_sectionStats);
+        _sectionStats.report(_statsOut, _sectionLabel);
+        _sectionStats = null;
+    }
+
+    /** Finish the last section and write the totals to _statsOut. */
+    private void reportStats() {
+        endSection();
+        if (_totalStats == null) {
+            _totalStats = new TextStats(_alphabet);
+        }
+        _totalStats.report(_statsOut, "total");
+        if (_statsOut.checkError()) {
+            throw error("could not write %s", _statsFile);
+        }
+    }
+
+    /** Return a checkpoint of M after LINES lines of input, flushing
+     *  the output so that its length is known. */
+    private Checkpoint checkpoint(Machine m, long lines) {
+        _formatter.flush();
+        _output.flush();
+        long written = _outputCount == null ? 0 : _outputCount.count();
+        return new Checkpoint(m, lines, _input.offset(), written);
+    }
+
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
     private Machine readConfig() {
+        MachineSpec spec = readSpec(_config);
+        _alphabet = spec.alphabet();
+        if (_substitutions == null) {
+            _formatter.setNormalizer(
+                new Normalizer(_alphabet, _policy, null));
+        } else {
+            try (Scanner table = getInput(_substitutions)) {
+                _formatter.setNormalizer(
+                    new Normalizer(_alphabet, _policy, table));
+            }
+        }
+        return spec.newMachine();
+    }
+
+    /** Return the machine description read from CONFIG, which has the
+     *  format of a configuration file. */
+    static MachineSpec readSpec(Scanner config) {
         try {
-            _alphabet = new Alphabet(_config.nextLine());
-            int numRotors = _config.nextInt();
-            int pawls = _config.nextInt();
-            _config.nextLine();
-            Collection<Rotor> rotorList = new LinkedList<Rotor>();
-            while (_config.hasNextLine()) {
-                rotorList.add(readRotor());
-                if (_config.hasNextLine()) {
-                    _config.nextLine();
+            Alphabet alphabet = Alphabet.of(config.nextLine());
+            int numRotors = config.nextInt();
+            int pawls = config.nextInt();
+            config.nextLine();
+            RotorCatalog catalog = new RotorCatalog(alphabet, CACHED_ROTORS);
+            while (config.hasNextLine()) {
+                readRotor(config, catalog);
+                if (config.hasNextLine()) {
+                    config.nextLine();
                 }
             }
-            return new Machine(_alphabet, numRotors, pawls, rotorList);
+            return new MachineSpec(alphabet, numRotors, pawls, catalog);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Read a rotor description from CONFIG and record it in CATALOG.
+     *  Its permutation is not built until the rotor is first used.  The
+     *  type is M (moving, followed by any number of notches), N (fixed,
+     *  as for the thin rotor of an M4), R (reflector), or W (reflector
+     *  that setting lines may rewire). */
+    private static void readRotor(Scanner config, RotorCatalog catalog) {
         try {
-            String name = _config.next();
-            String typeNotch = _config.next();
+            String name = config.next();
+            String typeNotch = config.next();
             char type = typeNotch.charAt(0);
             String notch = typeNotch.substring(1);
             String cycles = "";
-            while (_config.hasNext("\\(.+\\)")) {
-                cycles += _config.next();
+            while (config.hasNext("\\(.+\\)")) {
+                cycles += config.next();
             }
-            if (_config.hasNext("\\(.+")) {
+            if (config.hasNext("\\(.+")) {
                 throw new EnigmaException("Incomplete cycle");
             }
-            switch (type) {
-                case 'M':
-                    return new MovingRotor(name, new Permutation(cycles, _alphabet), notch);
-                case 'N':
-                    return new FixedRotor(name, new Permutation(cycles, _alphabet));
-                case 'R':
-                    return new Reflector(name, new Permutation(cycles, _alphabet));
-                default:
-                    throw new EnigmaException("Rotor type is invalid");
-            }
+            catalog.add(name, type, notch, cycles);
         } catch (NoSuchElementException excp) {
             throw error("bad rotor description");
         }
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+     *  which must have the format specified in the assignment.  For a
+     *  rewireable reflector, the rotor settings may be followed by its
+     *  new wiring as pairs in brackets, as in "[(AB)(CD)...]", which may
+     *  contain blanks.  Anything after the plugboard pairs is an
+     *  error. */
+    static void setUp(Machine M, String settings) {
         Scanner sc = new Scanner(settings);
         sc.next();
         String[] rotors = new String[M.numRotors()];
@@ -172,39 +443,111 @@ public final class Main {
             throw new EnigmaException("Setting does not match numRotors");
         }
         M.setRotors(setting);
+        if (sc.hasNext("\\[.*")) {
+            StringBuilder wiring = new StringBuilder(sc.next());
+            while (wiring.charAt(wiring.length() - 1) != ']') {
+                if (!sc.hasNext()) {
+                    throw error("reflector wiring has no closing ]");
+                }
+                wiring.append(' ').append(sc.next());
+            }
+            M.rewireReflector(Permutation.of(
+                wiring.substring(1, wiring.length() - 1), M.alphabet()));
+        }
         String plugboard = "";
-        while (sc.hasNext("\\(..\\)")) {
+        while (sc.hasNext("(\\(..\\))+")) {
             plugboard += sc.next();
         }
-        M.setPlugboard(new Permutation(plugboard, _alphabet));
+        if (sc.hasNext()) {
+            throw error("unexpected %s in setting line", sc.next());
+        }
+        M.setPlugboard(Permutation.of(plugboard, M.alphabet()));
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        msg =  msg.replaceAll("\\s+", "");
-        int msgInd = 0;
-        StringBuilder msgNew = new StringBuilder();
-        char[] msgArray = msg.toCharArray();
-        for (char c : msgArray) {
-            if (msgInd % 5 == 0 && msgInd != 0) {
-                msgNew.append(" ");
-            }
-            msgNew.append(c);
-            msgInd += 1;
+    /** An output stream that counts the bytes written through it. */
+    private static class CountingStream extends FilterOutputStream {
+
+        /** A stream writing to OUT, whose count starts at START. */
+        CountingStream(OutputStream out, long start) {
+            super(out);
+            _count = start;
         }
-        _output.println(msgNew);
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        /** Return the number of bytes written. */
+        long count() {
+            return _count;
+        }
+
+        /** Bytes written, including START. */
+        private long _count;
     }
 
+    /** Number of input lines between checkpoints.  May be set with the
+     *  enigma.checkpointLines system property. */
+    static final int CHECKPOINT_LINES =
+        Integer.getInteger("enigma.checkpointLines", 10000);
+
+    /** Most rotor permutations kept compiled at once (0 for no limit).
+     *  May be set with the enigma.cachedRotors system property. */
+    static final int CACHED_ROTORS =
+        Integer.getInteger("enigma.cachedRotors", 0);
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
 
     /** Source of machine configuration. */
     private Scanner _config;
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
+
+    /** Formats converted messages onto _output. */
+    private GroupFormatter _formatter;
+
+    /** Characters per group and most characters per line (0 for no
+     *  limit) of the output. */
+    private int _groupSize = 5, _lineWidth = 0;
+
+    /** Normalization policy of message lines, and the file of their
+     *  substitution table or null. */
+    private String _policy = "strict", _substitutions;
+
+    /** Number of buffers for pipelined file I/O, or 0 for none. */
+    private int _pipeline;
+
+    /** Counts the bytes of _output when it is a file, or null. */
+    private CountingStream _outputCount;
+
+    /** File for statistics of the converted text, and the stream
+     *  writing it, or null. */
+    private String _statsFile;
+    private PrintStream _statsOut;
+
+    /** Statistics of the current section and of all finished sections,
+     *  or null if there are none yet. */
+    private TextStats _sectionStats, _totalStats;
+
+    /** Heading of the current section's report. */
+    private String _sectionLabel;
+
+    /** File for checkpoints, or null if none are written. */
+    private Path _checkpointFile;
+
+    /** Checkpoint to resume from, or null. */
+    private Checkpoint _resume;
 }
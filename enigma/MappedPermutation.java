@@ -0,0 +1,128 @@
+package enigma;
+
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** A permutation whose index tables live outside the Java heap, in
+ *  buffers such as the views of a mapped rotor table file.  It behaves
+ *  exactly as the Permutation compiled from the same cycles.  Rotors,
+ *  folds and compiled engines convert through the buffers directly, by
+ *  permuteValid, invertValid and imageAt, so a machine built on mapped
+ *  tables keeps no copy of them.  The batch paths that need int arrays
+ *  (forwardTable and inverseTable: the trial decryptor, key search and
+ *  fingerprints) get heap copies of their own, which are not kept here
+ *  and last only as long as their callers hold them.
+ *  @author Ryan Shih
+ */
+class MappedPermutation extends Permutation {
+
+    /** A permutation of ALPHABET mapping index K to FORWARD.get(K) and
+     *  back through INVERSE.get(K).  Both buffers hold ALPHABET.size()
+     *  entries starting at index 0. */
+    MappedPermutation(Alphabet alphabet, CharBuffer forward,
+                      CharBuffer inverse) {
+        this(alphabet, forward, inverse, null, null);
+    }
+
+    /** A permutation as for MappedPermutation(ALPHABET, FORWARD,
+     *  INVERSE) whose tables by setting, laid out as settingTable's, are
+     *  FORWARDBYSETTING and INVERSEBYSETTING, or null if it has none. */
+    MappedPermutation(Alphabet alphabet, CharBuffer forward,
+                      CharBuffer inverse, CharBuffer forwardBySetting,
+                      CharBuffer inverseBySetting) {
+        super(alphabet);
+        _n = alphabet.size();
+        _forwardBuf = forward;
+        _inverseBuf = inverse;
+        _forwardBySetting = forwardBySetting;
+        _inverseBySetting = inverseBySetting;
+    }
+
+    @Override
+    int permute(int p) {
+        return _forwardBuf.get(checked(p));
+    }
+
+    @Override
+    int invert(int c) {
+        return _inverseBuf.get(checked(c));
+    }
+
+    @Override
+    int permuteValid(int p) {
+        return _forwardBuf.get(p);
+    }
+
+    @Override
+    int invertValid(int c) {
+        return _inverseBuf.get(c);
+    }
+
+    /** Look P up in my mapped table by setting, if I have one. */
+    @Override
+    int imageAt(int p, int s, boolean inverse) {
+        CharBuffer table = inverse ? _inverseBySetting : _forwardBySetting;
+        if (table == null) {
+            return super.imageAt(p, s, inverse);
+        }
+        return table.get(s * _n + p);
+    }
+
+    /** Return my mapped table by setting, or that of my inverse if
+     *  INVERSE, laid out as settingTable's, or null if I have none. */
+    CharBuffer settingBuffer(boolean inverse) {
+        return inverse ? _inverseBySetting : _forwardBySetting;
+    }
+
+    /** Return a new heap copy of my forward table. */
+    @Override
+    int[] forwardTable() {
+        return copy(_forwardBuf);
+    }
+
+    /** Return a new heap copy of my inverse table. */
+    @Override
+    int[] inverseTable() {
+        return copy(_inverseBuf);
+    }
+
+    /** Always false: my tables are copied on each request. */
+    @Override
+    boolean heapTables() {
+        return false;
+    }
+
+    /** Always null: a per-setting table on the heap would be a copy many
+     *  times the size of the mapped tables, which defeats sharing them.
+     *  Mapped tables by setting are used through imageAt instead. */
+    @Override
+    int[] settingTable(boolean inverse) {
+        return null;
+    }
+
+    /** Return K, which must be an index into my alphabet. */
+    private int checked(int k) {
+        if (k < 0 || k >= size()) {
+            throw error("Alphabet does not contain character at index %d",
+                        k);
+        }
+        return k;
+    }
+
+    /** Return the first size() entries of BUF as an array. */
+    private int[] copy(CharBuffer buf) {
+        int[] result = new int[size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = buf.get(i);
+        }
+        return result;
+    }
+
+    /** Size of my alphabet. */
+    private final int _n;
+    /** Off-heap forward and inverse tables. */
+    private final CharBuffer _forwardBuf, _inverseBuf;
+    /** Off-heap forward and inverse tables by setting, or null. */
+    private final CharBuffer _forwardBySetting, _inverseBySetting;
+}
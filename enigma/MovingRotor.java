@@ -12,31 +12,46 @@ class MovingRotor extends Rotor {
      *  The Rotor is initially in its 0 setting (first character of its
      *  alphabet).
      */
-    private final char[] _notches;
-    private final String _name;
-    private Permutation _permutation;
-
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        _name = name;
-        _permutation = perm;
-        _notches = notches.toCharArray();
+        _notchAt = new boolean[perm.size()];
+        for (int notch : notches.codePoints().toArray()) {
+            int k = alphabet().indexOf(notch);
+            if (k < 0) {
+                throw error("notch %s is not in the alphabet",
+                            new String(Character.toChars(notch)));
+            }
+            _notchAt[k] = true;
+        }
+    }
+
+    /** A rotor in its 0 setting sharing the wiring and notches of
+     *  PROTOTYPE. */
+    MovingRotor(MovingRotor prototype) {
+        super(prototype);
+        _notchAt = prototype._notchAt;
+    }
+
+    @Override
+    MovingRotor copy() {
+        return new MovingRotor(this);
     }
 
     @Override
     boolean atNotch() {
-        for (char notch : _notches) {
-            if (alphabet().toInt(notch) == _setting) {
-                return true;
-            }
-        }
-        return false;
+        return notchAt(_setting);
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
     }
 
     @Override
     void advance() {
         if (rotates()) {
-            _setting = (_setting + 1) % alphabet().size();
+            int next = _setting + 1, n = size();
+            _setting = next >= 0 && next < n ? next : next % n;
         }
     }
 
@@ -47,6 +62,10 @@ class MovingRotor extends Rotor {
 
     @Override
     public String toString() {
-        return "Moving Rotor " + _name;
+        return "Moving Rotor " + name();
     }
+
+    /** _notchAt[P] is true iff position P is one of my notches.  Shared
+     *  with my copies. */
+    private final boolean[] _notchAt;
 }
@@ -0,0 +1,329 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Scores texts by the log probabilities of their n-grams, as the
+ *  fitness function of a key search.  The score of a text is the sum,
+ *  over each run of ORDER adjacent symbols, of the base-10 logarithm of
+ *  that n-gram's probability in some reference language.
+ *
+ *  The logarithms are held in one flat table indexed by packed symbol
+ *  indices: each alphabet position takes BITS bits, enough for the
+ *  alphabet, and an n-gram's entry is at its ORDER positions
+ *  concatenated.  Moving to the next n-gram is thus a shift, an or and
+ *  a mask, with no multiplication or division, and scoring a buffer is
+ *  one pass that allocates nothing.  A table can be built from a list
+ *  of n-gram counts or memory-mapped from a file written by write, in
+ *  which case it is shared with every other process mapping the file
+ *  and takes no space on the Java heap.
+ *
+ *  The file holds, in little-endian order (that of the processors it
+ *  is used on, so mapped floats need no swapping): the ints MAGIC and
+ *  VERSION; the alphabet size N and its N characters; ORDER and BITS;
+ *  the float score of an unseen n-gram; the byte offset of the table,
+ *  a multiple of 8; and, from that offset, the 2**(ORDER * BITS)
+ *  floats of the table.
+ *  @author Ryan Shih
+ */
+public final class NgramScorer {
+
+    /** Write the table file ARGS[2] for the alphabet of configuration
+     *  file ARGS[0] from the n-gram counts in ARGS[1], which has lines
+     *  of the form "GRAM COUNT", all grams being the same length. */
+    public static void main(String... args) {
+        if (args.length != 3) {
+            System.err.println(
+                "Usage: java enigma.NgramScorer CONFIG COUNTS OUT");
+            System.exit(1);
+        }
+        try (Scanner config = new Scanner(Paths.get(args[0]));
+             Scanner counts = new Scanner(Paths.get(args[1]))) {
+            NgramScorer scorer =
+                fromCounts(Main.readSpec(config).alphabet(), counts);
+            scorer.write(Paths.get(args[2]));
+        } catch (IOException excp) {
+            System.err.printf("Error: could not open %s%n", args[1]);
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Identifies an n-gram table file. */
+    static final int MAGIC = 0x454e4e47;
+
+    /** Format version written by this class. */
+    static final int VERSION = 1;
+
+    /** Most bits in a packed n-gram, and so most entries (2**MAX_BITS)
+     *  in a table. */
+    static final int MAX_BITS = 28;
+
+    /** Return a scorer over ALPHA built from COUNTS, which holds lines
+     *  "GRAM COUNT".  Its order is the length of the grams.  N-grams not
+     *  listed, or containing characters outside ALPHA, get the log of a
+     *  hundredth of a single occurrence. */
+    static NgramScorer fromCounts(Alphabet alpha, Scanner counts) {
+        int order = 0;
+        int bits = bitsFor(alpha.size());
+        float[] table = null;
+        double total = 0;
+        try {
+            while (counts.hasNext()) {
+                String gram = counts.next();
+                double count = Double.parseDouble(counts.next());
+                if (order == 0) {
+                    order = gram.length();
+                    table = newTable(order, bits);
+                } else if (gram.length() != order) {
+                    throw error("n-grams of different lengths");
+                }
+                if (count < 0) {
+                    throw error("negative count for %s", gram);
+                }
+                total += count;
+                int key = 0;
+                for (int i = 0; i < order && key >= 0; i += 1) {
+                    int k = alpha.indexOf(gram.charAt(i));
+                    key = k < 0 ? -1 : key << bits | k;
+                }
+                if (key >= 0) {
+                    table[key] += count;
+                }
+            }
+        } catch (NumberFormatException | NoSuchElementException excp) {
+            throw error("bad n-gram count");
+        }
+        if (order == 0 || total <= 0) {
+            throw error("no n-gram counts");
+        }
+        float floor = (float) Math.log10(0.01 / total);
+        for (int i = 0; i < table.length; i += 1) {
+            table[i] = table[i] > 0
+                ? (float) Math.log10(table[i] / total) : floor;
+        }
+        return new NgramScorer(alpha, order, bits,
+                               FloatBuffer.wrap(table), floor);
+    }
+
+    /** Return a scorer using the table mapped from FILE. */
+    static NgramScorer map(Path file) {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("%s is not an n-gram table file", file);
+            }
+            int n = buf.getInt();
+            char[] chars = new char[n];
+            for (int i = 0; i < n; i += 1) {
+                chars[i] = buf.getChar();
+            }
+            Alphabet alpha = Alphabet.of(new String(chars));
+            int order = buf.getInt();
+            int bits = buf.getInt();
+            float floor = buf.getFloat();
+            int start = buf.getInt();
+            if (bits != bitsFor(n) || order <= 0
+                || (long) order * bits > MAX_BITS) {
+                throw error("%s is corrupt", file);
+            }
+            int entries = 1 << (order * bits);
+            FloatBuffer table = buf.position(start).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+                .limit(entries).slice();
+            return new NgramScorer(alpha, order, bits, table, floor);
+        } catch (RuntimeException excp) {
+            if (excp instanceof EnigmaException) {
+                throw excp;
+            }
+            throw error("%s is truncated or corrupt", file);
+        }
+    }
+
+    /** Write my table to FILE, in the form read by map. */
+    void write(Path file) {
+        int start = 4 * 8 + 2 * _alphabet.size();
+        start = (start + 7) & ~7;
+        ByteBuffer header = ByteBuffer.allocate(start)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(_alphabet.size());
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            header.putChar(_alphabet.toChar(i));
+        }
+        header.putInt(_order).putInt(_bits).putFloat(_floor).putInt(start);
+        ByteBuffer body = ByteBuffer.allocate(4 * _table.limit())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        body.asFloatBuffer().put(_table.duplicate().clear());
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.write(header.array());
+            out.write(body.array());
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** A scorer over ALPHA of ORDER-grams packed in BITS bits per symbol,
+     *  whose logarithms are in TABLE, FLOOR being that of an n-gram never
+     *  seen. */
+    private NgramScorer(Alphabet alpha, int order, int bits,
+                        FloatBuffer table, float floor) {
+        _alphabet = alpha;
+        _order = order;
+        _bits = bits;
+        _mask = (1 << (order * bits)) - 1;
+        _table = table;
+        _floor = floor;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the length of my n-grams. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the log probability given to an n-gram never seen. */
+    float floor() {
+        return _floor;
+    }
+
+    /** Return the score of the LEN symbols (alphabet positions) of
+     *  SYMBOLS starting at OFF. */
+    double score(int[] symbols, int off, int len) {
+        FloatBuffer table = _table;
+        int bits = _bits, mask = _mask;
+        int end = off + len;
+        int start = Math.min(off + _order - 1, end);
+        int key = 0;
+        for (int i = off; i < start; i += 1) {
+            key = key << bits | symbols[i];
+        }
+        double sum = 0;
+        for (int i = start; i < end; i += 1) {
+            key = (key << bits | symbols[i]) & mask;
+            sum += table.get(key);
+        }
+        return sum;
+    }
+
+    /** Return the score of the LEN characters of BUF starting at OFF.
+     *  A character not in my alphabet breaks the text: no n-gram
+     *  including it is scored. */
+    double score(char[] buf, int off, int len) {
+        FloatBuffer table = _table;
+        Alphabet alpha = _alphabet;
+        int bits = _bits, mask = _mask, order = _order;
+        int key = 0, run = 0;
+        double sum = 0;
+        for (int i = off; i < off + len; i += 1) {
+            int k = alpha.indexOf(buf[i]);
+            if (k < 0) {
+                run = 0;
+                continue;
+            }
+            key = (key << bits | k) & mask;
+            run += 1;
+            if (run >= order) {
+                sum += table.get(key);
+            }
+        }
+        return sum;
+    }
+
+    /** Return the score of the text S, as for score(char[], ...). */
+    double score(String s) {
+        return score(s.toCharArray(), 0, s.length());
+    }
+
+    /** Return a new stream for scoring symbols one at a time. */
+    Stream stream() {
+        return new Stream();
+    }
+
+    /** Scores a text given one symbol at a time, as each comes out of a
+     *  conversion loop, with the same result as scoring it all at once.
+     *  A Stream is used by one thread; each thread takes its own from
+     *  the shared scorer. */
+    final class Stream {
+
+        /** Add the symbol at alphabet position K to the text. */
+        void accept(int k) {
+            _key = (_key << _bits | k) & _mask;
+            if (_run < _order) {
+                _run += 1;
+            }
+            if (_run >= _order) {
+                _sum += _table.get(_key);
+            }
+        }
+
+        /** Return the score of the text so far. */
+        double score() {
+            return _sum;
+        }
+
+        /** Start a new text. */
+        void reset() {
+            _key = _run = 0;
+            _sum = 0;
+        }
+
+        /** The last ORDER symbols, packed. */
+        private int _key;
+        /** Number of symbols since the last reset, up to ORDER. */
+        private int _run;
+        /** Score so far. */
+        private double _sum;
+    }
+
+    /** Return the number of bits needed for a symbol of an alphabet of
+     *  SIZE characters. */
+    private static int bitsFor(int size) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /** Return a table for ORDER-grams of BITS-bit symbols. */
+    private static float[] newTable(int order, int bits) {
+        if (order <= 0 || (long) order * bits > MAX_BITS) {
+            throw error("%d-gram table too large for alphabet", order);
+        }
+        return new float[1 << (order * bits)];
+    }
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+    /** Length of my n-grams, and bits per packed symbol. */
+    private final int _order, _bits;
+    /** Selects the low ORDER * BITS bits of a packed n-gram. */
+    private final int _mask;
+    /** Log probability of each packed n-gram, on the heap or mapped. */
+    private final FloatBuffer _table;
+    /** Log probability of an n-gram never seen. */
+    private final float _floor;
+}
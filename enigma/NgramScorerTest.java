@@ -0,0 +1,119 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Scanner;
+
+/** Tests of NgramScorer.
+ *  @author Ryan Shih
+ */
+public class NgramScorerTest {
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Counts of a few bigrams, totalling 100. */
+    private static final String BIGRAMS = "TH 50\nHE 30\nEN 15\nN? 5\n";
+
+    /** Return a bigram scorer over the default alphabet. */
+    private static NgramScorer bigrams() {
+        return NgramScorer.fromCounts(new Alphabet(), new Scanner(BIGRAMS));
+    }
+
+    @Test
+    public void testScore() {
+        NgramScorer scorer = bigrams();
+        assertEquals(2, scorer.order());
+        assertEquals(Math.log10(0.01 / 100), scorer.floor(), 1e-6);
+        double expected = Math.log10(0.5) + Math.log10(0.3)
+            + Math.log10(0.15);
+        assertEquals(expected, scorer.score("THEN"), 1e-5);
+        assertEquals(Math.log10(0.5) + Math.log10(0.15),
+                     scorer.score("TH EN"), 1e-5);
+        assertEquals(expected + scorer.floor(), scorer.score("THENT"),
+                     1e-5);
+        assertEquals(0.0, scorer.score("T"), 0.0);
+        int[] symbols = {'T' - 'A', 'H' - 'A', 'E' - 'A', 'N' - 'A'};
+        assertEquals(scorer.score("THEN"),
+                     scorer.score(symbols, 0, symbols.length), 0.0);
+        assertEquals(Math.log10(0.3), scorer.score(symbols, 1, 2), 1e-6);
+    }
+
+    @Test
+    public void testStream() {
+        NgramScorer scorer = Samples.randomQuadgrams(new Random(1));
+        Random rand = new Random(2);
+        int[] symbols = new int[1000];
+        for (int i = 0; i < symbols.length; i += 1) {
+            symbols[i] = rand.nextInt(26);
+        }
+        NgramScorer.Stream stream = scorer.stream();
+        for (int k : symbols) {
+            stream.accept(k);
+        }
+        assertEquals(scorer.score(symbols, 0, symbols.length),
+                     stream.score(), 1e-9);
+        stream.reset();
+        for (int i = 0; i < 3; i += 1) {
+            stream.accept(symbols[i]);
+        }
+        assertEquals(0.0, stream.score(), 0.0);
+        stream.accept(symbols[3]);
+        assertEquals(scorer.score(symbols, 0, 4), stream.score(), 0.0);
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        NgramScorer scorer = Samples.randomQuadgrams(new Random(3));
+        Path file = Files.createTempFile("ngrams", ".bin");
+        try {
+            scorer.write(file);
+            NgramScorer mapped = NgramScorer.map(file);
+            assertEquals(4, mapped.order());
+            assertEquals(scorer.floor(), mapped.floor(), 0.0);
+            assertEquals(scorer.alphabet().toString(),
+                         mapped.alphabet().toString());
+            String text = "WEATHERREPORTFORTHEBAYOFBISCAY";
+            assertEquals(scorer.score(text), mapped.score(text), 0.0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBadInput() throws IOException {
+        try {
+            NgramScorer.fromCounts(new Alphabet(),
+                                   new Scanner("TH 1\nTHE 2\n"));
+            fail("accepted n-grams of different lengths");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            NgramScorer.fromCounts(new Alphabet(),
+                                   new Scanner("THEIRS 1\n"));
+            fail("accepted a table too large");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        Path file = Files.createTempFile("ngrams", ".bin");
+        try {
+            bigrams().write(file);
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, java.util.Arrays.copyOf(bytes, 100));
+            NgramScorer.map(file);
+            fail("accepted a truncated file");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package enigma;
+
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Prepares lines of message text for conversion.  Blanks are removed,
+ *  characters of the machine's alphabet are kept, and every other
+ *  character is dealt with by a policy chosen when the normalizer is
+ *  made.  The policy is a comma-separated list of
+ *      upper    replace a character by its upper-case form, when that
+ *               is in the alphabet;
+ *      drop     remove any other character not in the alphabet;
+ *      pass     copy any other character to the output unconverted;
+ *      strict   reject any other character (the default);
+ *  and a substitution table may also map single characters to
+ *  characters of the alphabet, ahead of everything but blanks.
+ *
+ *  The policy is compiled into a table with an action for each of the
+ *  65536 chars, so that normalizing a line is one table lookup per
+ *  character with no tests of character classes, and no branches but
+ *  the loop's.  Rejected characters are found in the same pass and
+ *  reported together, before anything on the line is converted.
+ *  @author Ryan Shih
+ */
+class Normalizer {
+
+    /** A normalizer for ALPHABET with the default policy. */
+    Normalizer(Alphabet alphabet) {
+        this(alphabet, "strict", null);
+    }
+
+    /** A normalizer for ALPHABET with the policy POLICY (see the class
+     *  comment) and the substitution table TABLE, or null for none.
+     *  TABLE holds pairs of single characters separated by blanks, the
+     *  first to be replaced by the second, which must be in
+     *  ALPHABET. */
+    Normalizer(Alphabet alphabet, String policy, Scanner table) {
+        boolean upper = false;
+        int others = REJECT;
+        for (String p : policy.split(",")) {
+            switch (p) {
+                case "upper":
+                    upper = true;
+                    break;
+                case "drop":
+                    others = DROP;
+                    break;
+                case "pass":
+                    others = PASS;
+                    break;
+                case "strict":
+                    others = REJECT;
+                    break;
+                default:
+                    throw error("unknown normalization policy %s", p);
+            }
+        }
+        _passes = others == PASS;
+        _actions = new int[1 << 16];
+        for (int c = 0; c < _actions.length; c += 1) {
+            char ch = (char) c;
+            char up = Character.toUpperCase(ch);
+            if (GroupFormatter.isBlank(ch)) {
+                _actions[c] = DROP;
+            } else if (alphabet.contains(ch)) {
+                _actions[c] = c;
+            } else if (upper && alphabet.contains(up)) {
+                _actions[c] = up;
+            } else {
+                _actions[c] = others | c;
+            }
+        }
+        while (table != null && table.hasNext()) {
+            String from = table.next();
+            if (!table.hasNext()) {
+                throw error("substitution for %s is missing", from);
+            }
+            String to = table.next();
+            if (from.length() != 1 || to.length() != 1
+                || !alphabet.contains(to.charAt(0))) {
+                throw error("bad substitution %s %s", from, to);
+            }
+            _actions[from.charAt(0)] = to.charAt(0);
+        }
+    }
+
+    /** Write the normalized form of LINE into OUT, which must have room
+     *  for LINE.length() characters, and return the number of
+     *  characters written.  Throws an EnigmaException reporting every
+     *  rejected character of LINE, by its index from 0 as
+     *  Alphabet.checkAll reports them, if there are any, in which case
+     *  the contents of OUT are undefined. */
+    int normalize(CharSequence line, char[] out) {
+        int[] actions = _actions;
+        int k = 0, seen = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            int a = actions[line.charAt(i)];
+            out[k] = (char) a;
+            k += 1 - ((a >>> DROP_BIT) & 1);
+            seen |= a;
+        }
+        if ((seen & REJECTED) != 0) {
+            reject(line);
+        }
+        return k;
+    }
+
+    /** Returns true iff my policy passes characters through
+     *  unconverted. */
+    boolean passes() {
+        return _passes;
+    }
+
+    /** Returns true iff C, as written by normalize, is to be passed
+     *  through unconverted. */
+    boolean passed(char c) {
+        return (_actions[c] & PASS) != 0;
+    }
+
+    /** Throw an exception reporting the rejected characters of LINE. */
+    private void reject(CharSequence line) {
+        StringBuilder where = new StringBuilder();
+        int count = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if ((_actions[c] & REJECTED) != 0) {
+                if (count < MAX_REPORTED) {
+                    where.append(count == 0 ? "" : ", ")
+                        .append(String.format("'%c' at %d", c, i));
+                } else if (count == MAX_REPORTED) {
+                    where.append(", ...");
+                }
+                count += 1;
+            }
+        }
+        throw error("%d character%s not in alphabet: %s",
+                    count, count == 1 ? "" : "s", where);
+    }
+
+    /** Flags of an action, above the 16 bits of the character it
+     *  writes: copy it unconverted, leave it out, or leave it out and
+     *  reject the line.  An action with none of them converts the
+     *  character. */
+    private static final int PASS = 1 << 16, DROP_BIT = 17,
+        DROP = 1 << DROP_BIT, REJECTED = 1 << 18, REJECT = DROP | REJECTED;
+
+    /** Most rejected characters listed in an error message. */
+    private static final int MAX_REPORTED = 10;
+
+    /** The action for each char. */
+    private final int[] _actions;
+    /** True iff some characters are passed through. */
+    private final boolean _passes;
+}
@@ -0,0 +1,87 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Normalizer class.
+ *  @author Ryan Shih
+ */
+public class NormalizerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private static final String NL = System.lineSeparator();
+
+    private static final Alphabet UPPER =
+        new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+
+    /** Return LINE normalized by NORM. */
+    private static String normalize(Normalizer norm, String line) {
+        char[] out = new char[line.length()];
+        return new String(out, 0, norm.normalize(line, out));
+    }
+
+    @Test
+    public void testPolicies() {
+        String line = "Attack at 0600, \tnot\u00e9 later.";
+        assertEquals("AER",
+                     normalize(new Normalizer(UPPER, "drop", new Scanner(
+                                   "\u00e9 E . R")), line));
+        assertEquals("ATTACKAT0600,NOT\u00e9LATER.",
+                     normalize(new Normalizer(UPPER, "upper,pass", null),
+                               line));
+        assertEquals("ATTACKATNOTLATER",
+                     normalize(new Normalizer(UPPER, "drop,upper", null),
+                               line));
+        assertEquals("ABC", normalize(new Normalizer(UPPER), " A B\tC "));
+    }
+
+    @Test
+    public void testReject() {
+        try {
+            normalize(new Normalizer(UPPER, "upper", null), "ab1c2");
+            fail("accepted digits");
+        } catch (EnigmaException excp) {
+            assertEquals("2 characters not in alphabet: '1' at 2, '2' at 4",
+                         excp.getMessage());
+        }
+        try {
+            new Normalizer(UPPER, "lower", null);
+            fail("accepted a bad policy");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new Normalizer(UPPER, "strict", new Scanner("a b"));
+            fail("accepted a substitution outside the alphabet");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testConvertLine() {
+        MachineSpec spec = Samples.navySpec();
+        String setting = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Machine m1 = spec.newMachine(), m2 = spec.newMachine();
+        Main.setUp(m1, setting);
+        Main.setUp(m2, setting);
+        StringWriter out = new StringWriter();
+        GroupFormatter f = new GroupFormatter(out);
+        f.setNormalizer(new Normalizer(spec.alphabet(), "upper,pass", null));
+        f.convertLine(m1, "From his, shoulder Hiawatha!");
+        String c = m2.convert("FROMHIS");
+        String d = m2.convert("SHOULDERHIAWATHA");
+        assertEquals(c.substring(0, 5) + " " + c.substring(5) + ","
+                     + d.substring(0, 2) + " " + d.substring(2, 7) + " "
+                     + d.substring(7, 12) + " " + d.substring(12) + "!" + NL,
+                     out.toString());
+    }
+}
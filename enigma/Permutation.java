@@ -1,11 +1,22 @@
 package enigma;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  Only the index tables are kept,
+ *  not the cycles they were given as; an involution, such as any
+ *  plugboard, is its own inverse and keeps a single table.  The tables
+ *  are as narrow as the alphabet allows: byte[] for up to 256 symbols,
+ *  char[] for up to 65536, and int[] beyond that.  The int[] tables that
+ *  the conversion kernels index are widened from them on demand and
+ *  kept in a shared cache of CACHED_PERMUTATIONS entries, so that a
+ *  plugboard held by each of many machines costs only its narrow
+ *  table.
  *  @author Ryan Shih
  */
 class Permutation {
@@ -15,81 +26,148 @@ class Permutation {
      *  is interpreted as a permutation in cycle notation.  Characters in the
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
-    public String _permutation;
-    public char[][] _permList;
-    /** Alphabet of this permutation. */
-    private Alphabet _alphabet;
-
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _permutation = cycles;
-        _permList = listedPermutation(_permutation);
-    }
-
-    private char[][] listedPermutation(String permutation) {
-        char[][] segmentCycles = new char[0][0];
-        permutation = permutation.replaceAll("\\s+", "");
-        if (Objects.equals(permutation, "")) {
-            return segmentCycles;
-        }
-        permutation = permutation.substring(1, permutation.length() - 1);
-        String[] arrCycles = permutation.split("\\)\\(");
-        int ind1 = 0;
-        for (String s : arrCycles) {
-            char[] piece = new char[0];
-            int ind2 = 0;
-            for (char c: s.toCharArray()) {
-                char[] temp1 = new char[piece.length + 1];
-                System.arraycopy(piece, 0, temp1, 0, piece.length);
-                piece = temp1;
-                piece[ind2] = c;
-                ind2 += 1;
-            }
-            char[][] temp2 = new char[segmentCycles.length + 1][];
-            System.arraycopy(segmentCycles, 0, temp2, 0, segmentCycles.length);
-            segmentCycles = temp2;
-            segmentCycles[ind1] = piece;
-            ind1 += 1;
-        }
-        return segmentCycles;
-    }
-
-    private int[] find(char cTarget) {
-        int[] voidLst = new int[]{-1,-1};
-        int row = 0;
-        for (char[] cLst : _permList) {
-            int col = 0;
-            for (char c : cLst) {
-                if (c == cTarget) {
-                    return new int[]{row, col};
-                }
-                col += 1;
+        compile(cycles);
+    }
+
+    /** A permutation of ALPHABET whose mapping is supplied by a subclass,
+     *  which must override permute(int), invert(int), permuteValid(int),
+     *  invertValid(int), forwardTable() and inverseTable(). */
+    Permutation(Alphabet alphabet) {
+        _alphabet = alphabet;
+    }
+
+    /** Return the permutation of ALPHABET given by CYCLES, as by the
+     *  constructor, but shared with earlier calls with the same
+     *  arguments while it is among the last CACHED_PERMUTATIONS asked
+     *  for.  Machines set up from the same setting lines thus share their
+     *  plugboards. */
+    static Permutation of(String cycles, Alphabet alphabet) {
+        List<Object> key = List.of(alphabet, cycles);
+        synchronized (CACHE) {
+            Permutation result = CACHE.get(key);
+            if (result == null) {
+                result = new Permutation(cycles, alphabet);
+                CACHE.put(key, result);
             }
-            row += 1;
+            return result;
         }
-        return voidLst;
     }
 
-    private int cX(char cTarget) {
-        return find(cTarget)[0];
+    /** Fill in _forward and _inverse, the index-to-index tables of the
+     *  permutation given by CYCLES, so that permute(int) and invert(int)
+     *  need not scan the cycles.  The cycles are read by code point, so
+     *  that symbols outside the Basic Multilingual Plane are handled. */
+    private void compile(String cycles) {
+        int n = _alphabet.size();
+        int[] forward = new int[n], inverse = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            forward[i] = i;
+            inverse[i] = i;
+        }
+        int[] cps = cycles.codePoints().toArray();
+        int first = -1, prev = -1;
+        for (int cp : cps) {
+            if (cp == '(') {
+                first = prev = -1;
+            } else if (cp == ')') {
+                if (first >= 0) {
+                    forward[prev] = first;
+                    inverse[first] = prev;
+                }
+                first = prev = -1;
+            } else if (!Character.isWhitespace(cp)) {
+                int k = _alphabet.indexOf(cp);
+                if (k < 0) {
+                    throw error("%s in cycles is not in the alphabet",
+                                new String(Character.toChars(cp)));
+                }
+                if (first < 0) {
+                    first = k;
+                } else {
+                    forward[prev] = k;
+                    inverse[k] = prev;
+                }
+                prev = k;
+            }
+        }
+        _forward = narrow(forward);
+        _inverse = Arrays.equals(forward, inverse) ? _forward
+            : narrow(inverse);
     }
 
-    private int cY(char cTarget) {
-        return find(cTarget)[1];
+    /** Return TABLE, whose entries are valid indices, as a byte[] or
+     *  char[] if they all fit in one, and otherwise TABLE itself. */
+    private static Object narrow(int[] table) {
+        int n = table.length;
+        if (n <= BYTE_SYMBOLS) {
+            byte[] result = new byte[n];
+            for (int i = 0; i < n; i += 1) {
+                result[i] = (byte) table[i];
+            }
+            return result;
+        } else if (n <= CHAR_SYMBOLS) {
+            char[] result = new char[n];
+            for (int i = 0; i < n; i += 1) {
+                result[i] = (char) table[i];
+            }
+            return result;
+        }
+        return table;
     }
 
-    private char[] getRow(int row) {
-        return _permList[row];
+    /** Return entry I of TABLE, as made by narrow. */
+    private static int lookup(Object table, int i) {
+        if (table instanceof byte[]) {
+            return ((byte[]) table)[i] & 0xff;
+        } else if (table instanceof char[]) {
+            return ((char[]) table)[i];
+        }
+        return ((int[]) table)[i];
     }
 
-    private char getChar(int row, int col) {
-        return _permList[row][col];
+    /** Return TABLE, as made by narrow, as an int[].  The result is
+     *  TABLE itself if it is one, and otherwise comes from _widened. */
+    private int[] widen(Object table) {
+        if (table instanceof int[]) {
+            return (int[]) table;
+        }
+        List<Object> key = List.of(this, table == _forward);
+        synchronized (WIDENED) {
+            int[] result = WIDENED.get(key);
+            if (result == null) {
+                result = new int[size()];
+                for (int i = 0; i < result.length; i += 1) {
+                    result[i] = lookup(table, i);
+                }
+                WIDENED.put(key, result);
+            }
+            return result;
+        }
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        _permutation += cycle;
+    /** Return this permutation in cycle notation, one cycle for each
+     *  character that does not map to itself, each starting at its
+     *  character of lowest index.  It denotes the same permutation as
+     *  the cycles it was made from, though perhaps not in the same
+     *  form. */
+    String cycles() {
+        int n = size();
+        boolean[] seen = new boolean[n];
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            if (seen[i] || permute(i) == i) {
+                continue;
+            }
+            result.append('(');
+            for (int k = i; !seen[k]; k = permute(k)) {
+                seen[k] = true;
+                result.appendCodePoint(_alphabet.toCodePoint(k));
+            }
+            result.append(')');
+        }
+        return result.toString();
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -101,6 +179,51 @@ class Permutation {
         return r;
     }
 
+    /** Return the table mapping each index to its image.  The result
+     *  is shared and must not be modified. */
+    int[] forwardTable() {
+        return widen(_forward);
+    }
+
+    /** Return the table mapping each index to its preimage.  The result
+     *  is shared and must not be modified. */
+    int[] inverseTable() {
+        return widen(_inverse);
+    }
+
+    /** Return the image of P, which must be a valid index, with no
+     *  checks of my own. */
+    int permuteValid(int p) {
+        return lookup(_forward, p);
+    }
+
+    /** Return the preimage of C, which must be a valid index, with no
+     *  checks of my own. */
+    int invertValid(int c) {
+        return lookup(_inverse, c);
+    }
+
+    /** Return the image of P under this permutation (or its inverse, if
+     *  INVERSE) as seen by a rotor at setting S, which is what
+     *  settingTable(INVERSE)[S * size() + P] holds, for P and S valid
+     *  indices.  This is the path for permutations without such tables
+     *  on the heap: it makes no checks, and wraps around the alphabet
+     *  without branches. */
+    int imageAt(int p, int s, boolean inverse) {
+        int n = size();
+        int x = p + s - n;
+        x += (x >> 31) & n;
+        int y = (inverse ? invertValid(x) : permuteValid(x)) - s;
+        return y + ((y >> 31) & n);
+    }
+
+    /** Returns true iff forwardTable and inverseTable return tables I
+     *  keep anyway, rather than copies made for each caller, so that
+     *  holding on to them costs nothing. */
+    boolean heapTables() {
+        return true;
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
@@ -117,7 +240,7 @@ class Permutation {
         if (p >= _alphabet.size()) {
             throw new EnigmaException("Alphabet does not contain character at index" + p);
         }
-        return _alphabet.toInt(permute(_alphabet.toChar(p)));
+        return lookup(_forward, p);
     }
 
     /** Return the result of applying the inverse of this permutation
@@ -126,7 +249,7 @@ class Permutation {
         if (c >= _alphabet.size()) {
             throw new EnigmaException("Alphabet does not contain character at index" + c);
         }
-        return _alphabet.toInt(invert(_alphabet.toChar(c)));
+        return lookup(_inverse, c);
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -135,15 +258,7 @@ class Permutation {
         if (!_alphabet.contains(p)) {
             throw new EnigmaException("Alphabet does not contain character" + p);
         }
-        if (Arrays.equals(find(p), new int[]{-1, -1})) {
-            return p;
-        }
-        int x = cX(p); int y = cY(p); char[] pRow = getRow(cX(p));
-        if (y == pRow.length - 1) {
-            return getChar(x, 0);
-        } else {
-            return getChar(x, y + 1);
-        }
+        return _alphabet.toChar(permute(_alphabet.toInt(p)));
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
@@ -151,33 +266,91 @@ class Permutation {
         if (!_alphabet.contains(c)) {
             throw new EnigmaException("Alphabet does not contain character" + c);
         }
-        if (Arrays.equals(find(c), new int[]{-1, -1})) {
-            return c;
-        }
-        int x = cX(c); int y = cY(c); char[] pRow = getRow(cX(c));
-        if (y == 0) {
-            return getChar(x, pRow.length - 1);
-        } else {
-            return getChar(x, y - 1);
-        }
+        return _alphabet.toChar(invert(_alphabet.toInt(c)));
     }
 
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        boolean result = true;
-        for (char c : _alphabet._charList) {
-            if (Arrays.equals(find(c), new int[]{-1, -1})) {
-                result = false;
-                break;
+        for (int i = 0; i < size(); i += 1) {
+            if (permute(i) == i) {
+                return false;
             }
-            for (char[] cLst : _permList) {
-                if (cLst.length == 1) {
-                    result = false;
-                    break;
+        }
+        return true;
+    }
+
+    /** Return a table T in which T[S * size() + P] is the image of P
+     *  under this permutation (or its inverse, if INVERSE) as seen by a
+     *  rotor at setting S, or null if such a table would take more than
+     *  TABLE_BUDGET bytes.  The table is built on first use and shared;
+     *  it must not be modified. */
+    synchronized int[] settingTable(boolean inverse) {
+        int n = size();
+        if ((long) n * n * Integer.BYTES > TABLE_BUDGET) {
+            return null;
+        }
+        if (inverse && _inverse == _forward && _forward != null) {
+            inverse = false;
+        }
+        int[] result = inverse ? _inverseBySetting : _forwardBySetting;
+        if (result == null) {
+            int[] base = inverse ? inverseTable() : forwardTable();
+            result = new int[n * n];
+            for (int s = 0; s < n; s += 1) {
+                for (int p = 0; p < n; p += 1) {
+                    result[s * n + p] = wrap(base[wrap(p + s)] - s);
                 }
             }
+            if (inverse) {
+                _inverseBySetting = result;
+            } else {
+                _forwardBySetting = result;
+            }
         }
         return result;
     }
+
+    /** Largest number of bytes used by one table from settingTable.
+     *  May be set with the enigma.tableBudget system property. */
+    static final long TABLE_BUDGET =
+        Long.getLong("enigma.tableBudget", 1 << 20);
+
+    /** Most permutations kept for sharing by of, and most int[] tables
+     *  kept widened. */
+    static final int CACHED_PERMUTATIONS = 1024;
+
+    /** Largest alphabets whose tables are kept as byte[] and as char[]. */
+    static final int BYTE_SYMBOLS = 256, CHAR_SYMBOLS = 65536;
+
+    /** Permutations made by of, by alphabet and cycles, least recently
+     *  used first. */
+    private static final LinkedHashMap<List<Object>, Permutation> CACHE =
+        new LinkedHashMap<List<Object>, Permutation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<List<Object>, Permutation> eldest) {
+                return size() > CACHED_PERMUTATIONS;
+            }
+        };
+
+    /** Tables widened by widen, keyed by permutation and direction,
+     *  least recently used first. */
+    private static final LinkedHashMap<List<Object>, int[]> WIDENED =
+        new LinkedHashMap<List<Object>, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<List<Object>, int[]> eldest) {
+                return size() > CACHED_PERMUTATIONS;
+            }
+        };
+
+    /** Alphabet of this permutation. */
+    private final Alphabet _alphabet;
+    /** Compiled mapping of each index to its image and preimage, as made
+     *  by narrow, the same array if I am an involution. */
+    private Object _forward, _inverse;
+
+    /** Tables built by settingTable, or null. */
+    private int[] _forwardBySetting, _inverseBySetting;
 }
@@ -4,7 +4,6 @@ import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
 
-import java.io.PrintStream;
 import java.util.*;
 
 import static org.junit.Assert.*;
@@ -60,11 +59,12 @@ public class PermutationTest {
         String cycle = "(ABC) (DE) (FGH)(IJ)(K)";
         Alphabet alpha = new Alphabet("ABCDEFGHIJK");
         Permutation p = new Permutation(cycle, alpha);
-        PrintStream stream = new PrintStream(System.out);
-        for (char[] c : p._permList) {
-            stream.println(c);
+        assertEquals("(ABC)(DE)(FGH)(IJ)", p.cycles());
+        assertEquals("", new Permutation("(K)", alpha).cycles());
+        Permutation q = new Permutation(p.cycles(), alpha);
+        for (int i = 0; i < alpha.size(); i += 1) {
+            assertEquals(p.permute(i), q.permute(i));
         }
-        stream.flush();
     }
 
     @Test
@@ -184,4 +184,59 @@ public class PermutationTest {
         p3.invert('A');
         p3.derangement();
     }
+
+    @Test
+    public void testCodePoints() {
+        int[] cps = {0x1F600, 0x1F601, 0x1F602, 'A', 0x10FFFF};
+        Alphabet alpha = new Alphabet(cps);
+        assertEquals(5, alpha.size());
+        assertFalse(alpha.dense());
+        assertEquals(4, alpha.indexOf(0x10FFFF));
+        assertEquals(-1, alpha.indexOf('B'));
+        Permutation p = new Permutation(
+            "(" + new String(cps, 0, 3) + ") (A)", alpha);
+        assertEquals(1, p.permute(0));
+        assertEquals(0, p.permute(2));
+        assertEquals(2, p.invert(0));
+        assertEquals(3, p.permute(3));
+        assertEquals(4, p.permute(4));
+
+        Alphabet dense = new Alphabet("ZYXWVU");
+        assertTrue(dense.dense());
+        assertEquals(0, dense.toInt('Z'));
+        assertEquals(5, dense.toInt('U'));
+        assertFalse(dense.contains('A'));
+    }
+
+    @Test
+    public void testSettingTable() {
+        Permutation p = new Permutation("(BACD)", new Alphabet("ABCDE"));
+        int[] forward = p.settingTable(false);
+        int[] backward = p.settingTable(true);
+        for (int s = 0; s < 5; s += 1) {
+            for (int c = 0; c < 5; c += 1) {
+                assertEquals(p.wrap(p.permute(p.wrap(c + s)) - s),
+                             forward[s * 5 + c]);
+                assertEquals(p.wrap(p.invert(p.wrap(c + s)) - s),
+                             backward[s * 5 + c]);
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testCycleNotInAlphabet() {
+        new Permutation("(AB) (CZ)", new Alphabet("ABCDE"));
+    }
+
+    @Test
+    public void testSupplementaryToChar() {
+        Alphabet alpha = new Alphabet("AB\ud835\udd38");
+        assertEquals(0x1d538, alpha.toCodePoint(2));
+        try {
+            alpha.toChar(2);
+            fail("toChar returned a supplementary symbol");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
 }
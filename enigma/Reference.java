@@ -0,0 +1,488 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A frozen copy of the original Alphabet, Permutation, Rotor and Machine
+ *  classes and of Main's configuration parsing, kept unchanged as the
+ *  standard that faster conversion paths are tested against.  Do not
+ *  optimize or otherwise alter the behavior of anything in here.
+ *  @author Ryan Shih
+ */
+final class Reference {
+
+    /** Return a machine configured from CONFIG, which has the format of a
+     *  configuration file. */
+    static Machine readConfig(String config) {
+        Scanner sc = new Scanner(config);
+        try {
+            Alphabet alphabet = new Alphabet(sc.nextLine());
+            int numRotors = sc.nextInt();
+            int pawls = sc.nextInt();
+            sc.nextLine();
+            Collection<Rotor> rotorList = new LinkedList<Rotor>();
+            while (sc.hasNextLine()) {
+                rotorList.add(readRotor(sc, alphabet));
+                if (sc.hasNextLine()) {
+                    sc.nextLine();
+                }
+            }
+            return new Machine(alphabet, numRotors, pawls, rotorList);
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
+    /** Return a rotor over ALPHABET, reading its description from SC. */
+    private static Rotor readRotor(Scanner sc, Alphabet alphabet) {
+        try {
+            String name = sc.next();
+            String typeNotch = sc.next();
+            char type = typeNotch.charAt(0);
+            String notch = typeNotch.substring(1);
+            String cycles = "";
+            while (sc.hasNext("\\(.+\\)")) {
+                cycles += sc.next();
+            }
+            if (sc.hasNext("\\(.+")) {
+                throw new EnigmaException("Incomplete cycle");
+            }
+            switch (type) {
+                case 'M':
+                    return new MovingRotor(name,
+                        new Permutation(cycles, alphabet), notch);
+                case 'N':
+                    return new FixedRotor(name,
+                        new Permutation(cycles, alphabet));
+                case 'R':
+                    return new Reflector(name,
+                        new Permutation(cycles, alphabet));
+                default:
+                    throw new EnigmaException("Rotor type is invalid");
+            }
+        } catch (NoSuchElementException excp) {
+            throw error("bad rotor description");
+        }
+    }
+
+    /** Set M according to the setting line SETTINGS. */
+    static void setUp(Machine M, String settings) {
+        Scanner sc = new Scanner(settings);
+        sc.next();
+        String[] rotors = new String[M.numRotors()];
+        for (int i = 0; i < M.numRotors(); i += 1) {
+            rotors[i] = sc.next();
+        }
+        M.insertRotors(rotors);
+        if (!sc.hasNext()) {
+            throw new EnigmaException("No setting");
+        }
+        String setting = sc.next();
+        if (setting.length() > M.numRotors() - 1) {
+            throw new EnigmaException("Setting does not match numRotors");
+        }
+        M.setRotors(setting);
+        String plugboard = "";
+        while (sc.hasNext("\\(..\\)")) {
+            plugboard += sc.next();
+        }
+        M.setPlugboard(new Permutation(plugboard, M._alphabet));
+    }
+
+    /** Return MSG in groups of five, as Main prints it (without the line
+     *  terminator). */
+    static String messageLine(String msg) {
+        msg =  msg.replaceAll("\\s+", "");
+        int msgInd = 0;
+        StringBuilder msgNew = new StringBuilder();
+        char[] msgArray = msg.toCharArray();
+        for (char c : msgArray) {
+            if (msgInd % 5 == 0 && msgInd != 0) {
+                msgNew.append(" ");
+            }
+            msgNew.append(c);
+            msgInd += 1;
+        }
+        return msgNew.toString();
+    }
+
+    /** The original Alphabet. */
+    static class Alphabet {
+        private String _chars;
+        char[] _charList;
+
+        Alphabet(String chars) {
+            if (Objects.equals(chars, "")) {
+                throw new EnigmaException("Empty alphabet");
+            }
+            _chars = chars;
+            _charList = _chars.toCharArray();
+        }
+
+        int size() {
+            return _chars.length();
+        }
+
+        boolean contains(char ch) {
+            for (char c : _charList) {
+                if (c == ch) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        char toChar(int index) {
+            return (char) (_charList[index]);
+        }
+
+        int toInt(char ch) {
+            int ind = 0;
+            for (int i = 0; i < size(); i += 1) {
+                if (toChar(i) == ch) {
+                    ind = i;
+                    break;
+                }
+            }
+            return ind;
+        }
+    }
+
+    /** The original Permutation. */
+    static class Permutation {
+        public String _permutation;
+        public char[][] _permList;
+        private Alphabet _alphabet;
+
+        Permutation(String cycles, Alphabet alphabet) {
+            _alphabet = alphabet;
+            _permutation = cycles;
+            _permList = listedPermutation(_permutation);
+        }
+
+        private char[][] listedPermutation(String permutation) {
+            char[][] segmentCycles = new char[0][0];
+            permutation = permutation.replaceAll("\\s+", "");
+            if (Objects.equals(permutation, "")) {
+                return segmentCycles;
+            }
+            permutation = permutation.substring(1, permutation.length() - 1);
+            String[] arrCycles = permutation.split("\\)\\(");
+            int ind1 = 0;
+            for (String s : arrCycles) {
+                char[] piece = new char[0];
+                int ind2 = 0;
+                for (char c: s.toCharArray()) {
+                    char[] temp1 = new char[piece.length + 1];
+                    System.arraycopy(piece, 0, temp1, 0, piece.length);
+                    piece = temp1;
+                    piece[ind2] = c;
+                    ind2 += 1;
+                }
+                char[][] temp2 = new char[segmentCycles.length + 1][];
+                System.arraycopy(segmentCycles, 0, temp2, 0,
+                                 segmentCycles.length);
+                segmentCycles = temp2;
+                segmentCycles[ind1] = piece;
+                ind1 += 1;
+            }
+            return segmentCycles;
+        }
+
+        private int[] find(char cTarget) {
+            int[] voidLst = new int[]{-1, -1};
+            int row = 0;
+            for (char[] cLst : _permList) {
+                int col = 0;
+                for (char c : cLst) {
+                    if (c == cTarget) {
+                        return new int[]{row, col};
+                    }
+                    col += 1;
+                }
+                row += 1;
+            }
+            return voidLst;
+        }
+
+        Alphabet alphabet() {
+            return _alphabet;
+        }
+
+        int size() {
+            return _alphabet.size();
+        }
+
+        int permute(int p) {
+            if (p >= _alphabet.size()) {
+                throw new EnigmaException(
+                    "Alphabet does not contain character at index" + p);
+            }
+            return _alphabet.toInt(permute(_alphabet.toChar(p)));
+        }
+
+        int invert(int c) {
+            if (c >= _alphabet.size()) {
+                throw new EnigmaException(
+                    "Alphabet does not contain character at index" + c);
+            }
+            return _alphabet.toInt(invert(_alphabet.toChar(c)));
+        }
+
+        char permute(char p) {
+            if (!_alphabet.contains(p)) {
+                throw new EnigmaException(
+                    "Alphabet does not contain character" + p);
+            }
+            int[] at = find(p);
+            if (Arrays.equals(at, new int[]{-1, -1})) {
+                return p;
+            }
+            char[] row = _permList[at[0]];
+            return at[1] == row.length - 1 ? row[0] : row[at[1] + 1];
+        }
+
+        char invert(char c) {
+            if (!_alphabet.contains(c)) {
+                throw new EnigmaException(
+                    "Alphabet does not contain character" + c);
+            }
+            int[] at = find(c);
+            if (Arrays.equals(at, new int[]{-1, -1})) {
+                return c;
+            }
+            char[] row = _permList[at[0]];
+            return at[1] == 0 ? row[row.length - 1] : row[at[1] - 1];
+        }
+    }
+
+    /** The original Rotor. */
+    static class Rotor {
+        public int _setting;
+
+        Rotor(String name, Permutation perm) {
+            _name = name;
+            _permutation = perm;
+            _setting = 0;
+        }
+
+        String name() {
+            return _name;
+        }
+
+        Alphabet alphabet() {
+            return _permutation.alphabet();
+        }
+
+        int setting() {
+            return _setting;
+        }
+
+        void set(char cposn) {
+            _setting = _permutation.alphabet().toInt(cposn);
+        }
+
+        int mod(int dividend, int divisor) {
+            while (dividend < 0) {
+                dividend += Math.abs(divisor);
+            }
+            return dividend % divisor;
+        }
+
+        int convertForward(int p) {
+            int setF = mod((p + _setting), alphabet().size());
+            int permF = _permutation.permute(setF);
+            return mod((permF - _setting), alphabet().size());
+        }
+
+        int convertBackward(int e) {
+            int setF = mod((e + _setting), alphabet().size());
+            int permF = _permutation.invert(setF);
+            return mod((permF - _setting), alphabet().size());
+        }
+
+        boolean atNotch() {
+            return false;
+        }
+
+        void advance() {
+        }
+
+        private final String _name;
+        private Permutation _permutation;
+    }
+
+    /** The original MovingRotor. */
+    static class MovingRotor extends Rotor {
+        private final char[] _notches;
+
+        MovingRotor(String name, Permutation perm, String notches) {
+            super(name, perm);
+            _notches = notches.toCharArray();
+        }
+
+        @Override
+        boolean atNotch() {
+            for (char notch : _notches) {
+                if (alphabet().toInt(notch) == _setting) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void advance() {
+            _setting = (_setting + 1) % alphabet().size();
+        }
+    }
+
+    /** The original FixedRotor. */
+    static class FixedRotor extends Rotor {
+        FixedRotor(String name, Permutation perm) {
+            super(name, perm);
+        }
+    }
+
+    /** The original Reflector. */
+    static class Reflector extends FixedRotor {
+        Reflector(String name, Permutation perm) {
+            super(name, perm);
+        }
+
+        @Override
+        void set(char cposn) {
+            if (alphabet().toInt(cposn) != 0) {
+                throw error("reflector has only one position");
+            }
+        }
+    }
+
+    /** The original Machine. */
+    static class Machine {
+        private final int _numRotors;
+        private final int _pawls;
+        public Rotor[] _rotors;
+        private Rotor[] _allRotors;
+        private Permutation _plugboard;
+        public int[] settings;
+        private final Alphabet _alphabet;
+
+        Machine(Alphabet alpha, int numRotors, int pawls,
+                Collection<Rotor> allRotors) {
+            _alphabet = alpha;
+            _numRotors = numRotors;
+            _pawls = pawls;
+            _rotors = new Rotor[numRotors];
+            _allRotors = allRotors.toArray(new Rotor[allRotors.size()]);
+            settings = new int[numRotors - 1];
+        }
+
+        int numRotors() {
+            return _numRotors;
+        }
+
+        int numPawls() {
+            return _pawls;
+        }
+
+        void insertRotors(String[] rotors) {
+            int i = 0;
+            for (String rName : rotors) {
+                for (Rotor r : _allRotors) {
+                    if (Objects.equals(r.name(), rName)) {
+                        _rotors[i] = r;
+                        i += 1;
+                    }
+                }
+            }
+            if (!(rotors.length == 0 || (_rotors[0] instanceof Reflector))) {
+                throw new EnigmaException("Reflector not in correct place");
+            }
+            for (int i1 = 0; i1 < _rotors.length; i1 += 1) {
+                if (_rotors[i1] instanceof FixedRotor) {
+                    for (int i2 = 0; i2 < i1; i2 += 1) {
+                        if (_rotors[i2] instanceof MovingRotor) {
+                            throw new EnigmaException(
+                                "Moving rotor found left of fixed rotor");
+                        }
+                    }
+                }
+            }
+        }
+
+        void setRotors(String setting) {
+            char[] newSettings = setting.toCharArray();
+            int i = -1;
+            for (Rotor r : _rotors) {
+                if (i != -1) {
+                    r.set(newSettings[i]);
+                }
+                i += 1;
+            }
+            for (int iString = 0; iString < setting.length(); iString += 1) {
+                settings[iString] = _rotors[iString + 1].setting();
+            }
+        }
+
+        void setPlugboard(Permutation plugboard) {
+            _plugboard = plugboard;
+        }
+
+        void advSetting() {
+            int i = 0;
+            while (i < _numRotors) {
+                if (_rotors[i] instanceof MovingRotor) {
+                    if (i == _numRotors - 1) {
+                        _rotors[i].advance();
+                        settings[i - 1] += 1;
+                    } else if (_rotors[i + 1].atNotch()) {
+                        for (int iRest = i; iRest < _numRotors; iRest += 1) {
+                            _rotors[iRest].advance();
+                            settings[iRest - 1] += 1;
+                        }
+                        break;
+                    }
+                }
+                i += 1;
+            }
+        }
+
+        int convert(int c) {
+            if (!_alphabet.contains(_alphabet.toChar(c))) {
+                throw new EnigmaException("Character not in alphabet");
+            }
+            advSetting();
+            c = _plugboard.permute(c);
+            for (int iRotor = _numRotors - 1; iRotor >= 0; iRotor -= 1) {
+                c = _rotors[iRotor].convertForward(c);
+            }
+            for (int iRotor = 1; iRotor < _numRotors; iRotor += 1) {
+                c = _rotors[iRotor].convertBackward(c);
+            }
+            c = _plugboard.permute(c);
+            return c;
+        }
+
+        String convert(String msg) {
+            char[] msgArray = msg.toCharArray();
+            char[] convertedArray = new char[msgArray.length];
+            for (int i = 0; i < msgArray.length; i += 1) {
+                int charInt = _alphabet.toInt(msgArray[i]);
+                int convertInt = convert(charInt);
+                convertedArray[i] = _alphabet.toChar(convertInt);
+            }
+            return new String(convertedArray);
+        }
+    }
+
+    /** Not instantiable. */
+    private Reference() {
+    }
+}
@@ -9,13 +9,49 @@ class Reflector extends FixedRotor {
 
     /** A non-moving rotor named NAME whose permutation at the 0 setting
      * is PERM. */
-    private final String _name;
-    private Permutation _permutation;
-
     Reflector(String name, Permutation perm) {
+        this(name, perm, false);
+    }
+
+    /** A reflector as above that may be rewired iff REWIREABLE. */
+    Reflector(String name, Permutation perm, boolean rewireable) {
         super(name, perm);
-        _name = name;
-        _permutation = perm;
+        _rewireable = rewireable;
+    }
+
+    /** A reflector sharing the wiring of PROTOTYPE, and rewireable iff it
+     *  is. */
+    Reflector(Reflector prototype) {
+        super(prototype);
+        _rewireable = prototype._rewireable;
+    }
+
+    @Override
+    Reflector copy() {
+        return new Reflector(this);
+    }
+
+    /** Return true iff my wiring may be changed with rewire. */
+    boolean rewireable() {
+        return _rewireable;
+    }
+
+    /** Replace my wiring with WIRING, which must pair up every
+     *  character with another: applying it twice must give the
+     *  identity, and no character may map to itself. */
+    void rewire(Permutation wiring) {
+        if (!_rewireable) {
+            throw error("reflector %s cannot be rewired", name());
+        }
+        for (int i = 0; i < wiring.size(); i += 1) {
+            if (wiring.permute(wiring.permute(i)) != i) {
+                throw error("reflector wiring must consist of pairs");
+            }
+        }
+        if (!wiring.derangement()) {
+            throw error("reflector wiring must pair every character");
+        }
+        setPermutation(wiring);
     }
 
     @Override
@@ -32,13 +68,16 @@ class Reflector extends FixedRotor {
 
     @Override
     void set(char cposn) {
-        if (_permutation.alphabet().toInt(cposn) != 0) {
+        if (alphabet().toInt(cposn) != 0) {
             throw error("reflector has only one position");
         }
     }
 
     @Override
     public String toString() {
-        return "Reflector " + _name;
+        return "Reflector " + name();
     }
+
+    /** True iff my wiring may be changed. */
+    private final boolean _rewireable;
 }
@@ -7,33 +7,55 @@ import static enigma.EnigmaException.*;
  */
 class Rotor {
 
-    /** A rotor named NAME whose permutation is given by PERM. */
+    /** My current setting. */
     public int _setting;
 
+    /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
-        _name = name;
-        _permutation = perm;
+        _wiring = new Wiring(name, perm);
+        _setting = 0;
+    }
+
+    /** A rotor in its 0 setting sharing the wiring of PROTOTYPE. */
+    Rotor(Rotor prototype) {
+        _wiring = prototype._wiring;
         _setting = 0;
     }
 
+    /** Return a new rotor like me, in its 0 setting, sharing my wiring
+     *  and tables.  Each subclass returns one of its own kind. */
+    Rotor copy() {
+        return new Rotor(this);
+    }
+
     /** Return my name. */
     String name() {
-        return _name;
+        return _wiring.name;
     }
 
     /** Return my alphabet. */
     Alphabet alphabet() {
-        return _permutation.alphabet();
+        return _wiring.permutation.alphabet();
     }
 
     /** Return my permutation. */
     Permutation permutation() {
-        return _permutation;
+        return _wiring.permutation;
+    }
+
+    /** Replace my permutation with PERM, a permutation of the same
+     *  alphabet, as when a reflector is rewired.  Copies of me made
+     *  before keep the old one. */
+    void setPermutation(Permutation perm) {
+        if (perm.alphabet().size() != _wiring.size) {
+            throw error("wiring has the wrong alphabet");
+        }
+        _wiring = new Wiring(_wiring.name, perm);
     }
 
     /** Return the size of my alphabet. */
     int size() {
-        return _permutation.size();
+        return _wiring.size;
     }
 
     /** Return true iff I have a ratchet and can move. */
@@ -58,7 +80,7 @@ class Rotor {
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = _permutation.alphabet().toInt(cposn);
+        _setting = alphabet().toInt(cposn);
     }
 
     int mod(int dividend, int divisor) {
@@ -68,20 +90,80 @@ class Rotor {
         return dividend % divisor;
     }
 
+    /** Return true iff P and my setting are both valid indices, so that
+     *  the per-setting tables may be used. */
+    private boolean inRange(int p) {
+        int n = size();
+        return p >= 0 && p < n && _setting >= 0 && _setting < n;
+    }
+
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int setF = mod((p + _setting), alphabet().size());
-        int permF = _permutation.permute(setF);
-        return mod((permF - _setting), alphabet().size());
+        Wiring w = _wiring;
+        if (w.bySettingForward != null && inRange(p)) {
+            return w.bySettingForward[_setting * w.size + p];
+        }
+        int setF = mod((p + _setting), w.size);
+        int permF = w.permutation.permute(setF);
+        return mod((permF - _setting), w.size);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int setF = mod((e + _setting), alphabet().size());
-        int permF = _permutation.invert(setF);
-        return mod((permF - _setting), alphabet().size());
+        Wiring w = _wiring;
+        if (w.bySettingBackward != null && inRange(e)) {
+            return w.bySettingBackward[_setting * w.size + e];
+        }
+        int setF = mod((e + _setting), w.size);
+        int permF = w.permutation.invert(setF);
+        return mod((permF - _setting), w.size);
+    }
+
+    /** Return convertForward(P) for P a valid index, with no checks.  My
+     *  setting must also be a valid index. */
+    final int forwardValid(int p) {
+        Wiring w = _wiring;
+        int[] table = w.bySettingForward;
+        if (table != null) {
+            return table[_setting * w.size + p];
+        }
+        if (w.forward == null) {
+            if (!w.permutation.heapTables()) {
+                return w.permutation.imageAt(p, _setting, false);
+            }
+            w.forward = w.permutation.forwardTable();
+        }
+        return through(w.forward, p, w.size);
+    }
+
+    /** Return convertBackward(E) for E a valid index, with no checks.  My
+     *  setting must also be a valid index. */
+    final int backwardValid(int e) {
+        Wiring w = _wiring;
+        int[] table = w.bySettingBackward;
+        if (table != null) {
+            return table[_setting * w.size + e];
+        }
+        if (w.inverse == null) {
+            if (!w.permutation.heapTables()) {
+                return w.permutation.imageAt(e, _setting, true);
+            }
+            w.inverse = w.permutation.inverseTable();
+        }
+        return through(w.inverse, e, w.size);
+    }
+
+    /** Return the result of passing P through TABLE, of SIZE entries, at
+     *  my setting. */
+    private int through(int[] table, int p, int size) {
+        int x = p + _setting;
+        if (x >= size) {
+            x -= size;
+        }
+        int y = table[x] - _setting;
+        return y < 0 ? y + size : y;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -90,17 +172,50 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would allow the rotor to my left to advance
+     *  when at position POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {}
 
     @Override
     public String toString() {
-        return "Rotor " + _name;
+        return "Rotor " + name();
     }
 
-    /** My name. */
-    private final String _name;
+    /** The parts of a rotor that stay the same as it turns, shared by
+     *  every copy of it, so that each further rotor costs only its
+     *  setting and one reference. */
+    private static final class Wiring {
+
+        /** The wiring of a rotor named NAME with permutation PERM. */
+        Wiring(String name, Permutation perm) {
+            this.name = name;
+            this.permutation = perm;
+            this.size = perm.size();
+            this.bySettingForward = perm.settingTable(false);
+            this.bySettingBackward = perm.settingTable(true);
+        }
+
+        /** The rotor's name. */
+        private final String name;
+        /** Its permutation in its 0 position. */
+        private final Permutation permutation;
+        /** The size of its alphabet. */
+        private final int size;
+        /** The permutation and its inverse at each setting, indexed by
+         *  setting * size + input, or null when the alphabet is too large
+         *  for such tables and conversion rotates on lookup instead. */
+        private final int[] bySettingForward, bySettingBackward;
+        /** The permutation and its inverse as index tables, fetched when
+         *  first needed, unless the permutation's tables are not on the
+         *  heap, when conversion goes through the permutation itself. */
+        private int[] forward, inverse;
+    }
 
-    /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
+    /** My wiring. */
+    private Wiring _wiring;
 }
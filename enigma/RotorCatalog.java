@@ -0,0 +1,262 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors available to a machine, keyed by name.  Rotor descriptions
+ *  are recorded as they are read from a configuration, but a rotor's
+ *  Permutation is only built the first time the rotor is asked for.  The
+ *  rotor then built is cached as a prototype, and each later request
+ *  gets a copy of it sharing its permutation, tables and notches, so
+ *  that a rotor in a machine costs little more than its setting.  The
+ *  cache may be capped, in which case the least recently used
+ *  prototypes are dropped first.  The catalog also keeps the fold
+ *  tables (see Machine.Fold) and compiled engines (see Engine) of its
+ *  machines, so that machines with the same fixed rotors and reflector
+ *  at the same settings share one fold, and machines with the same
+ *  moving rotors share one engine.
+ *  @author Ryan Shih
+ */
+class RotorCatalog {
+
+    /** An empty catalog over ALPHABET whose cache of compiled
+     *  permutations holds at most CAPACITY entries (0 for no limit). */
+    RotorCatalog(Alphabet alphabet, int capacity) {
+        _alphabet = alphabet;
+        _capacity = capacity;
+        _entries = new HashMap<String, Entry>();
+        _compiled = new LinkedHashMap<String, Rotor>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Rotor> eldest) {
+                return _capacity > 0 && size() > _capacity;
+            }
+        };
+        _folds = new LinkedHashMap<List<Object>, Machine.Fold>(16, 0.75f,
+                                                                true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<List<Object>, Machine.Fold> eldest) {
+                return size() > MAX_FOLDS;
+            }
+        };
+        _engines = new LinkedHashMap<List<Object>, Engine>(16, 0.75f,
+                                                           true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<List<Object>, Engine> eldest) {
+                return size() > MAX_ENGINES;
+            }
+        };
+    }
+
+    /** An empty, uncapped catalog over ALPHABET. */
+    RotorCatalog(Alphabet alphabet) {
+        this(alphabet, 0);
+    }
+
+    /** A catalog over ALPHABET holding the already-built ROTORS.  Asking
+     *  for one of these by name always returns the same Rotor object. */
+    static RotorCatalog of(Alphabet alphabet, Collection<Rotor> rotors) {
+        RotorCatalog result = new RotorCatalog(alphabet);
+        for (Rotor r : rotors) {
+            result._entries.put(r.name(), new Entry(r));
+        }
+        return result;
+    }
+
+    /** Record a rotor named NAME of type TYPE ('M', 'N', 'R', or 'W'
+     *  for a rewireable reflector) with notches NOTCHES, whose
+     *  permutation is given by CYCLES. */
+    void add(String name, char type, String notches, String cycles) {
+        add(name, type, notches, () -> new Permutation(cycles, _alphabet));
+    }
+
+    /** Record a rotor named NAME of type TYPE (as above) with notches
+     *  NOTCHES, whose permutation is made by WIRING when first needed. */
+    synchronized void add(String name, char type, String notches,
+                          Supplier<Permutation> wiring) {
+        if (type != 'M' && type != 'N' && type != 'R' && type != 'W') {
+            throw new EnigmaException("Rotor type is invalid");
+        }
+        _entries.put(name, new Entry(type, notches, wiring));
+        _compiled.remove(name);
+    }
+
+    /** Return true iff I have a rotor named NAME. */
+    synchronized boolean contains(String name) {
+        return _entries.containsKey(name);
+    }
+
+    /** Return the number of rotors described in me. */
+    synchronized int size() {
+        return _entries.size();
+    }
+
+    /** Return the names of all my rotors, in sorted order. */
+    synchronized List<String> names() {
+        List<String> result = new ArrayList<String>(_entries.keySet());
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Return the type ('M', 'N', 'R' or 'W') of the rotor named NAME,
+     *  without compiling it. */
+    synchronized char type(String name) {
+        Entry e = _entries.get(name);
+        if (e == null) {
+            throw error("no rotor named %s", name);
+        }
+        if (e.prebuilt == null) {
+            return e.type;
+        } else if (e.prebuilt instanceof Reflector) {
+            return ((Reflector) e.prebuilt).rewireable() ? 'W' : 'R';
+        } else if (e.prebuilt.reflecting()) {
+            return 'R';
+        } else if (e.prebuilt.rotates()) {
+            return 'M';
+        } else {
+            return 'N';
+        }
+    }
+
+    /** Return the number of compiled rotors currently cached. */
+    synchronized int compiledCount() {
+        return _compiled.size();
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return a rotor named NAME in its 0 setting, or null if there is
+     *  no such rotor.  Its permutation is compiled if not already
+     *  cached. */
+    synchronized Rotor rotor(String name) {
+        Entry e = _entries.get(name);
+        if (e == null) {
+            return null;
+        }
+        if (e.prebuilt != null) {
+            return e.prebuilt;
+        }
+        Rotor prototype = _compiled.get(name);
+        if (prototype == null) {
+            Permutation perm = e.wiring.get();
+            switch (e.type) {
+                case 'M':
+                    prototype = new MovingRotor(name, perm, e.notches);
+                    break;
+                case 'N':
+                    prototype = new FixedRotor(name, perm);
+                    break;
+                case 'W':
+                    prototype = new Reflector(name, perm, true);
+                    break;
+                default:
+                    prototype = new Reflector(name, perm);
+                    break;
+            }
+            _compiled.put(name, prototype);
+        }
+        return prototype.copy();
+    }
+
+    /** Return the fold of the rotors in slots 0 .. FIRST-1 of ROTORS,
+     *  shared with every machine whose rotors in those slots have the
+     *  same permutations at the same settings. */
+    synchronized Machine.Fold fold(Rotor[] rotors, int first) {
+        List<Object> key = new ArrayList<Object>(2 * first);
+        for (int k = 0; k < first; k += 1) {
+            key.add(rotors[k].permutation());
+            key.add(rotors[k].setting());
+        }
+        Machine.Fold fold = _folds.get(key);
+        if (fold == null) {
+            fold = new Machine.Fold(rotors, first);
+            _folds.put(key, fold);
+        }
+        return fold;
+    }
+
+    /** Return the engine for the moving rotors in slots FIRST and up of
+     *  ROTORS, shared with every machine whose rotors in those slots
+     *  have the same names and permutations. */
+    synchronized Engine engine(Rotor[] rotors, int first) {
+        List<Object> key = new ArrayList<Object>(2 * (rotors.length - first));
+        for (int k = first; k < rotors.length; k += 1) {
+            key.add(rotors[k].name());
+            key.add(rotors[k].permutation());
+        }
+        Engine engine = _engines.get(key);
+        if (engine == null) {
+            engine = Engine.compile(rotors, first);
+            _engines.put(key, engine);
+        }
+        return engine;
+    }
+
+    /** The description of a single rotor. */
+    private static class Entry {
+        /** A rotor of type TYPE with NOTCHES and permutation made by
+         *  WIRING. */
+        Entry(char type, String notches, Supplier<Permutation> wiring) {
+            this.type = type;
+            this.notches = notches;
+            this.wiring = wiring;
+            this.prebuilt = null;
+        }
+
+        /** An entry that always stands for ROTOR. */
+        Entry(Rotor rotor) {
+            this.type = 0;
+            this.notches = null;
+            this.wiring = null;
+            this.prebuilt = rotor;
+        }
+
+        /** Rotor type: 'M', 'N', 'R' or 'W'. */
+        private final char type;
+        /** Notch characters (moving rotors only). */
+        private final String notches;
+        /** Source of the rotor's permutation. */
+        private final Supplier<Permutation> wiring;
+        /** A rotor supplied ready-made, or null. */
+        private final Rotor prebuilt;
+    }
+
+    /** Alphabet of all my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Maximum number of cached permutations, or 0 for no limit. */
+    private final int _capacity;
+
+    /** Rotor descriptions by name. */
+    private final HashMap<String, Entry> _entries;
+
+    /** Prototype rotors by name, least recently used first. */
+    private final LinkedHashMap<String, Rotor> _compiled;
+
+    /** Most fold tables kept. */
+    private static final int MAX_FOLDS = 1024;
+
+    /** Fold tables, keyed by the permutations and settings of the rotors
+     *  they fold, least recently used first. */
+    private final LinkedHashMap<List<Object>, Machine.Fold> _folds;
+
+    /** Most compiled engines kept. */
+    private static final int MAX_ENGINES = 1024;
+
+    /** Compiled engines, keyed by the names and permutations of the
+     *  moving rotors they run, least recently used first. */
+    private final LinkedHashMap<List<Object>, Engine> _engines;
+}
@@ -0,0 +1,68 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the RotorCatalog class.
+ *  @author Ryan Shih
+ */
+public class RotorCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    private RotorCatalog catalog(int capacity) {
+        RotorCatalog c = new RotorCatalog(new Alphabet(), capacity);
+        c.add("I", 'M', "Q", "(AELTPHQXRU)(BKNW)(CMOY)(DFG)(IV)(JZ)(S)");
+        c.add("III", 'M', "V", "(ABDHPEJT)(CFLVMZOYQIRWUKXSG)(N)");
+        c.add("IV", 'M', "J", "(AEPLIYWCOXMRFZBSTGJQNH)(DV)(KU)");
+        c.add("Beta", 'N', "", "(ALBEVFCYODJWUGNMQTZSKPR)(HIX)");
+        c.add("B", 'R', "",
+              "(AE)(BN)(CK)(DQ)(FU)(GY)(HW)(IJ)(LO)(MP)(RX)(SZ)(TV)");
+        return c;
+    }
+
+    @Test
+    public void testLazyCompile() {
+        RotorCatalog c = catalog(0);
+        assertEquals(5, c.size());
+        assertEquals(0, c.compiledCount());
+        Rotor r = c.rotor("III");
+        assertTrue(r instanceof MovingRotor);
+        assertEquals(1, c.compiledCount());
+        assertSame(r.permutation(), c.rotor("III").permutation());
+        assertTrue(c.rotor("B") instanceof Reflector);
+        assertTrue(c.rotor("Beta") instanceof FixedRotor);
+        assertNull(c.rotor("VIII"));
+    }
+
+    @Test
+    public void testEviction() {
+        RotorCatalog c = catalog(2);
+        Permutation first = c.rotor("I").permutation();
+        c.rotor("III");
+        c.rotor("IV");
+        assertEquals(2, c.compiledCount());
+        assertNotSame(first, c.rotor("I").permutation());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadType() {
+        catalog(0).add("X", 'Q', "", "");
+    }
+
+    @Test
+    public void testMachineFromCatalog() {
+        Alphabet alpha = new Alphabet();
+        RotorCatalog c = catalog(0);
+        Machine m = new Machine(alpha, 5, 3, c);
+        m.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        m.setRotors("AXLE");
+        m.setPlugboard(new Permutation("(YF)(ZH)", alpha));
+        assertEquals(25, m.convert(24));
+        assertEquals(5, c.compiledCount());
+    }
+}
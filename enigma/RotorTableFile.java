@@ -0,0 +1,219 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Compiled rotor tables stored in a file that is memory-mapped for use.
+ *  The mapped pages belong to the operating system's file cache, so all
+ *  processes on a host that map the same file share one physical copy
+ *  of the tables, and none of it is on the Java heap.
+ *
+ *  The file holds, in big-endian order: the int MAGIC and VERSION; the
+ *  alphabet size N and its N symbols as int code points; the number of
+ *  rotor slots and pawls; an int that is 1 if the file holds tables by
+ *  setting and 0 if not; the number of rotors; then for each rotor its
+ *  name (a short length and that many chars), its type char, its
+ *  notches (a short count and that many int code points), its forward
+ *  and inverse tables of N chars each, holding indices into the
+ *  alphabet, and, if the file holds them, its forward and inverse
+ *  tables by setting (see Permutation.settingTable) of N*N chars each.
+ *  Tables by setting are written when N*N chars fit in
+ *  Permutation.TABLE_BUDGET bytes; they let mapped rotors convert by
+ *  one lookup per character, as rotors with tables on the heap do.
+ *  @author Ryan Shih
+ */
+public final class RotorTableFile {
+
+    /** Write the table file ARGS[1] for the configuration file ARGS[0]. */
+    public static void main(String... args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java enigma.RotorTableFile CONFIG OUT");
+            System.exit(1);
+        }
+        try (Scanner config = new Scanner(Paths.get(args[0]))) {
+            write(Main.readSpec(config), Paths.get(args[1]));
+        } catch (IOException excp) {
+            System.err.printf("Error: could not open %s%n", args[0]);
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Identifies a rotor table file. */
+    static final int MAGIC = 0x454e5254;
+
+    /** Format version written by this class. */
+    static final int VERSION = 3;
+
+    /** Compile every rotor of SPEC and write the tables to FILE. */
+    static void write(MachineSpec spec, Path file) {
+        Alphabet alpha = spec.alphabet();
+        RotorCatalog catalog = spec.catalog();
+        List<String> names = catalog.names();
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(alpha.size());
+            for (int i = 0; i < alpha.size(); i += 1) {
+                out.writeInt(alpha.toCodePoint(i));
+            }
+            out.writeInt(spec.numRotors());
+            out.writeInt(spec.numPawls());
+            boolean bySetting = bySetting(alpha.size());
+            out.writeInt(bySetting ? 1 : 0);
+            out.writeInt(names.size());
+            for (String name : names) {
+                Rotor r = catalog.rotor(name);
+                StringBuilder notches = new StringBuilder();
+                for (int p = 0; p < alpha.size(); p += 1) {
+                    if (r.notchAt(p)) {
+                        notches.appendCodePoint(alpha.toCodePoint(p));
+                    }
+                }
+                writeString(out, name);
+                out.writeChar(catalog.type(name));
+                writeCodePoints(out, notches.toString());
+                for (int v : r.permutation().forwardTable()) {
+                    out.writeChar(v);
+                }
+                for (int v : r.permutation().inverseTable()) {
+                    out.writeChar(v);
+                }
+                if (bySetting) {
+                    writeBySetting(out, r.permutation(), false);
+                    writeBySetting(out, r.permutation(), true);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return a spec whose rotors use the tables mapped from FILE. */
+    static MachineSpec map(Path file) {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("%s is not a rotor table file", file);
+            }
+            int n = buf.getInt();
+            Alphabet alpha = Alphabet.of(readCodePoints(buf, n));
+            int numRotors = buf.getInt();
+            int pawls = buf.getInt();
+            boolean bySetting = buf.getInt() != 0;
+            int count = buf.getInt();
+            RotorCatalog catalog =
+                new RotorCatalog(alpha, Main.CACHED_ROTORS);
+            for (int k = 0; k < count; k += 1) {
+                String name = readChars(buf, buf.getShort());
+                char type = buf.getChar();
+                String notches = readCodePoints(buf, buf.getShort());
+                CharBuffer forward = view(buf, buf.position(), n);
+                CharBuffer inverse = view(buf, buf.position() + 2 * n, n);
+                buf.position(buf.position() + 4 * n);
+                CharBuffer forwardBySetting = null, inverseBySetting = null;
+                if (bySetting) {
+                    int p = buf.position();
+                    forwardBySetting = view(buf, p, n * n);
+                    inverseBySetting = view(buf, p + 2 * n * n, n * n);
+                    buf.position(p + 4 * n * n);
+                }
+                CharBuffer fs = forwardBySetting, is = inverseBySetting;
+                catalog.add(name, type, notches,
+                    () -> new MappedPermutation(alpha, forward, inverse,
+                                                fs, is));
+            }
+            return new MachineSpec(alpha, numRotors, pawls, catalog);
+        } catch (RuntimeException excp) {
+            if (excp instanceof EnigmaException) {
+                throw excp;
+            }
+            throw error("%s is truncated or corrupt", file);
+        }
+    }
+
+    /** Return true iff a file for an alphabet of N symbols holds tables
+     *  by setting. */
+    private static boolean bySetting(int n) {
+        return (long) n * n * Character.BYTES <= Permutation.TABLE_BUDGET;
+    }
+
+    /** Write the table by setting of PERM, or of its inverse if
+     *  INVERSE, to OUT as chars. */
+    private static void writeBySetting(DataOutputStream out,
+                                       Permutation perm, boolean inverse)
+        throws IOException {
+        int n = perm.size();
+        for (int s = 0; s < n; s += 1) {
+            for (int p = 0; p < n; p += 1) {
+                out.writeChar(perm.imageAt(p, s, inverse));
+            }
+        }
+    }
+
+    /** Write S to OUT as a short length followed by its chars. */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        out.writeShort(s.length());
+        out.writeChars(s);
+    }
+
+    /** Write the code points of S to OUT, preceded by their number as a
+     *  short. */
+    private static void writeCodePoints(DataOutputStream out, String s)
+        throws IOException {
+        out.writeShort(s.codePointCount(0, s.length()));
+        for (int cp : s.codePoints().toArray()) {
+            out.writeInt(cp);
+        }
+    }
+
+    /** Return the next LEN int code points of BUF as a String. */
+    private static String readCodePoints(ByteBuffer buf, int len) {
+        int[] result = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = buf.getInt();
+        }
+        return new String(result, 0, len);
+    }
+
+    /** Return the next LEN chars of BUF as a String. */
+    private static String readChars(ByteBuffer buf, int len) {
+        char[] result = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = buf.getChar();
+        }
+        return new String(result);
+    }
+
+    /** Return a view of the N chars of BUF at byte offset START. */
+    private static CharBuffer view(ByteBuffer buf, int start, int n) {
+        return buf.duplicate().position(start).limit(start + 2 * n)
+            .slice().asCharBuffer();
+    }
+
+    /** Not instantiable. */
+    private RotorTableFile() {
+    }
+}
@@ -0,0 +1,174 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the RotorTableFile class.
+ *  @author Ryan Shih
+ */
+public class RotorTableFileTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        Path file = Files.createTempFile("enigma", ".tables");
+        try {
+            RotorTableFile.write(spec, file);
+            MachineSpec mapped = RotorTableFile.map(file);
+            assertEquals(spec.numRotors(), mapped.numRotors());
+            assertEquals(spec.numPawls(), mapped.numPawls());
+            assertEquals(spec.catalog().names(), mapped.catalog().names());
+            assertTrue(mapped.catalog().rotor("I").permutation()
+                       instanceof MappedPermutation);
+            assertTrue(mapped.catalog().rotor("B").permutation()
+                       .derangement());
+
+            String[] order = {"B", "Beta", "III", "IV", "I"};
+            Machine m1 = spec.newMachine(), m2 = mapped.newMachine();
+            m1.insertRotors(order);
+            m2.insertRotors(order);
+            m1.setRotors("AXLE");
+            m2.setRotors("AXLE");
+            m1.setPlugboard(new Permutation("(HQ)(EX)", spec.alphabet()));
+            m2.setPlugboard(new Permutation("(HQ)(EX)", mapped.alphabet()));
+            String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+            assertEquals(m1.convert(msg), m2.convert(msg));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMappedEngine() throws IOException {
+        MachineSpec spec = Samples.navySpec();
+        Path file = Files.createTempFile("enigma", ".tables");
+        try {
+            RotorTableFile.write(spec, file);
+            MachineSpec mapped = RotorTableFile.map(file);
+            Permutation heap = spec.catalog().rotor("IV").permutation();
+            Permutation perm = mapped.catalog().rotor("IV").permutation();
+            for (int inv = 0; inv < 2; inv += 1) {
+                int[] table = heap.settingTable(inv == 1);
+                for (int s = 0; s < 26; s += 1) {
+                    for (int p = 0; p < 26; p += 1) {
+                        assertEquals(table[s * 26 + p],
+                                     perm.imageAt(p, s, inv == 1));
+                    }
+                }
+            }
+
+            checkMapped(spec, mapped, "* B Beta III IV I AXLE (HQ) (EX)");
+        } finally {
+            Files.delete(file);
+        }
+        spec = Main.readSpec(new Scanner(
+            Samples.NAVY_CONFIG.replace(" 5 3\n", " 5 4\n")));
+        try {
+            RotorTableFile.write(spec, file);
+            checkMapped(spec, RotorTableFile.map(file),
+                        "* B IV III II I AXLE (HQ) (EX)");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Check that machines from the specs HEAP and MAPPED, set up by
+     *  SETTING, convert text alike, with the engine and without it. */
+    private static void checkMapped(MachineSpec heap, MachineSpec mapped,
+                                    String setting) {
+        Machine m1 = heap.newMachine(), m2 = mapped.newMachine();
+        Machine m3 = mapped.newMachine();
+        Main.setUp(m1, setting);
+        Main.setUp(m2, setting);
+        Main.setUp(m3, setting);
+        m3.useEngine(false);
+        Random rand = new Random(3);
+        char[] text = new char[5000];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = (char) ('A' + rand.nextInt(26));
+        }
+        char[] b1 = text.clone(), b2 = text.clone(), b3 = text.clone();
+        for (int i = 0; i < text.length; i += 500) {
+            m1.convert(b1, i, 500);
+            m2.convert(b2, i, 500);
+            m3.convert(b3, i, 500);
+        }
+        assertArrayEquals(b1, b2);
+        assertArrayEquals(b1, b3);
+        assertArrayEquals(m1.settings, m2.settings);
+        assertArrayEquals(m1.settings, m3.settings);
+    }
+
+    @Test
+    public void testSupplementarySymbols() throws IOException {
+        String x = "\ud835\udd38", y = "\ud835\udd39";
+        MachineSpec spec = Main.readSpec(new Scanner(
+            "ABC" + x + y + "F\n 3 2\n"
+            + " I M" + x + " (AB" + x + ") (C" + y + "F)\n"
+            + " II MC (A" + y + ") (B" + x + "CF)\n"
+            + " R R (A" + x + ") (B" + y + ") (CF)\n"));
+        Path file = Files.createTempFile("enigma", ".tables");
+        try {
+            RotorTableFile.write(spec, file);
+            MachineSpec mapped = RotorTableFile.map(file);
+            assertEquals(x, new String(Character.toChars(
+                mapped.alphabet().toCodePoint(3))));
+            for (int p = 0; p < 6; p += 1) {
+                assertEquals(spec.catalog().rotor("I").notchAt(p),
+                             mapped.catalog().rotor("I").notchAt(p));
+            }
+            assertTrue(mapped.catalog().rotor("I").notchAt(3));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMappedBounds() throws IOException {
+        Path file = Files.createTempFile("enigma", ".tables");
+        try {
+            RotorTableFile.write(Samples.navySpec(), file);
+            Permutation perm =
+                RotorTableFile.map(file).catalog().rotor("I").permutation();
+            for (int k : new int[] {-1, 26}) {
+                try {
+                    perm.permute(k);
+                    fail("permuted index " + k);
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+                try {
+                    perm.invert(k);
+                    fail("inverted index " + k);
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNotATableFile() throws IOException {
+        Path file = Files.createTempFile("enigma", ".tables");
+        try {
+            Files.writeString(file, "ABCDEFGHIJKLMNOP");
+            RotorTableFile.map(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
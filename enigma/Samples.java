@@ -0,0 +1,59 @@
+package enigma;
+
+import java.util.Random;
+import java.util.Scanner;
+
+/** Sample machines and tables shared by the benchmarks and the tests.
+ *  @author Ryan Shih
+ */
+final class Samples {
+
+    /** Rotor descriptions of the Navy M4, as in a configuration file. */
+    static final String NAVY_CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDQ) (ZJ) (AGHN) (BKLU) (RST)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " V MZ (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n"
+        + " Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)"
+        + " (RX) (SZ) (TV)\n";
+
+    /** Return the Navy M4 spec. */
+    static MachineSpec navySpec() {
+        return Main.readSpec(new Scanner(NAVY_CONFIG));
+    }
+
+    /** Rotors with two notches, and a rewireable reflector, added to
+     *  NAVY_CONFIG for the variants benchmark and the tests. */
+    static final String VARIANT_ROTORS =
+        " VI MZM (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + " VII MZM (ANOUPFRIMBZTLWKSVEGCJYDHXQ)\n"
+        + " VIII MZM (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n"
+        + " D W (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)"
+        + " (RX) (SZ) (TV)\n";
+
+    /** Return a quadgram scorer over the default alphabet with random
+     *  counts drawn by RAND. */
+    static NgramScorer randomQuadgrams(Random rand) {
+        StringBuilder counts = new StringBuilder();
+        char[] gram = new char[4];
+        for (int i = 0; i < 26 * 26 * 26 * 26; i += 1) {
+            for (int j = 0, v = i; j < 4; j += 1, v /= 26) {
+                gram[j] = (char) ('A' + v % 26);
+            }
+            if (rand.nextInt(4) == 0) {
+                counts.append(gram).append(' ')
+                    .append(1 + rand.nextInt(100000)).append('\n');
+            }
+        }
+        return NgramScorer.fromCounts(new Alphabet(),
+                                      new Scanner(counts.toString()));
+    }
+
+    /** Not instantiable. */
+    private Samples() {
+    }
+}
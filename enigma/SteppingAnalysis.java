@@ -0,0 +1,309 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** The stepping behavior of a machine's rotors: after how many
+ *  characters their positions first repeat, how long the cycle they
+ *  then run around is, and how often each rotor moves in it.
+ *
+ *  Stepping is a function of the positions of the moving rotors alone
+ *  (Machine.advSetting), so from any start the positions run through a
+ *  transient of TRANSIENT distinct states and then around a cycle of
+ *  PERIOD states.  Double stepping makes some states unreachable except
+ *  as starting points, so the transient is not always 0.  Both lengths
+ *  are found, when first asked for, by Brent's cycle detection over a
+ *  compact copy of the stepping rule that works on an array of
+ *  positions, without stepping or altering the machine.  This takes
+ *  time proportional to TRANSIENT + PERIOD, which may be as large as
+ *  the number of combined positions of the moving rotors, so machines
+ *  with more than MAX_STATES of those are refused.
+ *
+ *  The positions after a given number of characters need no cycle: they
+ *  are found by running the rightmost rotor from one notch to the next
+ *  in a single jump, and stepping singly only where some other rotor
+ *  moves.  The time taken is proportional to the number of notches the
+ *  rightmost rotor passes, and so works for machines of any size.
+ *  @author Ryan Shih
+ */
+public final class SteppingAnalysis {
+
+    /** Print the analysis of the machine given by configuration file
+     *  ARGS[0] with the setting line ARGS[1] (as in an input file of
+     *  Main): transient and period lengths, and the advances of each
+     *  rotor per period.  Exits normally if there are no errors;
+     *  otherwise with code 1. */
+    public static void main(String... args) {
+        if (args.length != 2) {
+            System.err.println(
+                "Usage: java enigma.SteppingAnalysis CONFIG SETTING");
+            System.exit(1);
+        }
+        try (Scanner config = new Scanner(Paths.get(args[0]))) {
+            Machine m = Main.readSpec(config).newMachine();
+            Main.setUp(m, args[1]);
+            SteppingAnalysis a = new SteppingAnalysis(m);
+            System.out.printf("states %d%ntransient %d%nperiod %d%n",
+                              a.states(), a.transientLength(), a.period());
+            for (int s = 1; s < m.numRotors(); s += 1) {
+                if (m.rotor(s).rotates()) {
+                    System.out.printf("slot %d (%s): %d advances per "
+                                      + "period%n", s, m.rotor(s),
+                                      a.advances(s));
+                }
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: could not open %s%n", args[0]);
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** The analysis of M's rotors as inserted and set now.  M is not
+     *  changed. */
+    SteppingAnalysis(Machine m) {
+        _n = m.numRotors();
+        _moving = new boolean[_n];
+        _size = new int[_n];
+        _notch = new boolean[_n][];
+        _start = new int[_n];
+        long states = 1;
+        for (int s = 0; s < _n; s += 1) {
+            Rotor r = m.rotor(s);
+            if (r == null) {
+                throw error("no rotor in slot %d", s);
+            }
+            _moving[s] = r instanceof MovingRotor;
+            _size[s] = r.size();
+            _start[s] = r.setting();
+            _notch[s] = new boolean[r.size()];
+            for (int p = 0; p < r.size(); p += 1) {
+                _notch[s][p] = r.notchAt(p);
+            }
+            if (_moving[s]) {
+                states = states > Long.MAX_VALUE / r.size()
+                    ? Long.MAX_VALUE : states * r.size();
+            }
+        }
+        _states = states;
+        int last = _n - 1;
+        _toNotch = new int[_size[last]];
+        if (_n > 1 && _moving[last - 1]) {
+            int size = _toNotch.length, next = -1;
+            for (int k = 2 * size - 1; k >= 0; k -= 1) {
+                if (k < size && next >= 0) {
+                    _toNotch[k] = next - k;
+                }
+                if (_notch[last][k % size]) {
+                    next = k;
+                }
+            }
+        }
+    }
+
+    /** Find the transient, period, cycle entry and advances per period,
+     *  if not done already. */
+    private synchronized void analyze() {
+        if (_advances != null) {
+            return;
+        }
+        if (_states > MAX_STATES) {
+            throw error("%d rotor states are too many to analyze "
+                        + "(at most %d)", _states, MAX_STATES);
+        }
+        int[] tortoise = _start.clone(), hare = _start.clone();
+        step(hare);
+        long power = 1, lambda = 1;
+        while (pack(tortoise) != pack(hare)) {
+            if (power == lambda) {
+                System.arraycopy(hare, 0, tortoise, 0, _n);
+                power *= 2;
+                lambda = 0;
+            }
+            step(hare);
+            lambda += 1;
+        }
+        tortoise = _start.clone();
+        hare = _start.clone();
+        for (long i = 0; i < lambda; i += 1) {
+            step(hare);
+        }
+        long mu = 0;
+        while (pack(tortoise) != pack(hare)) {
+            step(tortoise);
+            step(hare);
+            mu += 1;
+        }
+        long[] advances = new long[_n];
+        int[] p = tortoise.clone();
+        for (long i = 0; i < lambda; i += 1) {
+            int first = step(p);
+            for (int s = first; s < _n; s += 1) {
+                if (_moving[s]) {
+                    advances[s] += 1;
+                }
+            }
+        }
+        _period = lambda;
+        _transient = mu;
+        _advances = advances;
+    }
+
+    /** Return the number of combinations of positions of the moving
+     *  rotors, a bound on transientLength() + period(), or
+     *  Long.MAX_VALUE if there are more than that. */
+    long states() {
+        return _states;
+    }
+
+    /** Return the number of characters converted before the rotor
+     *  positions enter their cycle. */
+    long transientLength() {
+        analyze();
+        return _transient;
+    }
+
+    /** Return the number of characters after which the rotor positions
+     *  repeat, once in their cycle. */
+    long period() {
+        analyze();
+        return _period;
+    }
+
+    /** Return the number of times the rotor in SLOT advances in one
+     *  period. */
+    long advances(int slot) {
+        analyze();
+        return _advances[slot];
+    }
+
+    /** Return the positions of the rotors in slots 1 and up, in the
+     *  form of Machine.settings but reduced to rotor positions, after
+     *  STEPS characters have been converted from the start. */
+    int[] positionsAt(long steps) {
+        if (steps < 0) {
+            throw error("negative step count");
+        }
+        int last = _n - 1;
+        int[] p = _start.clone();
+        while (steps > 0 && _moving[last]) {
+            long quiet = quietSteps(p);
+            if (quiet == 0) {
+                step(p);
+                steps -= 1;
+            } else {
+                long k = Math.min(quiet, steps);
+                p[last] = (int) ((p[last] + k) % _size[last]);
+                steps -= k;
+            }
+        }
+        return Arrays.copyOfRange(p, 1, _n);
+    }
+
+    /** Return the number of steps from positions P in which only the
+     *  rightmost rotor moves, or Long.MAX_VALUE if no other rotor will
+     *  ever move. */
+    private long quietSteps(int[] p) {
+        int last = _n - 1;
+        for (int i = 0; i < last; i += 1) {
+            if (_moving[i] && _notch[i + 1][p[i + 1]]) {
+                return 0;
+            }
+        }
+        int d = _toNotch[p[last]];
+        return d == 0 ? Long.MAX_VALUE : d;
+    }
+
+    /** Return the notch events of the rotor in SLOT: the numbers (from
+     *  1) of the characters at which it advances, up to LIMIT of them,
+     *  counting from the start.  These recur every period() characters
+     *  after the transient. */
+    long[] schedule(int slot, int limit) {
+        if (!_moving[slot]) {
+            return new long[0];
+        }
+        analyze();
+        long[] result = new long[limit];
+        int k = 0;
+        int[] p = _start.clone();
+        long end = _transient + _period;
+        for (long i = 1; k < limit && (i <= end || _advances[slot] > 0);
+             i += 1) {
+            if (step(p) <= slot) {
+                result[k] = i;
+                k += 1;
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+
+    /** Advance the positions P as Machine.advSetting advances the rotors,
+     *  and return the first slot advanced (_n if none). */
+    private int step(int[] p) {
+        for (int i = 0; i < _n; i += 1) {
+            if (!_moving[i]) {
+                continue;
+            }
+            if (i == _n - 1) {
+                advance(p, i);
+                return i;
+            }
+            if (_notch[i + 1][p[i + 1]]) {
+                for (int k = i; k < _n; k += 1) {
+                    if (_moving[k]) {
+                        advance(p, k);
+                    }
+                }
+                return i;
+            }
+        }
+        return _n;
+    }
+
+    /** Advance position P[S] by one. */
+    private void advance(int[] p, int s) {
+        p[s] = p[s] + 1 == _size[s] ? 0 : p[s] + 1;
+    }
+
+    /** Return the positions of the moving rotors in P as one number. */
+    private long pack(int[] p) {
+        long result = 0;
+        for (int s = 0; s < _n; s += 1) {
+            if (_moving[s]) {
+                result = result * _size[s] + p[s];
+            }
+        }
+        return result;
+    }
+
+    /** Most combined positions of the moving rotors that will be
+     *  analyzed for their transient and period.  May be set with the
+     *  enigma.maxStates system property. */
+    static final long MAX_STATES = Long.getLong("enigma.maxStates", 1L << 28);
+
+    /** Number of rotor slots. */
+    private final int _n;
+    /** Whether each slot's rotor moves, its alphabet size, and its
+     *  notches by position. */
+    private final boolean[] _moving;
+    private final int[] _size;
+    private final boolean[][] _notch;
+    /** Positions of the rotors at the start. */
+    private final int[] _start;
+    /** Steps from each position of the rightmost rotor to its next
+     *  notch, or 0 if its notches do not move the rotor to its left. */
+    private final int[] _toNotch;
+    /** Number of combined positions of the moving rotors. */
+    private final long _states;
+    /** Lengths of the transient and of the cycle, once analyzed. */
+    private long _transient, _period;
+    /** Advances of each slot's rotor per period, or null until
+     *  analyzed. */
+    private long[] _advances;
+}
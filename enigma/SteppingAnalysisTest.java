@@ -0,0 +1,131 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+/** Tests of SteppingAnalysis.
+ *  @author Ryan Shih
+ */
+public class SteppingAnalysisTest {
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the positions of the rotors in slots 1 and up of M. */
+    private static int[] positions(Machine m) {
+        int[] result = new int[m.numRotors() - 1];
+        for (int s = 1; s < m.numRotors(); s += 1) {
+            result[s - 1] = m.rotor(s).setting();
+        }
+        return result;
+    }
+
+    /** Check the analysis of M against stepping M itself. */
+    private static void check(Machine m) {
+        SteppingAnalysis a = new SteppingAnalysis(m);
+        long mu = a.transientLength(), lambda = a.period();
+        assertTrue(lambda >= 1 && mu + lambda <= a.states());
+        List<int[]> seen = new ArrayList<int[]>();
+        for (long i = 0; i <= mu + lambda; i += 1) {
+            seen.add(positions(m));
+            if (i % 97 == 0 || i >= mu + lambda - 2) {
+                assertArrayEquals(seen.get((int) i), a.positionsAt(i));
+            }
+            m.advSetting();
+        }
+        assertArrayEquals(seen.get((int) mu),
+                          seen.get((int) (mu + lambda)));
+        if (mu > 0) {
+            assertFalse(Arrays.equals(seen.get((int) (mu - 1)),
+                                      seen.get((int) (mu + lambda - 1))));
+        }
+        for (long i = mu + 1; i < mu + lambda; i += 1 + lambda / 50) {
+            assertFalse(Arrays.equals(seen.get((int) mu),
+                                      seen.get((int) i)));
+        }
+        assertArrayEquals(seen.get((int) mu),
+                          a.positionsAt(mu + 5 * lambda));
+    }
+
+    @Test
+    public void testNavy() {
+        MachineSpec spec = Samples.navySpec();
+        Machine m = spec.newMachine();
+        Main.setUp(m, "* B Beta III IV I AXLE");
+        SteppingAnalysis a = new SteppingAnalysis(m);
+        assertEquals(26 * 26 * 26, a.states());
+        assertEquals(26 * 25 * 26, a.period());
+        assertEquals(a.period(), a.advances(4));
+        assertEquals(26 * 26, a.advances(3));
+        assertEquals(26, a.advances(2));
+        assertEquals(0, a.advances(1));
+        check(m);
+        Main.setUp(m, "* B Beta III IV I AXLE");
+        long[] events = a.schedule(3, 3);
+        assertEquals(3, events.length);
+        assertEquals(events[0] + 26, events[1]);
+        assertEquals(0, a.schedule(1, 3).length);
+    }
+
+    @Test
+    public void testDoubleStepTransient() {
+        MachineSpec spec = Samples.navySpec();
+        Machine m = spec.newMachine();
+        Main.setUp(m, "* B Beta I II III AAEV");
+        SteppingAnalysis a = new SteppingAnalysis(m);
+        assertEquals(2, a.transientLength());
+        check(m);
+        Main.setUp(m, "* B Beta I II III AAEA");
+        assertEquals(a.period(), new SteppingAnalysis(m).period());
+        Main.setUp(m, "* B Beta I II III AAEA");
+        check(m);
+    }
+
+    @Test
+    public void testVariants() {
+        MachineSpec spec = Main.readSpec(new Scanner(
+            Samples.NAVY_CONFIG + Samples.VARIANT_ROTORS));
+        Machine m = spec.newMachine();
+        Main.setUp(m, "* D Beta VI VII VIII AZMZ");
+        check(m);
+        Main.setUp(m, "* D Beta VI VII VIII AZMZ");
+        check(m);
+        MachineSpec small = Main.readSpec(new Scanner(
+            "ABCDE\n 5 4\n P MAC (ABCDE)\n Q MB (AB)\n S MDE (CE)\n"
+            + " R R (AB) (CD) (E)\n"));
+        for (String setting : new String[] {"AAAA", "EDCB", "BBBB"}) {
+            m = small.newMachine();
+            Main.setUp(m, "* R P Q S P " + setting);
+            check(m);
+        }
+    }
+
+    @Test
+    public void testLargeMachine() {
+        MachineSpec spec = Main.readSpec(new Scanner(
+            (Samples.NAVY_CONFIG + Samples.VARIANT_ROTORS)
+            .replace(" 5 3\n", " 9 8\n")));
+        Machine m = spec.newMachine();
+        Main.setUp(m, "* B I II III IV V VI VII VIII QEVJZZMY");
+        SteppingAnalysis a = new SteppingAnalysis(m);
+        assertTrue(a.states() > SteppingAnalysis.MAX_STATES);
+        try {
+            a.period();
+            fail("analyzed too many states");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        for (long i = 0; i <= 200_000; i += 1) {
+            if (i % 9973 == 0) {
+                assertArrayEquals(positions(m), a.positionsAt(i));
+            }
+            m.advSetting();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package enigma;
+
+import java.io.PrintStream;
+
+import static enigma.EnigmaException.*;
+
+/** Running statistics of a text over an alphabet: the count of each
+ *  character, of each pair and of each triple of adjacent characters
+ *  (for alphabets of at most MAX_BIGRAM_ALPHABET and MAX_TRIGRAM_ALPHABET
+ *  characters), and the index of coincidence.  Counts are kept in flat
+ *  arrays indexed by alphabet position, so adding a character costs a
+ *  lookup and three increments.  They are counted in ints, which keep
+ *  the tables small enough to stay in cache, and moved into longs
+ *  before any could overflow.  Characters added in several calls are
+ *  treated as one text, so n-grams run across them, until the text is
+ *  ended with breakText.  A TextStats is not thread-safe: each thread
+ *  keeps its own, and they are combined with merge.
+ *  @author Ryan Shih
+ */
+class TextStats {
+
+    /** Empty statistics over ALPHABET. */
+    TextStats(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _counts = new int[_size];
+        _bigrams = _size <= MAX_BIGRAM_ALPHABET
+            ? new int[_size * _size] : null;
+        _trigrams = _size <= MAX_TRIGRAM_ALPHABET
+            ? new int[_size * _size * _size] : null;
+        _counts0 = new long[_size];
+        _bigrams0 = _bigrams == null ? null : new long[_bigrams.length];
+        _trigrams0 = _trigrams == null ? null : new long[_trigrams.length];
+        int lo = Character.MAX_VALUE, hi = 0;
+        for (int k = 0; k < _size; k += 1) {
+            int cp = alphabet.toCodePoint(k);
+            if (cp <= Character.MAX_VALUE) {
+                lo = Math.min(lo, cp);
+                hi = Math.max(hi, cp);
+            }
+        }
+        _base = lo;
+        _index = new int[Math.max(hi - lo + 1, 0)];
+        for (int k = _size - 1; k >= 0; k -= 1) {
+            int cp = alphabet.toCodePoint(k);
+            if (cp <= Character.MAX_VALUE) {
+                _index[cp - lo] = k + 1;
+            }
+        }
+        _prev1 = _prev2 = -1;
+    }
+
+    /** Count the LEN characters of BUF starting at OFF, as a
+     *  continuation of the text added so far.  Characters not in my
+     *  alphabet are skipped and end the current text. */
+    void add(char[] buf, int off, int len) {
+        if (len > Integer.MAX_VALUE - _pending) {
+            spill();
+        }
+        _pending += len;
+        _total += len;
+        int[] index = _index, counts = _counts;
+        int[] bigrams = _bigrams, trigrams = _trigrams;
+        int base = _base, n = _size, nn = n * n;
+        int p1 = _prev1, p2 = _prev2;
+        int i = off, end = off + len;
+        while (i < end) {
+            int c = buf[i] - base;
+            int k = (c >= 0 && c < index.length ? index[c] : 0) - 1;
+            i += 1;
+            if (k < 0) {
+                p1 = p2 = -1;
+                continue;
+            }
+            counts[k] += 1;
+            if (p1 >= 0 && bigrams != null) {
+                int pair = p1 * n + k;
+                bigrams[pair] += 1;
+                if (p2 >= 0 && trigrams != null) {
+                    trigrams[p2 * nn + pair] += 1;
+                }
+            }
+            p2 = p1;
+            p1 = k;
+        }
+        _prev1 = p1;
+        _prev2 = p2;
+    }
+
+    /** Move my int counts into the long ones, and clear them. */
+    private void spill() {
+        addAll(_counts0, _counts);
+        if (_bigrams != null) {
+            addAll(_bigrams0, _bigrams);
+        }
+        if (_trigrams != null) {
+            addAll(_trigrams0, _trigrams);
+        }
+        _pending = 0;
+    }
+
+    /** End the current text, so that no n-gram spans the break. */
+    void breakText() {
+        _prev1 = _prev2 = -1;
+    }
+
+    /** Add the counts of OTHER, which must be over the same alphabet, to
+     *  mine. */
+    void merge(TextStats other) {
+        if (other._alphabet != _alphabet && !other._alphabet.toString()
+            .equals(_alphabet.toString())) {
+            throw error("statistics are over different alphabets");
+        }
+        spill();
+        other.spill();
+        addAll(_counts0, other._counts0);
+        if (_bigrams0 != null) {
+            addAll(_bigrams0, other._bigrams0);
+        }
+        if (_trigrams0 != null) {
+            addAll(_trigrams0, other._trigrams0);
+        }
+        _total += other._total;
+    }
+
+    /** Return the number of characters in my alphabet counted. */
+    long count() {
+        long n = 0;
+        for (int k = 0; k < _size; k += 1) {
+            n += count(k);
+        }
+        return n;
+    }
+
+    /** Return the number of times character number K of my alphabet has
+     *  been counted. */
+    long count(int k) {
+        return _counts0[k] + _counts[k];
+    }
+
+    /** Return the number of times the characters numbered J and K have
+     *  been counted next to each other, in that order, or -1 if my
+     *  alphabet is too large for bigrams to be kept. */
+    long bigram(int j, int k) {
+        if (_bigrams == null) {
+            return -1;
+        }
+        return _bigrams0[j * _size + k] + _bigrams[j * _size + k];
+    }
+
+    /** Return the number of times the characters numbered I, J and K
+     *  have been counted in a row, or -1 if my alphabet is too large for
+     *  trigrams to be kept. */
+    long trigram(int i, int j, int k) {
+        if (_trigrams == null) {
+            return -1;
+        }
+        int t = (i * _size + j) * _size + k;
+        return _trigrams0[t] + _trigrams[t];
+    }
+
+    /** Return the index of coincidence of the text counted so far: the
+     *  chance that two of its characters, picked at random, are the
+     *  same.  This is 0 for fewer than two characters. */
+    double ioc() {
+        long n = 0;
+        double same = 0;
+        for (int k = 0; k < _size; k += 1) {
+            long c = count(k);
+            n += c;
+            same += (double) c * (c - 1);
+        }
+        return n < 2 ? 0.0 : same / ((double) n * (n - 1));
+    }
+
+    /** Write a summary of my counts to OUT under the heading LABEL: the
+     *  number of characters, the index of coincidence (and that times
+     *  the alphabet size, which is about 1 for random text), the count
+     *  of each character, and the REPORTED most frequent bigrams and
+     *  trigrams. */
+    void report(PrintStream out, String label) {
+        spill();
+        long n = count();
+        double ioc = ioc();
+        out.printf("%s%n", label);
+        out.printf("  characters %d  ioc %.5f  (x%d = %.3f)%n",
+                   n, ioc, _size, ioc * _size);
+        if (_total != n) {
+            out.printf("  not in alphabet %d%n", _total - n);
+        }
+        StringBuilder line = new StringBuilder("  counts");
+        for (int k = 0; k < _size; k += 1) {
+            if (_counts0[k] > 0) {
+                line.append(' ').append(gram(k, 1)).append(' ')
+                    .append(_counts0[k]);
+            }
+        }
+        out.println(line);
+        if (_bigrams0 != null) {
+            out.printf("  bigrams%s%n", top(_bigrams0, 2));
+        }
+        if (_trigrams0 != null) {
+            out.printf("  trigrams%s%n", top(_trigrams0, 3));
+        }
+    }
+
+    /** Return the REPORTED largest nonzero entries of COUNTS, an array
+     *  of LENGTH-grams, as " GRAM COUNT" items, largest first. */
+    private String top(long[] counts, int length) {
+        int[] best = new int[REPORTED];
+        int found = 0;
+        for (int i = 0; i < counts.length; i += 1) {
+            if (counts[i] == 0 || found == REPORTED
+                && counts[i] <= counts[best[REPORTED - 1]]) {
+                continue;
+            }
+            int j = found < REPORTED ? found++ : found - 1;
+            while (j > 0 && counts[best[j - 1]] < counts[i]) {
+                best[j] = best[j - 1];
+                j -= 1;
+            }
+            best[j] = i;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int j = 0; j < found; j += 1) {
+            result.append(' ').append(gram(best[j], length)).append(' ')
+                .append(counts[best[j]]);
+        }
+        return result.toString();
+    }
+
+    /** Return the LENGTH characters whose positions are the digits of
+     *  INDEX in base _size. */
+    private String gram(int index, int length) {
+        int[] cps = new int[length];
+        for (int i = length - 1; i >= 0; i -= 1) {
+            cps[i] = _alphabet.toCodePoint(index % _size);
+            index /= _size;
+        }
+        return new String(cps, 0, length);
+    }
+
+    /** Add each element of FROM to the same element of TO. */
+    private static void addAll(long[] to, long[] from) {
+        for (int i = 0; i < to.length; i += 1) {
+            to[i] += from[i];
+        }
+    }
+
+    /** Add each element of FROM to the same element of TO, and clear
+     *  FROM. */
+    private static void addAll(long[] to, int[] from) {
+        for (int i = 0; i < to.length; i += 1) {
+            to[i] += from[i];
+            from[i] = 0;
+        }
+    }
+
+    /** Largest alphabet for which bigrams are counted. */
+    static final int MAX_BIGRAM_ALPHABET = 1024;
+
+    /** Largest alphabet for which trigrams are counted. */
+    static final int MAX_TRIGRAM_ALPHABET = 64;
+
+    /** Number of bigrams and trigrams listed by report. */
+    static final int REPORTED = 10;
+
+    /** The alphabet counted, and its size. */
+    private final Alphabet _alphabet;
+    private final int _size;
+    /** Count of each character, pair and triple since the last spill,
+     *  indexed by position in the alphabet (as base-_size digits for
+     *  pairs and triples).  _bigrams and _trigrams are null for large
+     *  alphabets. */
+    private final int[] _counts, _bigrams, _trigrams;
+    /** The counts moved out of _counts, _bigrams and _trigrams. */
+    private final long[] _counts0, _bigrams0, _trigrams0;
+    /** One more than the position of each char C of the alphabet at
+     *  _index[C - _base], or 0. */
+    private final int[] _index;
+    private final int _base;
+    /** Characters added since the last spill. */
+    private int _pending;
+    /** Positions of the last two characters of the current text, most
+     *  recent first, or -1. */
+    private int _prev1, _prev2;
+    /** All characters added, including those not in the alphabet. */
+    private long _total;
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/** Tests of TextStats.
+ *  @author Ryan Shih
+ */
+public class TextStatsTest {
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the index of C in the default alphabet. */
+    private static int k(char c) {
+        return c - 'A';
+    }
+
+    @Test
+    public void testCounts() {
+        TextStats stats = new TextStats(new Alphabet());
+        char[] text = "ABABC".toCharArray();
+        stats.add(text, 0, 2);
+        stats.add(text, 2, 3);
+        assertEquals(5, stats.count());
+        assertEquals(2, stats.count(k('A')));
+        assertEquals(1, stats.count(k('C')));
+        assertEquals(2, stats.bigram(k('A'), k('B')));
+        assertEquals(1, stats.bigram(k('B'), k('A')));
+        assertEquals(1, stats.trigram(k('B'), k('A'), k('B')));
+        assertEquals(1, stats.trigram(k('A'), k('B'), k('C')));
+        stats.breakText();
+        stats.add("CA".toCharArray(), 0, 2);
+        assertEquals(0, stats.bigram(k('C'), k('C')));
+        assertEquals(1, stats.bigram(k('C'), k('A')));
+        stats.add("A?A".toCharArray(), 0, 3);
+        assertEquals(1, stats.bigram(k('A'), k('A')));
+        assertEquals(9, stats.count());
+    }
+
+    @Test
+    public void testIoc() {
+        TextStats stats = new TextStats(new Alphabet());
+        assertEquals(0.0, stats.ioc(), 0.0);
+        stats.add("AAAA".toCharArray(), 0, 4);
+        assertEquals(1.0, stats.ioc(), 1e-12);
+        stats.add("BB".toCharArray(), 0, 2);
+        assertEquals((4.0 * 3 + 2 * 1) / (6 * 5), stats.ioc(), 1e-12);
+    }
+
+    @Test
+    public void testMerge() {
+        Alphabet alpha = new Alphabet();
+        char[] text = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG".toCharArray();
+        TextStats whole = new TextStats(alpha);
+        whole.add(text, 0, text.length);
+        TextStats first = new TextStats(alpha);
+        TextStats second = new TextStats(alpha);
+        first.add(text, 0, 12);
+        second.add(text, 12, text.length - 12);
+        first.merge(second);
+        assertEquals(whole.count(), first.count());
+        assertEquals(whole.ioc(), first.ioc(), 1e-12);
+        assertEquals(whole.bigram(k('T'), k('H')),
+                     first.bigram(k('T'), k('H')));
+        assertEquals(whole.trigram(k('T'), k('H'), k('E')),
+                     first.trigram(k('T'), k('H'), k('E')));
+        try {
+            first.merge(new TextStats(new Alphabet("ABC")));
+            fail("merged statistics over different alphabets");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testLargeAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        for (char c = 0x100; c < 0x100 + TextStats.MAX_TRIGRAM_ALPHABET + 1;
+             c += 1) {
+            chars.append(c);
+        }
+        TextStats stats = new TextStats(new Alphabet(chars.toString()));
+        char[] text = chars.toString().toCharArray();
+        stats.add(text, 0, text.length);
+        assertEquals(1, stats.bigram(0, 1));
+        assertEquals(-1, stats.trigram(0, 1, 2));
+    }
+
+    @Test
+    public void testReport() {
+        TextStats stats = new TextStats(new Alphabet());
+        stats.add("HELLOHELLO".toCharArray(), 0, 10);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.report(new PrintStream(bytes, true), "section");
+        String[] lines = bytes.toString().split("\\R");
+        assertEquals("section", lines[0]);
+        assertTrue(lines[1].startsWith("  characters 10 "));
+        assertEquals("  counts E 2 H 2 L 4 O 2", lines[2]);
+        assertEquals("  bigrams EL 2 HE 2 LL 2 LO 2 OH 1", lines[3]);
+        assertTrue(lines[4].startsWith("  trigrams "));
+    }
+}
@@ -0,0 +1,259 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Decrypts one message under many trial keys.  All keys share the
+ *  rotor order of the machine the decryptor is built from, and differ
+ *  in their starting positions and plugboards.  As in Engine, the
+ *  moving rotors go through their tables by setting (see
+ *  Permutation.settingTable), and the non-moving rotors and reflector
+ *  are folded into one table, which is built again only when a key's
+ *  non-moving rotors are not at the positions of the key before it.
+ *  Keys are converted one at a time.  Nothing is done across keys in
+ *  parallel: a loop over several keys at once, in arrays indexed by
+ *  key, measured slower than this one, since successive characters of
+ *  one key already give the processor independent lookups to overlap.
+ *  Machines whose moving rotors are not all to the right of the others,
+ *  or whose alphabets are too large for the tables, go through a
+ *  slower loop that passes through each rotor in turn.  Results are
+ *  exactly those of Machine.convert.
+ *  @author Ryan Shih
+ */
+class TrialDecryptor {
+
+    /** A decryptor using the rotors currently inserted in M.  M's rotor
+     *  positions and plugboard are not used, and M is not changed. */
+    TrialDecryptor(Machine m) {
+        _n = m.alphabet().size();
+        _slots = m.numRotors();
+        _forward = new int[_slots][];
+        _inverse = new int[_slots][];
+        _moving = new boolean[_slots];
+        _notch = new boolean[_slots][_n];
+        for (int k = 0; k < _slots; k += 1) {
+            Rotor r = m.rotor(k);
+            if (r == null) {
+                throw error("rotors not inserted");
+            }
+            _forward[k] = r.permutation().forwardTable();
+            _inverse[k] = r.permutation().inverseTable();
+            _moving[k] = r instanceof MovingRotor;
+            for (int p = 0; p < _n; p += 1) {
+                _notch[k][p] = r.notchAt(p);
+            }
+        }
+        _first = firstMoving(m);
+        if (_first > 0) {
+            int k = _slots - _first;
+            _forwardBySetting = new int[k][];
+            _inverseBySetting = new int[k][];
+            for (int j = 0; j < k; j += 1) {
+                Permutation p = m.rotor(_first + j).permutation();
+                _forwardBySetting[j] = p.settingTable(false);
+                _inverseBySetting[j] = p.settingTable(true);
+            }
+        } else {
+            _forwardBySetting = _inverseBySetting = null;
+        }
+    }
+
+    /** Return the number of rotor slots of my keys. */
+    int numRotors() {
+        return _slots;
+    }
+
+    /** Decrypt CIPHER (alphabet indices) under each of N keys, where N
+     *  is the length of POSITIONS and PLUGBOARDS.  POSITIONS[K][S-1] is
+     *  the starting position of the rotor in slot S for key K, and
+     *  PLUGBOARDS[K] is key K's plugboard.  Key K's result goes into
+     *  OUT[K], which must be at least as long as CIPHER. */
+    void decrypt(int[] cipher, int[][] positions, Permutation[] plugboards,
+                 int[][] out) {
+        int keys = positions.length;
+        if (plugboards.length != keys || out.length < keys) {
+            throw error("mismatched key arrays");
+        }
+        if (_first < 0) {
+            for (int k = 0; k < keys; k += 1) {
+                decryptOne(cipher, positions[k], plugboards[k], out[k]);
+            }
+            return;
+        }
+        int[] fold = new int[_n], pos = new int[_slots - _first];
+        int[] folded = null, plug = null;
+        for (int k = 0; k < keys; k += 1) {
+            if (folded == null || !sameFixed(folded, positions[k])) {
+                folded = positions[k];
+                fold(folded, fold);
+            }
+            if (k == 0 || plugboards[k] != plugboards[k - 1]) {
+                plug = plugboards[k].forwardTable();
+            }
+            decryptFast(cipher, positions[k], plug, fold, pos, out[k]);
+        }
+    }
+
+    /** Return the first slot of M's moving rotors if they are all to the
+     *  right of its non-moving rotors, there is at least one, and they
+     *  have tables by setting; otherwise -1. */
+    private int firstMoving(Machine m) {
+        int first = _slots;
+        while (first > 0 && _moving[first - 1]) {
+            first -= 1;
+        }
+        if (first == 0 || first == _slots) {
+            return -1;
+        }
+        for (int s = 0; s < first; s += 1) {
+            if (_moving[s]) {
+                return -1;
+            }
+        }
+        for (int s = first; s < _slots; s += 1) {
+            Permutation p = m.rotor(s).permutation();
+            if (p.settingTable(false) == null
+                || p.settingTable(true) == null) {
+                return -1;
+            }
+        }
+        return first;
+    }
+
+    /** Return true iff the positions A and B, as in decrypt, agree for
+     *  every non-moving rotor. */
+    private boolean sameFixed(int[] a, int[] b) {
+        for (int s = 1; s < _first; s += 1) {
+            if (a[s - 1] != b[s - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Fill FOLD with the image of each index passed from my first
+     *  moving rotor through the non-moving rotors at POSITIONS, as in
+     *  decrypt, to the reflector and back. */
+    private void fold(int[] positions, int[] fold) {
+        int n = _n;
+        for (int c = 0; c < n; c += 1) {
+            int x = c;
+            for (int s = _first - 1; s >= 0; s -= 1) {
+                x = through(_forward[s], x, s == 0 ? 0 : positions[s - 1], n);
+            }
+            for (int s = 1; s < _first; s += 1) {
+                x = through(_inverse[s], x, positions[s - 1], n);
+            }
+            fold[c] = x;
+        }
+    }
+
+    /** Decrypt CIPHER under the single key with starting positions
+     *  POSITIONS and plugboard table PLUG into OUT, where FOLD is the
+     *  fold of its non-moving rotors and POS has room for the positions
+     *  of my moving rotors. */
+    private void decryptFast(int[] cipher, int[] positions, int[] plug,
+                             int[] fold, int[] pos, int[] out) {
+        final int n = _n, k = pos.length, last = k - 1;
+        final int[][] forward = _forwardBySetting;
+        final int[][] inverse = _inverseBySetting;
+        final boolean[][] notch = _notch;
+        for (int j = 0; j < k; j += 1) {
+            pos[j] = positions[_first + j - 1];
+        }
+        for (int i = 0; i < cipher.length; i += 1) {
+            int from = last;
+            for (int j = 0; j < last; j += 1) {
+                if (notch[_first + j + 1][pos[j + 1]]) {
+                    from = j;
+                    break;
+                }
+            }
+            for (int j = from; j < k; j += 1) {
+                int p = pos[j] + 1;
+                pos[j] = p == n ? 0 : p;
+            }
+            int c = plug[cipher[i]];
+            for (int j = last; j >= 0; j -= 1) {
+                c = forward[j][pos[j] * n + c];
+            }
+            c = fold[c];
+            for (int j = 0; j < k; j += 1) {
+                c = inverse[j][pos[j] * n + c];
+            }
+            out[i] = plug[c];
+        }
+    }
+
+    /** Decrypt CIPHER under the single key with starting positions
+     *  POSITIONS and plugboard PLUGBOARD into OUT, passing through each
+     *  rotor in turn. */
+    private void decryptOne(int[] cipher, int[] positions,
+                            Permutation plugboard, int[] out) {
+        int n = _n, slots = _slots;
+        int[] pos = new int[slots];
+        for (int s = 1; s < slots; s += 1) {
+            pos[s] = positions[s - 1];
+        }
+        int[] plug = plugboard.forwardTable();
+        for (int j = 0; j < cipher.length; j += 1) {
+            step(pos);
+            int c = plug[cipher[j]];
+            for (int s = slots - 1; s >= 0; s -= 1) {
+                c = through(_forward[s], c, pos[s], n);
+            }
+            for (int s = 1; s < slots; s += 1) {
+                c = through(_inverse[s], c, pos[s], n);
+            }
+            out[j] = plug[c];
+        }
+    }
+
+    /** Return the result of passing C through TABLE when its rotor is
+     *  at position P, for an alphabet of size N. */
+    private static int through(int[] table, int c, int p, int n) {
+        int x = c + p;
+        if (x >= n) {
+            x -= n;
+        }
+        int y = table[x] - p;
+        if (y < 0) {
+            y += n;
+        }
+        return y;
+    }
+
+    /** Advance the rotor positions POS as Machine.advSetting does: the
+     *  leftmost moving rotor whose right neighbor is at a notch advances
+     *  along with every rotor to its right; failing that, only the
+     *  rightmost rotor advances. */
+    private void step(int[] pos) {
+        int last = _slots - 1;
+        int from = _moving[last] ? last : _slots;
+        for (int i = 0; i < last; i += 1) {
+            if (_moving[i] && _notch[i + 1][pos[i + 1]]) {
+                from = i;
+                break;
+            }
+        }
+        for (int i = from; i < _slots; i += 1) {
+            int p = pos[i] + 1;
+            pos[i] = p == _n ? 0 : p;
+        }
+    }
+
+    /** Alphabet size and number of rotor slots. */
+    private final int _n, _slots;
+    /** The first slot of my moving rotors, or -1 if I must pass through
+     *  each rotor in turn (see firstMoving). */
+    private final int _first;
+    /** Forward and inverse wiring tables by slot. */
+    private final int[][] _forward, _inverse;
+    /** Forward and inverse tables by setting of each moving rotor from
+     *  slot _first, or null if _first is -1. */
+    private final int[][] _forwardBySetting, _inverseBySetting;
+    /** Whether the rotor in each slot moves. */
+    private final boolean[] _moving;
+    /** _notch[S][P] is true iff the rotor in slot S is at a notch in
+     *  position P. */
+    private final boolean[][] _notch;
+}
@@ -0,0 +1,51 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+/** The suite of all JUnit tests for the TrialDecryptor class.
+ *  @author Ryan Shih
+ */
+public class TrialDecryptorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testMatchesMachine() {
+        MachineSpec spec = Samples.navySpec();
+        Machine m = spec.newMachine();
+        m.insertRotors(new String[]{"B", "Beta", "III", "IV", "I"});
+        Random rand = new Random(7);
+        int keys = 27, length = 700;
+        int[] cipher = new int[length];
+        for (int j = 0; j < length; j += 1) {
+            cipher[j] = rand.nextInt(26);
+        }
+        int[][] positions = new int[keys][4];
+        Permutation[] plugs = new Permutation[keys];
+        for (int k = 0; k < keys; k += 1) {
+            for (int s = 0; s < 4; s += 1) {
+                positions[k][s] = rand.nextInt(26);
+            }
+            plugs[k] = new Permutation(k % 2 == 0 ? "" : "(AZ)(QU)",
+                                       spec.alphabet());
+        }
+        int[][] out = new int[keys][length];
+        new TrialDecryptor(m).decrypt(cipher, positions, plugs, out);
+        for (int k = 0; k < keys; k += 1) {
+            for (int s = 1; s < 5; s += 1) {
+                m.setRotor(s, positions[k][s - 1]);
+            }
+            m.setPlugboard(plugs[k]);
+            for (int j = 0; j < length; j += 1) {
+                assertEquals(m.convert(cipher[j]), out[k][j]);
+            }
+        }
+    }
+}